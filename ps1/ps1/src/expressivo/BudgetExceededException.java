@@ -0,0 +1,23 @@
+package expressivo;
+
+/**
+ * Thrown when an operation on expressions exceeds a resource limit of an ExpressionBudget.
+ */
+public class BudgetExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1;
+
+    /** The resource that ran out: "input length", "depth", "nodes", "output size" or "time". */
+    public final String resource;
+    /** The limit on the resource that was exceeded. */
+    public final long limit;
+
+    /**
+     * @param resource the resource that ran out
+     * @param limit the limit on the resource that was exceeded
+     */
+    public BudgetExceededException(String resource, long limit) {
+        super(resource + " exceeds the budget of " + limit);
+        this.resource = resource;
+        this.limit = limit;
+    }
+}
@@ -1,6 +1,14 @@
 package expressivo;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * String-based commands provided by the expression system.
@@ -18,12 +26,13 @@ public class Commands {
      * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
      * @return expression's derivative with respect to variable.  Must be a valid expression equal
      *         to the derivative, but doesn't need to be in simplest or canonical form.
+     *         If a ResultCache is installed, the derivative is read from it or stored in it.
      * @throws IllegalArgumentException if the expression or variable is invalid
      */
     public static String differentiate(String expression, String variable) {
         Expression equation = Expression.parse(expression);
         Variable var = Expression.variable(variable);
-        return equation.differentiate(var).toString();
+        return cached(Metrics.DIFFERENTIATE, cache -> cache.differentiate(equation, var), () -> equation.differentiate(var));
     }
     
     /**
@@ -36,11 +45,103 @@ public class Commands {
      *         the expression and the environment with its value, environment.get(v).  If there are no
      *         variables left in this expression after substitution, it must be evaluated to a single number.
      *         Additional simplifications to the expression may be done at the implementor's discretion.
+     *         If a ResultCache is installed, the result is read from it or stored in it.
      * @throws IllegalArgumentException if the expression is invalid
      */
     public static String simplify(String expression, Map<String,Double> environment) {
         Expression equation = Expression.parse(expression);
-        return equation.simplify(environment).toString();
+        return cached(Metrics.SIMPLIFY, cache -> cache.simplify(equation, environment), () -> equation.simplify(environment));
+    }
+    
+    /**
+     * Differentiate an expression with respect to each of several variables, parsing it once.
+     * The derivatives are computed on the common fork/join pool.
+     * @param expression the expression to differentiate
+     * @param variables the variables to differentiate by, each a case-sensitive nonempty string of letters.
+     * @return the derivatives of expression with respect to the variables, in the order of variables,
+     *         each as returned by differentiate(expression, variable)
+     * @throws IllegalArgumentException if the expression or a variable is invalid
+     */
+    public static List<String> gradient(String expression, List<String> variables) {
+        return gradient(expression, variables, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Differentiate an expression with respect to each of several variables, parsing it once.
+     * @param expression the expression to differentiate
+     * @param variables the variables to differentiate by, each a case-sensitive nonempty string of letters.
+     * @param executor executor the derivatives are computed on
+     * @return the derivatives of expression with respect to the variables, in the order of variables,
+     *         each as returned by differentiate(expression, variable)
+     * @throws IllegalArgumentException if the expression or a variable is invalid
+     */
+    public static List<String> gradient(String expression, List<String> variables, Executor executor) {
+        Expression equation = Expression.parse(expression);
+        List<Variable> vars = new ArrayList<>();
+        for (String variable : variables) {
+            vars.add(Expression.variable(variable));
+        }
+        return fanOut(vars, var -> cached(Metrics.DIFFERENTIATE,
+                cache -> cache.differentiate(equation, var), () -> equation.differentiate(var)), executor);
+    }
+
+    /**
+     * Simplify an expression in each of several environments, parsing it once.
+     * The simplifications are computed on the common fork/join pool.
+     * @param expression the expression to simplify
+     * @param environments environments as in simplify(expression, environment)
+     * @return the simplified expressions, in the order of environments,
+     *         each as returned by simplify(expression, environment)
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static List<String> simplifyAll(String expression, List<Map<String,Double>> environments) {
+        return simplifyAll(expression, environments, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Simplify an expression in each of several environments, parsing it once.
+     * @param expression the expression to simplify
+     * @param environments environments as in simplify(expression, environment)
+     * @param executor executor the simplifications are computed on
+     * @return the simplified expressions, in the order of environments,
+     *         each as returned by simplify(expression, environment)
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static List<String> simplifyAll(String expression, List<Map<String,Double>> environments, Executor executor) {
+        Expression equation = Expression.parse(expression);
+        return fanOut(environments, environment -> cached(Metrics.SIMPLIFY,
+                cache -> cache.simplify(equation, environment), () -> equation.simplify(environment)), executor);
+    }
+
+    // Computes a result with the installed ResultCache, or without one if none is installed,
+    // records it with timer and returns it as a string.
+    private static String cached(Metrics.Timer timer, Function<ResultCache, Expression> withCache,
+            Supplier<Expression> withoutCache) {
+        final long start = timer.start();
+        ResultCache cache = ResultCache.installed();
+        Expression result = cache == null ? withoutCache.get() : withCache.apply(cache);
+        timer.stop(start, result);
+        return result.toString();
+    }
+
+    // Applies command to every input on executor, returns the results in the order of inputs.
+    private static <T> List<String> fanOut(List<T> inputs, Function<T, String> command, Executor executor) {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (T input : inputs) {
+            futures.add(CompletableFuture.supplyAsync(() -> command.apply(input), executor));
+        }
+        List<String> results = new ArrayList<>();
+        try {
+            for (CompletableFuture<String> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw e;
+        }
+        return results;
     }
     
     /* Copyright (c) 2015-2017 MIT 6.005 course staff, all rights reserved.
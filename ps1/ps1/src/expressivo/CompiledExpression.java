@@ -0,0 +1,537 @@
+package expressivo;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An immutable expression compiled to a straight-line program, for evaluating it at many points.
+ *
+ * <p>Every instruction loads a constant or variable, or adds or multiplies the results of two
+ * earlier instructions; the result of the last instruction is the value of the expression.
+ * Subexpressions shared by identity are compiled once. The program can be evaluated over
+ * doubles or over the integers modulo a prime, where constants are taken as the exact decimal
+ * fractions they print as in full, so no information is lost modulo the prime. Higher
+ * derivatives at a point are computed by evaluating the program over truncated Taylor series.
+ */
+public class CompiledExpression {
+    private static final byte CONSTANT = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte PLUS = 2;
+    private static final byte TIMES = 3;
+
+    // rep
+    private final List<String> variables;
+    private final byte[] operations;
+    private final int[] left;
+    private final int[] right;
+    private final double[] constants;
+
+    // Rep invariant:
+    //  operations, left, right have the same length > 0
+    //  if operations[i] is CONSTANT, left[i] is an index into constants
+    //  if operations[i] is VARIABLE, left[i] is an index into variables
+    //  if operations[i] is PLUS or TIMES, 0 <= left[i], right[i] < i
+    //  variables has no duplicates
+    // Abstraction function:
+    //  Represents the expression computed by the program operations, left, right, with
+    //  constants loaded from constants and the values of variables given in the order of variables.
+    // Safety from rep exposure:
+    //  All fields are private and final, variables is unmodifiable and the arrays are never returned.
+
+    private CompiledExpression(List<String> variables, byte[] operations, int[] left, int[] right, double[] constants) {
+        this.variables = variables;
+        this.operations = operations;
+        this.left = left;
+        this.right = right;
+        this.constants = constants;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert operations.length > 0;
+        assert operations.length == left.length && left.length == right.length;
+        for (int i = 0; i < operations.length; i++) {
+            if (operations[i] == PLUS || operations[i] == TIMES) {
+                assert left[i] < i && right[i] < i;
+            }
+        }
+    }
+
+    /**
+     * Compiles an expression over its own variables, in alphabetical order.
+     * @param expression expression to compile
+     * @return compiled expression
+     */
+    public static CompiledExpression compile(Expression expression) {
+        TreeSet<String> names = new TreeSet<>();
+        collectVariables(expression, names);
+        return compile(expression, new ArrayList<>(names));
+    }
+
+    /**
+     * Compiles an expression over the given variables.
+     * @param expression expression to compile
+     * @param variables variables in the order their values are passed to evaluate,
+     *        must contain every variable of expression and no duplicates
+     * @return compiled expression
+     * @throws IllegalArgumentException if expression has a variable not in variables
+     */
+    public static CompiledExpression compile(Expression expression, List<String> variables) {
+        Builder builder = new Builder(variables);
+        builder.emit(expression);
+        return new CompiledExpression(Collections.unmodifiableList(new ArrayList<>(variables)),
+                Arrays.copyOf(builder.operations, builder.size), Arrays.copyOf(builder.left, builder.size),
+                Arrays.copyOf(builder.right, builder.size), builder.constants.stream().mapToDouble(c -> c).toArray());
+    }
+
+    // Collects the variables of expression without recursion, visiting shared subexpressions once.
+    private static void collectVariables(Expression expression, TreeSet<String> names) {
+        Map<Expression, Boolean> visited = new IdentityHashMap<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            Expression node = Derivative.expanded(pending.pop());
+            if (visited.put(node, true) != null) {
+                continue;
+            }
+            if (node instanceof Variable) {
+                names.add(((Variable)node).name);
+            }
+            else if (node instanceof Plus) {
+                pending.push(((Plus)node).rightTerm);
+                pending.push(((Plus)node).leftTerm);
+            }
+            else if (node instanceof Multiplication) {
+                pending.push(((Multiplication)node).rightTerm);
+                pending.push(((Multiplication)node).leftTerm);
+            }
+            else if (node instanceof Power) {
+                pending.push(((Power)node).base);
+            }
+        }
+    }
+
+    // Appends instructions for expressions to growable arrays.
+    private static class Builder {
+        private final List<String> variables;
+        private final Map<String, Integer> variableIndices = new HashMap<>();
+        private final Map<Expression, Integer> emitted = new IdentityHashMap<>();
+        private final List<Double> constants = new ArrayList<>();
+        private byte[] operations = new byte[16];
+        private int[] left = new int[16];
+        private int[] right = new int[16];
+        private int size = 0;
+
+        private Builder(List<String> variables) {
+            this.variables = variables;
+            for (int v = 0; v < variables.size(); v++) {
+                variableIndices.put(variables.get(v), v);
+            }
+        }
+
+        // Emits the instructions of expression without recursion, operands before the operations
+        // that use them, returns the instruction with its value.
+        private int emit(Expression root) {
+            Expression expanded = Derivative.expanded(root);
+            Deque<Expression> pending = new ArrayDeque<>();
+            pending.push(expanded);
+            while (!pending.isEmpty()) {
+                Expression expression = pending.peek();
+                if (emitted.containsKey(expression)) {
+                    pending.pop();
+                    continue;
+                }
+                Expression leftTerm = null;
+                Expression rightTerm = null;
+                if (expression instanceof Plus) {
+                    leftTerm = Derivative.expanded(((Plus)expression).leftTerm);
+                    rightTerm = Derivative.expanded(((Plus)expression).rightTerm);
+                }
+                else if (expression instanceof Multiplication) {
+                    leftTerm = Derivative.expanded(((Multiplication)expression).leftTerm);
+                    rightTerm = Derivative.expanded(((Multiplication)expression).rightTerm);
+                }
+                else if (expression instanceof Power) {
+                    leftTerm = Derivative.expanded(((Power)expression).base);
+                    rightTerm = leftTerm;
+                }
+                if (leftTerm != null && !emitted.containsKey(leftTerm)) {
+                    pending.push(leftTerm);
+                }
+                else if (rightTerm != null && !emitted.containsKey(rightTerm)) {
+                    pending.push(rightTerm);
+                }
+                else {
+                    emitted.put(expression, emitNode(expression, leftTerm, rightTerm));
+                    pending.pop();
+                }
+            }
+            return emitted.get(expanded);
+        }
+
+        // Emits the instructions of one expanded node whose operands, also expanded, were emitted,
+        // returns the instruction with its value.
+        private int emitNode(Expression expression, Expression leftTerm, Expression rightTerm) {
+            int instruction;
+            if (expression instanceof Constant) {
+                constants.add(((Constant)expression).constant);
+                instruction = append(CONSTANT, constants.size() - 1, 0);
+            }
+            else if (expression instanceof Variable) {
+                Integer index = variableIndices.get(((Variable)expression).name);
+                if (index == null) {
+                    throw new IllegalArgumentException("variable " + expression + " not in " + variables);
+                }
+                instruction = append(VARIABLE, index, 0);
+            }
+            else if (expression instanceof Plus) {
+                instruction = append(PLUS, emitted.get(leftTerm), emitted.get(rightTerm));
+            }
+            else if (expression instanceof Multiplication) {
+                instruction = append(TIMES, emitted.get(leftTerm), emitted.get(rightTerm));
+            }
+            else if (expression instanceof Power) {
+                // repeated squaring, as in Power.power
+                int square = emitted.get(leftTerm);
+                instruction = -1;
+                for (int n = ((Power)expression).exponent; n > 0; n >>= 1) {
+                    if ((n & 1) != 0) {
+                        instruction = instruction < 0 ? square : append(TIMES, instruction, square);
+                    }
+                    if (n > 1) {
+                        square = append(TIMES, square, square);
+                    }
+                }
+            }
+            else {
+                throw new IllegalArgumentException("unsupported expression " + expression.getClass().getName());
+            }
+            return instruction;
+        }
+
+        private int append(byte operation, int leftValue, int rightValue) {
+            if (size == operations.length) {
+                operations = Arrays.copyOf(operations, size * 2);
+                left = Arrays.copyOf(left, size * 2);
+                right = Arrays.copyOf(right, size * 2);
+            }
+            operations[size] = operation;
+            left[size] = leftValue;
+            right[size] = rightValue;
+            return size++;
+        }
+    }
+
+    /**
+     * @return the variables, in the order their values are passed to evaluate
+     */
+    public List<String> variables() {
+        return variables;
+    }
+
+    /**
+     * @return number of instructions of the program
+     */
+    public int size() {
+        return operations.length;
+    }
+
+    /**
+     * @param values values of the variables, in the order of variables()
+     * @return value of the expression
+     * @throws IllegalArgumentException if the number of values is not the number of variables
+     */
+    public double evaluate(double... values) {
+        return evaluate(values, new double[operations.length]);
+    }
+
+    /**
+     * Evaluates the expression without allocating, for evaluating it in a loop.
+     * @param values values of the variables, in the order of variables()
+     * @param registers array of at least size() elements to hold intermediate results,
+     *        overwritten
+     * @return value of the expression
+     * @throws IllegalArgumentException if the number of values is not the number of variables,
+     *         or registers is too short
+     */
+    public double evaluate(double[] values, double[] registers) {
+        if (values.length != variables.size()) {
+            throw new IllegalArgumentException("expected " + variables.size() + " values, got " + values.length);
+        }
+        if (registers.length < operations.length) {
+            throw new IllegalArgumentException("expected " + operations.length + " registers, got " + registers.length);
+        }
+        for (int i = 0; i < operations.length; i++) {
+            switch (operations[i]) {
+            case CONSTANT:
+                registers[i] = constants[left[i]];
+                break;
+            case VARIABLE:
+                registers[i] = values[left[i]];
+                break;
+            case PLUS:
+                registers[i] = registers[left[i]] + registers[right[i]];
+                break;
+            default:
+                registers[i] = registers[left[i]] * registers[right[i]];
+            }
+        }
+        return registers[operations.length - 1];
+    }
+
+    /**
+     * Evaluates the expression and its partial derivatives without allocating, by propagating
+     * the derivative of the result back through the program: a sum passes it to both operands,
+     * a product to each operand times the other. This takes O(size()) operations for all
+     * partial derivatives together.
+     * @param values values of the variables, in the order of variables()
+     * @param gradient array of one element per variable, overwritten with the partial derivatives
+     *        in the order of variables()
+     * @param registers array of at least 2 * size() elements to hold intermediate results,
+     *        overwritten
+     * @return value of the expression
+     * @throws IllegalArgumentException if the number of values or gradient elements is not the
+     *         number of variables, or registers is too short
+     */
+    public double gradient(double[] values, double[] gradient, double[] registers) {
+        if (gradient.length != variables.size()) {
+            throw new IllegalArgumentException("expected " + variables.size() + " gradient elements, got " + gradient.length);
+        }
+        if (registers.length < 2 * operations.length) {
+            throw new IllegalArgumentException("expected " + 2 * operations.length + " registers, got " + registers.length);
+        }
+        final double value = evaluate(values, registers);
+        // the derivative of the result by instruction i is registers[n + i]
+        final int n = operations.length;
+        Arrays.fill(registers, n, 2 * n - 1, 0);
+        registers[2 * n - 1] = 1;
+        Arrays.fill(gradient, 0);
+        for (int i = n - 1; i >= 0; i--) {
+            final double adjoint = registers[n + i];
+            switch (operations[i]) {
+            case CONSTANT:
+                break;
+            case VARIABLE:
+                gradient[left[i]] += adjoint;
+                break;
+            case PLUS:
+                registers[n + left[i]] += adjoint;
+                registers[n + right[i]] += adjoint;
+                break;
+            default:
+                registers[n + left[i]] += adjoint * registers[right[i]];
+                registers[n + right[i]] += adjoint * registers[left[i]];
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @param environment maps every variable to its value
+     * @return value of the expression
+     * @throws IllegalArgumentException if a variable has no value in environment
+     */
+    public double evaluate(Map<String, Double> environment) {
+        double[] values = new double[variables.size()];
+        for (int v = 0; v < values.length; v++) {
+            Double value = environment.get(variables.get(v));
+            if (value == null) {
+                throw new IllegalArgumentException("no value for variable " + variables.get(v));
+            }
+            values[v] = value;
+        }
+        return evaluate(values);
+    }
+
+    /**
+     * Computes the derivatives of the expression with respect to one variable at a point.
+     * @param values values of the variables, in the order of variables()
+     * @param variable index in variables() of the variable to differentiate by
+     * @param order highest order of derivative, >= 0
+     * @return array of order + 1 elements whose element j is the j-th derivative at values
+     * @throws IllegalArgumentException if the number of values is not the number of variables,
+     *         or variable or order is out of range
+     */
+    public double[] derivatives(double[] values, int variable, int order) {
+        if (variable < 0 || variable >= variables.size()) {
+            throw new IllegalArgumentException("no variable with index " + variable);
+        }
+        double[] direction = new double[variables.size()];
+        direction[variable] = 1;
+        double[] derivatives = taylor(values, direction, order, new double[operations.length * (order + 1)]);
+        double factorial = 1;
+        for (int j = 1; j <= order; j++) {
+            factorial *= j;
+            derivatives[j] *= factorial;
+        }
+        return derivatives;
+    }
+
+    /**
+     * Computes the Taylor coefficients of the expression along a line through a point, that is
+     * of f(t) = expression(values + t * direction) at t = 0, by propagating truncated Taylor
+     * series through the program: a sum adds the coefficients of its operands, a product takes
+     * their truncated Cauchy product. This takes O(order^2 * size()) operations, instead of
+     * differentiating the expression order times, which makes it grow with every order.
+     * @param values values of the variables, in the order of variables()
+     * @param direction direction of the line, in the order of variables()
+     * @param order number of coefficients after the value, >= 0
+     * @param workspace array of at least size() * (order + 1) elements to hold the series of
+     *        intermediate results, overwritten
+     * @return array of order + 1 elements whose element j is f's j-th derivative at 0 divided by j!
+     * @throws IllegalArgumentException if the number of values or of direction elements is not
+     *         the number of variables, order is negative or workspace is too short
+     */
+    public double[] taylor(double[] values, double[] direction, int order, double[] workspace) {
+        if (values.length != variables.size() || direction.length != variables.size()) {
+            throw new IllegalArgumentException("expected " + variables.size() + " values and directions, got "
+                    + values.length + " and " + direction.length);
+        }
+        if (order < 0) {
+            throw new IllegalArgumentException("order must be nonnegative, was " + order);
+        }
+        final int terms = order + 1;
+        if (workspace.length < operations.length * terms) {
+            throw new IllegalArgumentException("expected " + operations.length * terms + " workspace elements, got " + workspace.length);
+        }
+        // the series of instruction i is workspace[i * terms] to workspace[i * terms + order]
+        for (int i = 0; i < operations.length; i++) {
+            final int result = i * terms;
+            final int a = left[i] * terms;
+            final int b = right[i] * terms;
+            switch (operations[i]) {
+            case CONSTANT:
+                Arrays.fill(workspace, result, result + terms, 0);
+                workspace[result] = constants[left[i]];
+                break;
+            case VARIABLE:
+                Arrays.fill(workspace, result, result + terms, 0);
+                workspace[result] = values[left[i]];
+                if (order > 0) {
+                    workspace[result + 1] = direction[left[i]];
+                }
+                break;
+            case PLUS:
+                for (int j = 0; j < terms; j++) {
+                    workspace[result + j] = workspace[a + j] + workspace[b + j];
+                }
+                break;
+            default:
+                for (int j = 0; j < terms; j++) {
+                    double sum = 0;
+                    for (int m = 0; m <= j; m++) {
+                        sum += workspace[a + m] * workspace[b + j - m];
+                    }
+                    workspace[result + j] = sum;
+                }
+            }
+        }
+        return Arrays.copyOfRange(workspace, (operations.length - 1) * terms, operations.length * terms);
+    }
+
+    /**
+     * Evaluates the expression over the integers modulo a prime, with every constant
+     * taken as an exact decimal fraction.
+     * @param values values of the variables modulo modulus, in the order of variables()
+     * @param modulus prime modulus, > 10 and < 2^31
+     * @return value of the expression modulo modulus
+     */
+    long evaluateModulo(long[] values, long modulus) {
+        assert values.length == variables.size();
+        long[] constantValues = new long[constants.length];
+        for (int c = 0; c < constants.length; c++) {
+            constantValues[c] = modulo(constants[c], modulus);
+        }
+        long[] results = new long[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            switch (operations[i]) {
+            case CONSTANT:
+                results[i] = constantValues[left[i]];
+                break;
+            case VARIABLE:
+                results[i] = values[left[i]];
+                break;
+            case PLUS:
+                results[i] = (results[left[i]] + results[right[i]]) % modulus;
+                break;
+            default:
+                results[i] = results[left[i]] * results[right[i]] % modulus;
+            }
+        }
+        return results[results.length - 1];
+    }
+
+    /**
+     * Evaluates the expression with every constant and variable replaced by 1. Since all constants
+     * are non-negative, this bounds the number of terms of the expansion, counted with multiplicity.
+     * @return upper bound on the number of terms of the expanded expression
+     */
+    double termBound() {
+        double[] results = new double[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            switch (operations[i]) {
+            case CONSTANT:
+            case VARIABLE:
+                results[i] = 1;
+                break;
+            case PLUS:
+                results[i] = results[left[i]] + results[right[i]];
+                break;
+            default:
+                results[i] = results[left[i]] * results[right[i]];
+            }
+        }
+        return results[results.length - 1];
+    }
+
+    /**
+     * @param constant non-negative constant
+     * @param modulus prime modulus, > 10
+     * @return constant as the shortest decimal fraction that identifies it, as in
+     *         Double.toString, modulo modulus; distinct constants have distinct fractions,
+     *         so nothing is rounded away
+     */
+    static long modulo(double constant, long modulus) {
+        BigDecimal exact = BigDecimal.valueOf(constant);
+        BigInteger p = BigInteger.valueOf(modulus);
+        BigInteger numerator = exact.unscaledValue();
+        if (exact.scale() <= 0) {
+            return numerator.multiply(BigInteger.TEN.pow(-exact.scale())).mod(p).longValue();
+        }
+        BigInteger denominator = BigInteger.TEN.pow(exact.scale()).modInverse(p);
+        return numerator.mod(p).multiply(denominator).mod(p).longValue();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < operations.length; i++) {
+            builder.append('%').append(i).append(" = ");
+            switch (operations[i]) {
+            case CONSTANT:
+                builder.append(new Constant(constants[left[i]]));
+                break;
+            case VARIABLE:
+                builder.append(variables.get(left[i]));
+                break;
+            case PLUS:
+                builder.append('%').append(left[i]).append(" + %").append(right[i]);
+                break;
+            default:
+                builder.append('%').append(left[i]).append(" * %").append(right[i]);
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -43,6 +43,7 @@ public class Constant implements Expression {
 
     @Override
     public boolean equals(Object thatObject) {
+        thatObject = thatObject instanceof Derivative ? ((Derivative)thatObject).expand() : thatObject;
         if (!(thatObject instanceof Constant)) return false;
         
         Constant thatConstant = (Constant) thatObject;
@@ -64,4 +65,9 @@ public class Constant implements Expression {
     public Expression simplify(Map<String, Double> environment) {
         return this;
     }
+
+    @Override
+    public Expression substitute(Map<String, Expression> bindings) {
+        return this;
+    }
 }
@@ -0,0 +1,91 @@
+package expressivo;
+
+/**
+ * Cost of evaluating an expression, used to pick the cheapest of equivalent expressions.
+ * The cost of a plus or times node must be larger than the costs of its operands.
+ */
+public interface CostModel {
+
+    /**
+     * @param constant value of a constant
+     * @return cost of the constant
+     */
+    public double constantCost(double constant);
+
+    /**
+     * @param name name of a variable
+     * @return cost of the variable
+     */
+    public double variableCost(String name);
+
+    /**
+     * @param leftCost cost of the left term
+     * @param rightCost cost of the right term
+     * @return cost of the sum of the terms
+     */
+    public double plusCost(double leftCost, double rightCost);
+
+    /**
+     * @param leftCost cost of the left factor
+     * @param rightCost cost of the right factor
+     * @return cost of the product of the factors
+     */
+    public double timesCost(double leftCost, double rightCost);
+
+    /**
+     * Counts the operations needed to evaluate an expression, with multiplications weighted by
+     * multiplicationWeight and additions by 1. Ties are broken in favor of fewer leaves.
+     * @param multiplicationWeight cost of a multiplication relative to an addition, > 0
+     * @return operation count cost model
+     */
+    public static CostModel operationCount(double multiplicationWeight) {
+        return new CostModel() {
+            @Override
+            public double constantCost(double constant) {
+                return 0.001;
+            }
+
+            @Override
+            public double variableCost(String name) {
+                return 0.001;
+            }
+
+            @Override
+            public double plusCost(double leftCost, double rightCost) {
+                return 1 + leftCost + rightCost;
+            }
+
+            @Override
+            public double timesCost(double leftCost, double rightCost) {
+                return multiplicationWeight + leftCost + rightCost;
+            }
+        };
+    }
+
+    /**
+     * @return cost model that counts the nodes of an expression
+     */
+    public static CostModel nodeCount() {
+        return new CostModel() {
+            @Override
+            public double constantCost(double constant) {
+                return 1;
+            }
+
+            @Override
+            public double variableCost(String name) {
+                return 1;
+            }
+
+            @Override
+            public double plusCost(double leftCost, double rightCost) {
+                return 1 + leftCost + rightCost;
+            }
+
+            @Override
+            public double timesCost(double leftCost, double rightCost) {
+                return 1 + leftCost + rightCost;
+            }
+        };
+    }
+}
@@ -0,0 +1,298 @@
+package expressivo;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * An immutable data type part of the ADT Expression.
+ * Represents the derivative of an expression with respect to a variable, which is not
+ * differentiated until it is read.
+ *
+ * <p>expand() applies the sum, product or power rule to the top node of the expression only, and
+ * leaves the derivatives of its subexpressions as Derivative nodes, so printing, evaluating,
+ * simplifying or comparing a derivative expands exactly the nodes it reads, each one once.
+ * Differentiating a derivative again only records the variable. Fully expanded, a derivative
+ * is structurally equal to the result of expression.differentiate(variable): constant and zero
+ * derivatives are folded by the same rules, which are decided by a scan of the subexpression
+ * that does not build any tree.
+ */
+public class Derivative implements Expression {
+    // rep
+    public final Expression expression;
+    public final Variable variable;
+    private final Map<Expression, Double> constantDerivatives;
+    private volatile Expression expanded;
+
+    // Rep invariant:
+    //  expanded is null or not a Derivative
+    //  constantDerivatives maps subexpressions e to the constant value of e.differentiate(variable),
+    //  or NaN if that derivative is not a Constant
+    // Abstraction function:
+    //  Represents d(expression)/d(variable), whose top node is expanded once it is read.
+    // Safety from rep exposure:
+    //  expression and variable are final and immutable; constantDerivatives is private and only
+    //  shared with derivatives of subexpressions by the same variable; expanded is private and
+    //  set once, and expressions are immutable.
+
+    /**
+     * Creates the derivative of an expression, without differentiating it.
+     * @param expression expression to differentiate
+     * @param var variable to differentiate by
+     */
+    public Derivative(Expression expression, Variable var) {
+        this(expression, var, Collections.synchronizedMap(new IdentityHashMap<>()));
+    }
+
+    private Derivative(Expression expression, Variable var, Map<Expression, Double> constantDerivatives) {
+        this.expression = expression;
+        this.variable = var;
+        this.constantDerivatives = constantDerivatives;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert !(expanded instanceof Derivative);
+    }
+
+    /**
+     * Applies one step of differentiation, expanding the derivative of the top node of
+     * the expression. The expansion is computed once.
+     * @return an expression equal to this one whose top node is not a Derivative,
+     *         and whose subexpressions may be unexpanded derivatives
+     */
+    public Expression expand() {
+        Expression result = expanded;
+        if (result == null) {
+            synchronized (this) {
+                result = expanded;
+                if (result == null) {
+                    result = expandTop(expression instanceof Derivative ? ((Derivative)expression).expand() : expression);
+                    expanded = result;
+                    checkRep();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return an expression equal to this one without any Derivative node
+     */
+    public Expression materialize() {
+        return expand().substitute(Collections.emptyMap());
+    }
+
+    /**
+     * @param expression any expression
+     * @return expression.expand() if expression is a Derivative, otherwise expression
+     */
+    static Expression expanded(Expression expression) {
+        return expression instanceof Derivative ? ((Derivative)expression).expand() : expression;
+    }
+
+    /**
+     * @return the expansion of this derivative if it was already expanded, otherwise null
+     */
+    Expression expandedOrNull() {
+        return expanded;
+    }
+
+    // Differentiates the top node of node, which is not a Derivative.
+    private Expression expandTop(Expression node) {
+        if (node instanceof Plus) {
+            ExpressionBudget.step();
+            Plus plus = (Plus)node;
+            double left = constantDerivative(plus.leftTerm);
+            double right = constantDerivative(plus.rightTerm);
+
+            // if both derivatives are constants, add them
+            if (!Double.isNaN(left) && !Double.isNaN(right)) {
+                return new Constant(left + right);
+            }
+            // if one derivative equals 0, return the other one, expanded so the result is not a Derivative
+            else if (isZero(left)) {
+                return expanded(derivative(plus.rightTerm, right));
+            }
+            else if (isZero(right)) {
+                return expanded(derivative(plus.leftTerm, left));
+            }
+            else {
+                return new Plus(derivative(plus.leftTerm, left), derivative(plus.rightTerm, right));
+            }
+        }
+        else if (node instanceof Multiplication) {
+            ExpressionBudget.step();
+            Multiplication multiplication = (Multiplication)node;
+            Expression leftTerm = multiplication.leftTerm;
+            Expression rightTerm = multiplication.rightTerm;
+            double left = constantDerivative(leftTerm);
+            double right = constantDerivative(rightTerm);
+            // the derivative comes second in the first product and first in the second one,
+            // as in Multiplication.differentiate
+            Expression product1 = product(leftTerm, right, rightTerm, false);
+            Expression product2 = product(rightTerm, left, leftTerm, true);
+
+            // if both products are constants, add them
+            if (product1 instanceof Constant && product2 instanceof Constant) {
+                return new Constant(((Constant)product1).constant + ((Constant)product2).constant);
+            }
+            // if one product equals 0, return the other one, expanded so the result is not a Derivative
+            else if (isZero(product1)) {
+                return expanded(product2);
+            }
+            else if (isZero(product2)) {
+                return expanded(product1);
+            }
+            else {
+                return new Plus(product1, product2);
+            }
+        }
+        else if (node instanceof Power) {
+            ExpressionBudget.step();
+            Power power = (Power)node;
+            double base = constantDerivative(power.base);
+
+            // if the derivative of the base equals 0, the derivative is 0
+            if (isZero(base)) {
+                return new Constant(0);
+            }
+            Expression product = new Multiplication(new Constant(power.exponent), Power.of(power.base, power.exponent - 1));
+            // if the derivative of the base equals 1, the derivative is exponent*base^(exponent-1)
+            if (!Double.isNaN(base) && new Constant(base).equals(new Constant(1))) {
+                return product;
+            }
+            // otherwise multiply by the derivative of the base, as in Power.differentiate
+            else {
+                return new Multiplication(product, derivative(power.base, base));
+            }
+        }
+        else {
+            return node.differentiate(variable);
+        }
+    }
+
+    // Folds term * d(other), where derivative is the constant value of d(other) or NaN,
+    // by the rules of Multiplication.differentiate.
+    private Expression product(Expression term, double derivative, Expression other, boolean derivativeFirst) {
+        // if both factors are constants, multiply them
+        if (term instanceof Constant && !Double.isNaN(derivative)) {
+            return new Constant(((Constant)term).constant * derivative);
+        }
+        // if the derivative equals 0, the product is 0
+        else if (isZero(derivative)) {
+            return new Constant(0);
+        }
+        // if the derivative equals 1, the product is the term
+        else if (!Double.isNaN(derivative) && new Constant(derivative).equals(new Constant(1))) {
+            return term;
+        }
+        else {
+            Expression otherDerivative = derivative(other, derivative);
+            return derivativeFirst ? new Multiplication(otherDerivative, term) : new Multiplication(term, otherDerivative);
+        }
+    }
+
+    // The derivative of node as a Constant if constant is not NaN, otherwise as an unexpanded Derivative.
+    private Expression derivative(Expression node, double constant) {
+        if (!Double.isNaN(constant)) {
+            return new Constant(constant);
+        }
+        return new Derivative(node, variable, constantDerivatives);
+    }
+
+    /**
+     * Computes the value of node.differentiate(variable) if it is a Constant, without
+     * building the derivative; subexpressions are visited once.
+     * @param node any expression
+     * @return the value of the derivative of node if it is a Constant, otherwise NaN
+     */
+    private double constantDerivative(Expression node) {
+        node = expanded(node);
+        if (node instanceof Constant) {
+            return 0;
+        }
+        else if (node instanceof Variable) {
+            return node.equals(variable) ? 1 : 0;
+        }
+        Double known = constantDerivatives.get(node);
+        if (known != null) {
+            return known;
+        }
+        double result = Double.NaN;
+        if (node instanceof Plus) {
+            double left = constantDerivative(((Plus)node).leftTerm);
+            double right = constantDerivative(((Plus)node).rightTerm);
+            if (!Double.isNaN(left) && !Double.isNaN(right)) {
+                result = left + right;
+            }
+        }
+        else if (node instanceof Multiplication) {
+            Expression leftTerm = ((Multiplication)node).leftTerm;
+            Expression rightTerm = ((Multiplication)node).rightTerm;
+            double product1 = constantProduct(leftTerm, constantDerivative(rightTerm));
+            double product2 = constantProduct(rightTerm, constantDerivative(leftTerm));
+            if (!Double.isNaN(product1) && !Double.isNaN(product2)) {
+                result = product1 + product2;
+            }
+        }
+        else if (node instanceof Power) {
+            // the derivative of a power is a product unless the base has derivative 0
+            result = isZero(constantDerivative(((Power)node).base)) ? 0 : Double.NaN;
+        }
+        else {
+            Expression derivative = node.differentiate(variable);
+            if (derivative instanceof Constant) {
+                result = ((Constant)derivative).constant;
+            }
+        }
+        constantDerivatives.put(node, result);
+        return result;
+    }
+
+    // The value of term * derivative if product() folds it to a Constant, otherwise NaN.
+    private static double constantProduct(Expression term, double derivative) {
+        if (term instanceof Constant && !Double.isNaN(derivative)) {
+            return ((Constant)term).constant * derivative;
+        }
+        return isZero(derivative) ? 0 : Double.NaN;
+    }
+
+    private static boolean isZero(double constant) {
+        return !Double.isNaN(constant) && new Constant(constant).equals(new Constant(0));
+    }
+
+    private static boolean isZero(Expression expression) {
+        return expression instanceof Constant && expression.equals(new Constant(0));
+    }
+
+    @Override
+    public String toString() {
+        return expand().toString();
+    }
+
+    @Override
+    public boolean equals(Object thatObject) {
+        return expand().equals(thatObject);
+    }
+
+    @Override
+    public int hashCode() {
+        return expand().hashCode();
+    }
+
+    @Override
+    public Expression differentiate(Variable var) {
+        return new Derivative(this, var);
+    }
+
+    @Override
+    public Expression simplify(Map<String, Double> environment) {
+        return expand().simplify(environment);
+    }
+
+    @Override
+    public Expression substitute(Map<String, Expression> bindings) {
+        return expand().substitute(bindings);
+    }
+}
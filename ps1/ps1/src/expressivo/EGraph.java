@@ -0,0 +1,448 @@
+package expressivo;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A mutable e-graph, not thread safe.
+ * Represents a set of expressions together with equalities between their subexpressions,
+ * used to simplify expressions by equality saturation.
+ *
+ * <p>Expressions are added with add(). saturate() then repeatedly applies the algebraic identities
+ * commutativity, associativity, distributivity (in both directions), the 0 and 1 laws and
+ * constant folding, recording every result as equal to the expression it came from, until no
+ * identity adds anything new or the node or time budget is used up. The budgets are checked before
+ * every rewrite, so saturation never grows the e-graph beyond maxNodes. extract() finally picks
+ * the cheapest expression equal to an added expression according to a CostModel.
+ */
+public class EGraph {
+    private static final int CONSTANT = 0, VARIABLE = 1, PLUS = 2, TIMES = 3;
+
+    // rep
+    private final int maxNodes;
+    private final long timeoutNanos;
+    private long deadline;
+    private boolean exhausted;
+    private int[] parent;
+    private int classCount;
+    private Map<ENode, Integer> memo;
+    private Map<Integer, List<ENode>> classes;
+    private final Map<Integer, Double> constants;
+
+    // Rep invariant:
+    //  parent[0..classCount) is a union-find forest over e-class ids
+    //  after rebuild(): every key of memo is canonical (its children are roots of parent),
+    //   no two keys of memo are equal, and classes maps every root to the nodes of its class
+    //  constants maps a root to the value of the constant in its class, if it has one
+    //  exhausted implies that a budget ran out during the current or last call to saturate()
+    // Abstraction function:
+    //  Represents the e-graph with the e-classes 0..classCount-1, where class c is equal to
+    //  class find(c), and where memo maps every e-node to its class.
+    // Safety from rep exposure:
+    //  All fields are private and no part of the rep is returned.
+
+    // An e-node: an operation whose operands are e-classes.
+    private static class ENode {
+        private final int op;
+        private final double value;
+        private final String name;
+        private final int left;
+        private final int right;
+
+        private ENode(int op, double value, String name, int left, int right) {
+            this.op = op;
+            this.value = value;
+            this.name = name;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object thatObject) {
+            if (!(thatObject instanceof ENode)) return false;
+            ENode that = (ENode)thatObject;
+            return op == that.op && Double.compare(value, that.value) == 0 && left == that.left
+                    && right == that.right && (name == null ? that.name == null : name.equals(that.name));
+        }
+
+        @Override
+        public int hashCode() {
+            return ((op * 31 + Double.hashCode(value)) * 31 + (name == null ? 0 : name.hashCode())) * 31
+                    + left * 17 + right;
+        }
+    }
+
+    /**
+     * @param maxNodes maximum number of e-nodes, > 0; saturation stops before it would be exceeded
+     * @param timeoutMillis maximum duration of a call to saturate()
+     */
+    public EGraph(int maxNodes, long timeoutMillis) {
+        this.maxNodes = maxNodes;
+        this.timeoutNanos = timeoutMillis * 1_000_000;
+        this.deadline = Long.MAX_VALUE;
+        this.exhausted = false;
+        this.parent = new int[64];
+        this.classCount = 0;
+        this.memo = new HashMap<>();
+        this.classes = new HashMap<>();
+        this.constants = new HashMap<>();
+    }
+
+    /**
+     * Equality saturation simplifier: adds expression to a new e-graph, saturates it and
+     * extracts the cheapest equal expression.
+     * @param expression expression to simplify
+     * @param maxNodes node budget of the e-graph, > 0
+     * @param timeoutMillis time budget of the saturation
+     * @param costModel cost of expressions
+     * @return an expression equal to expression with the lowest cost found within the budgets
+     */
+    public static Expression simplify(Expression expression, int maxNodes, long timeoutMillis, CostModel costModel) {
+        EGraph graph = new EGraph(maxNodes, timeoutMillis);
+        int root = graph.add(expression);
+        graph.saturate();
+        return graph.extract(root, costModel);
+    }
+
+    /**
+     * Adds an expression and all its subexpressions.
+     * @param expression expression to add
+     * @return id of the e-class of expression
+     */
+    public int add(Expression expression) {
+        int id = addExpression(expression);
+        rebuild();
+        return find(id);
+    }
+
+    // Adds expression and its subexpressions without restoring the rep invariant.
+    private int addExpression(Expression expression) {
+        expression = Derivative.expanded(expression);
+        if (expression instanceof Constant) {
+            return add(new ENode(CONSTANT, ((Constant)expression).constant, null, -1, -1));
+        }
+        else if (expression instanceof Variable) {
+            return add(new ENode(VARIABLE, 0, ((Variable)expression).name, -1, -1));
+        }
+        else if (expression instanceof Plus) {
+            Plus plus = (Plus)expression;
+            return add(new ENode(PLUS, 0, null, addExpression(plus.leftTerm), addExpression(plus.rightTerm)));
+        }
+        else if (expression instanceof Multiplication) {
+            Multiplication multiplication = (Multiplication)expression;
+            return add(new ENode(TIMES, 0, null, addExpression(multiplication.leftTerm), addExpression(multiplication.rightTerm)));
+        }
+        else if (expression instanceof Power) {
+            Power power = (Power)expression;
+            int base = addExpression(power.base);
+            int product = base;
+            for (int i = 1; i < power.exponent; i++) {
+                product = add(new ENode(TIMES, 0, null, product, base));
+            }
+            return product;
+        }
+        else {
+            throw new IllegalArgumentException("unsupported expression " + expression.getClass().getName());
+        }
+    }
+
+    /**
+     * @return number of e-nodes in this e-graph
+     */
+    public int size() {
+        return memo.size();
+    }
+
+    /**
+     * @param a id of an e-class
+     * @param b id of an e-class
+     * @return true if and only if the e-classes are known to be equal
+     */
+    public boolean equal(int a, int b) {
+        return find(a) == find(b);
+    }
+
+    /**
+     * Applies the algebraic identities until nothing changes or a budget is used up.
+     * @return true if the e-graph is saturated, false if a budget ran out first
+     */
+    public boolean saturate() {
+        deadline = System.nanoTime() + timeoutNanos;
+        exhausted = false;
+        while (true) {
+            int before = memo.size();
+            boolean merged = false;
+            List<Map.Entry<Integer, List<ENode>>> snapshot = new ArrayList<>();
+            for (Map.Entry<Integer, List<ENode>> entry : classes.entrySet()) {
+                snapshot.add(new AbstractMap.SimpleEntry<>(entry.getKey(), new ArrayList<>(entry.getValue())));
+            }
+            for (Map.Entry<Integer, List<ENode>> entry : snapshot) {
+                for (ENode node : entry.getValue()) {
+                    merged |= applyIdentities(entry.getKey(), node);
+                    if (exhausted) {
+                        rebuild();
+                        return false;
+                    }
+                }
+            }
+            rebuild();
+            if (!merged && memo.size() == before) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Extracts the cheapest expression in an e-class.
+     * @param id id of an e-class
+     * @param costModel cost of expressions
+     * @return expression in the e-class with the lowest cost
+     */
+    public Expression extract(int id, CostModel costModel) {
+        Map<Integer, Double> bestCost = new HashMap<>();
+        Map<Integer, ENode> bestNode = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Integer, List<ENode>> entry : classes.entrySet()) {
+                for (ENode node : entry.getValue()) {
+                    Double cost = cost(node, costModel, bestCost);
+                    if (cost == null) continue;
+                    Double best = bestCost.get(entry.getKey());
+                    if (best == null || cost < best) {
+                        bestCost.put(entry.getKey(), cost);
+                        bestNode.put(entry.getKey(), node);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return build(find(id), bestNode);
+    }
+
+    // Cost of node given the best costs of classes, or null if an operand has no cost yet.
+    private Double cost(ENode node, CostModel costModel, Map<Integer, Double> bestCost) {
+        switch (node.op) {
+        case CONSTANT:
+            return costModel.constantCost(node.value);
+        case VARIABLE:
+            return costModel.variableCost(node.name);
+        default:
+            Double left = bestCost.get(find(node.left));
+            Double right = bestCost.get(find(node.right));
+            if (left == null || right == null) return null;
+            return node.op == PLUS ? costModel.plusCost(left, right) : costModel.timesCost(left, right);
+        }
+    }
+
+    // Builds the expression of the best nodes from class id.
+    private Expression build(int id, Map<Integer, ENode> bestNode) {
+        ENode node = bestNode.get(id);
+        switch (node.op) {
+        case CONSTANT:
+            return new Constant(node.value);
+        case VARIABLE:
+            return new Variable(node.name);
+        case PLUS:
+            return new Plus(build(find(node.left), bestNode), build(find(node.right), bestNode));
+        default:
+            return new Multiplication(build(find(node.left), bestNode), build(find(node.right), bestNode));
+        }
+    }
+
+    // Applies all identities to node in class id, returns true if classes were merged.
+    // Stops early, with exhausted set, when a rewrite could exceed a budget.
+    private boolean applyIdentities(int id, ENode node) {
+        if (node.op != PLUS && node.op != TIMES) {
+            return false;
+        }
+        boolean merged = false;
+        int a = find(node.left);
+        int b = find(node.right);
+        Double constantA = constants.get(a);
+        Double constantB = constants.get(b);
+        if (node.op == PLUS) {
+            // commutativity
+            if (!hasRoom(1)) return merged;
+            merged |= merge(id, add(new ENode(PLUS, 0, null, b, a)));
+            // 0 law and constant folding
+            if (constantA != null && constantB != null) {
+                if (!hasRoom(1)) return merged;
+                merged |= merge(id, constant(constantA + constantB));
+            }
+            if (isZero(constantA)) merged |= merge(id, b);
+            if (isZero(constantB)) merged |= merge(id, a);
+            for (ENode left : nodes(a)) {
+                if (left.op == PLUS) {
+                    // associativity: (x + y) + b = x + (y + b)
+                    if (!hasRoom(2)) return merged;
+                    merged |= merge(id, add(new ENode(PLUS, 0, null, left.left, add(new ENode(PLUS, 0, null, left.right, b)))));
+                }
+                else if (left.op == TIMES) {
+                    // factoring: x*y + x = x*(y + 1)
+                    if (find(left.left) == b) {
+                        if (!hasRoom(3)) return merged;
+                        merged |= merge(id, add(new ENode(TIMES, 0, null, b, add(new ENode(PLUS, 0, null, left.right, constant(1))))));
+                    }
+                    // factoring: x*y + x*z = x*(y + z)
+                    for (ENode right : nodes(b)) {
+                        if (right.op == TIMES && find(left.left) == find(right.left)) {
+                            if (!hasRoom(2)) return merged;
+                            merged |= merge(id, add(new ENode(TIMES, 0, null, left.left, add(new ENode(PLUS, 0, null, left.right, right.right)))));
+                        }
+                    }
+                }
+            }
+        }
+        else {
+            // commutativity
+            if (!hasRoom(1)) return merged;
+            merged |= merge(id, add(new ENode(TIMES, 0, null, b, a)));
+            // 0 and 1 laws and constant folding
+            if (constantA != null && constantB != null) {
+                if (!hasRoom(1)) return merged;
+                merged |= merge(id, constant(constantA * constantB));
+            }
+            if (isZero(constantA) || isZero(constantB)) {
+                if (!hasRoom(1)) return merged;
+                merged |= merge(id, constant(0));
+            }
+            if (isOne(constantA)) merged |= merge(id, b);
+            if (isOne(constantB)) merged |= merge(id, a);
+            // associativity: (x*y)*b = x*(y*b)
+            for (ENode left : nodes(a)) {
+                if (left.op == TIMES) {
+                    if (!hasRoom(2)) return merged;
+                    merged |= merge(id, add(new ENode(TIMES, 0, null, left.left, add(new ENode(TIMES, 0, null, left.right, b)))));
+                }
+            }
+            // distributivity: a*(x + y) = a*x + a*y
+            for (ENode right : nodes(b)) {
+                if (right.op == PLUS) {
+                    if (!hasRoom(3)) return merged;
+                    merged |= merge(id, add(new ENode(PLUS, 0, null,
+                            add(new ENode(TIMES, 0, null, a, right.left)), add(new ENode(TIMES, 0, null, a, right.right)))));
+                }
+            }
+        }
+        return merged;
+    }
+
+    // Returns false, and sets exhausted, if adding the given number of e-nodes could exceed maxNodes
+    // or the deadline has passed.
+    private boolean hasRoom(int nodes) {
+        if (memo.size() + nodes > maxNodes || System.nanoTime() > deadline) {
+            exhausted = true;
+        }
+        return !exhausted;
+    }
+
+    private List<ENode> nodes(int id) {
+        List<ENode> nodes = classes.get(find(id));
+        return nodes == null ? new ArrayList<>() : new ArrayList<>(nodes);
+    }
+
+    private int constant(double value) {
+        return add(new ENode(CONSTANT, value, null, -1, -1));
+    }
+
+    private static boolean isZero(Double constant) {
+        return constant != null && Math.abs(constant) < 0.0001;
+    }
+
+    private static boolean isOne(Double constant) {
+        return constant != null && Math.abs(constant - 1) < 0.0001;
+    }
+
+    // Adds an e-node, returns the id of its class.
+    private int add(ENode node) {
+        ENode canonical = canonicalize(node);
+        Integer existing = memo.get(canonical);
+        if (existing != null) {
+            return find(existing);
+        }
+        if (classCount == parent.length) {
+            parent = Arrays.copyOf(parent, parent.length * 2);
+        }
+        int id = classCount++;
+        parent[id] = id;
+        memo.put(canonical, id);
+        List<ENode> members = new ArrayList<>();
+        members.add(canonical);
+        classes.put(id, members);
+        if (node.op == CONSTANT) {
+            constants.put(id, node.value);
+        }
+        return id;
+    }
+
+    // Records that classes a and b are equal, returns true if they weren't known to be.
+    private boolean merge(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b) {
+            return false;
+        }
+        parent[b] = a;
+        List<ENode> members = classes.remove(b);
+        if (members != null) {
+            classes.computeIfAbsent(a, key -> new ArrayList<>()).addAll(members);
+        }
+        Double constant = constants.remove(b);
+        if (constant != null && !constants.containsKey(a)) {
+            constants.put(a, constant);
+        }
+        return true;
+    }
+
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private ENode canonicalize(ENode node) {
+        if (node.op == CONSTANT || node.op == VARIABLE) {
+            return node;
+        }
+        return new ENode(node.op, 0, null, find(node.left), find(node.right));
+    }
+
+    // Restores the rep invariant after merges: canonicalizes all e-nodes and merges
+    // classes that contain equal e-nodes (congruence closure).
+    private void rebuild() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Map<ENode, Integer> canonicalMemo = new HashMap<>();
+            for (Map.Entry<ENode, Integer> entry : memo.entrySet()) {
+                ENode canonical = canonicalize(entry.getKey());
+                int id = find(entry.getValue());
+                Integer existing = canonicalMemo.get(canonical);
+                if (existing != null && find(existing) != id) {
+                    merge(existing, id);
+                    changed = true;
+                }
+                canonicalMemo.put(canonical, find(id));
+            }
+            memo = canonicalMemo;
+        }
+        classes = new HashMap<>();
+        for (Map.Entry<ENode, Integer> entry : memo.entrySet()) {
+            int id = find(entry.getValue());
+            classes.computeIfAbsent(id, key -> new ArrayList<>()).add(entry.getKey());
+        }
+        Map<Integer, Double> canonicalConstants = new HashMap<>();
+        for (Map.Entry<Integer, Double> entry : constants.entrySet()) {
+            canonicalConstants.putIfAbsent(find(entry.getKey()), entry.getValue());
+        }
+        constants.clear();
+        constants.putAll(canonicalConstants);
+    }
+}
@@ -0,0 +1,155 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Static methods that decide whether expressions are mathematically equal, i.e. whether their
+ * expansions have the same terms with coefficients equal up to 0.0001.
+ *
+ * <p>Both expressions are compiled and evaluated at random points modulo a prime. By the
+ * Schwartz-Zippel lemma, different polynomials of degree d agree at a random point with
+ * probability at most d/p, so equal values at several points show equality with high
+ * probability. Constants are taken exactly in the modular evaluation, so equal values never
+ * come from rounding; constants that are equal only up to the tolerance give different
+ * values and are compared by the later steps. Different values are confirmed with
+ * floating-point evaluation, and only if that cannot tell a real difference from constants
+ * within the tolerance are the expressions expanded to their canonical form, a SparsePolynomial.
+ */
+public class Equivalence {
+    /** Prime modulus of the modular evaluation, 2^31 - 1. */
+    static final long MODULUS = 2147483647L;
+    /** Number of random points to evaluate at. */
+    private static final int TRIALS = 4;
+    /** Maximum difference of equal coefficients, like Constant.equals. */
+    private static final double TOLERANCE = 0.0001;
+
+    private Equivalence() {
+    }
+
+    /**
+     * Decides whether two expressions are mathematically equal, e.g. x*(y+1) and y*x + x.
+     * The answer is wrong with probability at most 4 * (d/(2^31 - 1))^4, where d is the
+     * highest degree of the expressions.
+     * @param first an expression
+     * @param second an expression
+     * @return true if the expansions of first and second have the same terms,
+     *         with coefficients equal up to 0.0001
+     * @throws IllegalArgumentException if the canonical form is needed but the expressions
+     *         have too many variables or too high degrees to expand
+     */
+    public static boolean equivalent(Expression first, Expression second) {
+        return equivalent(first, second, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Decides whether two expressions are mathematically equal, with random points drawn from
+     * random, see equivalent(Expression, Expression).
+     * @param first an expression
+     * @param second an expression
+     * @param random source of the evaluation points
+     * @return true if the expansions of first and second have the same terms,
+     *         with coefficients equal up to 0.0001
+     */
+    public static boolean equivalent(Expression first, Expression second, Random random) {
+        TreeSet<String> names = new TreeSet<>(CompiledExpression.compile(first).variables());
+        names.addAll(CompiledExpression.compile(second).variables());
+        List<String> variables = new ArrayList<>(names);
+        CompiledExpression firstProgram = CompiledExpression.compile(first, variables);
+        CompiledExpression secondProgram = CompiledExpression.compile(second, variables);
+
+        Metrics.count("equivalence.modular");
+        long[] point = new long[variables.size()];
+        boolean different = false;
+        for (int trial = 0; trial < TRIALS && !different; trial++) {
+            for (int v = 0; v < point.length; v++) {
+                point[v] = 1 + (long)(random.nextDouble() * (MODULUS - 1));
+            }
+            different = firstProgram.evaluateModulo(point, MODULUS) != secondProgram.evaluateModulo(point, MODULUS);
+        }
+        if (!different) {
+            return true;
+        }
+
+        // at points in (0, 1] every monomial is at most 1, so expansions whose coefficients are
+        // within the tolerance differ by at most the tolerance times the number of terms
+        Metrics.count("equivalence.floating");
+        double bound = TOLERANCE * (firstProgram.termBound() + secondProgram.termBound());
+        double[] values = new double[variables.size()];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            for (int v = 0; v < values.length; v++) {
+                values[v] = 0.5 + random.nextDouble() / 2;
+            }
+            double firstValue = firstProgram.evaluate(values);
+            double secondValue = secondProgram.evaluate(values);
+            double rounding = 1e-9 * Math.max(Math.abs(firstValue), Math.abs(secondValue));
+            if (Math.abs(firstValue - secondValue) > bound + rounding) {
+                return false;
+            }
+        }
+
+        Metrics.count("equivalence.canonical");
+        List<SparsePolynomial> polynomials = SparsePolynomial.of(Arrays.asList(first, second));
+        return polynomials.get(0).equalsWithin(polynomials.get(1), TOLERANCE);
+    }
+
+    /**
+     * Fingerprints an expression by evaluating it modulo a prime at a fixed point, where the
+     * value of every variable is derived from its name. Constants are taken exactly.
+     * @param expression expression to fingerprint
+     * @return fingerprint of expression, equal for expressions whose expansions are exactly equal,
+     *         and different for other expressions with high probability
+     */
+    public static long fingerprint(Expression expression) {
+        CompiledExpression program = CompiledExpression.compile(expression);
+        long[] point = new long[program.variables().size()];
+        for (int v = 0; v < point.length; v++) {
+            point[v] = valueOf(program.variables().get(v));
+        }
+        return program.evaluateModulo(point, MODULUS);
+    }
+
+    /**
+     * Removes mathematically equal expressions in time about linear in the total size of the
+     * expressions: they are grouped by fingerprint and compared only within a group.
+     * Expressions that are equal only because of the tolerance of constants may have different
+     * fingerprints and are then both kept.
+     * @param expressions expressions to deduplicate
+     * @return the first expression of every group of equivalent expressions, in order
+     */
+    public static List<Expression> distinct(Collection<Expression> expressions) {
+        Map<Long, List<Expression>> groups = new LinkedHashMap<>();
+        List<Expression> distinct = new ArrayList<>();
+        for (Expression expression : expressions) {
+            List<Expression> group = groups.computeIfAbsent(fingerprint(expression), key -> new ArrayList<>());
+            boolean seen = false;
+            for (Expression representative : group) {
+                if (equivalent(representative, expression)) {
+                    seen = true;
+                    break;
+                }
+            }
+            if (!seen) {
+                group.add(expression);
+                distinct.add(expression);
+            }
+        }
+        return distinct;
+    }
+
+    // Pseudo-random value in [1, MODULUS) for a variable name, by the splitmix64 finalizer.
+    private static long valueOf(String name) {
+        long z = name.hashCode() * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return 1 + Math.floorMod(z, MODULUS - 1);
+    }
+}
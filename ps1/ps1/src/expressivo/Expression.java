@@ -1,7 +1,8 @@
 package expressivo;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import lib6005.parser.*;
@@ -22,7 +23,8 @@ public interface Expression {
     
     // Datatype definition
     //   Expression = Constant(constant:double) + Variable(name:String) +
-    //     Multiplication(left:Expression, right:Expression) + Plus(left:Expression, right:Expression)
+    //     Multiplication(left:Expression, right:Expression) + Plus(left:Expression, right:Expression) +
+    //     Derivative(expression:Expression, variable:Variable) + Power(base:Expression, exponent:int)
     
     // Grammar used by the parser to parse an expression.
     enum ExpressionGrammar {ROOT, EXPRESSION, PRODUCT, SUM, TERM, VARIABLE, CONSTANT, WHITESPACE};
@@ -34,16 +36,21 @@ public interface Expression {
      * @throws IllegalArgumentException if the expression is invalid
      */
     public static Expression parse(String input) {
+        final long start = Metrics.PARSE.start();
         try {
-            Parser<ExpressionGrammar> parser = GrammarCompiler.compile(new File("Expression.g"), ExpressionGrammar.ROOT);
+            Parser<ExpressionGrammar> parser = ExpressionParser.parser();
             ParseTree<ExpressionGrammar> tree = parser.parse(input);
-            return buildExpression(tree);
+            Expression expression = buildExpression(tree);
+            Metrics.PARSE.stop(start, expression);
+            return expression;
         }
         catch (IOException e){
+            Metrics.PARSE.fail(start);
             e.printStackTrace();
             throw new IllegalArgumentException("Parse error: invalid expression");
         }
         catch (UnableToParseException e) {
+            Metrics.PARSE.fail(start);
             e.printStackTrace();
             throw new IllegalArgumentException("Parse error: invalid expression");
         }     
@@ -74,66 +81,45 @@ public interface Expression {
             }
         // A term or one or more products between terms
         case PRODUCT:        
-            boolean first1 = true;
-            Expression result1 = null;
+            // the factors of the product, folded like a chain of multiplications from the left;
+            // while there is a single factor it is the product so far
+            List<Expression> factors = new ArrayList<>();
             for (ParseTree<ExpressionGrammar> child : tree.childrenByName(ExpressionGrammar.TERM)) {
-                if (first1) {
-                    result1 = buildExpression(child);
-                    first1 = false;
+                Expression term = buildExpression(child);
+                Expression result1 = factors.size() == 1 ? factors.get(0) : null;
+                if (factors.isEmpty()) {
+                    factors.add(term);
                 }
-                else {
-                    Expression term = buildExpression(child);
-                    // if both terms in sum are constants, add them and return the resulting constant
-                    if (result1 instanceof Constant && term instanceof Constant) {
-                        Constant result1_copy = (Constant)result1;
-                        Constant term_copy = (Constant)term;
-                        result1 = new Constant(result1_copy.constant * term_copy.constant);
-                    }
-                    // if the left term or the right term equals 0, return a new constant 0
-                    else if (result1.equals(new Constant(0)) || term.equals(new Constant(0))) {
-                        result1 = new Constant(0);
-                    }
-                    // if the left term equals 1, return the right term
-                    else if (result1.equals(new Constant(1))) {
-                        result1 = term;
-                    }
-                    // In all other cases return a new plus expression between the terms,
-                    // except when the right term equals 1, the result remains the same
-                    else if (!term.equals(new Constant(1))) {
-                        result1 = new Multiplication(result1, term);
-                    } 
+                // if both terms in sum are constants, add them and return the resulting constant
+                else if (result1 instanceof Constant && term instanceof Constant) {
+                    Constant result1_copy = (Constant)result1;
+                    Constant term_copy = (Constant)term;
+                    factors.set(0, new Constant(result1_copy.constant * term_copy.constant));
+                }
+                // if the left term or the right term equals 0, return a new constant 0
+                else if ((result1 != null && result1.equals(new Constant(0))) || term.equals(new Constant(0))) {
+                    factors.clear();
+                    factors.add(new Constant(0));
+                }
+                // if the left term equals 1, return the right term
+                else if (result1 != null && result1.equals(new Constant(1))) {
+                    factors.set(0, term);
                 }
+                // In all other cases return a new plus expression between the terms,
+                // except when the right term equals 1, the result remains the same
+                else if (!term.equals(new Constant(1))) {
+                    factors.add(term);
+                } 
             }
-            return result1;
+            // runs of 3 or more equal variables or sums become powers
+            return Power.product(factors);
         // A product or one or more sums between products
         case SUM:
-            boolean first2 = true;
-            Expression result2 = null;
+            List<Expression> products = new ArrayList<>();
             for (ParseTree<ExpressionGrammar> child : tree.childrenByName(ExpressionGrammar.PRODUCT)) {
-                if (first2) {
-                    result2 = buildExpression(child);
-                    first2 = false;
-                }
-                else {
-                    Expression product = buildExpression(child);
-                    // if both terms in sum are constants, add them and return the resulting constant
-                    if (result2 instanceof Constant && product instanceof Constant) {
-                        Constant result2_copy = (Constant)result2;
-                        Constant product_copy = (Constant)product;
-                        result2 = new Constant(result2_copy.constant + product_copy.constant);
-                    }
-                    // if the left term equals 0, return the right term
-                    else if (result2.equals(new Constant(0))) {
-                        result2 = product;
-                    }
-                    // In all other cases return a new plus expression between the terms,
-                    // except when the right term equals 0, the result remains the same
-                    else if (!product.equals(new Constant(0))) {
-                        result2 = new Plus(result2, product);
-                    }                   
-                }
+                products.add(buildExpression(child));
             }
-            return result2;
+            return Plus.sum(products);
         // An expression with a sum as child
         case EXPRESSION:
             return buildExpression(tree.childrenByName(ExpressionGrammar.SUM).get(0));
@@ -160,11 +146,21 @@ public interface Expression {
      * the variable is substituted for the value for that variable. If a variable in the environment
      * is not found in the expression, that variable is ignored. 
      * After substitution, operations between constants are simplified to a single constant.
+     * Subexpressions that simplification does not change are returned as-is, not copied.
      * @param environment - maps variables to their values
      * @return the resulting expression after simplification.
      */
     public Expression simplify(Map<String, Double> environment);
     
+    /**
+     * Substitutes expressions for variables, without simplifying the result.
+     * Subexpressions without any variable in bindings are returned as-is, not copied.
+     * @param bindings - maps variables to the expressions that replace them
+     * @return this expression with every variable v in bindings replaced by bindings.get(v);
+     * this expression itself if it has no variable in bindings.
+     */
+    public Expression substitute(Map<String, Expression> bindings);
+    
     /**
      * Returns string representation of this expression.
      * Parentheses are only used around plus expressions and whitespace is used only around the plus symbol to improve readability.
@@ -230,6 +226,26 @@ public interface Expression {
         return new Plus(left, right);
     }
     
+    /**
+     * Creates new power of an expression.
+     * @param base any expression
+     * @param exponent number of factors, >= 0
+     * @return the simplest expression for the product of exponent factors equal to base.
+     */
+    public static Expression power(Expression base, int exponent) {
+        return Power.of(base, exponent);
+    }
+    
+    /**
+     * Creates new Derivative expression, which is differentiated lazily as it is read.
+     * @param expression expression to differentiate
+     * @param var variable to differentiate by
+     * @return new Derivative expression, equal to expression.differentiate(var).
+     */
+    public static Derivative derivative(Expression expression, Variable var) {
+        return new Derivative(expression, var);
+    }
+    
     /* Copyright (c) 2015-2017 MIT 6.005 course staff, all rights reserved.
      * Redistribution of original or derived work requires permission of course staff.
      */
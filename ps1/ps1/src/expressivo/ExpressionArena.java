@@ -0,0 +1,448 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A mutable arena of expression nodes stored as parallel arrays, for trees too large to keep
+ * as one object per node.
+ *
+ * <p>A node is an int handle. Its opcode, left and right operands are stored in int arrays,
+ * constants in a double array and variable names in a table, so a node takes 12 bytes plus its
+ * constant, instead of an object with a header and references. Nodes are only appended, and
+ * operands are always appended before the nodes that use them, so every operation is a single
+ * pass over the arrays without recursion: a backward pass marks the nodes reachable from a root,
+ * then a forward pass computes them in order.
+ * differentiate and simplify follow the same rules as Plus and Multiplication, so converting
+ * their results to objects gives the same expressions. Unchanged nodes are shared, not copied.
+ *
+ * <p>An arena is not safe for use by multiple threads.
+ */
+public class ExpressionArena {
+    private static final int CONSTANT = 0;
+    private static final int VARIABLE = 1;
+    private static final int PLUS = 2;
+    private static final int TIMES = 3;
+
+    // marks a node reachable from the root of a pass
+    private static final int REACHABLE = -1;
+    private static final int UNREACHABLE = -2;
+
+    // rep
+    private int[] opcodes;
+    private int[] left;
+    private int[] right;
+    private int size;
+    private double[] constants;
+    private int constantCount;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIndices = new HashMap<>();
+    private int zero = -1;
+    private int one = -1;
+
+    // Rep invariant:
+    //  opcodes, left, right have the same length >= size
+    //  for every node i < size:
+    //   if opcodes[i] is CONSTANT, 0 <= left[i] < constantCount and constants[left[i]] >= 0
+    //   if opcodes[i] is VARIABLE, 0 <= left[i] < names.size()
+    //   if opcodes[i] is PLUS or TIMES, 0 <= left[i], right[i] < i
+    //  nameIndices maps every name in names to its index
+    //  zero and one are -1 or constant nodes with value 0 and 1
+    // Abstraction function:
+    //  Represents the nodes 0..size-1, where node i is the constant constants[left[i]], the
+    //  variable names.get(left[i]), or the sum or product of nodes left[i] and right[i].
+    // Safety from rep exposure:
+    //  All fields are private, arrays and collections are never returned.
+
+    /**
+     * Creates an empty arena.
+     */
+    public ExpressionArena() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty arena with room for a number of nodes before growing.
+     * @param capacity expected number of nodes, >= 1
+     */
+    public ExpressionArena(int capacity) {
+        opcodes = new int[Math.max(1, capacity)];
+        left = new int[opcodes.length];
+        right = new int[opcodes.length];
+        constants = new double[Math.max(1, capacity / 4)];
+    }
+
+    private void checkRep() {
+        assert opcodes.length == left.length && left.length == right.length && size <= opcodes.length;
+        assert names.size() == nameIndices.size();
+    }
+
+    /**
+     * @return number of nodes in the arena
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param value non-negative value
+     * @return node of the constant value
+     */
+    public int constant(double value) {
+        if (!(value >= 0)) {
+            throw new IllegalArgumentException("constant must be non-negative: " + value);
+        }
+        if (value == 0 && zero >= 0) return zero;
+        if (value == 1 && one >= 0) return one;
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        int node = append(CONSTANT, constantCount++, 0);
+        if (value == 0) zero = node;
+        if (value == 1) one = node;
+        return node;
+    }
+
+    /**
+     * @param name a case-sensitive nonempty string of letters
+     * @return a node of the variable name
+     */
+    public int variable(String name) {
+        Integer index = nameIndices.get(name);
+        if (index == null) {
+            if (!name.matches("[A-Za-z]+")) {
+                throw new IllegalArgumentException("invalid variable name: " + name);
+            }
+            index = names.size();
+            names.add(name);
+            nameIndices.put(name, index);
+        }
+        return append(VARIABLE, index, 0);
+    }
+
+    /**
+     * @param leftNode node of the left term
+     * @param rightNode node of the right term
+     * @return node of the sum of the terms
+     */
+    public int plus(int leftNode, int rightNode) {
+        checkNode(leftNode);
+        checkNode(rightNode);
+        return append(PLUS, leftNode, rightNode);
+    }
+
+    /**
+     * @param leftNode node of the left factor
+     * @param rightNode node of the right factor
+     * @return node of the product of the factors
+     */
+    public int times(int leftNode, int rightNode) {
+        checkNode(leftNode);
+        checkNode(rightNode);
+        return append(TIMES, leftNode, rightNode);
+    }
+
+    /**
+     * Copies an expression into the arena.
+     * @param expression expression made of constants, variables, sums and products;
+     *        powers are copied as chains of products
+     * @return node of the root of the copy
+     */
+    public int add(Expression expression) {
+        // postorder with an explicit stack, so deep expressions do not overflow the call stack
+        List<Expression> pending = new ArrayList<>();
+        List<Boolean> expanded = new ArrayList<>();
+        int[] results = new int[16];
+        int resultCount = 0;
+        pending.add(expression);
+        expanded.add(false);
+        while (!pending.isEmpty()) {
+            Expression node = Derivative.expanded(pending.remove(pending.size() - 1));
+            boolean childrenDone = expanded.remove(expanded.size() - 1);
+            int result;
+            if (node instanceof Constant) {
+                result = constant(((Constant)node).constant);
+            }
+            else if (node instanceof Variable) {
+                result = variable(((Variable)node).name);
+            }
+            else if (childrenDone && node instanceof Power) {
+                // the arena has no powers, so the base is multiplied as the chain the parser used to build
+                int base = results[--resultCount];
+                result = base;
+                for (int i = 1; i < ((Power)node).exponent; i++) {
+                    result = times(result, base);
+                }
+            }
+            else if (childrenDone) {
+                int rightNode = results[--resultCount];
+                int leftNode = results[--resultCount];
+                result = node instanceof Plus ? plus(leftNode, rightNode) : times(leftNode, rightNode);
+            }
+            else if (node instanceof Plus || node instanceof Multiplication) {
+                pending.add(node);
+                expanded.add(true);
+                pending.add(node instanceof Plus ? ((Plus)node).rightTerm : ((Multiplication)node).rightTerm);
+                expanded.add(false);
+                pending.add(node instanceof Plus ? ((Plus)node).leftTerm : ((Multiplication)node).leftTerm);
+                expanded.add(false);
+                continue;
+            }
+            else if (node instanceof Power) {
+                pending.add(node);
+                expanded.add(true);
+                pending.add(((Power)node).base);
+                expanded.add(false);
+                continue;
+            }
+            else {
+                throw new IllegalArgumentException("unsupported expression " + node.getClass().getName());
+            }
+            if (resultCount == results.length) {
+                results = Arrays.copyOf(results, resultCount * 2);
+            }
+            results[resultCount++] = result;
+        }
+        checkRep();
+        return results[0];
+    }
+
+    /**
+     * @param root a node of this arena
+     * @return the expression of root as Constant, Variable, Plus and Multiplication objects;
+     *         nodes shared in the arena are shared in the result
+     */
+    public Expression toExpression(int root) {
+        int[] marks = reachable(root);
+        Expression[] expressions = new Expression[root + 1];
+        for (int i = 0; i <= root; i++) {
+            if (marks[i] != REACHABLE) continue;
+            switch (opcodes[i]) {
+            case CONSTANT:
+                expressions[i] = new Constant(constants[left[i]]);
+                break;
+            case VARIABLE:
+                expressions[i] = new Variable(names.get(left[i]));
+                break;
+            case PLUS:
+                expressions[i] = new Plus(expressions[left[i]], expressions[right[i]]);
+                break;
+            default:
+                expressions[i] = new Multiplication(expressions[left[i]], expressions[right[i]]);
+            }
+        }
+        return expressions[root];
+    }
+
+    /**
+     * @param root a node of this arena
+     * @param environment maps variables to values
+     * @return value of root
+     * @throws IllegalArgumentException if a variable of root has no value in environment
+     */
+    public double evaluate(int root, Map<String, Double> environment) {
+        double[] variableValues = new double[names.size()];
+        boolean[] bound = new boolean[names.size()];
+        for (int v = 0; v < names.size(); v++) {
+            Double value = environment.get(names.get(v));
+            if (value != null) {
+                variableValues[v] = value;
+                bound[v] = true;
+            }
+        }
+        int[] marks = reachable(root);
+        double[] values = new double[root + 1];
+        for (int i = 0; i <= root; i++) {
+            if (marks[i] != REACHABLE) continue;
+            switch (opcodes[i]) {
+            case CONSTANT:
+                values[i] = constants[left[i]];
+                break;
+            case VARIABLE:
+                if (!bound[left[i]]) {
+                    throw new IllegalArgumentException("no value for variable " + names.get(left[i]));
+                }
+                values[i] = variableValues[left[i]];
+                break;
+            case PLUS:
+                values[i] = values[left[i]] + values[right[i]];
+                break;
+            default:
+                values[i] = values[left[i]] * values[right[i]];
+            }
+        }
+        return values[root];
+    }
+
+    /**
+     * Differentiates a node with the rules of Expression.differentiate, appending the
+     * derivative to this arena.
+     * @param root a node of this arena
+     * @param variable the variable to differentiate by
+     * @return node of the derivative of root with respect to variable
+     */
+    public int differentiate(int root, String variable) {
+        Integer variableIndex = nameIndices.get(variable);
+        int[] marks = reachable(root);
+        // marks[i] becomes the derivative of node i
+        for (int i = 0; i <= root; i++) {
+            if (marks[i] != REACHABLE) continue;
+            switch (opcodes[i]) {
+            case CONSTANT:
+                marks[i] = constant(0);
+                break;
+            case VARIABLE:
+                marks[i] = variableIndex != null && left[i] == variableIndex ? constant(1) : constant(0);
+                break;
+            case PLUS:
+                marks[i] = sum(marks[left[i]], marks[right[i]], -1);
+                break;
+            default:
+                int product1 = product(left[i], marks[right[i]], true);
+                int product2 = product(right[i], marks[left[i]], false);
+                marks[i] = sum(product1, product2, -1);
+            }
+        }
+        checkRep();
+        return marks[root];
+    }
+
+    /**
+     * Simplifies a node with the rules of Expression.simplify, appending new nodes to this arena.
+     * @param root a node of this arena
+     * @param environment maps variables to values
+     * @return node of root simplified in environment; nodes that do not change are shared
+     */
+    public int simplify(int root, Map<String, Double> environment) {
+        int[] substitutes = new int[names.size()];
+        for (int v = 0; v < names.size(); v++) {
+            Double value = environment.get(names.get(v));
+            substitutes[v] = value == null ? -1 : constant(value);
+        }
+        int[] marks = reachable(root);
+        // marks[i] becomes the simplified node i
+        for (int i = 0; i <= root; i++) {
+            if (marks[i] != REACHABLE) continue;
+            switch (opcodes[i]) {
+            case CONSTANT:
+                marks[i] = i;
+                break;
+            case VARIABLE:
+                marks[i] = substitutes[left[i]] >= 0 ? substitutes[left[i]] : i;
+                break;
+            case PLUS:
+                marks[i] = sum(marks[left[i]], marks[right[i]], i);
+                break;
+            default:
+                marks[i] = product(marks[left[i]], marks[right[i]], i);
+            }
+        }
+        checkRep();
+        return marks[root];
+    }
+
+    // Sum of two nodes with the rules of Plus.simplify; returns original instead of a new
+    // node with the same operands, if original is a sum node.
+    private int sum(int a, int b, int original) {
+        if (isConstant(a) && isConstant(b)) {
+            return constant(value(a) + value(b));
+        }
+        else if (isConstant(a, 0)) {
+            return b;
+        }
+        else if (isConstant(b, 0)) {
+            return a;
+        }
+        else if (original >= 0 && left[original] == a && right[original] == b) {
+            return original;
+        }
+        return append(PLUS, a, b);
+    }
+
+    // One of the products in the derivative of a product, with the rules of
+    // Multiplication.differentiate: term times derivative, with term on the left if termLeft.
+    private int product(int term, int derivative, boolean termLeft) {
+        if (isConstant(term) && isConstant(derivative)) {
+            return constant(value(term) * value(derivative));
+        }
+        else if (isConstant(derivative, 0)) {
+            return constant(0);
+        }
+        else if (isConstant(derivative, 1)) {
+            return term;
+        }
+        return termLeft ? append(TIMES, term, derivative) : append(TIMES, derivative, term);
+    }
+
+    // Product of two nodes with the rules of Multiplication.simplify; returns original instead
+    // of a new node with the same operands, if original is a product node.
+    private int product(int a, int b, int original) {
+        if (isConstant(a) && isConstant(b)) {
+            return constant(value(a) * value(b));
+        }
+        else if (isConstant(a, 0) || isConstant(b, 0)) {
+            return constant(0);
+        }
+        else if (isConstant(a, 1)) {
+            return b;
+        }
+        else if (isConstant(b, 1)) {
+            return a;
+        }
+        else if (original >= 0 && left[original] == a && right[original] == b) {
+            return original;
+        }
+        return append(TIMES, a, b);
+    }
+
+    private boolean isConstant(int node) {
+        return opcodes[node] == CONSTANT;
+    }
+
+    // True if node is a constant equal to value, up to the tolerance of Constant.equals.
+    private boolean isConstant(int node, double value) {
+        return opcodes[node] == CONSTANT && Math.abs(constants[left[node]] - value) < 0.0001;
+    }
+
+    private double value(int node) {
+        return constants[left[node]];
+    }
+
+    // Marks the nodes reachable from root with REACHABLE and the others with UNREACHABLE.
+    private int[] reachable(int root) {
+        checkNode(root);
+        int[] marks = new int[root + 1];
+        Arrays.fill(marks, UNREACHABLE);
+        marks[root] = REACHABLE;
+        for (int i = root; i >= 0; i--) {
+            if (marks[i] == REACHABLE && (opcodes[i] == PLUS || opcodes[i] == TIMES)) {
+                marks[left[i]] = REACHABLE;
+                marks[right[i]] = REACHABLE;
+            }
+        }
+        return marks;
+    }
+
+    private void checkNode(int node) {
+        if (node < 0 || node >= size) {
+            throw new IllegalArgumentException("no node " + node + " in arena of size " + size);
+        }
+    }
+
+    private int append(int opcode, int leftOperand, int rightOperand) {
+        if (size == opcodes.length) {
+            int capacity = size + (size >> 1) + 1;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+        }
+        opcodes[size] = opcode;
+        left[size] = leftOperand;
+        right[size] = rightOperand;
+        return size++;
+    }
+}
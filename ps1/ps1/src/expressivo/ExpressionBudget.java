@@ -0,0 +1,374 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * An immutable set of resource limits for parsing, differentiating and simplifying expressions,
+ * so a single hostile input cannot pin a thread or exhaust the heap.
+ *
+ * <p>The limits are the length of the input text, the depth of the expression, the number of
+ * nodes an operation may visit, the size of the result as a tree, and a wall-clock timeout.
+ * Input length, nesting depth, node count and a bound on the depth of the parsed expression
+ * are checked by a scan before parsing, since a chain of sums or products without parentheses
+ * is as deep as it is long and would take long to parse. The depth of the parsed expression is
+ * checked again after parsing, and the depth of an expression before differentiating or
+ * simplifying it, so the recursive parser and operations cannot overflow the stack; should they
+ * still, the StackOverflowError is reported as exceeding the depth limit. While an operation
+ * runs, every sum, product and power node it visits counts against the node limit on the
+ * running thread, and the clock is checked every 1024 nodes. Threads that run no budgeted operation only pay for reading
+ * one volatile counter per node. Every limit that is exceeded throws BudgetExceededException.
+ */
+public class ExpressionBudget {
+    /** A budget without limits. */
+    public static final ExpressionBudget UNLIMITED =
+            new ExpressionBudget(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    // number of threads running a budgeted operation, 0 on the fast path
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+    private static final ThreadLocal<Meter> METER = new ThreadLocal<>();
+
+    // rep
+    private final int maxInputLength;
+    private final int maxDepth;
+    private final long maxNodes;
+    private final long maxOutputSize;
+    private final long timeoutMillis;
+
+    // Rep invariant:
+    //  all limits are > 0
+    // Abstraction function:
+    //  Represents the budget that allows input text of at most maxInputLength characters,
+    //  expressions at most maxDepth deep, operations that visit at most maxNodes nodes and
+    //  produce trees of at most maxOutputSize nodes, within timeoutMillis milliseconds.
+    // Safety from rep exposure:
+    //  All fields are private, final and immutable.
+
+    // Work done by the operation running on a thread.
+    private static class Meter {
+        private final long maxNodes;
+        private final long deadline;
+        private final long timeoutMillis;
+        private long nodes;
+
+        private Meter(long maxNodes, long timeoutMillis) {
+            this.maxNodes = maxNodes;
+            this.timeoutMillis = timeoutMillis;
+            long now = System.nanoTime();
+            long timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            this.deadline = timeout > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeout;
+        }
+
+        private void step() {
+            if (++nodes > maxNodes) {
+                throw new BudgetExceededException("nodes", maxNodes);
+            }
+            if ((nodes & 1023) == 0 && deadline != Long.MAX_VALUE && System.nanoTime() > deadline) {
+                throw new BudgetExceededException("time", timeoutMillis);
+            }
+        }
+    }
+
+    // Operators seen between one pair of parentheses of text, or outside all of them.
+    private static class Level {
+        private long plus;
+        private long times;
+        private long group;
+        private long summand;
+
+        // Returns a bound on the depth of the expression between the parentheses:
+        // the sum chain is plus deep, and a summand is as deep as its product chain
+        // plus its deepest parenthesized term.
+        private long depth() {
+            return plus + Math.max(summand, times + group);
+        }
+    }
+
+    private ExpressionBudget(int maxInputLength, int maxDepth, long maxNodes, long maxOutputSize, long timeoutMillis) {
+        this.maxInputLength = maxInputLength;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.maxOutputSize = maxOutputSize;
+        this.timeoutMillis = timeoutMillis;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert maxInputLength > 0 && maxDepth > 0 && maxNodes > 0 && maxOutputSize > 0 && timeoutMillis > 0;
+    }
+
+    /**
+     * @return a budget for a shared server: input of at most 100,000 characters, depth at most
+     *         100, at most 10,000,000 nodes visited, results of at most 1,000,000 nodes and
+     *         2 seconds per operation; the parser overflows a default thread stack at about
+     *         300 nested parentheses and is not timed, but parses 100,000 characters well
+     *         within the timeout
+     */
+    public static ExpressionBudget server() {
+        return new ExpressionBudget(100_000, 100, 10_000_000, 1_000_000, 2000);
+    }
+
+    /**
+     * @param maxInputLength maximum number of characters of text to parse, > 0
+     * @return budget like this one with the given input length limit
+     */
+    public ExpressionBudget withMaxInputLength(int maxInputLength) {
+        if (maxInputLength <= 0) throw new IllegalArgumentException("limit must be positive");
+        return new ExpressionBudget(maxInputLength, maxDepth, maxNodes, maxOutputSize, timeoutMillis);
+    }
+
+    /**
+     * @param maxDepth maximum depth of parentheses in text and of operators in expressions, > 0
+     * @return budget like this one with the given depth limit
+     */
+    public ExpressionBudget withMaxDepth(int maxDepth) {
+        if (maxDepth <= 0) throw new IllegalArgumentException("limit must be positive");
+        return new ExpressionBudget(maxInputLength, maxDepth, maxNodes, maxOutputSize, timeoutMillis);
+    }
+
+    /**
+     * @param maxNodes maximum number of nodes parsed or visited by one operation, > 0
+     * @return budget like this one with the given node limit
+     */
+    public ExpressionBudget withMaxNodes(long maxNodes) {
+        if (maxNodes <= 0) throw new IllegalArgumentException("limit must be positive");
+        return new ExpressionBudget(maxInputLength, maxDepth, maxNodes, maxOutputSize, timeoutMillis);
+    }
+
+    /**
+     * @param maxOutputSize maximum number of nodes of the result of an operation, counted as a tree, > 0
+     * @return budget like this one with the given output size limit
+     */
+    public ExpressionBudget withMaxOutputSize(long maxOutputSize) {
+        if (maxOutputSize <= 0) throw new IllegalArgumentException("limit must be positive");
+        return new ExpressionBudget(maxInputLength, maxDepth, maxNodes, maxOutputSize, timeoutMillis);
+    }
+
+    /**
+     * @param timeoutMillis maximum wall-clock time of one operation in milliseconds, > 0
+     * @return budget like this one with the given timeout
+     */
+    public ExpressionBudget withTimeoutMillis(long timeoutMillis) {
+        if (timeoutMillis <= 0) throw new IllegalArgumentException("limit must be positive");
+        return new ExpressionBudget(maxInputLength, maxDepth, maxNodes, maxOutputSize, timeoutMillis);
+    }
+
+    /**
+     * Parses an expression with Expression.parse within this budget.
+     * @param input text to parse
+     * @return the parsed expression
+     * @throws IllegalArgumentException if input is not a valid expression
+     * @throws BudgetExceededException if input is too long, too deeply nested or has too many nodes,
+     *         or the parsed expression is too deep
+     */
+    public Expression parse(String input) {
+        return parse(input, Expression::parse);
+    }
+
+    /**
+     * Parses an expression within this budget.
+     * @param input text to parse
+     * @param parser parses valid text to an expression
+     * @return parser.apply(input)
+     * @throws BudgetExceededException if input is too long, too deeply nested or has too many nodes,
+     *         or the parsed expression is too deep
+     */
+    public Expression parse(String input, Function<String, Expression> parser) {
+        if (input.length() > maxInputLength) {
+            throw new BudgetExceededException("input length", maxInputLength);
+        }
+        // a sum or product has operands on both sides of its operator, so the number
+        // of operators bounds the number of nodes; the parser builds left-deep chains,
+        // so the operators between a pair of parentheses bound the depth they add
+        long nodes = 1;
+        Deque<Level> levels = new ArrayDeque<>();
+        Level level = new Level();
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '(') {
+                levels.push(level);
+                level = new Level();
+                if (levels.size() > maxDepth) {
+                    throw new BudgetExceededException("depth", maxDepth);
+                }
+            }
+            else if (c == ')' && !levels.isEmpty()) {
+                long depth = level.depth();
+                level = levels.pop();
+                level.group = Math.max(level.group, depth);
+            }
+            else if (c == '+') {
+                level.summand = Math.max(level.summand, level.times + level.group);
+                level.times = 0;
+                level.group = 0;
+                level.plus++;
+                nodes += 2;
+            }
+            else if (c == '*') {
+                level.times++;
+                nodes += 2;
+            }
+            else {
+                continue;
+            }
+            if (level.depth() > maxDepth) {
+                throw new BudgetExceededException("depth", maxDepth);
+            }
+        }
+        if (nodes > maxNodes) {
+            throw new BudgetExceededException("nodes", maxNodes);
+        }
+        Expression expression = run(() -> parser.apply(input));
+        checkDepth(expression);
+        return expression;
+    }
+
+    /**
+     * Differentiates an expression within this budget.
+     * @param expression expression to differentiate
+     * @param var variable to differentiate by
+     * @return expression.differentiate(var)
+     * @throws BudgetExceededException if expression is too deep, or differentiating it visits too
+     *         many nodes, takes too long or gives too large a result
+     */
+    public Expression differentiate(Expression expression, Variable var) {
+        checkDepth(expression);
+        return checkOutput(run(() -> expression.differentiate(var)));
+    }
+
+    /**
+     * Simplifies an expression within this budget.
+     * @param expression expression to simplify
+     * @param environment maps variables to values
+     * @return expression.simplify(environment)
+     * @throws BudgetExceededException if expression is too deep, or simplifying it visits too
+     *         many nodes, takes too long or gives too large a result
+     */
+    public Expression simplify(Expression expression, Map<String, Double> environment) {
+        checkDepth(expression);
+        return checkOutput(run(() -> expression.simplify(environment)));
+    }
+
+    /**
+     * Runs an operation on expressions on this thread, counting the nodes it visits against the
+     * node limit and checking the timeout. Operations that are already running on this thread
+     * are not counted against their own budget until this operation returns.
+     * @param operation operation to run
+     * @return result of operation
+     * @throws BudgetExceededException if operation visits too many nodes, takes too long
+     *         or overflows the stack
+     */
+    public <T> T run(Supplier<T> operation) {
+        if (this == UNLIMITED) {
+            return operation.get();
+        }
+        Meter previous = METER.get();
+        METER.set(new Meter(maxNodes, timeoutMillis));
+        ACTIVE.incrementAndGet();
+        try {
+            return operation.get();
+        } catch (StackOverflowError soe) {
+            throw new BudgetExceededException("depth", maxDepth);
+        } finally {
+            ACTIVE.decrementAndGet();
+            METER.set(previous);
+        }
+    }
+
+    /**
+     * Counts a node visited by the operation running on this thread against its budget.
+     * Called by every sum, product and power node that is differentiated or simplified.
+     * @throws BudgetExceededException if the operation visited too many nodes or took too long
+     */
+    static void step() {
+        if (ACTIVE.get() == 0) {
+            return;
+        }
+        Meter meter = METER.get();
+        if (meter != null) {
+            meter.step();
+        }
+    }
+
+    // Checks the depth of expression, visiting shared subexpressions once.
+    private void checkDepth(Expression expression) {
+        if (maxDepth == Integer.MAX_VALUE) {
+            return;
+        }
+        Map<Expression, Integer> depths = new IdentityHashMap<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(Derivative.expanded(expression));
+        while (!pending.isEmpty()) {
+            Expression node = pending.peek();
+            Expression left = null;
+            Expression right = null;
+            if (node instanceof Plus) {
+                left = Derivative.expanded(((Plus)node).leftTerm);
+                right = Derivative.expanded(((Plus)node).rightTerm);
+            }
+            else if (node instanceof Multiplication) {
+                left = Derivative.expanded(((Multiplication)node).leftTerm);
+                right = Derivative.expanded(((Multiplication)node).rightTerm);
+            }
+            else if (node instanceof Power) {
+                left = Derivative.expanded(((Power)node).base);
+                right = left;
+            }
+            if (left == null) {
+                depths.put(node, 0);
+                pending.pop();
+            }
+            else if (!depths.containsKey(left)) {
+                pending.push(left);
+            }
+            else if (!depths.containsKey(right)) {
+                pending.push(right);
+            }
+            else {
+                int depth = 1 + Math.max(depths.get(left), depths.get(right));
+                if (depth > maxDepth) {
+                    throw new BudgetExceededException("depth", maxDepth);
+                }
+                depths.put(node, depth);
+                pending.pop();
+            }
+            if (pending.size() > maxDepth + 1) {
+                throw new BudgetExceededException("depth", maxDepth);
+            }
+        }
+    }
+
+    // Checks the size of expression as a tree, visiting at most maxOutputSize + 1 nodes.
+    private Expression checkOutput(Expression expression) {
+        if (maxOutputSize == Long.MAX_VALUE) {
+            return expression;
+        }
+        long size = 0;
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            if (++size > maxOutputSize) {
+                throw new BudgetExceededException("output size", maxOutputSize);
+            }
+            Expression node = Derivative.expanded(pending.pop());
+            if (node instanceof Plus) {
+                pending.push(((Plus)node).leftTerm);
+                pending.push(((Plus)node).rightTerm);
+            }
+            else if (node instanceof Multiplication) {
+                pending.push(((Multiplication)node).leftTerm);
+                pending.push(((Multiplication)node).rightTerm);
+            }
+            else if (node instanceof Power) {
+                pending.push(((Power)node).base);
+            }
+        }
+        return expression;
+    }
+}
@@ -0,0 +1,256 @@
+package expressivo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static methods that write expressions to and read them from a compact binary format, for
+ * corpora that are too large to parse as text in benchmarks.
+ *
+ * <p>A corpus is the magic number 0x45585052 ("EXPR") and a version byte, then the expressions,
+ * then an END_OF_CORPUS tag. An expression is its nodes in postorder, each a tag byte followed
+ * by a double for a constant, a variable index for a variable, or the exponent for a power,
+ * then an END_OF_EXPRESSION tag.
+ * The first occurrence of every variable in a corpus carries its name, later occurrences its
+ * index. Indices and exponents are unsigned varints. Writing and reading are iterative, so deep
+ * expressions do not overflow the stack. Version 2 added powers; version 1 corpora are still read.
+ */
+public class ExpressionCodec {
+    private static final int MAGIC = 0x45585052;
+    private static final byte VERSION = 2;
+
+    private static final byte CONSTANT = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte NEW_VARIABLE = 2;
+    private static final byte PLUS = 3;
+    private static final byte TIMES = 4;
+    private static final byte END_OF_EXPRESSION = 5;
+    private static final byte END_OF_CORPUS = 6;
+    private static final byte POWER = 7;
+
+    private ExpressionCodec() {
+    }
+
+    /**
+     * @param expression expression to encode
+     * @return expression as a corpus of one expression
+     */
+    public static byte[] encode(Expression expression) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeCorpus(bytes, Arrays.asList(expression));
+        } catch (IOException ioe) {
+            // ByteArrayOutputStream does not throw
+            throw new RuntimeException("You shouldn't reach this code.", ioe);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes a corpus of one expression, as returned by encode
+     * @return the expression
+     * @throws IllegalArgumentException if bytes is not a corpus of one expression
+     */
+    public static Expression decode(byte[] bytes) {
+        try {
+            List<Expression> corpus = readCorpus(new ByteArrayInputStream(bytes));
+            if (corpus.size() != 1) {
+                throw new IllegalArgumentException("expected 1 expression, found " + corpus.size());
+            }
+            return corpus.get(0);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("malformed expression: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Writes a corpus of expressions.
+     * @param out stream to write to, flushed but not closed
+     * @param expressions expressions to write, iterated once
+     * @throws IOException if out cannot be written
+     */
+    public static void writeCorpus(OutputStream out, Iterable<Expression> expressions) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        Map<String, Integer> names = new HashMap<>();
+        for (Expression expression : expressions) {
+            writeExpression(data, expression, names);
+        }
+        data.writeByte(END_OF_CORPUS);
+        data.flush();
+    }
+
+    // Writes the nodes of expression in postorder.
+    private static void writeExpression(DataOutputStream data, Expression expression, Map<String, Integer> names) throws IOException {
+        // nodes whose children were pushed are pushed again with expanded true
+        Deque<Expression> pending = new ArrayDeque<>();
+        Deque<Boolean> expanded = new ArrayDeque<>();
+        pending.push(expression);
+        expanded.push(false);
+        while (!pending.isEmpty()) {
+            Expression node = Derivative.expanded(pending.pop());
+            boolean childrenDone = expanded.pop();
+            if (node instanceof Constant) {
+                data.writeByte(CONSTANT);
+                data.writeDouble(((Constant)node).constant);
+            }
+            else if (node instanceof Variable) {
+                String name = ((Variable)node).name;
+                Integer index = names.get(name);
+                if (index == null) {
+                    names.put(name, names.size());
+                    data.writeByte(NEW_VARIABLE);
+                    data.writeUTF(name);
+                }
+                else {
+                    data.writeByte(VARIABLE);
+                    writeVarint(data, index);
+                }
+            }
+            else if (childrenDone && node instanceof Power) {
+                data.writeByte(POWER);
+                writeVarint(data, ((Power)node).exponent);
+            }
+            else if (childrenDone) {
+                data.writeByte(node instanceof Plus ? PLUS : TIMES);
+            }
+            else if (node instanceof Power) {
+                pending.push(node);
+                expanded.push(true);
+                pending.push(((Power)node).base);
+                expanded.push(false);
+            }
+            else if (node instanceof Plus || node instanceof Multiplication) {
+                pending.push(node);
+                expanded.push(true);
+                pending.push(node instanceof Plus ? ((Plus)node).rightTerm : ((Multiplication)node).rightTerm);
+                expanded.push(false);
+                pending.push(node instanceof Plus ? ((Plus)node).leftTerm : ((Multiplication)node).leftTerm);
+                expanded.push(false);
+            }
+            else {
+                throw new IllegalArgumentException("unsupported expression " + node.getClass().getName());
+            }
+        }
+        data.writeByte(END_OF_EXPRESSION);
+    }
+
+    /**
+     * Reads a corpus of expressions.
+     * @param in stream to read from, not closed; it may be read past the end of the corpus
+     * @return the expressions of the corpus, in order
+     * @throws IOException if in cannot be read or does not hold a well-formed corpus
+     */
+    public static List<Expression> readCorpus(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not an expression corpus");
+        }
+        byte version = data.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("unsupported corpus version " + version);
+        }
+        List<Expression> corpus = new ArrayList<>();
+        List<Variable> variables = new ArrayList<>();
+        Deque<Expression> stack = new ArrayDeque<>();
+        while (true) {
+            byte tag = data.readByte();
+            switch (tag) {
+            case CONSTANT:
+                double constant = data.readDouble();
+                if (!(constant >= 0)) {
+                    throw new IOException("negative constant " + constant);
+                }
+                stack.push(new Constant(constant));
+                break;
+            case NEW_VARIABLE:
+                String name = data.readUTF();
+                if (!name.matches("^[a-zA-Z]+$")) {
+                    throw new IOException("invalid variable name \"" + name + "\"");
+                }
+                Variable variable = new Variable(name);
+                variables.add(variable);
+                stack.push(variable);
+                break;
+            case VARIABLE:
+                int index = readVarint(data);
+                if (index < 0 || index >= variables.size()) {
+                    throw new IOException("unknown variable index " + index);
+                }
+                stack.push(variables.get(index));
+                break;
+            case PLUS:
+            case TIMES:
+                if (stack.size() < 2) {
+                    throw new IOException("operator without operands");
+                }
+                Expression right = stack.pop();
+                Expression left = stack.pop();
+                stack.push(tag == PLUS ? new Plus(left, right) : new Multiplication(left, right));
+                break;
+            case POWER:
+                if (version < 2) {
+                    throw new IOException("power in a version " + version + " corpus");
+                }
+                if (stack.size() < 1) {
+                    throw new IOException("power without base");
+                }
+                int exponent = readVarint(data);
+                Expression base = stack.pop();
+                if (exponent < 3 || !(base instanceof Variable || base instanceof Plus)) {
+                    throw new IOException("invalid power of " + base + " to " + exponent);
+                }
+                stack.push(new Power(base, exponent));
+                break;
+            case END_OF_EXPRESSION:
+                if (stack.size() != 1) {
+                    throw new IOException("expression has " + stack.size() + " roots");
+                }
+                corpus.add(stack.pop());
+                break;
+            case END_OF_CORPUS:
+                if (!stack.isEmpty()) {
+                    throw new IOException("unterminated expression");
+                }
+                return corpus;
+            default:
+                throw new IOException("unknown tag " + tag);
+            }
+        }
+    }
+
+    private static void writeVarint(DataOutputStream data, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            data.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = data.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new EOFException("malformed varint");
+    }
+}
@@ -0,0 +1,88 @@
+package expressivo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Handles the connection between an ExpressionServer and one client.
+ * The client sends one command per line, using the same commands as the console interface in Main,
+ * and receives one line of output per command. An empty line closes the connection.
+ * The metrics are shared by all clients, so "!metrics" only shows them; turning them on or off
+ * and resetting them is left to the console.
+ * Every connection keeps its own ExpressionSession, limited by ExpressionBudget.server(),
+ * so one hostile client cannot hold a server thread for long.
+ */
+public class ExpressionConnection implements Runnable {
+    private final Socket socket;
+    private final ExpressionSession session;
+
+    // Thread safety argument:
+    //  An ExpressionConnection is only used by the thread that runs it.
+    //  The parser and parse cache shared with other connections are thread safe,
+    //  and expressions are immutable.
+
+    public ExpressionConnection(Socket socket) {
+        this.socket = socket;
+        this.session = new ExpressionSession(ExpressionParser::parseCached, ExpressionBudget.server());
+    }
+
+    @Override
+    public void run() {
+        try (
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        ) {
+            for (String line = in.readLine(); line != null && !line.isEmpty(); line = in.readLine()) {
+                out.println(handleRequest(line));
+            }
+        }
+        catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Performs one command on the session of this connection, like Main does.
+     * @param input a non-empty command or expression
+     * @return output for the command, or an error message, also if the command failed with an Error
+     */
+    String handleRequest(String input) {
+        try {
+            if (input.startsWith("!d/d")) {
+                return session.differentiate(Main.parseDifferentiate(input)).toString();
+            } else if (input.startsWith("!simplify")) {
+                final Map<String,Double> environment = Main.parseSimpify(input);
+                return session.simplify(environment).toString();
+            } else if (input.startsWith("!metrics")) {
+                if (!input.trim().equals("!metrics")) {
+                    throw new Main.CommandSyntaxException("usage: !metrics");
+                }
+                return Metrics.snapshotText().replace('\n', ';');
+            } else {
+                return session.enter(input).toString();
+            }
+        } catch (NoSuchElementException nse) {
+            // the session had no current expression
+            return "must enter an expression before using this command";
+        } catch (RuntimeException re) {
+            return re.getClass().getName() + ": " + re.getMessage();
+        } catch (Error e) {
+            // e.g. a StackOverflowError from an input the budget did not foresee; the request
+            // failed, but the session is unchanged and the client can go on
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+}
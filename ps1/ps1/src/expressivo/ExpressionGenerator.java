@@ -0,0 +1,283 @@
+package expressivo;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+/**
+ * An immutable, seeded generator of random expressions, for benchmarks and load tests.
+ *
+ * <p>The i-th expression depends only on the seed, the knobs and i, so a corpus can be
+ * regenerated exactly, or any part of it generated on its own. The knobs are the number of
+ * leaves, the maximum depth, the number of distinct variables, the fraction of leaves that
+ * are constants and the fraction of operators that are products.
+ * Constants are integers below 100, or with two decimals, so the text form parses back
+ * to a mathematically equal expression.
+ */
+public class ExpressionGenerator {
+    // rep
+    private final long seed;
+    private final int size;
+    private final int maxDepth;
+    private final int variables;
+    private final double constantRatio;
+    private final double productRatio;
+
+    // Rep invariant:
+    //  size >= 1, maxDepth >= 0, variables >= 1
+    //  0 <= constantRatio <= 1, 0 <= productRatio <= 1
+    // Abstraction function:
+    //  Represents the sequence of random expressions with about size leaves, at most maxDepth
+    //  levels of operators, variables drawn from the first variables names, a fraction
+    //  constantRatio of constant leaves and productRatio of product operators, determined by seed.
+    // Safety from rep exposure:
+    //  All fields are private, final and immutable.
+
+    /**
+     * Creates a generator of expressions with 32 leaves, depth at most 12, 3 variables,
+     * 30% constants and 50% products.
+     * @param seed seed of the random expressions
+     */
+    public ExpressionGenerator(long seed) {
+        this(seed, 32, 12, 3, 0.3, 0.5);
+    }
+
+    private ExpressionGenerator(long seed, int size, int maxDepth, int variables, double constantRatio, double productRatio) {
+        this.seed = seed;
+        this.size = size;
+        this.maxDepth = maxDepth;
+        this.variables = variables;
+        this.constantRatio = constantRatio;
+        this.productRatio = productRatio;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert size >= 1 && maxDepth >= 0 && variables >= 1;
+        assert constantRatio >= 0 && constantRatio <= 1;
+        assert productRatio >= 0 && productRatio <= 1;
+    }
+
+    /**
+     * @param size number of leaves of every expression, >= 1; expressions have fewer leaves
+     *        if size is more than 2^maxDepth
+     * @return generator like this one with the given size
+     */
+    public ExpressionGenerator withSize(int size) {
+        if (size < 1) throw new IllegalArgumentException("size must be at least 1");
+        return new ExpressionGenerator(seed, size, maxDepth, variables, constantRatio, productRatio);
+    }
+
+    /**
+     * @param maxDepth maximum number of operators on a path from the root to a leaf, >= 0
+     * @return generator like this one with the given maximum depth
+     */
+    public ExpressionGenerator withMaxDepth(int maxDepth) {
+        if (maxDepth < 0) throw new IllegalArgumentException("depth must not be negative");
+        return new ExpressionGenerator(seed, size, maxDepth, variables, constantRatio, productRatio);
+    }
+
+    /**
+     * @param variables number of distinct variables, >= 1; they are named a, b, ..., z, aa, ab, ...
+     * @return generator like this one with the given number of variables
+     */
+    public ExpressionGenerator withVariables(int variables) {
+        if (variables < 1) throw new IllegalArgumentException("there must be at least 1 variable");
+        return new ExpressionGenerator(seed, size, maxDepth, variables, constantRatio, productRatio);
+    }
+
+    /**
+     * @param constantRatio probability that a leaf is a constant, in [0, 1]
+     * @return generator like this one with the given constant ratio
+     */
+    public ExpressionGenerator withConstantRatio(double constantRatio) {
+        if (!(constantRatio >= 0 && constantRatio <= 1)) throw new IllegalArgumentException("ratio must be in [0, 1]");
+        return new ExpressionGenerator(seed, size, maxDepth, variables, constantRatio, productRatio);
+    }
+
+    /**
+     * @param productRatio probability that an operator is a product rather than a sum, in [0, 1]
+     * @return generator like this one with the given product ratio
+     */
+    public ExpressionGenerator withProductRatio(double productRatio) {
+        if (!(productRatio >= 0 && productRatio <= 1)) throw new IllegalArgumentException("ratio must be in [0, 1]");
+        return new ExpressionGenerator(seed, size, maxDepth, variables, constantRatio, productRatio);
+    }
+
+    /**
+     * @param index index of the expression in the sequence, >= 0
+     * @return the index-th expression of this generator
+     */
+    public Expression expression(long index) {
+        // mix the index into the seed so neighboring indices give unrelated sequences
+        Random random = new Random(seed * 0x9E3779B97F4A7C15L + index);
+        int leaves = maxDepth >= 30 ? size : Math.min(size, 1 << maxDepth);
+        return generate(random, leaves, maxDepth);
+    }
+
+    /**
+     * @param count number of expressions
+     * @return the first count expressions of this generator
+     */
+    public List<Expression> corpus(int count) {
+        List<Expression> corpus = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            corpus.add(expression(i));
+        }
+        return corpus;
+    }
+
+    /**
+     * Writes the first count expressions, one per line.
+     * @param out writer to write to, flushed but not closed
+     * @param count number of expressions
+     * @throws IOException if out cannot be written
+     */
+    public void writeText(Writer out, int count) throws IOException {
+        PrintWriter writer = new PrintWriter(out);
+        for (int i = 0; i < count; i++) {
+            writer.println(expression(i));
+        }
+        writer.flush();
+        if (writer.checkError()) {
+            throw new IOException("failed to write corpus");
+        }
+    }
+
+    /**
+     * Writes the first count expressions in the format of ExpressionCodec.
+     * @param out stream to write to, flushed but not closed
+     * @param count number of expressions
+     * @throws IOException if out cannot be written
+     */
+    public void writeBinary(OutputStream out, int count) throws IOException {
+        ExpressionCodec.writeCorpus(out, () -> LongStream.range(0, count).mapToObj(this::expression).iterator());
+    }
+
+    // Random expression with the given number of leaves and at most depth levels of operators.
+    private Expression generate(Random random, int leaves, int depth) {
+        if (leaves == 1 || depth == 0) {
+            if (random.nextDouble() < constantRatio) {
+                return new Constant(random.nextInt(4) == 0 ? random.nextInt(10000) / 100.0 : random.nextInt(100));
+            }
+            return new Variable(name(random.nextInt(variables)));
+        }
+        // both subtrees must fit in depth - 1 levels
+        int capacity = depth - 1 >= 30 ? Integer.MAX_VALUE : 1 << (depth - 1);
+        int low = Math.max(1, leaves - capacity);
+        int high = Math.min(leaves - 1, capacity);
+        int leftLeaves = low + random.nextInt(high - low + 1);
+        Expression left = generate(random, leftLeaves, depth - 1);
+        Expression right = generate(random, leaves - leftLeaves, depth - 1);
+        if (random.nextDouble() < productRatio) {
+            return new Multiplication(left, right);
+        }
+        return new Plus(left, right);
+    }
+
+    /**
+     * @param index index of a variable, >= 0
+     * @return name of the variable: a, b, ..., z, aa, ab, ...
+     */
+    static String name(int index) {
+        StringBuilder name = new StringBuilder();
+        for (int i = index + 1; i > 0; i = (i - 1) / 26) {
+            name.append((char)('a' + (i - 1) % 26));
+        }
+        return name.reverse().toString();
+    }
+
+    /**
+     * Writes a corpus of random expressions to a file or standard output.
+     *
+     * <p>Usage: ExpressionGenerator [--seed S] [--count N] [--size LEAVES] [--depth D] [--variables V]
+     *          [--constants RATIO] [--products RATIO] [--binary] [--output FILE]
+     *
+     * <p>The corpus is written as text, one expression per line, unless --binary is given.
+     * Without --output it is written to standard output.
+     *
+     * @param args arguments as described
+     * @throws IOException if the corpus cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = 6005;
+        int count = 1000;
+        int size = 32;
+        int depth = 12;
+        int variables = 3;
+        double constants = 0.3;
+        double products = 0.5;
+        boolean binary = false;
+        String output = null;
+        ExpressionGenerator generator;
+
+        Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
+        try {
+            while (!arguments.isEmpty()) {
+                String flag = arguments.remove();
+                try {
+                    if (flag.equals("--seed")) {
+                        seed = Long.parseLong(arguments.remove());
+                    } else if (flag.equals("--count")) {
+                        count = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--size")) {
+                        size = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--depth")) {
+                        depth = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--variables")) {
+                        variables = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--constants")) {
+                        constants = Double.parseDouble(arguments.remove());
+                    } else if (flag.equals("--products")) {
+                        products = Double.parseDouble(arguments.remove());
+                    } else if (flag.equals("--binary")) {
+                        binary = true;
+                    } else if (flag.equals("--output")) {
+                        output = arguments.remove();
+                    } else {
+                        throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                    }
+                } catch (NoSuchElementException nsee) {
+                    throw new IllegalArgumentException("missing argument for " + flag);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("unable to parse number for " + flag);
+                }
+            }
+            generator = new ExpressionGenerator(seed).withSize(size).withMaxDepth(depth).withVariables(variables)
+                    .withConstantRatio(constants).withProductRatio(products);
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.println("usage: ExpressionGenerator [--seed S] [--count N] [--size LEAVES] [--depth D] [--variables V] "
+                    + "[--constants RATIO] [--products RATIO] [--binary] [--output FILE]");
+            return;
+        }
+
+        OutputStream out = output == null ? System.out : new FileOutputStream(output);
+        try {
+            OutputStream buffered = new BufferedOutputStream(out);
+            if (binary) {
+                generator.writeBinary(buffered, count);
+            } else {
+                generator.writeText(new OutputStreamWriter(buffered, StandardCharsets.UTF_8), count);
+            }
+            buffered.flush();
+        } finally {
+            if (output != null) {
+                out.close();
+            }
+        }
+    }
+}
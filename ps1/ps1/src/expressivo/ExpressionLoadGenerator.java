@@ -0,0 +1,186 @@
+package expressivo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator for ExpressionServer.
+ * Every simulated client connects to the server and repeatedly sends an expression,
+ * a differentiation and a simplification, measuring the round trip latency of every request.
+ * At the end the throughput and the latency distribution are printed.
+ */
+public class ExpressionLoadGenerator {
+    private static final String DEFAULT_EXPRESSION = "3*x*x*y + 2*x*(y + 4) + x*y*z + 7";
+    private static final String[] DEFAULT_COMMANDS = { "!d/dx", "!simplify x=2 y=3" };
+
+    private final String host;
+    private final int port;
+    private final String expression;
+    private final LatencyHistogram latency;
+    private final LongAdder errors;
+
+    /**
+     * @param host server host name
+     * @param port server port
+     * @param expression expression sent by the clients
+     */
+    public ExpressionLoadGenerator(String host, int port, String expression) {
+        this.host = host;
+        this.port = port;
+        this.expression = expression;
+        this.latency = new LatencyHistogram();
+        this.errors = new LongAdder();
+    }
+
+    /**
+     * Runs clients against the server until the duration has passed.
+     * @param clients number of concurrent clients, > 0
+     * @param durationMillis duration of the run
+     * @return latencies of all requests
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public LatencyHistogram run(int clients, long durationMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + durationMillis * 1_000_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> runClient(deadline));
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return latency;
+    }
+
+    /**
+     * @return number of failed connections and error replies
+     */
+    public long errors() {
+        return errors.sum();
+    }
+
+    // Sends requests over one connection until deadline (System.nanoTime()).
+    private void runClient(long deadline) {
+        try (
+                Socket socket = new Socket(host, port);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        ) {
+            while (System.nanoTime() < deadline) {
+                request(in, out, expression);
+                for (String command : DEFAULT_COMMANDS) {
+                    request(in, out, command);
+                }
+            }
+            out.println();
+        }
+        catch (IOException ioe) {
+            errors.increment();
+        }
+    }
+
+    // Sends one request and waits for its reply.
+    private void request(BufferedReader in, PrintWriter out, String request) throws IOException {
+        long start = System.nanoTime();
+        out.println(request);
+        String reply = in.readLine();
+        latency.record(System.nanoTime() - start);
+        if (reply == null) {
+            throw new IOException("connection closed by server");
+        }
+        if (reply.startsWith("must enter") || reply.contains("Exception")) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Run the load generator.
+     *
+     * <br> Usage: ExpressionLoadGenerator [--host HOST --port PORT] [--clients N] [--seconds S] [--expression EXPR]
+     *
+     * <br> If no host is given, an ExpressionServer is started in this process on a free port.
+     * <br> N is the number of concurrent clients (default 16), S the duration of the run (default 10)
+     *      and EXPR the expression the clients differentiate and simplify.
+     *
+     * @param args arguments as described
+     * @throws IOException if the local server can't be started
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = null;
+        int port = ExpressionServer.DEFAULT_PORT;
+        int clients = 16;
+        int seconds = 10;
+        String expression = DEFAULT_EXPRESSION;
+
+        Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
+        try {
+            while (!arguments.isEmpty()) {
+                String flag = arguments.remove();
+                try {
+                    if (flag.equals("--host")) {
+                        host = arguments.remove();
+                    } else if (flag.equals("--port")) {
+                        port = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--clients")) {
+                        clients = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--seconds")) {
+                        seconds = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--expression")) {
+                        expression = arguments.remove();
+                    } else {
+                        throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                    }
+                } catch (NoSuchElementException nsee) {
+                    throw new IllegalArgumentException("missing argument for " + flag);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("unable to parse number for " + flag);
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.println("usage: ExpressionLoadGenerator [--host HOST --port PORT] [--clients N] [--seconds S] [--expression EXPR]");
+            return;
+        }
+
+        ExpressionServer localServer = null;
+        if (host == null) {
+            localServer = new ExpressionServer(0, Executors.newCachedThreadPool());
+            final ExpressionServer server = localServer;
+            Thread serverThread = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            });
+            serverThread.setDaemon(true);
+            serverThread.start();
+            host = "127.0.0.1";
+            port = localServer.getPort();
+        }
+
+        ExpressionLoadGenerator generator = new ExpressionLoadGenerator(host, port, expression);
+        LatencyHistogram latency = generator.run(clients, seconds * 1000L);
+        System.out.println(String.format(Locale.US, "%d clients, %d requests in %d s: %.0f requests/s, %d errors",
+                clients, latency.count(), seconds, latency.count() / (double)seconds, generator.errors()));
+        System.out.println("latency " + latency);
+
+        if (localServer != null) {
+            localServer.close();
+        }
+    }
+}
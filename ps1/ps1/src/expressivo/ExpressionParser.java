@@ -0,0 +1,90 @@
+package expressivo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import expressivo.Expression.ExpressionGrammar;
+import lib6005.parser.*;
+
+/**
+ * Shared parser for expressions.
+ * The grammar in Expression.g is compiled once and the compiled parser is shared by all threads,
+ * which is safe because parsing does not modify it.
+ * Optionally parsed expressions are kept in a bounded least-recently-used cache, which is safe
+ * because expressions are immutable. The cache is bounded by the total length of the cached inputs,
+ * which also bounds the size of the cached expressions, and inputs longer than MAX_CACHED_LENGTH
+ * are never cached.
+ */
+class ExpressionParser {
+    /** Maximum total length of the inputs kept by the parse cache. */
+    static final int CACHE_CHARACTERS = 1 << 18;
+    /** Maximum length of an input kept by the parse cache. */
+    static final int MAX_CACHED_LENGTH = 4096;
+
+    private static Parser<ExpressionGrammar> parser;
+    // least recently used input first, guarded by itself
+    private static final Map<String, Expression> cache = new LinkedHashMap<String, Expression>(16, 0.75f, true);
+    // total length of the inputs in cache, guarded by cache
+    private static long cachedCharacters = 0;
+
+    private ExpressionParser() {
+    }
+
+    /**
+     * @return the compiled grammar, compiled on first use
+     * @throws IOException if Expression.g can't be read
+     * @throws UnableToParseException if Expression.g is not a valid grammar
+     */
+    static synchronized Parser<ExpressionGrammar> parser() throws IOException, UnableToParseException {
+        if (parser == null) {
+            parser = GrammarCompiler.compile(new File("Expression.g"), ExpressionGrammar.ROOT);
+        }
+        return parser;
+    }
+
+    /**
+     * Parses an expression, using the parse cache.
+     * Equivalent to Expression.parse(input), but repeated inputs of at most MAX_CACHED_LENGTH characters
+     * are usually parsed only once.
+     * @param input expression to parse, as defined in the PS1 handout.
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static Expression parseCached(String input) {
+        synchronized (cache) {
+            Expression cached = cache.get(input);
+            if (cached != null) {
+                Metrics.count("parse.cache.hit");
+                return cached;
+            }
+        }
+        Metrics.count("parse.cache.miss");
+        Expression expression = Expression.parse(input);
+        if (input.length() > MAX_CACHED_LENGTH) {
+            return expression;
+        }
+        synchronized (cache) {
+            if (cache.put(input, expression) == null) {
+                cachedCharacters += input.length();
+            }
+            Iterator<String> eldest = cache.keySet().iterator();
+            while (cachedCharacters > CACHE_CHARACTERS) {
+                cachedCharacters -= eldest.next().length();
+                eldest.remove();
+            }
+        }
+        return expression;
+    }
+
+    /**
+     * @return total length of the inputs in the parse cache, at most CACHE_CHARACTERS
+     */
+    static long cachedCharacters() {
+        synchronized (cache) {
+            return cachedCharacters;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package expressivo;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Multi-client network server for the expression system.
+ * Clients use the line protocol of the console interface in Main, see ExpressionConnection.
+ */
+public class ExpressionServer {
+
+    // System thread safety argument
+    //  Every client connection is handled by its own ExpressionConnection, which keeps the
+    //  current expression of that client confined to the task running it.
+    //  All connections share the compiled grammar and the parse cache in ExpressionParser,
+    //  which are thread safe, and the metrics, which are thread safe.
+
+    /** Default server port. */
+    public static final int DEFAULT_PORT = 4445;
+    /** Maximum port number as defined by ServerSocket. */
+    private static final int MAXIMUM_PORT = 65535;
+
+    /** Socket for receiving incoming connections. */
+    private final ServerSocket serverSocket;
+    /** Runs one task per client connection. */
+    private final ExecutorService connections;
+
+    /**
+     * Make an ExpressionServer that listens for connections on port.
+     * On a Java runtime with virtual threads, Executors.newVirtualThreadPerTaskExecutor()
+     * is a good choice for connections.
+     *
+     * @param port port number, requires 0 <= port <= 65535, 0 picks a free port
+     * @param connections executor that runs the client connections
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public ExpressionServer(int port, ExecutorService connections) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.connections = connections;
+    }
+
+    /**
+     * @return port this server is listening on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Run the server, listening for client connections and handling them.
+     * Returns when the server is closed.
+     *
+     * @throws IOException if the main server socket is broken
+     *                     (IOExceptions from individual clients do *not* terminate serve())
+     */
+    public void serve() throws IOException {
+        while (true) {
+            final Socket socket;
+            try {
+                // block until a client connects
+                socket = serverSocket.accept();
+            }
+            catch (SocketException se) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw se;
+            }
+            connections.execute(new ExpressionConnection(socket));
+        }
+    }
+
+    /**
+     * Stop accepting connections and stop the executor.
+     * @throws IOException if an error occurs closing the server socket
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdown();
+    }
+
+    /**
+     * Start an ExpressionServer.
+     *
+     * <br> Usage: ExpressionServer [--port PORT]
+     *
+     * <br> PORT is an optional integer in the range 0 to 65535 inclusive, specifying the port the server
+     *      should be listening on for incoming connections, DEFAULT_PORT if not given.
+     *
+     * @param args arguments as described
+     * @throws IOException if a network error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
+        try {
+            while (!arguments.isEmpty()) {
+                String flag = arguments.remove();
+                try {
+                    if (flag.equals("--port")) {
+                        port = Integer.parseInt(arguments.remove());
+                        if (port < 0 || port > MAXIMUM_PORT) {
+                            throw new IllegalArgumentException("port " + port + " out of range");
+                        }
+                    } else {
+                        throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                    }
+                } catch (NoSuchElementException nsee) {
+                    throw new IllegalArgumentException("missing argument for " + flag);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("unable to parse number for " + flag);
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.println("usage: ExpressionServer [--port PORT]");
+            return;
+        }
+
+        Metrics.registerMBean();
+        ExpressionServer server = new ExpressionServer(port, Executors.newCachedThreadPool());
+        System.out.println("listening on port " + server.getPort());
+        server.serve();
+    }
+}
@@ -0,0 +1,189 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * A mutable session of commands on a current expression, as in the console interface.
+ *
+ * <p>The session keeps the current expression as an Expression, so commands work on the
+ * syntax tree directly and text is parsed only when the user enters a new expression.
+ * It also keeps the history of the current expression: the entered expression followed by
+ * each derivative taken from it, and compiles the current expression once, when it is
+ * first evaluated. Without a budget, derivatives are Derivative expressions that expand
+ * only the parts that are read, so chains of derivatives that are never printed in full
+ * are never built in full.
+ */
+public class ExpressionSession {
+    // rep
+    private final Function<String, Expression> parser;
+    private final ExpressionBudget budget;
+    private final List<Expression> history;
+    private final List<String> variables;
+    private Optional<CompiledExpression> compiled;
+
+    // Rep invariant:
+    //  history.size() == variables.size() + 1, or both are empty
+    //  compiled is empty or compiles the last expression of history
+    // Abstraction function:
+    //  Represents a session whose current expression is the last expression of history, or no
+    //  current expression if history is empty, where history.get(i + 1) is the derivative of
+    //  history.get(i) with respect to variables.get(i); expressions are parsed by parser,
+    //  and parsing, differentiating and simplifying are limited by budget.
+    // Safety from rep exposure:
+    //  All fields are private, history() and variables() return unmodifiable copies,
+    //  and expressions are immutable.
+
+    /**
+     * Creates a session without a current expression, that parses with Expression.parse.
+     */
+    public ExpressionSession() {
+        this(Expression::parse);
+    }
+
+    /**
+     * Creates a session without a current expression.
+     * @param parser parses expressions entered as text, throws IllegalArgumentException
+     *        if the text is not a valid expression
+     */
+    public ExpressionSession(Function<String, Expression> parser) {
+        this(parser, ExpressionBudget.UNLIMITED);
+    }
+
+    /**
+     * Creates a session without a current expression, whose commands are limited by a budget.
+     * @param parser parses expressions entered as text, throws IllegalArgumentException
+     *        if the text is not a valid expression
+     * @param budget limits parsing, differentiating and simplifying; commands that exceed it
+     *        throw BudgetExceededException and do not change the session
+     */
+    public ExpressionSession(Function<String, Expression> parser, ExpressionBudget budget) {
+        this.parser = parser;
+        this.budget = budget;
+        this.history = new ArrayList<>();
+        this.variables = new ArrayList<>();
+        this.compiled = Optional.empty();
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert history.isEmpty() ? variables.isEmpty() : history.size() == variables.size() + 1;
+    }
+
+    /**
+     * Parses an expression and makes it the current expression, starting a new history.
+     * @param input text of an expression
+     * @return the parsed expression
+     * @throws IllegalArgumentException if input is not a valid expression
+     * @throws BudgetExceededException if parsing input exceeds the budget of this session
+     */
+    public Expression enter(String input) {
+        Expression expression = budget.parse(input, parser);
+        history.clear();
+        variables.clear();
+        history.add(expression);
+        compiled = Optional.empty();
+        checkRep();
+        return expression;
+    }
+
+    /**
+     * Differentiates the current expression and makes the derivative the current expression.
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters
+     * @return the derivative of the current expression with respect to variable
+     * @throws NoSuchElementException if there is no current expression
+     * @throws BudgetExceededException if differentiating exceeds the budget of this session
+     */
+    public Expression differentiate(String variable) {
+        Expression expression = current().get();
+        Variable var = Expression.variable(variable);
+        final long start = Metrics.DIFFERENTIATE.start();
+        final Expression derivative;
+        try {
+            // a lazy derivative would expand after the budget stopped counting, so only
+            // sessions without a budget keep derivatives unexpanded until they are read
+            derivative = budget == ExpressionBudget.UNLIMITED
+                    ? Expression.derivative(expression, var)
+                    : budget.differentiate(expression, var);
+        } catch (BudgetExceededException bee) {
+            Metrics.DIFFERENTIATE.fail(start);
+            throw bee;
+        }
+        Metrics.DIFFERENTIATE.stop(start, derivative);
+        history.add(derivative);
+        variables.add(variable);
+        compiled = Optional.empty();
+        checkRep();
+        return derivative;
+    }
+
+    /**
+     * Simplifies the current expression, which does not change.
+     * @param environment maps variables to values
+     * @return the current expression simplified in environment
+     * @throws NoSuchElementException if there is no current expression
+     * @throws BudgetExceededException if simplifying exceeds the budget of this session
+     */
+    public Expression simplify(Map<String, Double> environment) {
+        Expression expression = current().get();
+        final long start = Metrics.SIMPLIFY.start();
+        final Expression simplified;
+        try {
+            simplified = budget.simplify(expression, environment);
+        } catch (BudgetExceededException bee) {
+            Metrics.SIMPLIFY.fail(start);
+            throw bee;
+        }
+        Metrics.SIMPLIFY.stop(start, simplified);
+        return simplified;
+    }
+
+    /**
+     * Evaluates the current expression, compiling it the first time.
+     * @param environment maps every variable of the current expression to its value
+     * @return value of the current expression
+     * @throws NoSuchElementException if there is no current expression
+     * @throws IllegalArgumentException if a variable has no value in environment
+     */
+    public double evaluate(Map<String, Double> environment) {
+        return compiled().evaluate(environment);
+    }
+
+    /**
+     * @return the current expression compiled over its variables in alphabetical order
+     * @throws NoSuchElementException if there is no current expression
+     */
+    public CompiledExpression compiled() {
+        if (!compiled.isPresent()) {
+            compiled = Optional.of(CompiledExpression.compile(current().get()));
+        }
+        return compiled.get();
+    }
+
+    /**
+     * @return the current expression, or empty if no expression was entered yet
+     */
+    public Optional<Expression> current() {
+        return history.isEmpty() ? Optional.empty() : Optional.of(history.get(history.size() - 1));
+    }
+
+    /**
+     * @return the last entered expression followed by the derivatives taken from it, in order;
+     *         the last one is the current expression
+     */
+    public List<Expression> history() {
+        return Collections.unmodifiableList(new ArrayList<>(history));
+    }
+
+    /**
+     * @return the variables of the derivatives in history(), in order
+     */
+    public List<String> variables() {
+        return Collections.unmodifiableList(new ArrayList<>(variables));
+    }
+}
@@ -0,0 +1,193 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Static methods that rewrite polynomial expressions to fewer operations before evaluating them.
+ *
+ * <p>The expression is expanded and rewritten to multivariate Horner form: the variable that
+ * occurs in most terms is factored out of those terms, p = x*q + r, and q and r are rewritten
+ * the same way. For example 3*x*x*x + 2*x*x + x, 7 operations, becomes x*(x*(3*x + 2) + 1),
+ * 5 operations. If the expression as written is already cheaper, for example a product of
+ * sums, it is kept.
+ */
+public class HornerOptimizer {
+
+    private HornerOptimizer() {
+    }
+
+    /**
+     * An immutable result of optimizing an expression, with the operation counts
+     * before and after.
+     */
+    public static class Result {
+        public final Expression original;
+        public final Expression optimized;
+        public final long multiplicationsBefore;
+        public final long additionsBefore;
+        public final long multiplicationsAfter;
+        public final long additionsAfter;
+
+        private Result(Expression original, Expression optimized) {
+            this.original = original;
+            this.optimized = optimized;
+            this.multiplicationsBefore = multiplications(original);
+            this.additionsBefore = additions(original);
+            this.multiplicationsAfter = multiplications(optimized);
+            this.additionsAfter = additions(optimized);
+        }
+
+        /**
+         * @return the operation counts, e.g. "multiplications 5 -> 3, additions 2 -> 2"
+         */
+        @Override
+        public String toString() {
+            return "multiplications " + multiplicationsBefore + " -> " + multiplicationsAfter
+                    + ", additions " + additionsBefore + " -> " + additionsAfter;
+        }
+    }
+
+    // A term of a polynomial, with exponents in the order of the variables of the polynomial.
+    private static class Term {
+        private final int[] exponents;
+        private final double coefficient;
+
+        private Term(int[] exponents, double coefficient) {
+            this.exponents = exponents;
+            this.coefficient = coefficient;
+        }
+    }
+
+    /**
+     * Rewrites an expression to the form with the fewest operations of its Horner form and
+     * the expression itself.
+     * @param expression polynomial expression to optimize
+     * @return the optimized expression, mathematically equal to expression, and the
+     *         operation counts before and after
+     * @throws IllegalArgumentException if expression has too many variables or too high degrees
+     *         to expand
+     */
+    public static Result optimize(Expression expression) {
+        Expression horner = horner(expression);
+        if (operations(horner) < operations(expression)) {
+            return new Result(expression, horner);
+        }
+        return new Result(expression, expression);
+    }
+
+    /**
+     * Optimizes an expression and compiles the result over the variables of expression.
+     * @param expression polynomial expression to compile
+     * @return compiled optimized expression, with the variables of expression in alphabetical order
+     */
+    public static CompiledExpression compile(Expression expression) {
+        List<String> variables = CompiledExpression.compile(expression).variables();
+        return CompiledExpression.compile(optimize(expression).optimized, variables);
+    }
+
+    /**
+     * @param expression polynomial expression
+     * @return the multivariate Horner form of expression
+     */
+    public static Expression horner(Expression expression) {
+        SparsePolynomial polynomial = SparsePolynomial.of(expression);
+        List<String> variables = polynomial.variables();
+        List<Term> terms = new ArrayList<>();
+        for (int i = 0; i < polynomial.terms(); i++) {
+            terms.add(new Term(polynomial.exponents(i), polynomial.coefficient(i)));
+        }
+        return horner(terms, variables);
+    }
+
+    // Horner form of the sum of terms, which have different exponents.
+    private static Expression horner(List<Term> terms, List<String> variables) {
+        if (terms.isEmpty()) {
+            return new Constant(0);
+        }
+        // factor out the variable that occurs in most terms
+        int best = -1;
+        int bestCount = 0;
+        for (int v = 0; v < variables.size(); v++) {
+            int count = 0;
+            for (Term term : terms) {
+                if (term.exponents[v] > 0) count++;
+            }
+            if (count > bestCount) {
+                best = v;
+                bestCount = count;
+            }
+        }
+        if (best < 0) {
+            // only the constant term is left
+            return new Constant(terms.get(0).coefficient);
+        }
+        List<Term> factored = new ArrayList<>();
+        List<Term> rest = new ArrayList<>();
+        for (Term term : terms) {
+            if (term.exponents[best] > 0) {
+                int[] exponents = term.exponents.clone();
+                exponents[best]--;
+                factored.add(new Term(exponents, term.coefficient));
+            }
+            else {
+                rest.add(term);
+            }
+        }
+        Variable variable = new Variable(variables.get(best));
+        Expression quotient = horner(factored, variables);
+        Expression product = quotient.equals(new Constant(1)) ? variable : new Multiplication(variable, quotient);
+        return rest.isEmpty() ? product : new Plus(product, horner(rest, variables));
+    }
+
+    /**
+     * @param expression an expression
+     * @return number of multiplications to evaluate expression as written
+     */
+    public static long multiplications(Expression expression) {
+        return count(expression, Multiplication.class);
+    }
+
+    /**
+     * @param expression an expression
+     * @return number of additions to evaluate expression as written
+     */
+    public static long additions(Expression expression) {
+        return count(expression, Plus.class);
+    }
+
+    private static long operations(Expression expression) {
+        return multiplications(expression) + additions(expression);
+    }
+
+    // Number of nodes of the given class in the tree of expression.
+    private static long count(Expression expression, Class<? extends Expression> type) {
+        long count = 0;
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            Expression node = Derivative.expanded(pending.pop());
+            if (type.isInstance(node)) {
+                count++;
+            }
+            else if (node instanceof Power && type == Multiplication.class) {
+                // a power is evaluated by repeated squaring
+                count += Power.multiplications(((Power)node).exponent);
+            }
+            if (node instanceof Plus) {
+                pending.push(((Plus)node).leftTerm);
+                pending.push(((Plus)node).rightTerm);
+            }
+            else if (node instanceof Multiplication) {
+                pending.push(((Multiplication)node).leftTerm);
+                pending.push(((Multiplication)node).rightTerm);
+            }
+            else if (node instanceof Power) {
+                pending.push(((Power)node).base);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,160 @@
+package expressivo;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe histogram of latencies in nanoseconds.
+ * Values are counted in log-linear buckets: every power of two is split into
+ * 2^SUB_BUCKET_BITS equally wide buckets, so a recorded value is known up to a relative
+ * error of about 3%. Recording is lock-free and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // rep
+    private final AtomicLongArray counts;
+    private final LongAdder total;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    // Rep invariant:
+    //  counts.length() == BUCKETS, the sum of all counts equals total (once all recordings have finished)
+    // Abstraction function:
+    //  Represents the multiset of recorded values, where counts.get(i) values fell in bucket i,
+    //  sum is the sum of all recorded values and max is the largest recorded value.
+    // Safety from rep exposure:
+    //  All fields are private and final and are never returned.
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.total = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a value.
+     * @param nanos value to record, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * @return mean of the recorded values, or 0 if there are none
+     */
+    public double mean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double)sum.sum() / count;
+    }
+
+    /**
+     * @return largest recorded value, or 0 if there are none
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound on the value at the given percentile.
+     * @param percentile in the range [0, 100]
+     * @return smallest bucket upper bound such that at least percentile% of the
+     * recorded values are at most that bound, or 0 if there are no values.
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Adds all values recorded in that histogram to this histogram.
+     * @param that histogram to add, not modified
+     */
+    public void add(LatencyHistogram that) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = that.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.add(that.total.sum());
+        sum.add(that.sum.sum());
+        max.accumulate(that.max.get());
+    }
+
+    /**
+     * Removes all recorded values.
+     * Not atomic with respect to concurrent recordings.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * @return one line summary of the distribution with values in microseconds
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                count(), mean() / 1000, percentile(50) / 1000.0, percentile(90) / 1000.0,
+                percentile(99) / 1000.0, percentile(99.9) / 1000.0, max() / 1000.0);
+    }
+
+    // Returns the bucket that value falls in, value >= 0.
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int)(value >>> shift);
+        return (shift + 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    // Returns the largest value that falls in the given bucket.
+    private static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -6,7 +6,6 @@ import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,7 +25,8 @@ public class Main {
      */
     public static void main(String[] args) throws IOException {
         final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-        Optional<String> currentExpression = Optional.empty();
+        final ExpressionSession session = new ExpressionSession();
+        Metrics.registerMBean();
         
         while (true) {
             System.out.print("> ");
@@ -41,21 +41,21 @@ public class Main {
                 
                 if (input.startsWith(DIFFERENTIATE_PREFIX)) {
                     final String variable = parseDifferentiate(input);
-                    output = Commands.differentiate(currentExpression.get(), variable);
-                    currentExpression = Optional.of(output);
+                    output = session.differentiate(variable).toString();
                 } else if (input.startsWith(SIMPLIFY_PREFIX)) {
                     final Map<String,Double> environment = parseSimpify(input);
-                    output = Commands.simplify(currentExpression.get(), environment);
-                    // ... but don't change currentExpression
+                    output = session.simplify(environment).toString();
+                    // ... but don't change the current expression
+                } else if (input.startsWith(METRICS_PREFIX)) {
+                    output = metrics(input);
+                    // ... and don't change the current expression
                 } else {
-                    final Expression expression = Expression.parse(input);
-                    output = expression.toString();
-                    currentExpression = Optional.of(output);
+                    output = session.enter(input).toString();
                 }
                 
                 System.out.println(output);
             } catch (NoSuchElementException nse) {
-                // currentExpression was empty
+                // the session had no current expression
                 System.out.println("must enter an expression before using this command");
             } catch (RuntimeException re) {
                 System.out.println(re.getClass().getName() + ": " + re.getMessage());
@@ -67,7 +67,7 @@ public class Main {
     private static final String VARIABLE = "[A-Za-z]+";
     private static final String DIFFERENTIATE = DIFFERENTIATE_PREFIX + "(" + VARIABLE + ") *";
 
-    private static String parseDifferentiate(final String input) {
+    static String parseDifferentiate(final String input) {
         final Matcher commandMatcher = Pattern.compile(DIFFERENTIATE).matcher(input);
         if (!commandMatcher.matches()) {
             throw new CommandSyntaxException("usage: !d/d must be followed by a variable name");
@@ -81,7 +81,7 @@ public class Main {
     private static final String ASSIGNMENT = "(" + VARIABLE + ") *= *([^ ]+)";
     private static final String SIMPLIFY = SIMPLIFY_PREFIX + "( +" + ASSIGNMENT + ")* *";    
 
-    private static Map<String,Double> parseSimpify(final String input) {
+    static Map<String,Double> parseSimpify(final String input) {
         final Matcher commandMatcher = Pattern.compile(SIMPLIFY).matcher(input);
         if (!commandMatcher.matches()) {
             throw new CommandSyntaxException("usage: !simplify var1=val1 var2=val2 ...");
@@ -100,6 +100,33 @@ public class Main {
         return environment;
     }
     
+    private static final String METRICS_PREFIX = "!metrics";
+    private static final String METRICS = METRICS_PREFIX + "( +(on|off|reset))? *";
+
+    /**
+     * Handles a metrics command: "!metrics" prints a snapshot of the metrics,
+     * "!metrics on" and "!metrics off" enable and disable recording and "!metrics reset" clears them.
+     * @param input metrics command
+     * @return output for the command
+     */
+    static String metrics(final String input) {
+        final Matcher commandMatcher = Pattern.compile(METRICS).matcher(input);
+        if (!commandMatcher.matches()) {
+            throw new CommandSyntaxException("usage: !metrics [on|off|reset]");
+        }
+
+        final String argument = commandMatcher.group(2);
+        if (argument == null) {
+            return Metrics.snapshotText();
+        } else if (argument.equals("reset")) {
+            Metrics.clear();
+            return "metrics reset";
+        } else {
+            Metrics.enable(argument.equals("on"));
+            return "metrics " + (Metrics.enabled() ? "enabled" : "disabled");
+        }
+    }
+    
     public static class CommandSyntaxException extends RuntimeException {
         private static final long serialVersionUID = 1;
         public CommandSyntaxException(String message) {
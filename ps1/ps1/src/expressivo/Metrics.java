@@ -0,0 +1,319 @@
+package expressivo;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics of the expression engine.
+ *
+ * <p>Every instrumented operation has a Timer that counts calls and failures and records latencies
+ * in a LatencyHistogram. Other events, such as cache hits and misses, are counted by named counters.
+ * Metrics are disabled unless the system property expressivo.metrics is true or setEnabled(true)
+ * is called; while disabled every instrumentation point costs a single volatile read.
+ *
+ * <p>Counting the nodes of every produced expression walks the whole result, which can cost as much
+ * as the operation itself, so timers only count nodes if the system property expressivo.metrics.nodes
+ * is true or countNodes(true) is called.
+ *
+ * <p>All methods are thread safe.
+ */
+public class Metrics implements MetricsMBean {
+    /** Name under which the metrics are registered with the platform MBean server. */
+    public static final String OBJECT_NAME = "expressivo:type=Metrics";
+
+    // value returned by Timer.start() when metrics are disabled
+    private static final long DISABLED = Long.MIN_VALUE;
+
+    private static volatile boolean enabled = Boolean.getBoolean("expressivo.metrics");
+    private static volatile boolean countingNodes = Boolean.getBoolean("expressivo.metrics.nodes");
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /** Expression.parse */
+    public static final Timer PARSE = new Timer("parse");
+    /** Differentiation of a parsed expression */
+    public static final Timer DIFFERENTIATE = new Timer("differentiate");
+    /** Simplification of a parsed expression */
+    public static final Timer SIMPLIFY = new Timer("simplify");
+
+    private static final Timer[] TIMERS = { PARSE, DIFFERENTIATE, SIMPLIFY };
+
+    // only created to be registered as MBean
+    private Metrics() {
+    }
+
+    /**
+     * @return whether metrics are being recorded
+     */
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * @param on whether metrics should be recorded from now on
+     */
+    public static void enable(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return whether timers count the nodes of the expressions they record
+     */
+    public static boolean countingNodes() {
+        return countingNodes;
+    }
+
+    /**
+     * @param on whether timers should count the nodes of the expressions recorded from now on
+     */
+    public static void countNodes(boolean on) {
+        countingNodes = on;
+    }
+
+    /**
+     * Adds 1 to the counter with the given name, if metrics are enabled.
+     * @param name name of the counter
+     */
+    public static void count(String name) {
+        if (enabled) {
+            counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * @param name name of a counter
+     * @return current value of the counter, 0 if it was never incremented
+     */
+    public static long counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Clears all timers and counters.
+     */
+    public static void clear() {
+        for (Timer timer : TIMERS) {
+            timer.clear();
+        }
+        counters.clear();
+    }
+
+    /**
+     * @return human readable snapshot of all timers and counters, one per line
+     */
+    public static String snapshotText() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("metrics ").append(enabled ? "enabled" : "disabled");
+        for (Timer timer : TIMERS) {
+            builder.append('\n').append(timer);
+        }
+        Map<String, LongAdder> sorted = new TreeMap<>(counters);
+        for (Map.Entry<String, LongAdder> entry : sorted.entrySet()) {
+            builder.append('\n').append(entry.getKey()).append(" = ").append(entry.getValue().sum());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under OBJECT_NAME.
+     * Does nothing if they are already registered.
+     * @throws IllegalStateException if the registration fails
+     */
+    public static void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Metrics(), name);
+            }
+        }
+        catch (InstanceAlreadyExistsException e) {
+            // registered concurrently by another thread
+        }
+        catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics MBean", e);
+        }
+    }
+
+    /**
+     * Counts the nodes of an expression without recursion.
+     * @param expression expression to measure
+     * @return number of nodes in expression, where shared subexpressions are counted once per occurrence
+     *         and derivatives that were not expanded yet count as one node, so they stay unexpanded
+     */
+    public static long nodeCount(Expression expression) {
+        long count = 0;
+        Deque<Expression> stack = new ArrayDeque<>();
+        stack.push(expression);
+        while (!stack.isEmpty()) {
+            Expression node = stack.pop();
+            if (node instanceof Derivative) {
+                // a derivative that was not expanded yet counts as one node
+                Expression expanded = ((Derivative)node).expandedOrNull();
+                if (expanded != null) {
+                    stack.push(expanded);
+                    continue;
+                }
+            }
+            count++;
+            if (node instanceof Plus) {
+                stack.push(((Plus)node).leftTerm);
+                stack.push(((Plus)node).rightTerm);
+            }
+            else if (node instanceof Multiplication) {
+                stack.push(((Multiplication)node).leftTerm);
+                stack.push(((Multiplication)node).rightTerm);
+            }
+            else if (node instanceof Power) {
+                stack.push(((Power)node).base);
+            }
+        }
+        return count;
+    }
+
+    // MBean view of the static state
+
+    @Override
+    public boolean isEnabled() {
+        return enabled();
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        enable(enabled);
+    }
+
+    @Override
+    public long getParseCount() {
+        return PARSE.calls();
+    }
+
+    @Override
+    public long getDifferentiateCount() {
+        return DIFFERENTIATE.calls();
+    }
+
+    @Override
+    public long getSimplifyCount() {
+        return SIMPLIFY.calls();
+    }
+
+    @Override
+    public double getParseP99Micros() {
+        return PARSE.latency.percentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getDifferentiateP99Micros() {
+        return DIFFERENTIATE.latency.percentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getSimplifyP99Micros() {
+        return SIMPLIFY.latency.percentile(99) / 1000.0;
+    }
+
+    @Override
+    public String getSnapshot() {
+        return snapshotText();
+    }
+
+    @Override
+    public void reset() {
+        clear();
+    }
+
+    /**
+     * Measures one instrumented operation. Usage:
+     * <pre>
+     *   long start = Metrics.PARSE.start();
+     *   ... operation producing result ...
+     *   Metrics.PARSE.stop(start, result);
+     * </pre>
+     * or Metrics.PARSE.fail(start) if the operation failed.
+     */
+    public static class Timer {
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder nodes = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return start time of an operation, to be passed to stop() or fail()
+         */
+        public long start() {
+            return enabled ? System.nanoTime() : DISABLED;
+        }
+
+        /**
+         * Records a successful operation.
+         * @param start value returned by start() when the operation began
+         * @param result expression produced by the operation, its nodes are counted if countingNodes()
+         */
+        public void stop(long start, Expression result) {
+            if (start == DISABLED) {
+                return;
+            }
+            latency.record(System.nanoTime() - start);
+            calls.increment();
+            if (countingNodes) {
+                nodes.add(nodeCount(result));
+            }
+        }
+
+        /**
+         * Records a failed operation.
+         * @param start value returned by start() when the operation began
+         */
+        public void fail(long start) {
+            if (start == DISABLED) {
+                return;
+            }
+            failures.increment();
+        }
+
+        /**
+         * @return number of successful operations
+         */
+        public long calls() {
+            return calls.sum();
+        }
+
+        /**
+         * @return latency distribution of successful operations
+         */
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        private void clear() {
+            calls.reset();
+            failures.reset();
+            nodes.reset();
+            latency.reset();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-14s calls=%d failures=%d nodes=%d %s",
+                    name, calls.sum(), failures.sum(), nodes.sum(), latency);
+        }
+    }
+}
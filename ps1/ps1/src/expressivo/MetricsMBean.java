@@ -0,0 +1,58 @@
+package expressivo;
+
+/**
+ * JMX management interface of the expression engine metrics.
+ * See Metrics for the meaning of the values.
+ */
+public interface MetricsMBean {
+
+    /**
+     * @return whether metrics are being recorded
+     */
+    public boolean isEnabled();
+
+    /**
+     * @param enabled whether metrics should be recorded
+     */
+    public void setEnabled(boolean enabled);
+
+    /**
+     * @return number of successful calls to Expression.parse
+     */
+    public long getParseCount();
+
+    /**
+     * @return number of successful differentiations done by Commands.differentiate
+     */
+    public long getDifferentiateCount();
+
+    /**
+     * @return number of successful simplifications done by Commands.simplify
+     */
+    public long getSimplifyCount();
+
+    /**
+     * @return 99th percentile latency of Expression.parse in microseconds
+     */
+    public double getParseP99Micros();
+
+    /**
+     * @return 99th percentile latency of differentiation in microseconds
+     */
+    public double getDifferentiateP99Micros();
+
+    /**
+     * @return 99th percentile latency of simplification in microseconds
+     */
+    public double getSimplifyP99Micros();
+
+    /**
+     * @return text snapshot of all metrics
+     */
+    public String getSnapshot();
+
+    /**
+     * Clears all recorded metrics.
+     */
+    public void reset();
+}
@@ -32,6 +32,8 @@ public class Multiplication implements Expression {
 
     @Override
     public boolean equals(Object thatObject) {
+        thatObject = thatObject instanceof Derivative ? ((Derivative)thatObject).expand() : thatObject;
+        if (thatObject instanceof Power) return ((Power) thatObject).equalsProduct(this);
         if (!(thatObject instanceof Multiplication)) return false;
         
         Multiplication thatMultiplication = (Multiplication) thatObject;
@@ -47,6 +49,7 @@ public class Multiplication implements Expression {
 
     @Override
     public Expression differentiate(Variable var) {
+        ExpressionBudget.step();
         Expression leftDerivative = leftTerm.differentiate(var);
         Expression rightDerivative = rightTerm.differentiate(var);
         Expression product1 = null;
@@ -111,6 +114,7 @@ public class Multiplication implements Expression {
 
     @Override
     public Expression simplify(Map<String, Double> environment) {
+        ExpressionBudget.step();
         Expression left = this.leftTerm.simplify(environment);
         Expression right = this.rightTerm.simplify(environment);
         
@@ -132,9 +136,24 @@ public class Multiplication implements Expression {
         else if (right.equals(new Constant(1))) {
             return left;
         }
-        // In all other cases product1 is the multiplication between the left term and the right derivative
+        // if neither term changed, share this expression instead of copying it
+        else if (left == this.leftTerm && right == this.rightTerm) {
+            return this;
+        }
+        // In all other cases multiply the terms, collecting a run of equal factors 
+        // that meets in the middle into a power, as the parser would
         else {
-            return new Multiplication(left, right);
+            return Power.times(left, right);
         } 
     }
+
+    @Override
+    public Expression substitute(Map<String, Expression> bindings) {
+        Expression left = leftTerm.substitute(bindings);
+        Expression right = rightTerm.substitute(bindings);
+        if (left == leftTerm && right == rightTerm) {
+            return this;
+        }
+        return Power.times(left, right);
+    }
 }
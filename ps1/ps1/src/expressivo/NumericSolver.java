@@ -0,0 +1,264 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable numeric solver for an expression f, that finds points where f equals a target
+ * and local minima of f.
+ *
+ * <p>f is compiled once, when the solver is created; every iteration then only evaluates the
+ * compiled program and its gradient into preallocated registers, so iterations do not allocate.
+ * The gradient is propagated back through the program instead of differentiating f
+ * symbolically, so deep expressions cannot overflow the stack. Roots are found by Newton's method, or by Newton's
+ * method safeguarded by bisection when a bracket is given, and minima by gradient descent with
+ * backtracking line search. Solving from many starting points runs in parallel.
+ * Variables may take negative values, although constants in expressions cannot be negative.
+ */
+public class NumericSolver {
+    /** Maximum number of times a gradient descent step is halved. */
+    private static final int MAX_HALVINGS = 60;
+
+    // rep
+    private final CompiledExpression function;
+    private final int registers;
+
+    // Rep invariant:
+    //  registers == 2 * function.size()
+    // Abstraction function:
+    //  Represents the solver for the function compiled in function.
+    // Safety from rep exposure:
+    //  All fields are private and final, and compiled expressions are immutable.
+
+    /**
+     * An immutable result of a solver run.
+     */
+    public static class Result {
+        /** Value of the function at the point. */
+        public final double value;
+        /** Number of iterations run. */
+        public final int iterations;
+        /** True if the run met its tolerance, false if it stopped for another reason. */
+        public final boolean converged;
+        private final double[] point;
+
+        private Result(double[] point, double value, int iterations, boolean converged) {
+            this.point = point.clone();
+            this.value = value;
+            this.iterations = iterations;
+            this.converged = converged;
+        }
+
+        /**
+         * @return the point the run ended at, with coordinates in the order of variables()
+         */
+        public double[] point() {
+            return point.clone();
+        }
+
+        @Override
+        public String toString() {
+            return (converged ? "converged" : "did not converge") + " after " + iterations
+                    + " iterations at " + Arrays.toString(point) + ", value " + value;
+        }
+    }
+
+    /**
+     * Creates a solver for an expression.
+     * @param expression the function f to solve, a function of its variables in alphabetical order
+     */
+    public NumericSolver(Expression expression) {
+        this.function = CompiledExpression.compile(expression);
+        this.registers = 2 * function.size();
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert registers == 2 * function.size();
+    }
+
+    /**
+     * @return the variables of f, in alphabetical order
+     */
+    public List<String> variables() {
+        return function.variables();
+    }
+
+    /**
+     * Finds a point x where f(x) = target by Newton's method, for f of one variable.
+     * @param start starting point
+     * @param target value to solve for
+     * @param tolerance run converges when |f(x) - target| <= tolerance, > 0
+     * @param maxIterations maximum number of iterations
+     * @return the point the run ended at
+     * @throws IllegalArgumentException if f does not have exactly one variable
+     */
+    public Result findRoot(double start, double target, double tolerance, int maxIterations) {
+        checkUnivariate();
+        double[] x = { start };
+        double[] derivative = new double[1];
+        double[] scratch = new double[registers];
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            double residual = function.gradient(x, derivative, scratch) - target;
+            if (Math.abs(residual) <= tolerance) {
+                return new Result(x, residual + target, iteration, true);
+            }
+            double slope = derivative[0];
+            double next = x[0] - residual / slope;
+            if (slope == 0 || !Double.isFinite(next)) {
+                return new Result(x, residual + target, iteration, false);
+            }
+            x[0] = next;
+        }
+        double value = function.evaluate(x, scratch);
+        return new Result(x, value, maxIterations, Math.abs(value - target) <= tolerance);
+    }
+
+    /**
+     * Finds a point x in [low, high] where f(x) = target by Newton's method, falling back to
+     * bisection whenever a Newton step would leave the bracket or not shrink it fast enough,
+     * for f of one variable.
+     * @param low one end of the bracket
+     * @param high other end of the bracket, where f - target has the opposite sign than at low
+     * @param target value to solve for
+     * @param tolerance run converges when |f(x) - target| <= tolerance or the bracket is
+     *        narrower than tolerance, > 0
+     * @param maxIterations maximum number of iterations
+     * @return the point the run ended at
+     * @throws IllegalArgumentException if f does not have exactly one variable, or f - target
+     *         has the same nonzero sign at low and high
+     */
+    public Result findRoot(double low, double high, double target, double tolerance, int maxIterations) {
+        checkUnivariate();
+        double[] x = { low };
+        double[] scratch = new double[registers];
+        double lowResidual = function.evaluate(x, scratch) - target;
+        x[0] = high;
+        double highResidual = function.evaluate(x, scratch) - target;
+        if (lowResidual == 0 || highResidual == 0) {
+            x[0] = lowResidual == 0 ? low : high;
+            return new Result(x, target, 0, true);
+        }
+        if ((lowResidual > 0) == (highResidual > 0)) {
+            throw new IllegalArgumentException("f - target has the same sign at " + low + " and " + high);
+        }
+        // keep the bracket oriented so that f - target is negative at a and positive at b
+        double a = lowResidual < 0 ? low : high;
+        double b = lowResidual < 0 ? high : low;
+        double previousWidth = Math.abs(b - a);
+        x[0] = (a + b) / 2;
+        double[] derivative = new double[1];
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            double residual = function.gradient(x, derivative, scratch) - target;
+            if (Math.abs(residual) <= tolerance || Math.abs(b - a) <= tolerance) {
+                return new Result(x, residual + target, iteration, true);
+            }
+            if (residual < 0) {
+                a = x[0];
+            } else {
+                b = x[0];
+            }
+            double slope = derivative[0];
+            double newton = x[0] - residual / slope;
+            double width = Math.abs(b - a);
+            boolean inside = newton > Math.min(a, b) && newton < Math.max(a, b);
+            if (slope != 0 && inside && width < previousWidth / 2) {
+                x[0] = newton;
+            } else {
+                x[0] = (a + b) / 2;
+            }
+            previousWidth = width;
+        }
+        double value = function.evaluate(x, scratch);
+        return new Result(x, value, maxIterations, Math.abs(value - target) <= tolerance);
+    }
+
+    /**
+     * Finds a local minimum of f by gradient descent with backtracking line search.
+     * @param start starting point, with coordinates in the order of variables()
+     * @param stepSize initial step size of every iteration, > 0
+     * @param tolerance run converges when the norm of the gradient is at most tolerance, > 0
+     * @param maxIterations maximum number of iterations
+     * @return the point the run ended at
+     * @throws IllegalArgumentException if start does not have a coordinate for every variable
+     */
+    public Result minimize(double[] start, double stepSize, double tolerance, int maxIterations) {
+        if (start.length != function.variables().size()) {
+            throw new IllegalArgumentException("expected " + function.variables().size() + " coordinates, got " + start.length);
+        }
+        double[] x = start.clone();
+        double[] trial = new double[x.length];
+        double[] g = new double[x.length];
+        double[] scratch = new double[registers];
+        double value = function.evaluate(x, scratch);
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            function.gradient(x, g, scratch);
+            double norm2 = 0;
+            for (int i = 0; i < g.length; i++) {
+                norm2 += g[i] * g[i];
+            }
+            if (Math.sqrt(norm2) <= tolerance) {
+                return new Result(x, value, iteration, true);
+            }
+            // halve the step until it decreases f enough (Armijo condition)
+            double step = stepSize;
+            double trialValue = Double.NaN;
+            int halvings = 0;
+            for (; halvings < MAX_HALVINGS; halvings++, step /= 2) {
+                for (int i = 0; i < x.length; i++) {
+                    trial[i] = x[i] - step * g[i];
+                }
+                trialValue = function.evaluate(trial, scratch);
+                if (trialValue <= value - step * norm2 / 2) {
+                    break;
+                }
+            }
+            if (halvings == MAX_HALVINGS) {
+                // no descent possible at this precision, or f is unbounded below along -g
+                return new Result(x, value, iteration, false);
+            }
+            System.arraycopy(trial, 0, x, 0, x.length);
+            value = trialValue;
+        }
+        return new Result(x, value, maxIterations, false);
+    }
+
+    /**
+     * Runs findRoot(start, target, tolerance, maxIterations) from many starting points in parallel.
+     * @param starts starting points
+     * @param target value to solve for
+     * @param tolerance as in findRoot
+     * @param maxIterations as in findRoot
+     * @return the results, in the order of starts
+     * @throws IllegalArgumentException if f does not have exactly one variable
+     */
+    public List<Result> findRoots(double[] starts, double target, double tolerance, int maxIterations) {
+        checkUnivariate();
+        return IntStream.range(0, starts.length).parallel()
+                .mapToObj(i -> findRoot(starts[i], target, tolerance, maxIterations))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Runs minimize(start, stepSize, tolerance, maxIterations) from many starting points in parallel.
+     * @param starts starting points
+     * @param stepSize as in minimize
+     * @param tolerance as in minimize
+     * @param maxIterations as in minimize
+     * @return the results, in the order of starts
+     * @throws IllegalArgumentException if a start does not have a coordinate for every variable
+     */
+    public List<Result> minimizeAll(List<double[]> starts, double stepSize, double tolerance, int maxIterations) {
+        return starts.parallelStream()
+                .map(start -> minimize(start, stepSize, tolerance, maxIterations))
+                .collect(Collectors.toList());
+    }
+
+    private void checkUnivariate() {
+        if (function.variables().size() != 1) {
+            throw new IllegalArgumentException("expected a function of one variable, got " + function.variables());
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package expressivo;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Differential harness that runs Expression and Commands against the staff oracle of the
+ * grader, expressivo.staff.Parser and expressivo.staff.Polynomial.
+ *
+ * <p>For every input the harness parses, differentiates and simplifies it both ways and checks
+ * that the results are the same polynomial: our result is parsed by the staff parser, as the
+ * grader does, and the coefficients of every monomial are compared with a relative tolerance
+ * of TOLERANCE. The grader instead compares coefficients rounded to a fixed number of decimals,
+ * which fails whenever a constant printed with 4 decimals is multiplied by a large one.
+ * The latency of every operation is recorded on both sides, from input string to result,
+ * so our side is timed through Commands and the staff side includes its parse.
+ * An operation that throws on either side, whether an exception or a StackOverflowError,
+ * counts as a mismatch with the exception as the example; its latency is not recorded.
+ * The staff classes are not part of this project and are loaded reflectively from the
+ * grader's compiled tests, by default .grader/bin-tests-final.
+ *
+ * <p>A harness is not thread safe.
+ */
+public class OracleHarness {
+    /** Default directory of the compiled staff classes, relative to the project. */
+    public static final String DEFAULT_CLASSES = ".grader/bin-tests-final";
+    /** Maximum number of mismatches kept as examples. */
+    public static final int MAX_EXAMPLES = 10;
+    /** Relative difference below which coefficients are considered equal. */
+    public static final double TOLERANCE = 1e-4;
+
+    /** Operations compared by the harness. */
+    public enum Operation { PARSE, DIFFERENTIATE, SIMPLIFY }
+
+    // rep
+    private final Method staffParse;
+    private final Method staffDifferentiate;
+    private final Method staffEvaluate;
+    private final Field staffNumber;
+    private final Field staffMonomials;
+    private final Map<Operation, LatencyHistogram> ours;
+    private final Map<Operation, LatencyHistogram> staff;
+    private final Map<Operation, Long> checks;
+    private final Map<Operation, Long> mismatches;
+    private final List<String> examples;
+
+    // Rep invariant:
+    //  ours, staff, checks and mismatches have every Operation as key
+    //  mismatches.get(op) <= checks.get(op), examples.size() <= MAX_EXAMPLES
+    // Abstraction function:
+    //  Represents the results of checks.get(op) comparisons of op against the staff methods,
+    //  mismatches.get(op) of which disagreed, with examples of the first disagreements and
+    //  the latencies of our and the staff implementation of every op.
+    // Safety from rep exposure:
+    //  All fields are private; histograms are copied and examples are returned unmodifiable.
+
+    /**
+     * Makes a harness with staff classes loaded from a directory or jar.
+     * @param classes directory or jar holding expressivo.staff.Parser and expressivo.staff.Polynomial
+     * @return a harness with no checks run
+     * @throws ReflectiveOperationException if the staff classes or their methods are not found
+     */
+    public static OracleHarness load(File classes) throws ReflectiveOperationException {
+        final URL url;
+        try {
+            url = classes.toURI().toURL();
+        } catch (MalformedURLException mue) {
+            throw new ClassNotFoundException("bad location of staff classes: " + classes, mue);
+        }
+        return new OracleHarness(new URLClassLoader(new URL[] { url }, OracleHarness.class.getClassLoader()));
+    }
+
+    /**
+     * Makes a harness with staff classes from a class loader.
+     * @param loader class loader that finds expressivo.staff.Parser and expressivo.staff.Polynomial
+     * @throws ReflectiveOperationException if the staff classes or their methods are not found
+     */
+    public OracleHarness(ClassLoader loader) throws ReflectiveOperationException {
+        Class<?> parser = Class.forName("expressivo.staff.Parser", true, loader);
+        Class<?> polynomial = Class.forName("expressivo.staff.Polynomial", true, loader);
+        this.staffParse = parser.getMethod("parse", String.class);
+        this.staffDifferentiate = polynomial.getMethod("differentiate", String.class);
+        this.staffEvaluate = polynomial.getMethod("evaluate", Map.class);
+        // the coefficients are private; Polynomial.round() only supports comparing with a fixed precision
+        this.staffNumber = polynomial.getDeclaredField("number");
+        this.staffMonomials = polynomial.getDeclaredField("vls");
+        staffNumber.setAccessible(true);
+        staffMonomials.setAccessible(true);
+        this.ours = new HashMap<>();
+        this.staff = new HashMap<>();
+        this.checks = new HashMap<>();
+        this.mismatches = new HashMap<>();
+        for (Operation operation : Operation.values()) {
+            ours.put(operation, new LatencyHistogram());
+            staff.put(operation, new LatencyHistogram());
+            checks.put(operation, 0L);
+            mismatches.put(operation, 0L);
+        }
+        this.examples = new ArrayList<>();
+        checkRep();
+    }
+
+    private void checkRep() {
+        for (Operation operation : Operation.values()) {
+            assert mismatches.get(operation) <= checks.get(operation);
+        }
+        assert examples.size() <= MAX_EXAMPLES;
+    }
+
+    /**
+     * Compares parse, differentiate and simplify of one input with the staff oracle.
+     * An operation that throws on either side counts as a mismatch, the other operations are
+     * still compared.
+     * @param input a valid expression
+     * @param variable variable to differentiate by
+     * @param environment environment to simplify in
+     * @return true if and only if all three results agree with the oracle
+     */
+    public boolean check(String input, String variable, Map<String, Double> environment) {
+        boolean agree = true;
+        agree &= compare(Operation.PARSE, input,
+                () -> Expression.parse(input).toString(),
+                () -> staff(staffParse, null, input));
+        agree &= compare(Operation.DIFFERENTIATE, input + " d/d" + variable,
+                () -> Commands.differentiate(input, variable),
+                () -> staff(staffDifferentiate, staff(staffParse, null, input), variable));
+        agree &= compare(Operation.SIMPLIFY, input + " at " + environment,
+                () -> Commands.simplify(input, environment),
+                () -> staff(staffEvaluate, staff(staffParse, null, input), environment));
+        checkRep();
+        return agree;
+    }
+
+    /**
+     * Compares count generated expressions with the staff oracle. Every expression is
+     * differentiated by one of its variables and simplified with a random subset of them bound
+     * to random values.
+     * @param generator generator of the expressions
+     * @param variables number of variables of generator's expressions, >= 1
+     * @param first index of the first expression, >= 0
+     * @param count number of expressions, >= 0
+     * @return number of expressions whose results did not all agree
+     */
+    public long run(ExpressionGenerator generator, int variables, long first, long count) {
+        long failed = 0;
+        for (long index = first; index < first + count; index++) {
+            Random random = new Random(index);
+            Map<String, Double> environment = new HashMap<>();
+            for (int i = 0; i < variables; i++) {
+                if (random.nextBoolean()) {
+                    environment.put(ExpressionGenerator.name(i), random.nextInt(1000) / 100.0);
+                }
+            }
+            String variable = ExpressionGenerator.name(random.nextInt(variables));
+            if (!check(generator.expression(index).toString(), variable, environment)) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * @param operation an operation
+     * @return number of inputs operation was compared on
+     */
+    public long checks(Operation operation) {
+        return checks.get(operation);
+    }
+
+    /**
+     * @param operation an operation
+     * @return number of inputs on which operation disagreed with the oracle
+     */
+    public long mismatches(Operation operation) {
+        return mismatches.get(operation);
+    }
+
+    /**
+     * @return descriptions of the first MAX_EXAMPLES disagreements with the oracle
+     */
+    public List<String> examples() {
+        return Collections.unmodifiableList(examples);
+    }
+
+    /**
+     * @param operation an operation
+     * @param oracle true for the latencies of the staff implementation, false for ours
+     * @return a copy of the latencies of operation
+     */
+    public LatencyHistogram latency(Operation operation, boolean oracle) {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add((oracle ? staff : ours).get(operation));
+        return copy;
+    }
+
+    /**
+     * @return summary of the checks and the latencies of both sides, a few lines per operation
+     */
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            summary.append(String.format(Locale.US, "%s: %d checks, %d mismatches%n",
+                    operation.name().toLowerCase(Locale.US), checks.get(operation), mismatches.get(operation)));
+            summary.append("  ours  ").append(ours.get(operation)).append(System.lineSeparator());
+            summary.append("  staff ").append(staff.get(operation)).append(System.lineSeparator());
+        }
+        return summary.toString();
+    }
+
+    // Runs operation on both sides, timing each, and compares our result with the staff polynomial
+    // it should equal. A side that throws is described by what it threw.
+    private boolean compare(Operation operation, String input, Supplier<String> ourSide, Supplier<Object> staffSide) {
+        checks.merge(operation, 1L, Long::sum);
+        boolean threw = false;
+        String result;
+        long start = System.nanoTime();
+        try {
+            result = ourSide.get();
+            ours.get(operation).record(System.nanoTime() - start);
+        } catch (RuntimeException | StackOverflowError e) {
+            threw = true;
+            result = "threw " + e;
+        }
+        Object expected;
+        start = System.nanoTime();
+        try {
+            expected = staffSide.get();
+            staff.get(operation).record(System.nanoTime() - start);
+        } catch (RuntimeException | StackOverflowError e) {
+            threw = true;
+            expected = "threw " + e;
+        }
+        if (!threw) {
+            Object actual;
+            try {
+                actual = staff(staffParse, null, result);
+            } catch (RuntimeException | StackOverflowError e) {
+                actual = "unparsable: " + e.getMessage();
+            }
+            if (!(actual instanceof String) && close(coefficients(actual), coefficients(expected))) {
+                return true;
+            }
+        }
+        mismatches.merge(operation, 1L, Long::sum);
+        if (examples.size() < MAX_EXAMPLES) {
+            examples.add(operation.name().toLowerCase(Locale.US) + " " + input + ": " + result + ", expected " + expected);
+        }
+        return false;
+    }
+
+    // Returns the coefficients of a staff polynomial by monomial, the constant under the key "".
+    private Map<Object, Double> coefficients(Object polynomial) {
+        Map<Object, Double> coefficients = new HashMap<>();
+        try {
+            for (Map.Entry<?, ?> monomial : ((Map<?, ?>)staffMonomials.get(polynomial)).entrySet()) {
+                coefficients.put(monomial.getKey(), (Double)monomial.getValue());
+            }
+            coefficients.put("", staffNumber.getDouble(polynomial));
+        } catch (IllegalAccessException iae) {
+            // the fields were made accessible
+            throw new RuntimeException("You shouldn't reach this code.", iae);
+        }
+        return coefficients;
+    }
+
+    // Returns true if and only if the coefficients of every monomial are equal within TOLERANCE
+    // relative to the larger of them, or to 1 if both are smaller.
+    private static boolean close(Map<Object, Double> actual, Map<Object, Double> expected) {
+        Set<Object> monomials = new HashSet<>(actual.keySet());
+        monomials.addAll(expected.keySet());
+        for (Object monomial : monomials) {
+            double a = actual.getOrDefault(monomial, 0.0);
+            double b = expected.getOrDefault(monomial, 0.0);
+            if (Math.abs(a - b) > TOLERANCE * Math.max(1, Math.max(Math.abs(a), Math.abs(b)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Invokes a staff method, rethrowing what it throws.
+    private static Object staff(Method method, Object target, Object argument) {
+        try {
+            return method.invoke(target, argument);
+        } catch (InvocationTargetException ite) {
+            if (ite.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)ite.getCause();
+            }
+            throw new RuntimeException(ite.getCause());
+        } catch (IllegalAccessException iae) {
+            // the staff methods are public
+            throw new RuntimeException("You shouldn't reach this code.", iae);
+        }
+    }
+
+    /**
+     * Run the harness on generated expressions and print the comparison.
+     *
+     * <p>Usage: OracleHarness [--classes DIR] [--seed S] [--count N] [--size LEAVES] [--variables V]
+     *
+     * <p>DIR holds the compiled staff classes (default .grader/bin-tests-final), N is the number of
+     * expressions (default 1000) with about LEAVES leaves (default 12) over V variables (default 3).
+     * Exits with status 1 if any result disagrees with the oracle.
+     *
+     * @param args arguments as described
+     * @throws ReflectiveOperationException if the staff classes can't be loaded
+     */
+    public static void main(String[] args) throws ReflectiveOperationException {
+        File classes = new File(DEFAULT_CLASSES);
+        long seed = 0;
+        long count = 1000;
+        int size = 12;
+        int variables = 3;
+
+        Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
+        try {
+            while (!arguments.isEmpty()) {
+                String flag = arguments.remove();
+                try {
+                    if (flag.equals("--classes")) {
+                        classes = new File(arguments.remove());
+                    } else if (flag.equals("--seed")) {
+                        seed = Long.parseLong(arguments.remove());
+                    } else if (flag.equals("--count")) {
+                        count = Long.parseLong(arguments.remove());
+                    } else if (flag.equals("--size")) {
+                        size = Integer.parseInt(arguments.remove());
+                    } else if (flag.equals("--variables")) {
+                        variables = Integer.parseInt(arguments.remove());
+                    } else {
+                        throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                    }
+                } catch (NoSuchElementException nsee) {
+                    throw new IllegalArgumentException("missing argument for " + flag);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("unable to parse number for " + flag);
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println(iae.getMessage());
+            System.err.println("usage: OracleHarness [--classes DIR] [--seed S] [--count N] [--size LEAVES] [--variables V]");
+            return;
+        }
+
+        OracleHarness harness = OracleHarness.load(classes);
+        ExpressionGenerator generator = new ExpressionGenerator(seed).withSize(size).withVariables(variables);
+        long failed = harness.run(generator, variables, 0, count);
+        System.out.print(harness);
+        for (String example : harness.examples()) {
+            System.out.println("mismatch: " + example);
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package expressivo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import expressivo.Expression.ExpressionGrammar;
+import lib6005.parser.ParseTree;
+import lib6005.parser.UnableToParseException;
+
+/**
+ * Static methods that parse very large sums on several threads.
+ *
+ * <p>The terms of a sum are independent, so a scan of the input finds the '+' signs outside
+ * parentheses, the input is cut there into chunks of about CHUNK_SIZE characters, and the
+ * chunks are parsed concurrently on a fork/join pool. Each chunk yields its products, and the
+ * products of all chunks are added in order by Plus.sum, the same fold as Expression.parse,
+ * so parse() returns an expression equal to Expression.parse(input). parseBalanced() adds them
+ * as a balanced sum instead, whose depth grows with the logarithm of the number of terms.
+ * Inputs shorter than a chunk, without a '+' outside parentheses or with unbalanced
+ * parentheses are parsed by Expression.parse.
+ */
+public class ParallelParser {
+    /** Default number of characters parsed by one task. */
+    public static final int CHUNK_SIZE = 1 << 16;
+
+    private ParallelParser() {
+    }
+
+    /**
+     * Parses an expression on the common fork/join pool.
+     * @param input expression to parse, as defined in the PS1 handout.
+     * @return an expression equal to Expression.parse(input)
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parse(String input) {
+        return parse(input, ForkJoinPool.commonPool(), CHUNK_SIZE, false);
+    }
+
+    /**
+     * Parses an expression on a fork/join pool.
+     * @param input expression to parse, as defined in the PS1 handout.
+     * @param pool pool that parses the chunks of input
+     * @return an expression equal to Expression.parse(input)
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parse(String input, ForkJoinPool pool) {
+        return parse(input, pool, CHUNK_SIZE, false);
+    }
+
+    /**
+     * Parses an expression on the common fork/join pool into a balanced sum.
+     * @param input expression to parse, as defined in the PS1 handout.
+     * @return an expression with the same value as Expression.parse(input) for all values of
+     *         the variables, whose terms outside parentheses are added as a balanced tree
+     *         without the terms that are the constant 0
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parseBalanced(String input) {
+        return parse(input, ForkJoinPool.commonPool(), CHUNK_SIZE, true);
+    }
+
+    /**
+     * Parses an expression in chunks of a given size.
+     * @param input expression to parse
+     * @param pool pool that parses the chunks of input
+     * @param chunkSize minimum number of characters of a chunk, except the last, > 0
+     * @param balanced true to add the terms as a balanced sum, false to add them as Expression.parse
+     * @return the parsed expression
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    static Expression parse(String input, ForkJoinPool pool, int chunkSize, boolean balanced) {
+        int[] splits = splitPoints(input);
+        if (input.length() < chunkSize || splits == null || splits.length == 0) {
+            return Expression.parse(input);
+        }
+        final long start = Metrics.PARSE.start();
+        // group the terms into chunks that end just before a split point
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(-1);
+        for (int split : splits) {
+            if (split - bounds.get(bounds.size() - 1) >= chunkSize) {
+                bounds.add(split);
+            }
+        }
+        bounds.add(input.length());
+        final List<Expression> products;
+        try {
+            products = pool.invoke(new ChunkTask(input, bounds, 0, bounds.size() - 1));
+        } catch (RuntimeException re) {
+            Metrics.PARSE.fail(start);
+            throw re;
+        }
+        Expression expression = balanced ? balancedSum(products) : Plus.sum(products);
+        Metrics.PARSE.stop(start, expression);
+        return expression;
+    }
+
+    /**
+     * Finds the '+' signs outside parentheses.
+     * @param input any text
+     * @return the indices in input of the '+' signs at parenthesis depth 0, in increasing order,
+     *         or null if the parentheses of input are not balanced
+     */
+    static int[] splitPoints(String input) {
+        int[] splits = new int[16];
+        int count = 0;
+        int depth = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '(') {
+                depth++;
+            }
+            else if (c == ')') {
+                if (--depth < 0) {
+                    return null;
+                }
+            }
+            else if (c == '+' && depth == 0) {
+                if (count == splits.length) {
+                    splits = Arrays.copyOf(splits, count * 2);
+                }
+                splits[count++] = i;
+            }
+        }
+        return depth == 0 ? Arrays.copyOf(splits, count) : null;
+    }
+
+    // Parses the chunks between bounds.get(first) and bounds.get(last), splitting the range in halves.
+    private static class ChunkTask extends RecursiveTask<List<Expression>> {
+        private static final long serialVersionUID = 1;
+
+        private final String input;
+        private final List<Integer> bounds;
+        private final int first;
+        private final int last;
+
+        private ChunkTask(String input, List<Integer> bounds, int first, int last) {
+            this.input = input;
+            this.bounds = bounds;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected List<Expression> compute() {
+            if (last - first == 1) {
+                return products(input.substring(bounds.get(first) + 1, bounds.get(last)));
+            }
+            int middle = (first + last) / 2;
+            ChunkTask right = new ChunkTask(input, bounds, middle, last);
+            right.fork();
+            List<Expression> products = new ChunkTask(input, bounds, first, middle).compute();
+            products.addAll(right.join());
+            return products;
+        }
+    }
+
+    /**
+     * Parses a sum into its products.
+     * @param chunk a sum
+     * @return the products of chunk outside parentheses, each built as Expression.parse builds it
+     * @throws IllegalArgumentException if chunk is not a valid expression
+     */
+    private static List<Expression> products(String chunk) {
+        final ParseTree<ExpressionGrammar> tree;
+        try {
+            tree = ExpressionParser.parser().parse(chunk);
+        }
+        catch (IOException | UnableToParseException e) {
+            throw new IllegalArgumentException("Parse error: invalid expression");
+        }
+        ParseTree<ExpressionGrammar> sum = tree.childrenByName(ExpressionGrammar.EXPRESSION).get(0)
+                .childrenByName(ExpressionGrammar.SUM).get(0);
+        List<Expression> products = new ArrayList<>();
+        for (ParseTree<ExpressionGrammar> product : sum.childrenByName(ExpressionGrammar.PRODUCT)) {
+            products.add(Expression.buildExpression(product));
+        }
+        return products;
+    }
+
+    // Adds the terms of products that are not 0 as a balanced tree.
+    private static Expression balancedSum(List<Expression> products) {
+        List<Expression> terms = new ArrayList<>();
+        for (Expression product : products) {
+            if (!product.equals(new Constant(0))) {
+                terms.add(product);
+            }
+        }
+        return terms.isEmpty() ? new Constant(0) : balancedSum(terms, 0, terms.size());
+    }
+
+    private static Expression balancedSum(List<Expression> terms, int from, int to) {
+        if (to - from == 1) {
+            return terms.get(from);
+        }
+        int middle = (from + to) / 2;
+        return new Plus(balancedSum(terms, from, middle), balancedSum(terms, middle, to));
+    }
+}
@@ -1,5 +1,6 @@
 package expressivo;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,6 +25,41 @@ public class Plus implements Expression {
         this.rightTerm = right;
     }
     
+    /**
+     * Adds products as the parser does, from the left, folding constants at the start of the sum
+     * and dropping terms equal to 0.
+     * @param products nonempty list of the products of a sum, in order
+     * @return sum of products
+     */
+    public static Expression sum(List<Expression> products) {
+        boolean first2 = true;
+        Expression result2 = null;
+        for (Expression product : products) {
+            if (first2) {
+                result2 = product;
+                first2 = false;
+            }
+            else {
+                // if both terms in sum are constants, add them and return the resulting constant
+                if (result2 instanceof Constant && product instanceof Constant) {
+                    Constant result2_copy = (Constant)result2;
+                    Constant product_copy = (Constant)product;
+                    result2 = new Constant(result2_copy.constant + product_copy.constant);
+                }
+                // if the left term equals 0, return the right term
+                else if (result2.equals(new Constant(0))) {
+                    result2 = product;
+                }
+                // In all other cases return a new plus expression between the terms,
+                // except when the right term equals 0, the result remains the same
+                else if (!product.equals(new Constant(0))) {
+                    result2 = new Plus(result2, product);
+                }                   
+            }
+        }
+        return result2;
+    }
+    
     @Override 
     public String toString() {
         String plusString = "(" + leftTerm.toString() + " + " + rightTerm.toString() + ")";
@@ -32,6 +68,7 @@ public class Plus implements Expression {
 
     @Override
     public boolean equals(Object thatObject) {
+        thatObject = thatObject instanceof Derivative ? ((Derivative)thatObject).expand() : thatObject;
         if (!(thatObject instanceof Plus)) return false;
         
         Plus thatPlus = (Plus) thatObject;
@@ -47,6 +84,7 @@ public class Plus implements Expression {
 
     @Override
     public Expression differentiate(Variable var) {
+        ExpressionBudget.step();
         Expression leftDerivative = leftTerm.differentiate(var);
         Expression rightDerivative = rightTerm.differentiate(var);
         
@@ -72,6 +110,7 @@ public class Plus implements Expression {
 
     @Override
     public Expression simplify(Map<String, Double> environment) {
+        ExpressionBudget.step();
         Expression left = leftTerm.simplify(environment);
         Expression right = rightTerm.simplify(environment);
         
@@ -89,9 +128,23 @@ public class Plus implements Expression {
         else if (right.equals(new Constant(0))) {
             return left;
         } 
+        // if neither term changed, share this expression instead of copying it
+        else if (left == leftTerm && right == rightTerm) {
+            return this;
+        }
         // In all other cases return a new plus expression between the terms
         else {
             return new Plus(left, right);
         }
     }  
+
+    @Override
+    public Expression substitute(Map<String, Expression> bindings) {
+        Expression left = leftTerm.substitute(bindings);
+        Expression right = rightTerm.substitute(bindings);
+        if (left == leftTerm && right == rightTerm) {
+            return this;
+        }
+        return new Plus(left, right);
+    }
 }
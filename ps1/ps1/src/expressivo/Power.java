@@ -0,0 +1,281 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable data type part of the ADT Expression.
+ * Represents a product of three or more equal factors, base*base*...*base.
+ *
+ * <p>The parser produces a Power for a run of equal variable or parenthesized sum factors,
+ * so x*x*x*x is one node instead of a chain of three multiplications. A Power is differentiated
+ * in one step, to exponent*base^(exponent-1) times the derivative of base, instead of
+ * by the product rule at every link of the chain, and is evaluated by repeated squaring.
+ * It prints as the expanded product, which parses back to an equal Power, and is equal to the
+ * chain of multiplications ((base*base)*base)*... that the parser built before powers existed.
+ */
+public class Power implements Expression {
+    // rep
+    public final Expression base;
+    public final int exponent;
+
+    // Rep invariant:
+    //  base is a Variable or a Plus
+    //  exponent >= 3
+    // Abstraction function:
+    //  Represents the product of exponent factors equal to base, multiplied from the left.
+    // Safety from rep exposure:
+    //  All fields are final and immutable.
+
+    /**
+     * Creates a power of a variable or a sum.
+     * @param base a Variable or a Plus
+     * @param exponent number of factors, >= 3
+     */
+    public Power(Expression base, int exponent) {
+        this.base = base;
+        this.exponent = exponent;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert base instanceof Variable || base instanceof Plus;
+        assert exponent >= 3;
+    }
+
+    /**
+     * Creates the simplest expression for a product of equal factors.
+     * @param base any expression
+     * @param exponent number of factors, >= 0
+     * @return 1 for no factors, base for one factor, a Constant if base is a Constant, a Power
+     *         if base is a Variable or a Plus and there are 3 or more factors, otherwise a
+     *         chain of multiplications of base with itself, as the parser builds it
+     */
+    public static Expression of(Expression base, int exponent) {
+        if (exponent == 0) {
+            return new Constant(1);
+        }
+        else if (exponent == 1) {
+            return base;
+        }
+        else if (base instanceof Constant) {
+            return new Constant(power(((Constant)base).constant, exponent));
+        }
+        else if (exponent >= 3 && (base instanceof Variable || base instanceof Plus)) {
+            return new Power(base, exponent);
+        }
+        Expression result = base;
+        for (int i = 1; i < exponent; i++) {
+            result = new Multiplication(result, base);
+        }
+        return result;
+    }
+
+    /**
+     * Multiplies factors as the parser does, from the left, replacing every run of 3 or more
+     * equal Variable or Plus factors by a Power.
+     * @param factors nonempty list of factors
+     * @return product of factors
+     */
+    public static Expression product(List<Expression> factors) {
+        Expression result = null;
+        for (int i = 0; i < factors.size(); ) {
+            Expression factor = factors.get(i);
+            int run = 1;
+            if (factor instanceof Variable || factor instanceof Plus) {
+                while (i + run < factors.size() && factors.get(i + run).equals(factor)) {
+                    run++;
+                }
+            }
+            if (run < 3) {
+                run = 1;
+            }
+            else {
+                factor = new Power(factor, run);
+            }
+            result = result == null ? factor : new Multiplication(result, factor);
+            i += run;
+        }
+        return result;
+    }
+
+    /**
+     * Multiplies two expressions the way the printed product would parse back: if the last
+     * factor of left and the first factor of right are equal variables or sums, so that a run
+     * of equal factors may meet in the middle, the product is rebuilt by product(); otherwise
+     * it is a plain Multiplication. Used by simplify and substitute, so their results round-trip.
+     * @param left any expression
+     * @param right any expression
+     * @return product of left and right
+     */
+    static Expression times(Expression left, Expression right) {
+        Expression last = left;
+        while (last instanceof Multiplication || last instanceof Power) {
+            last = last instanceof Power ? ((Power)last).base : ((Multiplication)last).rightTerm;
+        }
+        Expression first = right;
+        while (first instanceof Multiplication || first instanceof Power) {
+            first = first instanceof Power ? ((Power)first).base : ((Multiplication)first).leftTerm;
+        }
+        if (!(first instanceof Variable || first instanceof Plus) || !first.equals(last)) {
+            return new Multiplication(left, right);
+        }
+        // the factors in printed order, with powers written out
+        List<Expression> factors = new ArrayList<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(right);
+        pending.push(left);
+        while (!pending.isEmpty()) {
+            Expression node = pending.pop();
+            if (node instanceof Multiplication) {
+                pending.push(((Multiplication)node).rightTerm);
+                pending.push(((Multiplication)node).leftTerm);
+            }
+            else if (node instanceof Power) {
+                for (int i = 0; i < ((Power)node).exponent; i++) {
+                    factors.add(((Power)node).base);
+                }
+            }
+            else {
+                factors.add(node);
+            }
+        }
+        return product(factors);
+    }
+
+    /**
+     * Computes a power by repeated squaring.
+     * @param value base
+     * @param exponent >= 0
+     * @return value raised to exponent, with about 2*log2(exponent) multiplications
+     */
+    public static double power(double value, int exponent) {
+        double result = 1;
+        double square = value;
+        for (int n = exponent; n > 0; n >>= 1) {
+            if ((n & 1) != 0) {
+                result *= square;
+            }
+            if (n > 1) {
+                square *= square;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param exponent >= 1
+     * @return number of multiplications power() does for exponent
+     */
+    public static int multiplications(int exponent) {
+        // one squaring per bit after the highest, and one multiplication per further one bit
+        return 31 - Integer.numberOfLeadingZeros(exponent) + Integer.bitCount(exponent) - 1;
+    }
+
+    /**
+     * @return this power as the chain of multiplications the parser built before powers existed,
+     *         ((base*base)*base)*...
+     */
+    public Multiplication toProduct() {
+        Multiplication result = new Multiplication(base, base);
+        for (int i = 2; i < exponent; i++) {
+            result = new Multiplication(result, base);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        String factor = base.toString();
+        StringBuilder powerString = new StringBuilder(factor);
+        for (int i = 1; i < exponent; i++) {
+            powerString.append('*').append(factor);
+        }
+        return powerString.toString();
+    }
+
+    @Override
+    public boolean equals(Object thatObject) {
+        thatObject = thatObject instanceof Derivative ? ((Derivative)thatObject).expand() : thatObject;
+        if (thatObject instanceof Multiplication) return equalsProduct((Multiplication) thatObject);
+        if (!(thatObject instanceof Power)) return false;
+
+        Power thatPower = (Power) thatObject;
+        if (this.exponent == thatPower.exponent && this.base.equals(thatPower.base)) return true;
+        else return false;
+    }
+
+    /**
+     * @param product any multiplication
+     * @return true if and only if product is structurally equal to toProduct(), where parts of
+     *         the chain may be powers themselves
+     */
+    boolean equalsProduct(Multiplication product) {
+        // walk down the left spine of the chain, one factor equal to base at a time
+        Expression node = product;
+        int remaining = exponent;
+        while (remaining > 1) {
+            node = Derivative.expanded(node);
+            if (node instanceof Power) {
+                Power power = (Power)node;
+                return power.exponent == remaining && power.base.equals(base);
+            }
+            if (!(node instanceof Multiplication) || !((Multiplication)node).rightTerm.equals(base)) {
+                return false;
+            }
+            node = ((Multiplication)node).leftTerm;
+            remaining--;
+        }
+        return node.equals(base);
+    }
+
+    @Override
+    public int hashCode() {
+        return exponent * base.hashCode();
+    }
+
+    @Override
+    public Expression differentiate(Variable var) {
+        ExpressionBudget.step();
+        Expression baseDerivative = base.differentiate(var);
+
+        // if the derivative of the base equals 0, return a new constant 0
+        if (baseDerivative.equals(new Constant(0))) {
+            return new Constant(0);
+        }
+        Expression product = new Multiplication(new Constant(exponent), of(base, exponent - 1));
+        // if the derivative of the base equals 1, the derivative is exponent*base^(exponent-1)
+        if (baseDerivative.equals(new Constant(1))) {
+            return product;
+        }
+        // In all other cases multiply by the derivative of the base (chain rule)
+        else {
+            return new Multiplication(product, baseDerivative);
+        }
+    }
+
+    @Override
+    public Expression simplify(Map<String, Double> environment) {
+        ExpressionBudget.step();
+        Expression simplified = base.simplify(environment);
+
+        // if the base did not change, share this expression instead of copying it
+        if (simplified == base) {
+            return this;
+        }
+        // otherwise a constant base gives a constant, and any other base the simplest power of it
+        return of(simplified, exponent);
+    }
+
+    @Override
+    public Expression substitute(Map<String, Expression> bindings) {
+        Expression substituted = base.substitute(bindings);
+        if (substituted == base) {
+            return this;
+        }
+        return of(substituted, exponent);
+    }
+}
@@ -0,0 +1,616 @@
+package expressivo;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of derivatives and simplifications, so that results survive restarts.
+ *
+ * <p>Results are content addressed: the key of a result is the first 16 bytes of the SHA-256
+ * hash of the operation, the variable or environment, and the expression encoded by
+ * ExpressionCodec; the value is the result encoded by ExpressionCodec. Results are appended to
+ * the log file results.log and never changed in place. A hash table with linear probing from
+ * keys to log offsets is kept in the memory-mapped file results.idx, so a lookup probes the
+ * mapped table and reads the value from the log with positional reads.
+ * The index is derived from the log. Records appended after the index was last synced are
+ * indexed again when the cache is opened, and a missing or damaged index is rebuilt from the
+ * whole log. A record cut short by a crash fails its checksum and is cut off the log.
+ * The log header records the version of the results, RESULTS_VERSION, so a log written by
+ * code that differentiates or simplifies differently is discarded instead of served.
+ * When the log grows beyond its size limit it is compacted: the oldest results are dropped
+ * until the remaining ones take at most half of the limit, and the log and index are rewritten.
+ *
+ * <p>A directory can be used by one open ResultCache at a time, which locks results.lock.
+ * All methods are thread safe. install() makes a cache the one consulted by Commands.
+ */
+public class ResultCache implements Closeable {
+    /** Default maximum size in bytes of the log. */
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private static final String LOG = "results.log";
+    private static final String INDEX = "results.idx";
+    private static final String LOCK = "results.lock";
+
+    private static final int LOG_MAGIC = 0x45585243;
+    private static final int INDEX_MAGIC = 0x45585249;
+    private static final byte VERSION = 2;
+    /**
+     * Version of the results of differentiate and simplify. Increase it whenever either
+     * changes the results it computes, so that results cached by older code are discarded.
+     */
+    static final int RESULTS_VERSION = 2;
+    // magic, version, results version
+    private static final int LOG_HEADER = 9;
+    // magic, version, capacity, results version, length of the log covered by the index
+    private static final int INDEX_HEADER = 24;
+    private static final int KEY = 16;
+    // key, value length, checksum of key and value
+    private static final int RECORD_HEADER = KEY + 8;
+    // key, offset of the record in the log or 0 if the slot is empty
+    private static final int SLOT = KEY + 8;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final byte DIFFERENTIATE = 1;
+    private static final byte SIMPLIFY = 2;
+
+    private static volatile ResultCache installed;
+
+    // rep
+    private final Path directory;
+    private final long maxBytes;
+    private final int resultsVersion;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private FileChannel log;
+    private long logLength;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private boolean closed;
+
+    // Rep invariant:
+    //  maxBytes >= 2 * LOG_HEADER
+    //  LOG_HEADER <= logLength, and logLength is the end of the last complete record in log
+    //  capacity is a power of 2 >= INITIAL_CAPACITY, index has INDEX_HEADER + capacity * SLOT bytes
+    //  count is the number of nonempty slots of index, 2 * count <= capacity
+    //  every nonempty slot points to a record in log with the key of the slot
+    // Abstraction function:
+    //  Represents the map from the key of every slot of index to the value of the record in log
+    //  the slot points to, stored in directory, of results computed by code with resultsVersion.
+    // Safety from rep exposure:
+    //  All fields are private; keys and values are copied out of the files.
+    // Thread safety argument:
+    //  All methods that read or write the rep are synchronized.
+
+    // A record of the log.
+    private static class Record {
+        private final byte[] key;
+        private final byte[] value;
+
+        private Record(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Opens the cache in a directory with the default size limit, creating it if needed.
+     * @param directory directory of the cache files
+     * @throws IOException if the files cannot be read or written, are not cache files, or the
+     *         directory is in use by another open cache
+     */
+    public ResultCache(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Opens the cache in a directory, creating it if needed.
+     * @param directory directory of the cache files
+     * @param maxBytes size in bytes beyond which the log is compacted, >= 1024
+     * @throws IOException if the files cannot be read or written, are not cache files, or the
+     *         directory is in use by another open cache
+     */
+    public ResultCache(Path directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, RESULTS_VERSION);
+    }
+
+    /**
+     * Opens the cache in a directory, creating it if needed. A log written with a different
+     * version of the results, or in an older format, is discarded.
+     * @param directory directory of the cache files
+     * @param maxBytes size in bytes beyond which the log is compacted, >= 1024
+     * @param resultsVersion version of the results of differentiate and simplify
+     * @throws IOException if the files cannot be read or written, are not cache files, or the
+     *         directory is in use by another open cache
+     */
+    ResultCache(Path directory, long maxBytes, int resultsVersion) throws IOException {
+        if (maxBytes < 1024) {
+            throw new IllegalArgumentException("maxBytes must be at least 1024, was " + maxBytes);
+        }
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.resultsVersion = resultsVersion;
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK), CREATE, WRITE);
+        FileLock acquired = null;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException ofle) {
+            // locked by this JVM
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException(directory + " is in use by another cache");
+        }
+        this.lock = acquired;
+        try {
+            openLog();
+            openIndex();
+        } catch (IOException | RuntimeException e) {
+            if (log != null) {
+                log.close();
+            }
+            lock.release();
+            lockChannel.close();
+            throw e;
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert maxBytes >= 2 * LOG_HEADER;
+        assert logLength >= LOG_HEADER;
+        assert Integer.bitCount(capacity) == 1 && capacity >= INITIAL_CAPACITY;
+        assert index.capacity() == INDEX_HEADER + capacity * SLOT;
+        assert 2 * count <= capacity;
+    }
+
+    /**
+     * Makes a cache the one consulted by Commands.differentiate, Commands.simplify,
+     * Commands.gradient and Commands.simplifyAll.
+     * @param cache cache to consult, or null to consult none
+     */
+    public static void install(ResultCache cache) {
+        installed = cache;
+    }
+
+    /**
+     * @return the cache consulted by Commands, null if there is none
+     */
+    public static ResultCache installed() {
+        return installed;
+    }
+
+    /**
+     * Differentiates an expression, unless the result is in the cache.
+     * If the cache cannot be read or written, the expression is differentiated without it.
+     * @param expression expression to differentiate
+     * @param var variable to differentiate by
+     * @return an expression structurally equal to expression.differentiate(var)
+     */
+    public Expression differentiate(Expression expression, Variable var) {
+        return lookup(key(DIFFERENTIATE, expression, out -> out.writeUTF(var.name)),
+                () -> expression.differentiate(var));
+    }
+
+    /**
+     * Simplifies an expression, unless the result is in the cache.
+     * If the cache cannot be read or written, the expression is simplified without it.
+     * @param expression expression to simplify
+     * @param environment maps variables to their values
+     * @return an expression structurally equal to expression.simplify(environment)
+     */
+    public Expression simplify(Expression expression, Map<String, Double> environment) {
+        return lookup(key(SIMPLIFY, expression, out -> {
+            out.writeInt(environment.size());
+            for (Map.Entry<String, Double> entry : new TreeMap<>(environment).entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(Double.doubleToLongBits(entry.getValue()));
+            }
+        }), () -> expression.simplify(environment));
+    }
+
+    /**
+     * @return number of results in the cache
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return size in bytes of the log
+     */
+    public synchronized long logBytes() {
+        return logLength;
+    }
+
+    /**
+     * Drops the oldest results until the others take at most half of the size limit,
+     * and rewrites the log and the index.
+     * @throws IOException if the files cannot be read or written
+     */
+    public synchronized void compact() throws IOException {
+        ensureOpen();
+        List<Long> offsets = records(LOG_HEADER);
+        // keep the newest records that fit in half the limit
+        int first = offsets.size();
+        while (first > 0 && LOG_HEADER + logLength - offsets.get(first - 1) <= maxBytes / 2) {
+            first--;
+        }
+        long start = first < offsets.size() ? offsets.get(first) : logLength;
+        Path temporary = directory.resolve(LOG + ".tmp");
+        try (FileChannel compacted = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            writeFully(compacted, logHeader(), 0);
+            compacted.position(LOG_HEADER);
+            for (long position = start; position < logLength; ) {
+                position += log.transferTo(position, logLength - position, compacted);
+            }
+            compacted.force(true);
+        }
+        log.close();
+        Files.move(temporary, directory.resolve(LOG), REPLACE_EXISTING, ATOMIC_MOVE);
+        openLog();
+        int kept = offsets.size() - first;
+        int newCapacity = INITIAL_CAPACITY;
+        while (2 * kept > newCapacity) {
+            newCapacity *= 2;
+        }
+        createIndex(newCapacity);
+        indexRecords(LOG_HEADER);
+        sync();
+        checkRep();
+    }
+
+    /**
+     * Writes the log and the index to the storage device and closes the cache.
+     * Has no effect if the cache is closed.
+     * @throws IOException if the files cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (installed == this) {
+            installed = null;
+        }
+        try {
+            sync();
+            log.close();
+        } finally {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    // Returns the result stored under key, or computes it with operation and stores it.
+    private Expression lookup(byte[] key, Supplier<Expression> operation) {
+        try {
+            byte[] value = get(key);
+            if (value != null) {
+                Metrics.count("result.cache.hit");
+                return ExpressionCodec.decode(value);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Metrics.count("result.cache.error");
+        }
+        Metrics.count("result.cache.miss");
+        Expression result = operation.get();
+        try {
+            put(key, ExpressionCodec.encode(result));
+        } catch (IOException ioe) {
+            Metrics.count("result.cache.error");
+        }
+        return result;
+    }
+
+    // Writes the part of a key after the operation.
+    private interface Argument {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Hashes an operation, its argument and the expression it applies to into a key.
+    private static byte[] key(byte operation, Expression expression, Argument argument) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(operation);
+            argument.write(out);
+            out.write(ExpressionCodec.encode(expression));
+        } catch (IOException ioe) {
+            // ByteArrayOutputStream does not throw
+            throw new RuntimeException("You shouldn't reach this code.", ioe);
+        }
+        try {
+            return Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray()), KEY);
+        } catch (NoSuchAlgorithmException nsae) {
+            // every Java platform implements SHA-256
+            throw new RuntimeException("You shouldn't reach this code.", nsae);
+        }
+    }
+
+    private synchronized byte[] get(byte[] key) throws IOException {
+        ensureOpen();
+        long offset = index.getLong(slotPosition(slotOf(key)) + KEY);
+        if (offset == 0) {
+            return null;
+        }
+        Record record = read(offset);
+        return record != null && Arrays.equals(record.key, key) ? record.value : null;
+    }
+
+    private synchronized void put(byte[] key, byte[] value) throws IOException {
+        ensureOpen();
+        int slot = slotOf(key);
+        long existing = index.getLong(slotPosition(slot) + KEY);
+        if (existing != 0 && holds(existing, key)) {
+            return;
+        }
+        long offset = logLength;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + value.length);
+        record.put(key).putInt(value.length).putInt(checksum(key, value)).put(value).flip();
+        writeFully(log, record, offset);
+        logLength += record.capacity();
+        if (existing != 0) {
+            // the slot survived a crash that cut off or overwrote its record
+            index.putLong(slotPosition(slot) + KEY, offset);
+        }
+        else {
+            insert(slot, key, offset);
+        }
+        if (logLength > maxBytes) {
+            compact();
+        }
+        checkRep();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("the cache is closed");
+        }
+    }
+
+    // Opens the log, creating it if it does not exist.
+    private void openLog() throws IOException {
+        log = FileChannel.open(directory.resolve(LOG), CREATE, READ, WRITE);
+        if (log.size() == 0) {
+            writeFully(log, logHeader(), 0);
+        }
+        // a log in an older format may be shorter than the header
+        ByteBuffer header = ByteBuffer.allocate((int)Math.min(LOG_HEADER, log.size()));
+        readFully(log, header, 0);
+        header.flip();
+        if (header.remaining() < 4 || header.getInt() != LOG_MAGIC) {
+            throw new IOException(directory.resolve(LOG) + " is not a result cache log");
+        }
+        if (header.remaining() < LOG_HEADER - 4 || header.get() != VERSION || header.getInt() != resultsVersion) {
+            // written by other code, whose results may differ from what this code computes;
+            // the index is rebuilt since its header doesn't match either
+            Metrics.count("result.cache.discarded");
+            log.truncate(0);
+            writeFully(log, logHeader(), 0);
+            log.force(true);
+        }
+        logLength = log.size();
+    }
+
+    private ByteBuffer logHeader() {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+        header.putInt(LOG_MAGIC).put(VERSION).putInt(resultsVersion).flip();
+        return header;
+    }
+
+    // Maps the index, or rebuilds it if it is missing or damaged, and indexes the records that
+    // were appended to the log after the index was last synced.
+    private void openIndex() throws IOException {
+        Path path = directory.resolve(INDEX);
+        long indexed = 0;
+        if (Files.exists(path) && Files.size(path) >= INDEX_HEADER) {
+            try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+                index = channel.map(MapMode.READ_WRITE, 0, channel.size());
+            }
+            capacity = index.getInt(8);
+            indexed = index.getLong(16);
+            boolean valid = index.getInt(0) == INDEX_MAGIC && index.getInt(4) == VERSION
+                    && index.getInt(12) == resultsVersion
+                    && Integer.bitCount(capacity) == 1 && capacity >= INITIAL_CAPACITY
+                    && index.capacity() == INDEX_HEADER + (long)capacity * SLOT
+                    && indexed >= LOG_HEADER && indexed <= logLength;
+            if (!valid) {
+                indexed = 0;
+            }
+        }
+        if (indexed == 0) {
+            createIndex(INITIAL_CAPACITY);
+            indexed = LOG_HEADER;
+        }
+        else {
+            count = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (index.getLong(slotPosition(slot) + KEY) != 0) {
+                    count++;
+                }
+            }
+        }
+        indexRecords(indexed);
+        sync();
+    }
+
+    // Replaces the index by an empty index of newCapacity slots.
+    private void createIndex(int newCapacity) throws IOException {
+        Path temporary = directory.resolve(INDEX + ".tmp");
+        MappedByteBuffer created;
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            created = channel.map(MapMode.READ_WRITE, 0, INDEX_HEADER + (long)newCapacity * SLOT);
+        }
+        created.putInt(0, INDEX_MAGIC).putInt(4, VERSION).putInt(8, newCapacity).putInt(12, resultsVersion)
+                .putLong(16, LOG_HEADER);
+        Files.move(temporary, directory.resolve(INDEX), REPLACE_EXISTING, ATOMIC_MOVE);
+        index = created;
+        capacity = newCapacity;
+        count = 0;
+    }
+
+    // Adds the records of the log from position on to the index.
+    private void indexRecords(long position) throws IOException {
+        for (long offset : records(position)) {
+            byte[] key = read(offset).key;
+            int slot = slotOf(key);
+            long existing = index.getLong(slotPosition(slot) + KEY);
+            if (existing == 0) {
+                insert(slot, key, offset);
+            }
+            else if (!holds(existing, key)) {
+                index.putLong(slotPosition(slot) + KEY, offset);
+            }
+        }
+    }
+
+    // Finds the records of the log from position on. A damaged or incomplete record and
+    // everything after it are cut off the log.
+    private List<Long> records(long position) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        while (position < logLength) {
+            Record record = read(position);
+            if (record == null) {
+                log.truncate(position);
+                logLength = position;
+                break;
+            }
+            offsets.add(position);
+            position += RECORD_HEADER + record.value.length;
+        }
+        return offsets;
+    }
+
+    // Reads the record at offset, null if it is incomplete or its checksum is wrong.
+    private Record read(long offset) throws IOException {
+        if (offset < LOG_HEADER || offset + RECORD_HEADER > logLength) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(log, header, offset);
+        header.flip();
+        byte[] key = new byte[KEY];
+        header.get(key);
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length < 0 || offset + RECORD_HEADER + length > logLength) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        readFully(log, ByteBuffer.wrap(value), offset + RECORD_HEADER);
+        return checksum(key, value) == checksum ? new Record(key, value) : null;
+    }
+
+    // Returns true if and only if the record at offset is intact and stored under key.
+    private boolean holds(long offset, byte[] key) throws IOException {
+        Record record = read(offset);
+        return record != null && Arrays.equals(record.key, key);
+    }
+
+    // Finds the slot of key in the index, or the empty slot where it belongs.
+    private int slotOf(byte[] key) {
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        long high = wrapped.getLong(0);
+        long low = wrapped.getLong(8);
+        int slot = (int)(high & (capacity - 1));
+        while (true) {
+            int position = slotPosition(slot);
+            if (index.getLong(position + KEY) == 0
+                    || (index.getLong(position) == high && index.getLong(position + 8) == low)) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    private static int slotPosition(int slot) {
+        return INDEX_HEADER + slot * SLOT;
+    }
+
+    // Stores key and offset in an empty slot and doubles the index if it is half full.
+    // A doubled index covers no part of the log until it is synced.
+    private void insert(int slot, byte[] key, long offset) throws IOException {
+        int position = slotPosition(slot);
+        for (int i = 0; i < KEY; i++) {
+            index.put(position + i, key[i]);
+        }
+        index.putLong(position + KEY, offset);
+        count++;
+        if (2 * count > capacity) {
+            MappedByteBuffer old = index;
+            int oldCapacity = capacity;
+            createIndex(2 * capacity);
+            for (int i = 0; i < oldCapacity; i++) {
+                int oldPosition = slotPosition(i);
+                long oldOffset = old.getLong(oldPosition + KEY);
+                if (oldOffset != 0) {
+                    byte[] oldKey = new byte[KEY];
+                    for (int j = 0; j < KEY; j++) {
+                        oldKey[j] = old.get(oldPosition + j);
+                    }
+                    insert(slotOf(oldKey), oldKey, oldOffset);
+                }
+            }
+        }
+    }
+
+    // Writes the log and then the index to the storage device, so that the index never covers
+    // records that are not stored.
+    private void sync() throws IOException {
+        log.force(true);
+        index.putLong(16, logLength);
+        index.force();
+    }
+
+    private static int checksum(byte[] key, byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(value);
+        return (int)crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
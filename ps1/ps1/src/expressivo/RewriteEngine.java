@@ -0,0 +1,363 @@
+package expressivo;
+
+import static expressivo.RewritePattern.any;
+import static expressivo.RewritePattern.constant;
+import static expressivo.RewritePattern.number;
+import static expressivo.RewritePattern.plus;
+import static expressivo.RewritePattern.times;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable rewrite engine that simplifies expressions with a set of RewriteRules.
+ *
+ * <p>The rules are stored in a discrimination tree keyed on the shape of their left-hand side
+ * in preorder, so for every node only the rules whose pattern can match the shape of that node
+ * are tried, no matter how many rules there are. Rewriting is bottom-up: the children of a node
+ * are rewritten first, then rules are applied to the node until none applies. Results are
+ * memoized per call, so shared subexpressions are rewritten once. Rewriting walks the
+ * expression without recursion, so deep expressions do not overflow the stack.
+ * If several rules match a node, the one that was given first wins.
+ */
+public class RewriteEngine {
+    /** Maximum number of rule applications to a single node before giving up. */
+    private static final int MAX_STEPS_PER_NODE = 10_000;
+
+    // index symbols, exact constants are indexed by their value times 10000, rounded
+    private static enum Symbol { PLUS, TIMES, NUMBER, VARIABLE, ANY }
+
+    // rep
+    private final List<RewriteRule> rules;
+    private final IndexNode index;
+
+    // Rep invariant:
+    //  every rule in rules is stored in index exactly once, under the preorder symbols of its lhs
+    // Abstraction function:
+    //  Represents the engine that rewrites expressions with rules, in order of priority.
+    // Safety from rep exposure:
+    //  All fields are private and final, rules is unmodifiable and index is never returned.
+
+    // Node of the discrimination tree.
+    private static class IndexNode {
+        private final Map<Object, IndexNode> children = new HashMap<>();
+        private final List<Integer> rules = new ArrayList<>();
+
+        private IndexNode child(Object symbol) {
+            return children.computeIfAbsent(symbol, key -> new IndexNode());
+        }
+    }
+
+    // Terms still to be visited during retrieval, as an immutable linked list.
+    private static class Pending {
+        private final Expression head;
+        private final Pending tail;
+
+        private Pending(Expression head, Pending tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+    }
+
+    // Node being normalized, with the rewritten form whose children are normalized next.
+    private static class Frame {
+        private final Expression key;
+        private final Expression expression;
+        private Expression node;
+        private int steps;
+
+        private Frame(Expression key, Expression expression) {
+            this.key = key;
+            this.expression = expression;
+            this.node = expression;
+        }
+    }
+
+    /**
+     * @param rules rewrite rules, in order of priority; rules must terminate, i.e.
+     *        no expression can be rewritten forever
+     */
+    public RewriteEngine(List<RewriteRule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        this.index = new IndexNode();
+        for (int i = 0; i < this.rules.size(); i++) {
+            insert(index, this.rules.get(i).lhs).rules.add(i);
+        }
+    }
+
+    /**
+     * @return engine with the standard simplification rules
+     */
+    public static RewriteEngine standard() {
+        return new RewriteEngine(standardRules());
+    }
+
+    /**
+     * The standard rules: the constant folding and 0/1 laws that Plus.simplify and
+     * Multiplication.simplify apply, and rules that move constant factors to the left and
+     * collect equal terms and constant factors.
+     * @return the standard rules, in order of priority
+     */
+    public static List<RewriteRule> standardRules() {
+        return Arrays.asList(
+            new RewriteRule("fold plus", plus(number("a"), number("b")),
+                b -> new Constant(value(b, "a") + value(b, "b"))),
+            new RewriteRule("fold times", times(number("a"), number("b")),
+                b -> new Constant(value(b, "a") * value(b, "b"))),
+            new RewriteRule("0 + x", plus(constant(0), any("x")), b -> b.get("x")),
+            new RewriteRule("x + 0", plus(any("x"), constant(0)), b -> b.get("x")),
+            new RewriteRule("0 * x", times(constant(0), any("x")), b -> new Constant(0)),
+            new RewriteRule("x * 0", times(any("x"), constant(0)), b -> new Constant(0)),
+            new RewriteRule("1 * x", times(constant(1), any("x")), b -> b.get("x")),
+            new RewriteRule("x * 1", times(any("x"), constant(1)), b -> b.get("x")),
+            new RewriteRule("x*a", times(any("x"), number("a")),
+                b -> new Multiplication(b.get("a"), b.get("x"))),
+            new RewriteRule("x + x", plus(any("x"), any("x")),
+                b -> new Multiplication(new Constant(2), b.get("x"))),
+            new RewriteRule("a*(b*x)", times(number("a"), times(number("b"), any("x"))),
+                b -> new Multiplication(new Constant(value(b, "a") * value(b, "b")), b.get("x"))),
+            new RewriteRule("(a*x)*b", times(times(number("a"), any("x")), number("b")),
+                b -> new Multiplication(new Constant(value(b, "a") * value(b, "b")), b.get("x"))),
+            new RewriteRule("a*x + b*x", plus(times(number("a"), any("x")), times(number("b"), any("x"))),
+                b -> new Multiplication(new Constant(value(b, "a") + value(b, "b")), b.get("x"))),
+            new RewriteRule("x + b*x", plus(any("x"), times(number("b"), any("x"))),
+                b -> new Multiplication(new Constant(1 + value(b, "b")), b.get("x"))),
+            new RewriteRule("a*x + x", plus(times(number("a"), any("x")), any("x")),
+                b -> new Multiplication(new Constant(value(b, "a") + 1), b.get("x")))
+        );
+    }
+
+    /**
+     * @param rule rule to add, with lower priority than the rules of this engine
+     * @return a new engine with the rules of this engine and rule
+     */
+    public RewriteEngine with(RewriteRule rule) {
+        List<RewriteRule> extended = new ArrayList<>(rules);
+        extended.add(rule);
+        return new RewriteEngine(extended);
+    }
+
+    /**
+     * @return the rules of this engine, in order of priority
+     */
+    public List<RewriteRule> rules() {
+        return rules;
+    }
+
+    /**
+     * Rewrites an expression bottom-up until no rule applies to any node.
+     * @param expression expression to rewrite
+     * @return the rewritten expression; subexpressions no rule applied to are returned as-is
+     * @throws IllegalStateException if the rules keep rewriting a node without end
+     */
+    public Expression rewrite(Expression expression) {
+        return normalize(expression, new IdentityHashMap<>());
+    }
+
+    /**
+     * Substitutes the environment like Expression.simplify and rewrites the result.
+     * @param expression expression to simplify
+     * @param environment maps variables to their values
+     * @return rewrite(expression.simplify(environment))
+     */
+    public Expression simplify(Expression expression, Map<String, Double> environment) {
+        return rewrite(expression.simplify(environment));
+    }
+
+    /**
+     * Looks up the rules whose left-hand side may match the shape of a node.
+     * @param expression node to look up
+     * @return indices in rules() of the candidate rules, in increasing order
+     */
+    List<Integer> candidates(Expression expression) {
+        List<Integer> found = new ArrayList<>();
+        candidates(expression, found);
+        return found;
+    }
+
+    // Replaces the contents of found with the candidate rules of expression, in increasing order.
+    private void candidates(Expression expression, List<Integer> found) {
+        found.clear();
+        retrieve(index, new Pending(expression, null), found);
+        Collections.sort(found);
+    }
+
+    // Rewrites expression and all its subexpressions to normal form, memoized by identity.
+    private Expression normalize(Expression expression, Map<Expression, Expression> memo) {
+        // reused for every node
+        List<Integer> found = new ArrayList<>();
+        Map<String, Expression> bindings = new HashMap<>();
+        Deque<Frame> pending = new ArrayDeque<>();
+        Expression root = expression;
+        while (memo.get(root) == null) {
+            Frame frame = pending.isEmpty() ? null : pending.peek();
+            Expression next = frame == null ? root : unnormalizedChild(frame.node, memo);
+            if (next != null) {
+                Expression prepared = prepare(next);
+                Expression cached = memo.get(prepared);
+                if (cached != null) {
+                    memo.put(next, cached);
+                }
+                else {
+                    pending.push(new Frame(next, prepared));
+                }
+                continue;
+            }
+            Expression node = withNormalizedChildren(frame.node, memo);
+            Expression rewritten = applyFirst(node, found, bindings);
+            if (rewritten == null) {
+                memo.put(frame.key, node);
+                memo.put(frame.expression, node);
+                memo.put(node, node);
+                pending.pop();
+            }
+            else if (frame.steps >= MAX_STEPS_PER_NODE) {
+                throw new IllegalStateException("rewrite rules do not terminate on " + frame.expression);
+            }
+            else {
+                frame.steps++;
+                frame.node = rewritten;
+            }
+        }
+        return memo.get(root);
+    }
+
+    // Returns the form of expression that rules are applied to.
+    private static Expression prepare(Expression expression) {
+        expression = Derivative.expanded(expression);
+        if (expression instanceof Power) {
+            // rules are written for products, so powers are rewritten as their chains
+            expression = ((Power)expression).toProduct();
+        }
+        return expression;
+    }
+
+    // Returns the first child of expression that is not normalized yet, or null if there is none.
+    private static Expression unnormalizedChild(Expression expression, Map<Expression, Expression> memo) {
+        if (expression instanceof Plus) {
+            Plus plus = (Plus)expression;
+            return !memo.containsKey(plus.leftTerm) ? plus.leftTerm
+                    : !memo.containsKey(plus.rightTerm) ? plus.rightTerm : null;
+        }
+        else if (expression instanceof Multiplication) {
+            Multiplication multiplication = (Multiplication)expression;
+            return !memo.containsKey(multiplication.leftTerm) ? multiplication.leftTerm
+                    : !memo.containsKey(multiplication.rightTerm) ? multiplication.rightTerm : null;
+        }
+        return null;
+    }
+
+    // Replaces the children of expression by their normal forms in memo, returns expression itself
+    // if none changed.
+    private static Expression withNormalizedChildren(Expression expression, Map<Expression, Expression> memo) {
+        if (expression instanceof Plus) {
+            Plus plus = (Plus)expression;
+            Expression left = memo.get(plus.leftTerm);
+            Expression right = memo.get(plus.rightTerm);
+            return left == plus.leftTerm && right == plus.rightTerm ? plus : new Plus(left, right);
+        }
+        else if (expression instanceof Multiplication) {
+            Multiplication multiplication = (Multiplication)expression;
+            Expression left = memo.get(multiplication.leftTerm);
+            Expression right = memo.get(multiplication.rightTerm);
+            return left == multiplication.leftTerm && right == multiplication.rightTerm
+                    ? multiplication : new Multiplication(left, right);
+        }
+        return expression;
+    }
+
+    // Applies the first candidate rule that matches node, returns null if there is none.
+    // found and bindings are scratch space, their contents are replaced.
+    private Expression applyFirst(Expression node, List<Integer> found, Map<String, Expression> bindings) {
+        candidates(node, found);
+        for (int i : found) {
+            RewriteRule rule = rules.get(i);
+            bindings.clear();
+            if (rule.lhs.match(node, bindings)) {
+                Expression rewritten = rule.apply(bindings);
+                if (rewritten != null) {
+                    return rewritten;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Inserts the preorder symbols of pattern below node, returns the node of the last symbol.
+    private static IndexNode insert(IndexNode node, RewritePattern pattern) {
+        switch (pattern.kind) {
+        case ANY:
+            return node.child(Symbol.ANY);
+        case NUMBER:
+            return node.child(Symbol.NUMBER);
+        case VARIABLE:
+            return node.child(Symbol.VARIABLE);
+        case CONSTANT:
+            return node.child(Math.round(pattern.constant * 10000));
+        case PLUS:
+            return insert(insert(node.child(Symbol.PLUS), pattern.left), pattern.right);
+        case TIMES:
+            return insert(insert(node.child(Symbol.TIMES), pattern.left), pattern.right);
+        }
+        // There are no other kinds, so the program should not reach this.
+        throw new RuntimeException("You shouldn't reach this code.");
+    }
+
+    // Collects the rules below node that can match the terms in pending.
+    private static void retrieve(IndexNode node, Pending pending, List<Integer> found) {
+        if (pending == null) {
+            found.addAll(node.rules);
+            return;
+        }
+        Expression term = Derivative.expanded(pending.head);
+        if (term instanceof Power) {
+            term = ((Power)term).toProduct();
+        }
+        IndexNode wildcard = node.children.get(Symbol.ANY);
+        if (wildcard != null) {
+            retrieve(wildcard, pending.tail, found);
+        }
+        if (term instanceof Constant) {
+            retrieve(node, Symbol.NUMBER, pending.tail, found);
+            // constants within 0.0001 of a pattern constant are equal to it
+            double scaled = ((Constant)term).constant * 10000;
+            long low = (long)Math.floor(scaled);
+            long high = (long)Math.ceil(scaled);
+            retrieve(node, low, pending.tail, found);
+            if (high != low) {
+                retrieve(node, high, pending.tail, found);
+            }
+        }
+        else if (term instanceof Variable) {
+            retrieve(node, Symbol.VARIABLE, pending.tail, found);
+        }
+        else if (term instanceof Plus) {
+            Plus plus = (Plus)term;
+            retrieve(node, Symbol.PLUS, new Pending(plus.leftTerm, new Pending(plus.rightTerm, pending.tail)), found);
+        }
+        else if (term instanceof Multiplication) {
+            Multiplication multiplication = (Multiplication)term;
+            retrieve(node, Symbol.TIMES,
+                    new Pending(multiplication.leftTerm, new Pending(multiplication.rightTerm, pending.tail)), found);
+        }
+    }
+
+    // Follows symbol from node, if there is such a child.
+    private static void retrieve(IndexNode node, Object symbol, Pending pending, List<Integer> found) {
+        IndexNode child = node.children.get(symbol);
+        if (child != null) {
+            retrieve(child, pending, found);
+        }
+    }
+
+    private static double value(Map<String, Expression> bindings, String name) {
+        return ((Constant)bindings.get(name)).constant;
+    }
+}
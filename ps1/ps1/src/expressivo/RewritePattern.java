@@ -0,0 +1,159 @@
+package expressivo;
+
+import java.util.Map;
+
+/**
+ * An immutable pattern over expressions, the left-hand side of a RewriteRule.
+ * A pattern is a tree of plus and times nodes whose leaves are exact constants or
+ * named pattern variables. A named pattern variable matches any expression, any constant or
+ * any variable, depending on its kind. A name that occurs more than once must match
+ * equal expressions every time.
+ */
+public class RewritePattern {
+    /** Kinds of pattern nodes. */
+    public static enum Kind { ANY, NUMBER, VARIABLE, CONSTANT, PLUS, TIMES }
+
+    // rep
+    public final Kind kind;
+    public final String name;
+    public final double constant;
+    public final RewritePattern left;
+    public final RewritePattern right;
+
+    // Rep invariant:
+    //  name != null iff kind is ANY, NUMBER or VARIABLE
+    //  left != null and right != null iff kind is PLUS or TIMES
+    //  constant >= 0, and only meaningful if kind is CONSTANT
+    // Abstraction function:
+    //  Represents the pattern described by kind: a pattern variable called name,
+    //  the constant value constant, or a plus or times node between the patterns left and right.
+    // Safety from rep exposure:
+    //  All fields are final and immutable.
+
+    private RewritePattern(Kind kind, String name, double constant, RewritePattern left, RewritePattern right) {
+        this.kind = kind;
+        this.name = name;
+        this.constant = constant;
+        this.left = left;
+        this.right = right;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert (name != null) == (kind == Kind.ANY || kind == Kind.NUMBER || kind == Kind.VARIABLE);
+        assert (left != null && right != null) == (kind == Kind.PLUS || kind == Kind.TIMES);
+        assert constant >= 0;
+    }
+
+    /**
+     * @param name name of the pattern variable
+     * @return pattern that matches any expression
+     */
+    public static RewritePattern any(String name) {
+        return new RewritePattern(Kind.ANY, name, 0, null, null);
+    }
+
+    /**
+     * @param name name of the pattern variable
+     * @return pattern that matches any Constant
+     */
+    public static RewritePattern number(String name) {
+        return new RewritePattern(Kind.NUMBER, name, 0, null, null);
+    }
+
+    /**
+     * @param name name of the pattern variable
+     * @return pattern that matches any Variable
+     */
+    public static RewritePattern variable(String name) {
+        return new RewritePattern(Kind.VARIABLE, name, 0, null, null);
+    }
+
+    /**
+     * @param constant >= 0
+     * @return pattern that matches constants equal to constant
+     */
+    public static RewritePattern constant(double constant) {
+        return new RewritePattern(Kind.CONSTANT, null, constant, null, null);
+    }
+
+    /**
+     * @param left pattern for the left term
+     * @param right pattern for the right term
+     * @return pattern that matches Plus expressions whose terms match left and right
+     */
+    public static RewritePattern plus(RewritePattern left, RewritePattern right) {
+        return new RewritePattern(Kind.PLUS, null, 0, left, right);
+    }
+
+    /**
+     * @param left pattern for the left factor
+     * @param right pattern for the right factor
+     * @return pattern that matches Multiplication expressions whose factors match left and right
+     */
+    public static RewritePattern times(RewritePattern left, RewritePattern right) {
+        return new RewritePattern(Kind.TIMES, null, 0, left, right);
+    }
+
+    /**
+     * Matches this pattern against an expression.
+     * @param expression expression to match
+     * @param bindings bindings of pattern variables found so far, extended with the
+     *        bindings of this pattern if it matches; may be partially extended if it doesn't.
+     * @return true if and only if expression matches this pattern consistently with bindings
+     */
+    public boolean match(Expression expression, Map<String, Expression> bindings) {
+        expression = Derivative.expanded(expression);
+        if (expression instanceof Power && kind == Kind.TIMES) {
+            expression = ((Power)expression).toProduct();
+        }
+        switch (kind) {
+        case ANY:
+            return bind(expression, bindings);
+        case NUMBER:
+            return expression instanceof Constant && bind(expression, bindings);
+        case VARIABLE:
+            return expression instanceof Variable && bind(expression, bindings);
+        case CONSTANT:
+            return expression.equals(new Constant(constant));
+        case PLUS:
+            if (!(expression instanceof Plus)) return false;
+            Plus plus = (Plus)expression;
+            return left.match(plus.leftTerm, bindings) && right.match(plus.rightTerm, bindings);
+        case TIMES:
+            if (!(expression instanceof Multiplication)) return false;
+            Multiplication multiplication = (Multiplication)expression;
+            return left.match(multiplication.leftTerm, bindings) && right.match(multiplication.rightTerm, bindings);
+        }
+        // There are no other kinds, so the program should not reach this.
+        throw new RuntimeException("You shouldn't reach this code.");
+    }
+
+    // Binds name to expression, or checks that an earlier binding of name is equal to expression.
+    private boolean bind(Expression expression, Map<String, Expression> bindings) {
+        Expression bound = bindings.get(name);
+        if (bound == null) {
+            bindings.put(name, expression);
+            return true;
+        }
+        return bound == expression || bound.equals(expression);
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+        case ANY:
+            return "?" + name;
+        case NUMBER:
+            return "#" + name;
+        case VARIABLE:
+            return "$" + name;
+        case CONSTANT:
+            return new Constant(constant).toString();
+        case PLUS:
+            return "(" + left + " + " + right + ")";
+        default:
+            return left + "*" + right;
+        }
+    }
+}
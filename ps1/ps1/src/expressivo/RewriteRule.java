@@ -0,0 +1,49 @@
+package expressivo;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * An immutable rewrite rule: expressions that match the pattern lhs are replaced by
+ * the expression that rhs builds from the bindings of the pattern variables.
+ */
+public class RewriteRule {
+    // rep
+    public final String name;
+    public final RewritePattern lhs;
+    private final Function<Map<String, Expression>, Expression> rhs;
+
+    // Rep invariant:
+    //  none
+    // Abstraction function:
+    //  Represents the rule called name that rewrites expressions matching lhs
+    //  to rhs.apply(bindings); rhs may return null to reject a match.
+    // Safety from rep exposure:
+    //  All fields are final; rhs is private and must not have side effects.
+
+    /**
+     * @param name name of the rule, used in error messages and toString
+     * @param lhs pattern of expressions this rule applies to
+     * @param rhs builds the replacement from the bindings of the pattern variables in lhs,
+     *        or returns null if the rule should not be applied to this match.
+     *        Must not modify the bindings or have other side effects.
+     */
+    public RewriteRule(String name, RewritePattern lhs, Function<Map<String, Expression>, Expression> rhs) {
+        this.name = name;
+        this.lhs = lhs;
+        this.rhs = rhs;
+    }
+
+    /**
+     * @param bindings bindings of a successful match of lhs
+     * @return replacement for the matched expression, or null if the rule rejects the match
+     */
+    public Expression apply(Map<String, Expression> bindings) {
+        return rhs.apply(bindings);
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + lhs;
+    }
+}
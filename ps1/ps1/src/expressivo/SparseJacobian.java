@@ -0,0 +1,485 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An immutable Jacobian of a system of expressions, for evaluating it at many points when
+ * most expressions depend on few of the variables.
+ *
+ * <p>The sparsity pattern is the set of pairs (row, column) such that the row-th expression
+ * has the column-th variable; all other entries are 0. The columns are colored so that no
+ * row has two variables of the same color, and all expressions are compiled into one
+ * straight-line program in which structurally equal subexpressions of any of them are
+ * computed once. A point is evaluated in one forward sweep of the program that carries, for
+ * every instruction, its value and its derivative in the direction of the sum of the
+ * variables of every color. The derivative of a row in the direction of a color is then the
+ * entry of the only variable of that color in the row, so the sweep takes
+ * O(colors() * size()) operations instead of one per variable.
+ */
+public class SparseJacobian {
+    private static final byte CONSTANT = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte PLUS = 2;
+    private static final byte TIMES = 3;
+
+    /**
+     * A sparse matrix in compressed sparse row format. The arrays belong to the caller.
+     */
+    public static class Matrix {
+        /** Number of rows. */
+        public final int rows;
+        /** Number of columns. */
+        public final int columns;
+        /** Entries of row r are at indices rowPointers[r] to rowPointers[r + 1] - 1; rows + 1 elements. */
+        public final int[] rowPointers;
+        /** Column of every entry, increasing within a row. */
+        public final int[] columnIndices;
+        /** Value of every entry. */
+        public final double[] values;
+
+        private Matrix(int rows, int columns, int[] rowPointers, int[] columnIndices, double[] values) {
+            this.rows = rows;
+            this.columns = columns;
+            this.rowPointers = rowPointers;
+            this.columnIndices = columnIndices;
+            this.values = values;
+        }
+
+        /**
+         * @param row row index, 0 <= row < rows
+         * @param column column index, 0 <= column < columns
+         * @return the entry at row and column, 0 if it is not stored
+         */
+        public double get(int row, int column) {
+            int index = Arrays.binarySearch(columnIndices, rowPointers[row], rowPointers[row + 1], column);
+            return index >= 0 ? values[index] : 0;
+        }
+    }
+
+    // rep
+    private final List<String> variables;
+    private final int[] rowPointers;
+    private final int[] columnIndices;
+    private final int[] colors;
+    private final int colorCount;
+    private final byte[] operations;
+    private final int[] left;
+    private final int[] right;
+    private final double[] constants;
+    private final int[] outputs;
+
+    // Rep invariant:
+    //  rowPointers has outputs.length + 1 elements, increasing from 0 to columnIndices.length
+    //  columnIndices within a row are increasing indices into variables
+    //  colors has variables.size() elements in [0, colorCount); no two columns of a row have
+    //   the same color
+    //  operations, left, right have the same length; if operations[i] is CONSTANT, left[i]
+    //   indexes constants; if VARIABLE, left[i] indexes variables; if PLUS or TIMES,
+    //   0 <= left[i], right[i] < i
+    //  every element of outputs indexes operations
+    // Abstraction function:
+    //  Represents the Jacobian of the expressions computed by the program operations, left,
+    //  right at instructions outputs, with respect to variables, whose nonzero entries may only
+    //  be at the pattern rowPointers, columnIndices.
+    // Safety from rep exposure:
+    //  All fields are private and final, variables is unmodifiable, arrays are copied into
+    //  every returned Matrix.
+
+    /**
+     * Makes the Jacobian of a system with respect to its variables in alphabetical order.
+     * @param expressions the expressions of the system, one per row
+     */
+    public SparseJacobian(List<Expression> expressions) {
+        this(expressions, allVariables(expressions));
+    }
+
+    /**
+     * Makes the Jacobian of a system with respect to the given variables.
+     * @param expressions the expressions of the system, one per row
+     * @param variables variables in the order of the columns and of the values of a point,
+     *        must contain every variable of expressions and no duplicates
+     * @throws IllegalArgumentException if an expression has a variable not in variables
+     */
+    public SparseJacobian(List<Expression> expressions, List<String> variables) {
+        this.variables = Collections.unmodifiableList(new ArrayList<>(variables));
+        Map<String, Integer> columnOf = new HashMap<>();
+        for (int v = 0; v < variables.size(); v++) {
+            columnOf.put(variables.get(v), v);
+        }
+
+        // pattern from the free variables of every expression
+        List<Integer> columns = new ArrayList<>();
+        this.rowPointers = new int[expressions.size() + 1];
+        for (int row = 0; row < expressions.size(); row++) {
+            TreeSet<Integer> rowColumns = new TreeSet<>();
+            for (String name : freeVariables(expressions.get(row))) {
+                Integer column = columnOf.get(name);
+                if (column == null) {
+                    throw new IllegalArgumentException("variable " + name + " not in " + variables);
+                }
+                rowColumns.add(column);
+            }
+            columns.addAll(rowColumns);
+            rowPointers[row + 1] = columns.size();
+        }
+        this.columnIndices = columns.stream().mapToInt(c -> c).toArray();
+
+        this.colors = new int[variables.size()];
+        this.colorCount = color(expressions.size(), variables.size(), rowPointers, columnIndices, colors);
+
+        Builder builder = new Builder(columnOf);
+        this.outputs = new int[expressions.size()];
+        for (int row = 0; row < expressions.size(); row++) {
+            outputs[row] = builder.emit(expressions.get(row));
+        }
+        this.operations = Arrays.copyOf(builder.operations, builder.size);
+        this.left = Arrays.copyOf(builder.left, builder.size);
+        this.right = Arrays.copyOf(builder.right, builder.size);
+        this.constants = builder.constants.stream().mapToDouble(c -> c).toArray();
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert rowPointers.length == outputs.length + 1;
+        assert rowPointers[0] == 0 && rowPointers[outputs.length] == columnIndices.length;
+        assert colors.length == variables.size();
+        assert operations.length == left.length && left.length == right.length;
+        for (int i = 0; i < operations.length; i++) {
+            if (operations[i] == PLUS || operations[i] == TIMES) {
+                assert left[i] < i && right[i] < i;
+            }
+        }
+    }
+
+    // Returns the variables of all expressions in alphabetical order.
+    private static List<String> allVariables(List<Expression> expressions) {
+        TreeSet<String> names = new TreeSet<>();
+        for (Expression expression : expressions) {
+            names.addAll(freeVariables(expression));
+        }
+        return new ArrayList<>(names);
+    }
+
+    // Returns the variables of expression, visiting shared subexpressions once.
+    private static TreeSet<String> freeVariables(Expression expression) {
+        TreeSet<String> names = new TreeSet<>();
+        Map<Expression, Boolean> visited = new IdentityHashMap<>();
+        List<Expression> pending = new ArrayList<>();
+        pending.add(expression);
+        while (!pending.isEmpty()) {
+            Expression node = Derivative.expanded(pending.remove(pending.size() - 1));
+            if (visited.put(node, true) != null) {
+                continue;
+            }
+            if (node instanceof Variable) {
+                names.add(((Variable)node).name);
+            }
+            else if (node instanceof Plus) {
+                pending.add(((Plus)node).leftTerm);
+                pending.add(((Plus)node).rightTerm);
+            }
+            else if (node instanceof Multiplication) {
+                pending.add(((Multiplication)node).leftTerm);
+                pending.add(((Multiplication)node).rightTerm);
+            }
+            else if (node instanceof Power) {
+                pending.add(((Power)node).base);
+            }
+        }
+        return names;
+    }
+
+    // Colors the columns of a pattern greedily, largest column first, so that no row has two
+    // columns of the same color. Returns the number of colors.
+    private static int color(int rows, int columnCount, int[] rowPointers, int[] columnIndices, int[] colors) {
+        // rows of every column
+        int[] columnPointers = new int[columnCount + 1];
+        for (int column : columnIndices) {
+            columnPointers[column + 1]++;
+        }
+        for (int column = 0; column < columnCount; column++) {
+            columnPointers[column + 1] += columnPointers[column];
+        }
+        int[] rowIndices = new int[columnIndices.length];
+        int[] next = Arrays.copyOf(columnPointers, columnCount);
+        for (int row = 0; row < rows; row++) {
+            for (int k = rowPointers[row]; k < rowPointers[row + 1]; k++) {
+                rowIndices[next[columnIndices[k]]++] = row;
+            }
+        }
+
+        Integer[] order = new Integer[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            order[column] = column;
+        }
+        Arrays.sort(order, (a, b) -> (columnPointers[b + 1] - columnPointers[b]) - (columnPointers[a + 1] - columnPointers[a]));
+
+        Arrays.fill(colors, -1);
+        // forbidden[c] == column while coloring column if a neighbor has color c
+        int[] forbidden = new int[columnCount + 1];
+        Arrays.fill(forbidden, -1);
+        int colorCount = 0;
+        for (int column : order) {
+            for (int k = columnPointers[column]; k < columnPointers[column + 1]; k++) {
+                int row = rowIndices[k];
+                for (int j = rowPointers[row]; j < rowPointers[row + 1]; j++) {
+                    int neighbor = colors[columnIndices[j]];
+                    if (neighbor >= 0) {
+                        forbidden[neighbor] = column;
+                    }
+                }
+            }
+            int color = 0;
+            while (forbidden[color] == column) {
+                color++;
+            }
+            colors[column] = color;
+            colorCount = Math.max(colorCount, color + 1);
+        }
+        return colorCount;
+    }
+
+    // Appends instructions for expressions, computing structurally equal subexpressions once.
+    private static class Builder {
+        private final Map<String, Integer> columnOf;
+        private final Map<Expression, Integer> emitted = new IdentityHashMap<>();
+        private final Map<Long, Integer> emittedConstants = new HashMap<>();
+        private final Map<Integer, Integer> emittedVariables = new HashMap<>();
+        private final Map<Long, Integer> emittedSums = new HashMap<>();
+        private final Map<Long, Integer> emittedProducts = new HashMap<>();
+        private final List<Double> constants = new ArrayList<>();
+        private byte[] operations = new byte[16];
+        private int[] left = new int[16];
+        private int[] right = new int[16];
+        private int size = 0;
+
+        private Builder(Map<String, Integer> columnOf) {
+            this.columnOf = columnOf;
+        }
+
+        // Emits the instructions of expression without recursion, operands before the operations
+        // that use them, returns the instruction with its value.
+        private int emit(Expression root) {
+            Expression expanded = Derivative.expanded(root);
+            Deque<Expression> pending = new ArrayDeque<>();
+            pending.push(expanded);
+            while (!pending.isEmpty()) {
+                Expression expression = pending.peek();
+                if (emitted.containsKey(expression)) {
+                    pending.pop();
+                    continue;
+                }
+                Expression leftTerm = null;
+                Expression rightTerm = null;
+                if (expression instanceof Plus) {
+                    leftTerm = Derivative.expanded(((Plus)expression).leftTerm);
+                    rightTerm = Derivative.expanded(((Plus)expression).rightTerm);
+                }
+                else if (expression instanceof Multiplication) {
+                    leftTerm = Derivative.expanded(((Multiplication)expression).leftTerm);
+                    rightTerm = Derivative.expanded(((Multiplication)expression).rightTerm);
+                }
+                else if (expression instanceof Power) {
+                    leftTerm = Derivative.expanded(((Power)expression).base);
+                    rightTerm = leftTerm;
+                }
+                if (leftTerm != null && !emitted.containsKey(leftTerm)) {
+                    pending.push(leftTerm);
+                }
+                else if (rightTerm != null && !emitted.containsKey(rightTerm)) {
+                    pending.push(rightTerm);
+                }
+                else {
+                    emitted.put(expression, emitNode(expression, leftTerm, rightTerm));
+                    pending.pop();
+                }
+            }
+            return emitted.get(expanded);
+        }
+
+        // Emits the instructions of one expanded node whose operands, also expanded, were emitted,
+        // returns the instruction with its value.
+        private int emitNode(Expression expression, Expression leftTerm, Expression rightTerm) {
+            int instruction;
+            if (expression instanceof Constant) {
+                double constant = ((Constant)expression).constant;
+                Integer existing = emittedConstants.get(Double.doubleToLongBits(constant));
+                if (existing == null) {
+                    constants.add(constant);
+                    existing = append(CONSTANT, constants.size() - 1, 0);
+                    emittedConstants.put(Double.doubleToLongBits(constant), existing);
+                }
+                instruction = existing;
+            }
+            else if (expression instanceof Variable) {
+                int column = columnOf.get(((Variable)expression).name);
+                Integer existing = emittedVariables.get(column);
+                if (existing == null) {
+                    existing = append(VARIABLE, column, 0);
+                    emittedVariables.put(column, existing);
+                }
+                instruction = existing;
+            }
+            else if (expression instanceof Plus) {
+                instruction = operation(emittedSums, PLUS, emitted.get(leftTerm), emitted.get(rightTerm));
+            }
+            else if (expression instanceof Multiplication) {
+                instruction = operation(emittedProducts, TIMES, emitted.get(leftTerm), emitted.get(rightTerm));
+            }
+            else if (expression instanceof Power) {
+                // repeated squaring, as in CompiledExpression
+                int square = emitted.get(leftTerm);
+                instruction = -1;
+                for (int n = ((Power)expression).exponent; n > 0; n >>= 1) {
+                    if ((n & 1) != 0) {
+                        instruction = instruction < 0 ? square : operation(emittedProducts, TIMES, instruction, square);
+                    }
+                    if (n > 1) {
+                        square = operation(emittedProducts, TIMES, square, square);
+                    }
+                }
+            }
+            else {
+                throw new IllegalArgumentException("unsupported expression " + expression.getClass().getName());
+            }
+            return instruction;
+        }
+
+        // Returns the instruction of a sum or product, appending it unless it was emitted before.
+        // Operands are ordered because double addition and multiplication are commutative.
+        private int operation(Map<Long, Integer> emittedOperations, byte operation, int a, int b) {
+            long key = ((long)Math.min(a, b) << 32) | Math.max(a, b);
+            Integer existing = emittedOperations.get(key);
+            if (existing == null) {
+                existing = append(operation, Math.min(a, b), Math.max(a, b));
+                emittedOperations.put(key, existing);
+            }
+            return existing;
+        }
+
+        private int append(byte operation, int leftValue, int rightValue) {
+            if (size == operations.length) {
+                operations = Arrays.copyOf(operations, size * 2);
+                left = Arrays.copyOf(left, size * 2);
+                right = Arrays.copyOf(right, size * 2);
+            }
+            operations[size] = operation;
+            left[size] = leftValue;
+            right[size] = rightValue;
+            return size++;
+        }
+    }
+
+    /**
+     * @return the variables, in the order of the columns
+     */
+    public List<String> variables() {
+        return variables;
+    }
+
+    /**
+     * @return number of rows, the number of expressions
+     */
+    public int rows() {
+        return outputs.length;
+    }
+
+    /**
+     * @return number of entries of the sparsity pattern
+     */
+    public int nonzeros() {
+        return columnIndices.length;
+    }
+
+    /**
+     * @return number of colors of the columns, the number of directions of a sweep
+     */
+    public int colors() {
+        return colorCount;
+    }
+
+    /**
+     * @return number of instructions of the shared program
+     */
+    public int size() {
+        return operations.length;
+    }
+
+    /**
+     * @param point values of the variables, in the order of variables()
+     * @return the Jacobian at point, with an entry for every element of the sparsity pattern
+     * @throws IllegalArgumentException if the number of values is not the number of variables
+     */
+    public Matrix evaluate(double... point) {
+        double[] values = new double[columnIndices.length];
+        evaluate(point, new double[operations.length * (colorCount + 1)], values);
+        return new Matrix(outputs.length, variables.size(), rowPointers.clone(), columnIndices.clone(), values);
+    }
+
+    /**
+     * Evaluates the Jacobian without allocating, for evaluating it in a loop.
+     * @param point values of the variables, in the order of variables()
+     * @param workspace array of at least size() * (colors() + 1) elements to hold intermediate
+     *        results, overwritten
+     * @param entries array of at least nonzeros() elements, whose first nonzeros() elements are
+     *        set to the entries of the Jacobian at point in the order of the sparsity pattern of
+     *        evaluate(point)
+     * @throws IllegalArgumentException if the number of values is not the number of variables,
+     *         or workspace or entries is too short
+     */
+    public void evaluate(double[] point, double[] workspace, double[] entries) {
+        if (point.length != variables.size()) {
+            throw new IllegalArgumentException("expected " + variables.size() + " values, got " + point.length);
+        }
+        final int width = colorCount + 1;
+        if (workspace.length < operations.length * width || entries.length < columnIndices.length) {
+            throw new IllegalArgumentException("expected " + operations.length * width + " workspace elements and "
+                    + columnIndices.length + " entries, got " + workspace.length + " and " + entries.length);
+        }
+        // instruction i has its value at workspace[i * width] and its derivative in the
+        // direction of color c at workspace[i * width + 1 + c]
+        for (int i = 0; i < operations.length; i++) {
+            final int result = i * width;
+            final int a = left[i] * width;
+            final int b = right[i] * width;
+            switch (operations[i]) {
+            case CONSTANT:
+                Arrays.fill(workspace, result, result + width, 0);
+                workspace[result] = constants[left[i]];
+                break;
+            case VARIABLE:
+                Arrays.fill(workspace, result, result + width, 0);
+                workspace[result] = point[left[i]];
+                workspace[result + 1 + colors[left[i]]] = 1;
+                break;
+            case PLUS:
+                for (int j = 0; j < width; j++) {
+                    workspace[result + j] = workspace[a + j] + workspace[b + j];
+                }
+                break;
+            default:
+                final double leftValue = workspace[a];
+                final double rightValue = workspace[b];
+                workspace[result] = leftValue * rightValue;
+                for (int j = 1; j < width; j++) {
+                    workspace[result + j] = workspace[a + j] * rightValue + leftValue * workspace[b + j];
+                }
+            }
+        }
+        for (int row = 0; row < outputs.length; row++) {
+            final int output = outputs[row] * width;
+            for (int k = rowPointers[row]; k < rowPointers[row + 1]; k++) {
+                entries[k] = workspace[output + 1 + colors[columnIndices[k]]];
+            }
+        }
+    }
+}
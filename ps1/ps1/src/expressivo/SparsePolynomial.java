@@ -0,0 +1,806 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable multivariate polynomial with non-negative coefficients, the expanded normal form
+ * of an Expression.
+ *
+ * <p>Every monomial is packed into a long, with a bit field for the exponent of every variable
+ * (Kronecker substitution), so multiplying monomials is adding longs and monomials are kept in
+ * sorted primitive arrays. The field widths are chosen when an expression is converted, from an
+ * upper bound on the degree of every variable, so no intermediate product can overflow.
+ * Products are expanded either by heap-based merging of the term pairs (Johnson's algorithm),
+ * which takes O(n*m*log(min(n,m))) time and O(n+m) extra space, or, when the product is dense,
+ * by Karatsuba multiplication of dense coefficient arrays indexed by the monomials in mixed radix.
+ * The dense algorithm is only used for integer coefficients small enough to be exact in doubles,
+ * since its subtractions would otherwise leave rounding residue in coefficients that should be 0.
+ * Expressions are expanded without recursion, flattening nested sums and products.
+ */
+public class SparsePolynomial {
+    /** Largest dense coefficient array used by the Karatsuba algorithm. */
+    private static final int MAX_DENSE_SIZE = 1 << 22;
+    /** Doubles represent every integer below this exactly. */
+    private static final double EXACT_LIMIT = 0x1p53;
+    /** Below this length dense arrays are multiplied by the schoolbook algorithm. */
+    private static final int KARATSUBA_THRESHOLD = 32;
+
+    // rep
+    private final Layout layout;
+    private final long[] monomials;
+    private final double[] coefficients;
+
+    // Rep invariant:
+    //  monomials.length == coefficients.length
+    //  monomials is strictly increasing, every monomial fits in layout
+    //  every coefficient is > 0
+    // Abstraction function:
+    //  Represents the polynomial sum over i of coefficients[i] * layout.unpack(monomials[i]).
+    // Safety from rep exposure:
+    //  All fields are private and final, the arrays are never returned or shared mutably.
+
+    // Variables of a family of polynomials and the bit fields of their exponents.
+    private static class Layout {
+        private final String[] variables;
+        private final int[] shifts;
+        private final int[] widths;
+
+        private Layout(String[] variables, int[] widths) {
+            this.variables = variables;
+            this.widths = widths;
+            this.shifts = new int[variables.length];
+            int shift = 0;
+            for (int i = variables.length - 1; i >= 0; i--) {
+                shifts[i] = shift;
+                shift += widths[i];
+            }
+            if (shift > 63) {
+                throw new IllegalArgumentException("too many variables or too high degree to expand: " + shift + " bits");
+            }
+        }
+
+        private int exponent(long monomial, int variable) {
+            return (int)((monomial >>> shifts[variable]) & ((1L << widths[variable]) - 1));
+        }
+
+        private long variable(int variable) {
+            return 1L << shifts[variable];
+        }
+
+        private int index(String name) {
+            int index = Arrays.binarySearch(variables, name);
+            assert index >= 0;
+            return index;
+        }
+    }
+
+    private SparsePolynomial(Layout layout, long[] monomials, double[] coefficients) {
+        this.layout = layout;
+        this.monomials = monomials;
+        this.coefficients = coefficients;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert monomials.length == coefficients.length;
+        for (int i = 1; i < monomials.length; i++) {
+            assert monomials[i - 1] < monomials[i];
+        }
+    }
+
+    /**
+     * Expands an expression.
+     * @param expression expression to expand
+     * @return expanded form of expression
+     * @throws IllegalArgumentException if the expansion has too many variables or too high degrees
+     *         to pack its monomials into 63 bits
+     */
+    public static SparsePolynomial of(Expression expression) {
+        return of(Arrays.asList(expression)).get(0);
+    }
+
+    /**
+     * Expands expressions into polynomials over the same variables, so they can be
+     * added, multiplied and compared.
+     * @param expressions expressions to expand
+     * @return expanded forms of the expressions, in the same order
+     * @throws IllegalArgumentException if the expansion has too many variables or too high degrees
+     *         to pack its monomials into 63 bits
+     */
+    public static List<SparsePolynomial> of(List<Expression> expressions) {
+        Map<Expression, Integer> parents = parents(expressions);
+        Map<String, Integer> degrees = new TreeMap<>();
+        Map<Expression, Map<String, Integer>> boundsMemo = new IdentityHashMap<>();
+        for (Expression expression : expressions) {
+            for (Map.Entry<String, Integer> entry : evaluate(expression, parents, boundsMemo, SparsePolynomial::degreeBounds).entrySet()) {
+                degrees.merge(entry.getKey(), entry.getValue(), Math::max);
+            }
+        }
+        String[] variables = degrees.keySet().toArray(new String[degrees.size()]);
+        int[] widths = new int[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            widths[i] = Math.max(1, 64 - Long.numberOfLeadingZeros(degrees.get(variables[i])));
+        }
+        Layout layout = new Layout(variables, widths);
+        List<SparsePolynomial> polynomials = new ArrayList<>();
+        Map<Expression, SparsePolynomial> expandMemo = new IdentityHashMap<>();
+        for (Expression expression : expressions) {
+            polynomials.add(evaluate(expression, parents, expandMemo, (node, operands) -> expand(node, operands, layout)));
+        }
+        return polynomials;
+    }
+
+    // Combines the values of the operands of a node into the value of the node.
+    private interface Combiner<T> {
+        T combine(Expression node, List<T> operands);
+    }
+
+    // Number of parents of every node reachable from roots, by identity, with derivatives expanded;
+    // a root counts as a parent.
+    private static Map<Expression, Integer> parents(List<Expression> roots) {
+        Map<Expression, Integer> parents = new IdentityHashMap<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        for (Expression root : roots) {
+            pending.push(Derivative.expanded(root));
+        }
+        while (!pending.isEmpty()) {
+            Expression node = pending.pop();
+            if (parents.merge(node, 1, Integer::sum) > 1) {
+                continue;
+            }
+            if (node instanceof Plus) {
+                pending.push(Derivative.expanded(((Plus)node).leftTerm));
+                pending.push(Derivative.expanded(((Plus)node).rightTerm));
+            }
+            else if (node instanceof Multiplication) {
+                pending.push(Derivative.expanded(((Multiplication)node).leftTerm));
+                pending.push(Derivative.expanded(((Multiplication)node).rightTerm));
+            }
+            else if (node instanceof Power) {
+                pending.push(Derivative.expanded(((Power)node).base));
+            }
+        }
+        return parents;
+    }
+
+    // Operands of node, which is not a Derivative: the terms of a sum or the factors of a product,
+    // looking through nested sums or products that have no other parent, or the base of a power.
+    private static List<Expression> operands(Expression node, Map<Expression, Integer> parents) {
+        List<Expression> operands = new ArrayList<>();
+        if (node instanceof Power) {
+            operands.add(Derivative.expanded(((Power)node).base));
+            return operands;
+        }
+        if (!(node instanceof Plus) && !(node instanceof Multiplication)) {
+            return operands;
+        }
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            Expression operand = pending.pop();
+            if (operand.getClass() == node.getClass() && (operand == node || parents.get(operand) == 1)) {
+                boolean plus = operand instanceof Plus;
+                pending.push(Derivative.expanded(plus ? ((Plus)operand).rightTerm : ((Multiplication)operand).rightTerm));
+                pending.push(Derivative.expanded(plus ? ((Plus)operand).leftTerm : ((Multiplication)operand).leftTerm));
+            }
+            else {
+                operands.add(operand);
+            }
+        }
+        return operands;
+    }
+
+    // A node being evaluated, with its operands and the values of the operands evaluated so far.
+    private static class Frame<T> {
+        private final Expression node;
+        private List<Expression> operands;
+        private final List<T> values = new ArrayList<>();
+
+        private Frame(Expression node) {
+            this.node = node;
+        }
+    }
+
+    // Evaluates expression bottom up without recursion, memoizing the nodes with more than one parent.
+    private static <T> T evaluate(Expression expression, Map<Expression, Integer> parents,
+            Map<Expression, T> memo, Combiner<T> combiner) {
+        Deque<Frame<T>> frames = new ArrayDeque<>();
+        frames.push(new Frame<>(Derivative.expanded(expression)));
+        while (true) {
+            Frame<T> frame = frames.peek();
+            T value = memo.get(frame.node);
+            if (value == null) {
+                if (frame.operands == null) {
+                    frame.operands = operands(frame.node, parents);
+                }
+                if (frame.values.size() < frame.operands.size()) {
+                    frames.push(new Frame<>(frame.operands.get(frame.values.size())));
+                    continue;
+                }
+                value = combiner.combine(frame.node, frame.values);
+                if (parents.get(frame.node) > 1) {
+                    memo.put(frame.node, value);
+                }
+            }
+            frames.pop();
+            if (frames.isEmpty()) {
+                return value;
+            }
+            frames.peek().values.add(value);
+        }
+    }
+
+    // Upper bounds on the degree of every variable in node, given the bounds of its operands.
+    // Throws IllegalArgumentException if a bound overflows an int.
+    private static Map<String, Integer> degreeBounds(Expression node, List<Map<String, Integer>> operands) {
+        try {
+            return degreeBoundsExact(node, operands);
+        } catch (ArithmeticException ae) {
+            throw new IllegalArgumentException("too high degree to expand", ae);
+        }
+    }
+
+    private static Map<String, Integer> degreeBoundsExact(Expression node, List<Map<String, Integer>> operands) {
+        Map<String, Integer> degrees = new HashMap<>();
+        if (node instanceof Variable) {
+            degrees.put(((Variable)node).name, 1);
+        }
+        else if (node instanceof Plus) {
+            for (Map<String, Integer> operand : operands) {
+                for (Map.Entry<String, Integer> entry : operand.entrySet()) {
+                    degrees.merge(entry.getKey(), entry.getValue(), Math::max);
+                }
+            }
+        }
+        else if (node instanceof Multiplication) {
+            for (Map<String, Integer> operand : operands) {
+                for (Map.Entry<String, Integer> entry : operand.entrySet()) {
+                    degrees.merge(entry.getKey(), entry.getValue(), Math::addExact);
+                }
+            }
+        }
+        else if (node instanceof Power) {
+            for (Map.Entry<String, Integer> entry : operands.get(0).entrySet()) {
+                degrees.put(entry.getKey(), Math.multiplyExact(entry.getValue(), ((Power)node).exponent));
+            }
+        }
+        else if (!(node instanceof Constant)) {
+            throw new IllegalArgumentException("unsupported expression " + node.getClass().getName());
+        }
+        return degrees;
+    }
+
+    // Expansion of node in layout, given the expansions of its operands.
+    private static SparsePolynomial expand(Expression node, List<SparsePolynomial> operands, Layout layout) {
+        if (node instanceof Constant) {
+            return constant(layout, ((Constant)node).constant);
+        }
+        else if (node instanceof Variable) {
+            long monomial = layout.variable(layout.index(((Variable)node).name));
+            return new SparsePolynomial(layout, new long[] { monomial }, new double[] { 1 });
+        }
+        else if (node instanceof Plus) {
+            // add in a balanced tree, so long sums are not copied once per term
+            List<SparsePolynomial> level = operands;
+            while (level.size() > 1) {
+                List<SparsePolynomial> next = new ArrayList<>();
+                for (int i = 0; i + 1 < level.size(); i += 2) {
+                    next.add(level.get(i).plus(level.get(i + 1)));
+                }
+                if (level.size() % 2 == 1) {
+                    next.add(level.get(level.size() - 1));
+                }
+                level = next;
+            }
+            return level.get(0);
+        }
+        else if (node instanceof Power) {
+            // repeated squaring, as in Power.power
+            SparsePolynomial square = operands.get(0);
+            SparsePolynomial result = null;
+            for (int n = ((Power)node).exponent; n > 0; n >>= 1) {
+                if ((n & 1) != 0) {
+                    result = result == null ? square : result.times(square);
+                }
+                if (n > 1) {
+                    square = square.times(square);
+                }
+            }
+            return result;
+        }
+        SparsePolynomial product = operands.get(0);
+        for (int i = 1; i < operands.size(); i++) {
+            product = product.times(operands.get(i));
+        }
+        return product;
+    }
+
+    private static SparsePolynomial constant(Layout layout, double constant) {
+        if (constant == 0) {
+            return new SparsePolynomial(layout, new long[0], new double[0]);
+        }
+        return new SparsePolynomial(layout, new long[] { 0 }, new double[] { constant });
+    }
+
+    /**
+     * @return number of terms with a nonzero coefficient
+     */
+    public int terms() {
+        return monomials.length;
+    }
+
+    /**
+     * @param term index of a term, 0 <= term < terms(), in increasing order of monomials
+     * @return exponents of the variables in the term, in the order of variables()
+     */
+    int[] exponents(int term) {
+        int[] exponents = new int[layout.variables.length];
+        for (int v = 0; v < exponents.length; v++) {
+            exponents[v] = layout.exponent(monomials[term], v);
+        }
+        return exponents;
+    }
+
+    /**
+     * @param term index of a term, 0 <= term < terms(), in increasing order of monomials
+     * @return coefficient of the term
+     */
+    double coefficient(int term) {
+        return coefficients[term];
+    }
+
+    /**
+     * @return the variables this polynomial is defined over, in alphabetical order;
+     *         they may include variables with exponent 0 in every term
+     */
+    public List<String> variables() {
+        return Arrays.asList(layout.variables.clone());
+    }
+
+    /**
+     * @param exponents maps variables to their exponents; missing variables have exponent 0
+     * @return coefficient of the monomial with the given exponents, 0 if there is no such term
+     */
+    public double coefficient(Map<String, Integer> exponents) {
+        long monomial = 0;
+        for (Map.Entry<String, Integer> entry : exponents.entrySet()) {
+            int index = Arrays.binarySearch(layout.variables, entry.getKey());
+            if (entry.getValue() == 0) continue;
+            if (index < 0 || 64 - Long.numberOfLeadingZeros(entry.getValue()) > layout.widths[index]) return 0;
+            monomial += (long)entry.getValue() << layout.shifts[index];
+        }
+        int index = Arrays.binarySearch(monomials, monomial);
+        return index < 0 ? 0 : coefficients[index];
+    }
+
+    /**
+     * @param that polynomial over the same variables as this
+     * @return the sum of this and that
+     */
+    public SparsePolynomial plus(SparsePolynomial that) {
+        checkLayout(that);
+        long[] sumMonomials = new long[monomials.length + that.monomials.length];
+        double[] sumCoefficients = new double[sumMonomials.length];
+        int i = 0, j = 0, k = 0;
+        while (i < monomials.length || j < that.monomials.length) {
+            if (j == that.monomials.length || (i < monomials.length && monomials[i] < that.monomials[j])) {
+                sumMonomials[k] = monomials[i];
+                sumCoefficients[k++] = coefficients[i++];
+            }
+            else if (i == monomials.length || that.monomials[j] < monomials[i]) {
+                sumMonomials[k] = that.monomials[j];
+                sumCoefficients[k++] = that.coefficients[j++];
+            }
+            else {
+                sumMonomials[k] = monomials[i];
+                sumCoefficients[k++] = coefficients[i++] + that.coefficients[j++];
+            }
+        }
+        return new SparsePolynomial(layout, Arrays.copyOf(sumMonomials, k), Arrays.copyOf(sumCoefficients, k));
+    }
+
+    /**
+     * Multiplies polynomials, choosing the heap or the dense algorithm by the number of terms
+     * and the density of the product.
+     * @param that polynomial over the same variables as this
+     * @return the product of this and that
+     */
+    public SparsePolynomial times(SparsePolynomial that) {
+        checkLayout(that);
+        if (monomials.length == 0 || that.monomials.length == 0) {
+            return constant(layout, 0);
+        }
+        if (monomials.length == 1 || that.monomials.length == 1) {
+            return timesHeap(that);
+        }
+        long denseSize = denseSize(that);
+        double pairs = (double)monomials.length * that.monomials.length;
+        double heapCost = pairs * (1 + log2(Math.min(monomials.length, that.monomials.length)));
+        double denseCost = Math.pow(denseSize, 1.585) + denseSize * layout.variables.length;
+        if (denseSize <= MAX_DENSE_SIZE && denseCost < heapCost && exactDense(that)) {
+            return timesDense(that);
+        }
+        return timesHeap(that);
+    }
+
+    // True if the dense product of this and that is exact in doubles: the coefficients are integers
+    // and every sum formed by the Karatsuba algorithm is below 2^53, so its subtractions leave no residue.
+    private boolean exactDense(SparsePolynomial that) {
+        return integerSum() * that.integerSum() < EXACT_LIMIT;
+    }
+
+    // Sum of the coefficients, or infinity if any coefficient is not an integer.
+    private double integerSum() {
+        double sum = 0;
+        for (double coefficient : coefficients) {
+            if (coefficient != Math.rint(coefficient)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            sum += coefficient;
+        }
+        return sum;
+    }
+
+    /**
+     * Multiplies polynomials by merging the term pairs with a heap (Johnson's algorithm).
+     * @param that polynomial over the same variables as this
+     * @return the product of this and that
+     */
+    SparsePolynomial timesHeap(SparsePolynomial that) {
+        checkLayout(that);
+        // the heap holds one pair (i, j) per term i of the shorter polynomial a
+        SparsePolynomial a = monomials.length <= that.monomials.length ? this : that;
+        SparsePolynomial b = a == this ? that : this;
+        int n = a.monomials.length;
+        if (n == 0 || b.monomials.length == 0) {
+            return constant(layout, 0);
+        }
+        long[] heapKeys = new long[n];
+        int[] heapI = new int[n];
+        int[] heapJ = new int[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            // keys a[i] + b[0] are increasing in i, so the array is already a heap
+            heapKeys[size] = a.monomials[i] + b.monomials[0];
+            heapI[size] = i;
+            heapJ[size++] = 0;
+        }
+        long[] productMonomials = new long[Math.max(16, n + b.monomials.length)];
+        double[] productCoefficients = new double[productMonomials.length];
+        int k = 0;
+        while (size > 0) {
+            long key = heapKeys[0];
+            int i = heapI[0];
+            int j = heapJ[0];
+            double coefficient = a.coefficients[i] * b.coefficients[j];
+            if (k > 0 && productMonomials[k - 1] == key) {
+                productCoefficients[k - 1] += coefficient;
+            }
+            else {
+                if (k == productMonomials.length) {
+                    productMonomials = Arrays.copyOf(productMonomials, k * 2);
+                    productCoefficients = Arrays.copyOf(productCoefficients, k * 2);
+                }
+                productMonomials[k] = key;
+                productCoefficients[k++] = coefficient;
+            }
+            if (j + 1 < b.monomials.length) {
+                heapKeys[0] = a.monomials[i] + b.monomials[j + 1];
+                heapJ[0] = j + 1;
+            }
+            else {
+                size--;
+                heapKeys[0] = heapKeys[size];
+                heapI[0] = heapI[size];
+                heapJ[0] = heapJ[size];
+            }
+            siftDown(heapKeys, heapI, heapJ, size);
+        }
+        return new SparsePolynomial(layout, Arrays.copyOf(productMonomials, k), Arrays.copyOf(productCoefficients, k));
+    }
+
+    // Restores the heap order of the first size entries after the root changed.
+    private static void siftDown(long[] keys, int[] is, int[] js, int size) {
+        int parent = 0;
+        long key = keys[0];
+        int i = is[0];
+        int j = js[0];
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= size) break;
+            if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+            if (keys[child] >= key) break;
+            keys[parent] = keys[child];
+            is[parent] = is[child];
+            js[parent] = js[child];
+            parent = child;
+        }
+        keys[parent] = key;
+        is[parent] = i;
+        js[parent] = j;
+    }
+
+    /**
+     * Multiplies polynomials by Karatsuba multiplication of dense coefficient arrays.
+     * Every monomial is mapped to an index in mixed radix, where the radix of a variable is
+     * one more than its degree in the product, so the product of monomials maps to the sum
+     * of their indices.
+     * @param that polynomial over the same variables as this, such that the dense
+     *        product has at most MAX_DENSE_SIZE coefficients and is exact: both have integer
+     *        coefficients and the product of their coefficient sums is below 2^53
+     * @return the product of this and that
+     */
+    SparsePolynomial timesDense(SparsePolynomial that) {
+        checkLayout(that);
+        if (!exactDense(that)) {
+            throw new IllegalArgumentException("coefficients not exact in dense multiplication");
+        }
+        if (monomials.length == 0 || that.monomials.length == 0) {
+            return constant(layout, 0);
+        }
+        int variables = layout.variables.length;
+        int[] thisDegrees = degrees();
+        int[] thatDegrees = that.degrees();
+        long[] radix = new long[variables];
+        long size = 1;
+        for (int v = variables - 1; v >= 0; v--) {
+            radix[v] = size;
+            size *= thisDegrees[v] + thatDegrees[v] + 1;
+        }
+        if (size > MAX_DENSE_SIZE) {
+            throw new IllegalArgumentException("product too large for dense multiplication");
+        }
+        double[] x = denseCoefficients(radix, (int)size);
+        double[] y = that.denseCoefficients(radix, (int)size);
+        int length = Math.max(highestIndex(x), highestIndex(y)) + 1;
+        double[] product = new double[2 * length];
+        karatsuba(x, 0, y, 0, length, product, 0);
+
+        // the indices of monomials are increasing in the same order as their packed form
+        long[] productMonomials = new long[Math.min(2 * length, monomials.length * that.monomials.length)];
+        double[] productCoefficients = new double[productMonomials.length];
+        int k = 0;
+        for (int index = 0; index < product.length && index < size; index++) {
+            if (product[index] != 0) {
+                long monomial = 0;
+                long rest = index;
+                for (int v = 0; v < variables; v++) {
+                    monomial += (rest / radix[v]) << layout.shifts[v];
+                    rest %= radix[v];
+                }
+                productMonomials[k] = monomial;
+                productCoefficients[k++] = product[index];
+            }
+        }
+        return new SparsePolynomial(layout, Arrays.copyOf(productMonomials, k), Arrays.copyOf(productCoefficients, k));
+    }
+
+    // Highest degree of every variable.
+    private int[] degrees() {
+        int[] degrees = new int[layout.variables.length];
+        for (long monomial : monomials) {
+            for (int v = 0; v < degrees.length; v++) {
+                degrees[v] = Math.max(degrees[v], layout.exponent(monomial, v));
+            }
+        }
+        return degrees;
+    }
+
+    // Number of coefficients of the dense product of this and that.
+    private long denseSize(SparsePolynomial that) {
+        int[] thisDegrees = degrees();
+        int[] thatDegrees = that.degrees();
+        long size = 1;
+        for (int v = 0; v < thisDegrees.length && size <= MAX_DENSE_SIZE; v++) {
+            size *= thisDegrees[v] + thatDegrees[v] + 1;
+        }
+        return size;
+    }
+
+    private double[] denseCoefficients(long[] radix, int size) {
+        double[] dense = new double[size];
+        for (int i = 0; i < monomials.length; i++) {
+            long index = 0;
+            for (int v = 0; v < radix.length; v++) {
+                index += layout.exponent(monomials[i], v) * radix[v];
+            }
+            dense[(int)index] = coefficients[i];
+        }
+        return dense;
+    }
+
+    private static int highestIndex(double[] dense) {
+        int highest = dense.length - 1;
+        while (highest > 0 && dense[highest] == 0) {
+            highest--;
+        }
+        return highest;
+    }
+
+    // Adds the product of x[xFrom..xFrom+n) and y[yFrom..yFrom+n) to result[to..to+2n-1).
+    private static void karatsuba(double[] x, int xFrom, double[] y, int yFrom, int n, double[] result, int to) {
+        if (n <= KARATSUBA_THRESHOLD) {
+            for (int i = 0; i < n; i++) {
+                double xi = x[xFrom + i];
+                if (xi == 0) continue;
+                for (int j = 0; j < n; j++) {
+                    result[to + i + j] += xi * y[yFrom + j];
+                }
+            }
+            return;
+        }
+        int low = n / 2;
+        int high = n - low;
+        // z0 = xLow*yLow, z2 = xHigh*yHigh, z1 = (xLow+xHigh)*(yLow+yHigh) - z0 - z2
+        double[] z0 = new double[2 * low];
+        double[] z2 = new double[2 * high];
+        karatsuba(x, xFrom, y, yFrom, low, z0, 0);
+        karatsuba(x, xFrom + low, y, yFrom + low, high, z2, 0);
+        double[] xSum = new double[high];
+        double[] ySum = new double[high];
+        for (int i = 0; i < high; i++) {
+            xSum[i] = x[xFrom + low + i] + (i < low ? x[xFrom + i] : 0);
+            ySum[i] = y[yFrom + low + i] + (i < low ? y[yFrom + i] : 0);
+        }
+        double[] z1 = new double[2 * high];
+        karatsuba(xSum, 0, ySum, 0, high, z1, 0);
+        for (int i = 0; i < z0.length; i++) {
+            result[to + i] += z0[i];
+            z1[i] -= z0[i];
+        }
+        for (int i = 0; i < z2.length; i++) {
+            if (to + 2 * low + i < result.length) {
+                result[to + 2 * low + i] += z2[i];
+            }
+            z1[i] -= z2[i];
+        }
+        for (int i = 0; i < z1.length; i++) {
+            if (to + low + i < result.length) {
+                result[to + low + i] += z1[i];
+            }
+        }
+    }
+
+    /**
+     * @return an expression equal to this polynomial: a sum of terms in decreasing order of
+     *         their monomials, each a product of the coefficient (omitted if 1) and the variables,
+     *         with every variable repeated as often as its exponent
+     */
+    public Expression toExpression() {
+        Expression sum = null;
+        for (int i = monomials.length - 1; i >= 0; i--) {
+            Expression term = coefficients[i] == 1 && monomials[i] != 0 ? null : new Constant(coefficients[i]);
+            for (int v = 0; v < layout.variables.length; v++) {
+                Variable variable = new Variable(layout.variables[v]);
+                for (int e = layout.exponent(monomials[i], v); e > 0; e--) {
+                    term = term == null ? variable : new Multiplication(term, variable);
+                }
+            }
+            sum = sum == null ? term : new Plus(sum, term);
+        }
+        return sum == null ? new Constant(0) : sum;
+    }
+
+    /**
+     * @param that polynomial over the same variables as this
+     * @param tolerance maximum absolute difference of equal coefficients
+     * @return true if and only if this and that have the same monomials and their coefficients
+     *         differ by at most tolerance, where missing terms have coefficient 0
+     */
+    public boolean equalsWithin(SparsePolynomial that, double tolerance) {
+        checkLayout(that);
+        int i = 0, j = 0;
+        while (i < monomials.length || j < that.monomials.length) {
+            if (j == that.monomials.length || (i < monomials.length && monomials[i] < that.monomials[j])) {
+                if (coefficients[i++] > tolerance) return false;
+            }
+            else if (i == monomials.length || that.monomials[j] < monomials[i]) {
+                if (that.coefficients[j++] > tolerance) return false;
+            }
+            else if (Math.abs(coefficients[i++] - that.coefficients[j++]) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param thatObject object to compare to
+     * @return true if and only if thatObject is a SparsePolynomial with the same monomials and
+     *         exactly the same coefficients, whether or not it is over the same variables as this
+     */
+    @Override
+    public boolean equals(Object thatObject) {
+        if (!(thatObject instanceof SparsePolynomial)) return false;
+        SparsePolynomial that = (SparsePolynomial)thatObject;
+        if (monomials.length != that.monomials.length) {
+            return false;
+        }
+        if (Arrays.equals(layout.variables, that.layout.variables) && Arrays.equals(layout.widths, that.layout.widths)) {
+            return Arrays.equals(monomials, that.monomials) && Arrays.equals(coefficients, that.coefficients);
+        }
+        // the monomials of both are in the same order, variables missing from a layout have exponent 0
+        for (int i = 0; i < monomials.length; i++) {
+            if (Double.compare(coefficients[i], that.coefficients[i]) != 0
+                    || !sameExponents(monomials[i], that, that.monomials[i])
+                    || !that.sameExponents(that.monomials[i], this, monomials[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns true if and only if every variable of this layout has the same exponent in
+    // monomial as in thatMonomial of that's layout, where it may be missing.
+    private boolean sameExponents(long monomial, SparsePolynomial that, long thatMonomial) {
+        for (int v = 0; v < layout.variables.length; v++) {
+            int thatVariable = Arrays.binarySearch(that.layout.variables, layout.variables[v]);
+            int thatExponent = thatVariable < 0 ? 0 : that.layout.exponent(thatMonomial, thatVariable);
+            if (layout.exponent(monomial, v) != thatExponent) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // over the variables with nonzero exponents only, so it does not depend on the layout
+        int hash = 1;
+        for (int i = 0; i < monomials.length; i++) {
+            hash = 31 * hash + Double.hashCode(coefficients[i]);
+            for (int v = 0; v < layout.variables.length; v++) {
+                int exponent = layout.exponent(monomials[i], v);
+                if (exponent > 0) {
+                    hash = 31 * (31 * hash + layout.variables[v].hashCode()) + exponent;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the terms in decreasing order, with exponents written as powers, e.g. "3*x^2*y + 2"
+     */
+    @Override
+    public String toString() {
+        if (monomials.length == 0) {
+            return "0";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = monomials.length - 1; i >= 0; i--) {
+            if (builder.length() > 0) {
+                builder.append(" + ");
+            }
+            builder.append(new Constant(coefficients[i]));
+            for (int v = 0; v < layout.variables.length; v++) {
+                int exponent = layout.exponent(monomials[i], v);
+                if (exponent > 0) {
+                    builder.append('*').append(layout.variables[v]);
+                    if (exponent > 1) {
+                        builder.append('^').append(exponent);
+                    }
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private void checkLayout(SparsePolynomial that) {
+        if (layout != that.layout) {
+            throw new IllegalArgumentException("polynomials are not over the same variables, expand them together");
+        }
+    }
+
+    private static double log2(int n) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(1, n));
+    }
+}
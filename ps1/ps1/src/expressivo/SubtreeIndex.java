@@ -0,0 +1,279 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * A mutable inverted index from subexpressions to the expressions that contain them, for
+ * asking which expressions of a large corpus contain a given subexpression without parsing
+ * or walking any of them.
+ *
+ * <p>Every node of an added expression gets a structural fingerprint, a 64-bit hash of its
+ * kind, its children's fingerprints and its name or constant, so structurally equal subtrees
+ * have equal fingerprints. A power has the fingerprint of its chain of multiplications, and
+ * every prefix of that chain is indexed as well. Each fingerprint has a posting list of the ids
+ * of the expressions that contain it, sorted, delta-encoded and stored as varints, so a
+ * posting costs about one byte in a dense corpus. Ids are assigned in increasing order, so
+ * adding an expression only appends to posting lists. Queries intersect posting lists by
+ * merging them.
+ *
+ * <p>Results are exact up to fingerprint collisions, which have probability about 2^-64 per
+ * pair of different subtrees. Constants are fingerprinted rounded to 4 decimal places, so
+ * constants that are equal within the tolerance of Constant.equals but round differently
+ * are not found.
+ */
+public class SubtreeIndex {
+    private static final long CONSTANT = 1;
+    private static final long VARIABLE = 2;
+    private static final long PLUS = 3;
+    private static final long TIMES = 4;
+
+    // rep
+    private final Map<Long, Postings> postings;
+    private int size;
+
+    // Rep invariant:
+    //  every posting list holds ids in [0, size), strictly increasing
+    // Abstraction function:
+    //  Represents an index of size expressions with ids 0..size-1, where the expressions with a
+    //  subtree whose fingerprint is f are the ids in postings.get(f).
+    // Safety from rep exposure:
+    //  All fields are private; posting lists are decoded into new arrays before they are returned.
+
+    // Sorted ids, delta-encoded as unsigned varints.
+    private static class Postings {
+        private byte[] bytes = new byte[4];
+        private int length;
+        private int count;
+        private int last = -1;
+
+        // Appends id if it is larger than every id in the list.
+        private void add(int id) {
+            if (id == last) {
+                return;
+            }
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int delta = id - last;
+            while ((delta & ~0x7F) != 0) {
+                bytes[length++] = (byte)((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte)delta;
+            last = id;
+            count++;
+        }
+
+        private int[] decode() {
+            int[] ids = new int[count];
+            int position = 0;
+            int id = -1;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = bytes[position++];
+                    delta |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                id += delta;
+                ids[i] = id;
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Creates an empty index.
+     */
+    public SubtreeIndex() {
+        this.postings = new HashMap<>();
+        this.size = 0;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert size >= 0;
+    }
+
+    /**
+     * Adds an expression to the index.
+     * @param expression expression to add
+     * @return the id of expression, the number of expressions added before it
+     */
+    public int add(Expression expression) {
+        int id = size++;
+        fingerprints(expression, fingerprint -> postings.computeIfAbsent(fingerprint, key -> new Postings()).add(id));
+        checkRep();
+        return id;
+    }
+
+    /**
+     * @return number of expressions added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of distinct subtree fingerprints in the index
+     */
+    public int fingerprints() {
+        return postings.size();
+    }
+
+    /**
+     * @return number of bytes of all posting lists
+     */
+    public long postingBytes() {
+        long bytes = 0;
+        for (Postings list : postings.values()) {
+            bytes += list.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Finds the expressions that contain a subexpression.
+     * @param subexpression expression to search for
+     * @return ids of the expressions that have a subtree structurally equal to subexpression,
+     *         in increasing order
+     */
+    public int[] containing(Expression subexpression) {
+        Postings list = postings.get(fingerprint(subexpression));
+        return list == null ? new int[0] : list.decode();
+    }
+
+    /**
+     * Finds the expressions that contain all of several subexpressions.
+     * @param subexpressions expressions to search for, nonempty
+     * @return ids of the expressions that have a subtree structurally equal to each of
+     *         subexpressions, in increasing order
+     */
+    public int[] containingAll(Collection<Expression> subexpressions) {
+        if (subexpressions.isEmpty()) {
+            throw new IllegalArgumentException("no subexpressions to search for");
+        }
+        int[] result = null;
+        for (Expression subexpression : subexpressions) {
+            int[] ids = containing(subexpression);
+            result = result == null ? ids : intersect(result, ids);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param subexpression any expression
+     * @return the fingerprint of subexpression, equal for structurally equal expressions
+     */
+    public static long fingerprint(Expression subexpression) {
+        long[] root = new long[1];
+        fingerprints(subexpression, fingerprint -> root[0] = fingerprint);
+        return root[0];
+    }
+
+    // Reports the fingerprint of every subtree of expression, in postorder, ending with the root.
+    // Shared subexpressions are fingerprinted once and reported again.
+    private static void fingerprints(Expression expression, LongConsumer report) {
+        Map<Expression, Long> known = new IdentityHashMap<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            Expression node = pending.peek();
+            if (known.containsKey(node)) {
+                pending.pop();
+                report.accept(known.get(node));
+                continue;
+            }
+            Expression expanded = Derivative.expanded(node);
+            long fingerprint;
+            if (expanded instanceof Constant) {
+                fingerprint = mix(CONSTANT, Math.round(((Constant)expanded).constant * 10000), 0);
+            }
+            else if (expanded instanceof Variable) {
+                fingerprint = fingerprint(((Variable)expanded).name);
+            }
+            else if (expanded instanceof Power) {
+                Power power = (Power)expanded;
+                if (!known.containsKey(power.base)) {
+                    pending.push(power.base);
+                    continue;
+                }
+                // the chain ((base*base)*base)*..., reporting every prefix of it
+                long base = known.get(power.base);
+                fingerprint = base;
+                for (int i = 1; i < power.exponent; i++) {
+                    fingerprint = mix(TIMES, fingerprint, base);
+                    if (i < power.exponent - 1) {
+                        report.accept(fingerprint);
+                    }
+                }
+            }
+            else {
+                boolean plus = expanded instanceof Plus;
+                Expression left = plus ? ((Plus)expanded).leftTerm : ((Multiplication)expanded).leftTerm;
+                Expression right = plus ? ((Plus)expanded).rightTerm : ((Multiplication)expanded).rightTerm;
+                if (!known.containsKey(left)) {
+                    pending.push(left);
+                    continue;
+                }
+                if (!known.containsKey(right)) {
+                    pending.push(right);
+                    continue;
+                }
+                fingerprint = mix(plus ? PLUS : TIMES, known.get(left), known.get(right));
+            }
+            pending.pop();
+            known.put(node, fingerprint);
+            report.accept(fingerprint);
+        }
+    }
+
+    // Hashes a variable name, folding every character through mix so the whole 64 bits depend on it.
+    private static long fingerprint(String name) {
+        long fingerprint = mix(VARIABLE, name.length(), 0);
+        for (int i = 0; i < name.length(); i++) {
+            fingerprint = mix(VARIABLE, fingerprint, name.charAt(i));
+        }
+        return fingerprint;
+    }
+
+    // Hashes a node from its kind and two values, by the splitmix64 finalizer.
+    private static long mix(long kind, long left, long right) {
+        long z = kind * 0x9E3779B97F4A7C15L + left;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L + Long.rotateLeft(right, 31);
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Merges two sorted arrays of ids into the ids in both.
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            }
+            else if (a[i] > b[j]) {
+                j++;
+            }
+            else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
@@ -34,6 +34,7 @@ public class Variable implements Expression {
 
     @Override
     public boolean equals(Object thatObject) {
+        thatObject = thatObject instanceof Derivative ? ((Derivative)thatObject).expand() : thatObject;
         if (!(thatObject instanceof Variable)) return false;
         
         Variable thatVariable = (Variable) thatObject;
@@ -61,4 +62,10 @@ public class Variable implements Expression {
             return this;
         }
     }
+
+    @Override
+    public Expression substitute(Map<String, Expression> bindings) {
+        Expression replacement = bindings.get(this.name);
+        return replacement == null ? this : replacement;
+    }
 }
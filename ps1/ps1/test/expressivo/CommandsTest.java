@@ -5,8 +5,13 @@ package expressivo;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -26,6 +31,10 @@ public class CommandsTest {
     // simplify()
     // environment: contains variables in the expression, contains variables not in the expression,
     //  expression after substituting variables consists of only constants
+    //
+    // gradient(), simplifyAll()
+    // results in input order, equal to the single commands; invalid variable;
+    //  default executor, given executor
     
     
     @Rule
@@ -94,4 +103,42 @@ public class CommandsTest {
         assertTrue("(4 + z)".equals(Commands.simplify(expression1, environment)));
         assertTrue("6".equals(Commands.simplify(expression2, environment)));
     }
+    
+    // Covers gradient() results in input order, default and given executor
+    @Test
+    public void testGradient() {
+        String expression = "x*x*y + 3*z";
+        List<String> variables = Arrays.asList("x", "y", "z", "w");
+        List<String> expected = Arrays.asList(Commands.differentiate(expression, "x"),
+                Commands.differentiate(expression, "y"), Commands.differentiate(expression, "z"), "0");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(expected, Commands.gradient(expression, variables, executor));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(expected, Commands.gradient(expression, variables));
+    }
+    
+    // Covers gradient() invalid variable
+    @Test
+    public void testGradientInvalidVariable() {
+        exception.expect(AssertionError.class);
+        Commands.gradient("x*y", Arrays.asList("x", "y1"));
+    }
+    
+    // Covers simplifyAll() results in input order
+    @Test
+    public void testSimplifyAll() {
+        String expression = "(x+y)*(x*y)";
+        Map<String, Double> both = new HashMap<>();
+        both.put("x", 1.0);
+        both.put("y", 2.0);
+        List<Map<String, Double>> environments = Arrays.asList(both, Collections.singletonMap("x", 3.0),
+                Collections.<String, Double>emptyMap());
+        
+        assertEquals(Arrays.asList(Commands.simplify(expression, both),
+                Commands.simplify(expression, environments.get(1)), Commands.simplify(expression, environments.get(2))),
+                Commands.simplifyAll(expression, environments));
+    }
 }
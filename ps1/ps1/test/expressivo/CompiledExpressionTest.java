@@ -0,0 +1,142 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Taylor series evaluation of CompiledExpression.
+ */
+public class CompiledExpressionTest {
+
+    // Testing strategy
+    //
+    // derivatives()
+    // order 0, order above the degree, orders 2 to 6; constant, variable, sum, product, power,
+    // shared subexpressions; variable not in the expression;
+    // compared to repeated Commands.differentiate and Commands.simplify
+    //
+    // taylor()
+    // direction along several variables, workspace reused; bad order, bad workspace
+    //
+    // gradient()
+    // constant, sum, product, power, shared subexpressions; compared to Commands.differentiate;
+    //  registers too short
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers order 0, order above the degree, constant, variable, sum, product, power
+    @Test
+    public void testDerivatives() {
+        CompiledExpression cube = CompiledExpression.compile(Expression.parse("x*x*x + 2*x + 5"));
+
+        assertArrayEquals(new double[] { 17 }, cube.derivatives(new double[] { 2 }, 0, 0), 1e-12);
+        assertArrayEquals(new double[] { 17, 14, 12, 6, 0, 0 }, cube.derivatives(new double[] { 2 }, 0, 5), 1e-12);
+        assertArrayEquals(new double[] { 7, 0, 0 },
+                CompiledExpression.compile(Expression.parse("7"), Arrays.asList("x")).derivatives(new double[] { 3 }, 0, 2), 0);
+    }
+
+    // Covers orders 2 to 6, shared subexpressions, variable not in the expression,
+    // compared to repeated Commands.differentiate and Commands.simplify
+    @Test
+    public void testSameAsRepeatedDifferentiate() {
+        Expression sum = Expression.parse("x + 2*y");
+        Expression shared = new Multiplication(new Multiplication(sum, sum), new Plus(sum, new Variable("x")));
+        List<Expression> expressions = Arrays.asList(shared,
+                Expression.parse("x*x*x*x*x*x*x*y + 3*x*y*y"),
+                Expression.parse("(x + 1)*(x + 1)*(x + 1)*(x + y)*1.5"),
+                new ExpressionGenerator(4).withSize(10).withVariables(2).expression(0));
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("a", 1.5);
+        environment.put("b", 0.5);
+        environment.put("x", 1.5);
+        environment.put("y", 0.5);
+        for (Expression expression : expressions) {
+            CompiledExpression program = CompiledExpression.compile(expression,
+                    Arrays.asList("a", "b", "x", "y"));
+            for (int variable = 0; variable < 4; variable++) {
+                String name = program.variables().get(variable);
+                double[] derivatives = program.derivatives(new double[] { 1.5, 0.5, 1.5, 0.5 }, variable, 6);
+                String derivative = expression.toString();
+                for (int order = 0; order <= 6; order++) {
+                    double expected = Double.parseDouble(Commands.simplify(derivative, environment));
+                    assertEquals(expression + " order " + order + " in " + name,
+                            expected, derivatives[order], 1e-3 * Math.max(1, Math.abs(expected)));
+                    derivative = Commands.differentiate(derivative, name);
+                }
+            }
+        }
+    }
+
+    // Covers direction along several variables, workspace reused
+    @Test
+    public void testTaylor() {
+        CompiledExpression program = CompiledExpression.compile(Expression.parse("x*y"));
+        double[] workspace = new double[program.size() * 4];
+
+        // (1 + t)(2 + 3t) = 2 + 5t + 3t^2
+        assertArrayEquals(new double[] { 2, 5, 3, 0 },
+                program.taylor(new double[] { 1, 2 }, new double[] { 1, 3 }, 3, workspace), 1e-12);
+        assertArrayEquals(new double[] { 0, 0, 1, 0 },
+                program.taylor(new double[] { 0, 0 }, new double[] { 1, 1 }, 3, workspace), 1e-12);
+    }
+
+    // Covers bad order, bad workspace
+    @Test
+    public void testTaylorInvalid() {
+        CompiledExpression program = CompiledExpression.compile(Expression.parse("x*y"));
+        try {
+            program.taylor(new double[] { 1, 2 }, new double[] { 1, 0 }, -1, new double[100]);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            program.taylor(new double[] { 1, 2 }, new double[] { 1, 0 }, 3, new double[program.size() * 4 - 1]);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    // Covers gradient() constant, sum, product, power, shared subexpressions, compared to Commands.differentiate
+    @Test
+    public void testGradient() {
+        String[] inputs = { "x*x*y + 3*x + 2", "(x + y)*(x + y)*(x + y)", "x*y*z + 7" };
+        double[] point = { 1.5, -2, 0.5 };
+        for (String input : inputs) {
+            CompiledExpression program = CompiledExpression.compile(Expression.parse(input));
+            List<String> variables = program.variables();
+            double[] values = Arrays.copyOf(point, variables.size());
+            double[] gradient = new double[variables.size()];
+            double value = program.gradient(values, gradient, new double[2 * program.size()]);
+
+            assertEquals(program.evaluate(values), value, 1e-12);
+            for (int v = 0; v < variables.size(); v++) {
+                CompiledExpression partial = CompiledExpression.compile(
+                        Expression.parse(Commands.differentiate(input, variables.get(v))), variables);
+                assertEquals(input + " d/d" + variables.get(v), partial.evaluate(values), gradient[v], 1e-9);
+            }
+        }
+        Expression square = Expression.parse("x + 1");
+        CompiledExpression shared = CompiledExpression.compile(new Multiplication(square, square));
+        double[] gradient = new double[1];
+        assertEquals(16, shared.gradient(new double[] { 3 }, gradient, new double[2 * shared.size()]), 0);
+        assertEquals(8, gradient[0], 0);
+    }
+
+    // Covers gradient() registers too short
+    @Test(expected=IllegalArgumentException.class)
+    public void testGradientInvalid() {
+        CompiledExpression program = CompiledExpression.compile(Expression.parse("x*y"));
+        program.gradient(new double[] { 1, 2 }, new double[2], new double[program.size()]);
+    }
+}
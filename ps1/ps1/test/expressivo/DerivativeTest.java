@@ -0,0 +1,124 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Derivative.
+ */
+public class DerivativeTest {
+
+    // Testing strategy
+    //
+    // expand(), materialize(), toString()
+    // same as differentiate() on random expressions, derivative of a derivative, leaf expression
+    //
+    // equals(), hashCode()
+    // derivative compared with an expression both ways, two derivatives
+    //
+    // lazy evaluation
+    // nothing expanded before reading, nodeCount() does not expand, compile() and simplify()
+    // read the derivative, session differentiates lazily
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers same as differentiate() on random expressions
+    @Test
+    public void testSameAsDifferentiate() {
+        ExpressionGenerator generator = new ExpressionGenerator(40).withSize(60).withVariables(3);
+        Variable a = new Variable("a");
+        Variable b = new Variable("b");
+        for (int i = 0; i < 100; i++) {
+            Expression expression = generator.expression(i);
+            Expression eager = expression.differentiate(a);
+            Derivative lazy = Expression.derivative(expression, a);
+
+            assertEquals(eager.toString(), lazy.toString());
+            assertEquals(eager.toString(), lazy.materialize().toString());
+            assertEquals(eager.differentiate(b).toString(), lazy.differentiate(b).toString());
+        }
+    }
+
+    // Covers derivative of a derivative, leaf expression
+    @Test
+    public void testHigherDerivatives() {
+        Expression expression = Expression.parse("x*x*x*y + 2*x");
+        Variable x = new Variable("x");
+        Variable y = new Variable("y");
+
+        Expression lazy = Expression.derivative(expression, x).differentiate(x).differentiate(y);
+        Expression eager = expression.differentiate(x).differentiate(x).differentiate(y);
+        assertEquals(eager.toString(), lazy.toString());
+        assertEquals(new Constant(1), Expression.derivative(x, x).expand());
+        assertEquals(new Constant(0), Expression.derivative(new Constant(3), x).expand());
+    }
+
+    // Covers derivative compared with an expression both ways, two derivatives
+    @Test
+    public void testEquals() {
+        Expression expression = Expression.parse("x*y + x");
+        Variable x = new Variable("x");
+        Expression eager = expression.differentiate(x);
+        Expression lazy = Expression.derivative(expression, x);
+
+        assertEquals(eager, lazy);
+        assertEquals(lazy, eager);
+        assertEquals(lazy, Expression.derivative(expression, x));
+        assertEquals(eager.hashCode(), lazy.hashCode());
+        assertNotEquals(lazy, Expression.derivative(expression, new Variable("y")));
+    }
+
+    // Covers nothing expanded before reading, nodeCount() does not expand
+    @Test
+    public void testLazy() {
+        Expression expression = Expression.parse("x*x*x + x*y");
+        Derivative lazy = Expression.derivative(expression, new Variable("x"));
+
+        assertNull(lazy.expandedOrNull());
+        assertEquals(1, Metrics.nodeCount(lazy));
+        assertNull(lazy.expandedOrNull());
+        Expression top = lazy.expand();
+        assertTrue(top instanceof Plus);
+        assertTrue(((Plus)top).leftTerm instanceof Derivative);
+        assertSame(top, lazy.expand());
+    }
+
+    // Covers compile() and simplify() read the derivative
+    @Test
+    public void testEvaluate() {
+        Expression expression = Expression.parse("x*x*x*y + y*y");
+        Variable x = new Variable("x");
+        Expression second = Expression.derivative(expression, x).differentiate(x);
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 3.0);
+
+        // 6*x*y
+        assertEquals(36, CompiledExpression.compile(second).evaluate(environment), 1e-9);
+        assertEquals(new Constant(36), second.simplify(environment));
+        assertEquals(expression.differentiate(x).differentiate(x).substitute(Collections.emptyMap()),
+                second.substitute(Collections.emptyMap()));
+    }
+
+    // Covers session differentiates lazily
+    @Test
+    public void testSession() {
+        ExpressionSession session = new ExpressionSession();
+        session.enter("x*x*y");
+        Expression first = session.differentiate("x");
+        Expression second = session.differentiate("y");
+
+        assertTrue(first instanceof Derivative);
+        assertEquals(Expression.parse("x*x*y").differentiate(new Variable("x")).differentiate(new Variable("y")),
+                second);
+        assertEquals(4, session.evaluate(Collections.singletonMap("x", 2.0)), 0);
+    }
+}
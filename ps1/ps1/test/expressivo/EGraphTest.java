@@ -0,0 +1,94 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for EGraph and CostModel.
+ */
+public class EGraphTest {
+
+    // Testing strategy
+    //
+    // saturate(), equal()
+    // expressions equal by commutativity, associativity, distributivity, 0/1 laws;
+    // expressions that are not equal; budget runs out before saturation, within the first pass
+    //
+    // extract(), simplify()
+    // cost model: operation count, node count; expression already cheapest, constants fold,
+    //  common factor
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers equalities found by saturation
+    @Test
+    public void testSaturateFindsEqualities() {
+        EGraph graph = new EGraph(100_000, 10_000);
+        int factored = graph.add(Expression.parse("x*(y + 1)"));
+        int expanded = graph.add(Expression.parse("x*y + x"));
+        int reordered = graph.add(Expression.parse("(1 + y)*x*1 + 0"));
+        int different = graph.add(Expression.parse("x*y + y"));
+        graph.saturate();
+
+        assertTrue(graph.equal(factored, expanded));
+        assertTrue(graph.equal(factored, reordered));
+        assertFalse(graph.equal(factored, different));
+    }
+
+    // Covers budget runs out
+    @Test
+    public void testSaturateStopsAtNodeBudget() {
+        EGraph graph = new EGraph(50, 10_000);
+        graph.add(Expression.parse("(a + b + c + d)*(e + f + g + h)"));
+
+        assertFalse(graph.saturate());
+        assertTrue(graph.size() <= 50);
+    }
+
+    // Covers budget runs out within the first pass
+    @Test
+    public void testSaturateStopsWithinPass() {
+        StringBuilder left = new StringBuilder("aa");
+        StringBuilder right = new StringBuilder("ba");
+        for (char c = 'b'; c <= 'z'; c++) {
+            left.append(" + a").append(c);
+            right.append(" + b").append(c);
+        }
+        EGraph graph = new EGraph(200, 10_000);
+        graph.add(Expression.parse("(" + left + ")*(" + right + ")"));
+        int initial = graph.size();
+
+        assertFalse(graph.saturate());
+        assertTrue(initial < 200);
+        assertTrue("size " + graph.size(), graph.size() <= 200);
+    }
+
+    // Covers operation count cost model, constants fold, common factor
+    @Test
+    public void testSimplifyOperationCount() {
+        CostModel operations = CostModel.operationCount(1);
+
+        Expression folded = EGraph.simplify(Expression.parse("2*x*3"), 10_000, 1_000, operations);
+        assertEquals(1, operations(folded));
+        assertTrue(folded.toString().contains("6"));
+        assertEquals(Expression.variable("y"), EGraph.simplify(Expression.parse("0*x + 1*y"), 10_000, 1_000, operations));
+        assertEquals(3, operations(EGraph.simplify(Expression.parse("x*y + x*z + x*w"), 10_000, 1_000, operations)));
+    }
+
+    // Covers node count cost model, expression already cheapest
+    @Test
+    public void testSimplifyNodeCount() {
+        Expression expression = Expression.parse("x*y + z");
+
+        assertEquals(5, Metrics.nodeCount(EGraph.simplify(expression, 10_000, 1_000, CostModel.nodeCount())));
+    }
+
+    // Number of plus and times nodes in expression, every one of which has two children.
+    private static long operations(Expression expression) {
+        return (Metrics.nodeCount(expression) - 1) / 2;
+    }
+}
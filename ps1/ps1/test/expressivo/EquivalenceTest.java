@@ -0,0 +1,121 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for Equivalence and CompiledExpression.
+ */
+public class EquivalenceTest {
+
+    // Testing strategy
+    //
+    // CompiledExpression.evaluate()
+    // constant, variables, shared subexpression; values in order or from an environment;
+    //  chain deeper than the stack
+    //
+    // equivalent()
+    // equal by commutativity and distributivity, different polynomials, constants within the
+    //  tolerance, different variables; constants with more than 4 decimals scaled far from 0;
+    //  chains deeper than the stack
+    //
+    // fingerprint(), distinct()
+    // equal expressions share a fingerprint; duplicates removed, order kept; constants with more
+    //  than 4 decimals
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers constant, variables, shared subexpression
+    @Test
+    public void testCompiledEvaluate() {
+        Expression sum = Expression.parse("x + 2*y");
+        CompiledExpression program = CompiledExpression.compile(new Multiplication(sum, sum));
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.0);
+        environment.put("y", 3.0);
+
+        assertEquals(Arrays.asList("x", "y"), program.variables());
+        assertEquals(6, program.size());
+        assertEquals(49, program.evaluate(1, 3), 0.0001);
+        assertEquals(49, program.evaluate(environment), 0.0001);
+        assertEquals(1.5, CompiledExpression.compile(Expression.parse("1.5")).evaluate(), 0.0001);
+    }
+
+    // Covers evaluate() and equivalent() on chains deeper than the stack
+    @Test
+    public void testDeepChain() {
+        Expression chain = new Variable("x");
+        Expression reordered = new Variable("x");
+        for (int i = 0; i < 100_000; i++) {
+            Expression term = i % 2 == 0 ? new Variable("y") : new Multiplication(new Constant(2), new Variable("x"));
+            chain = new Plus(chain, term);
+            reordered = new Plus(term, reordered);
+        }
+        CompiledExpression compiled = CompiledExpression.compile(chain);
+        assertEquals(Arrays.asList("x", "y"), compiled.variables());
+        assertEquals(1 + 50_000 * 2 + 50_000 * 3.0, compiled.evaluate(1, 3), 1e-6);
+        assertTrue(Equivalence.equivalent(chain, reordered));
+        assertFalse(Equivalence.equivalent(chain, new Plus(reordered, new Variable("x"))));
+    }
+
+    // Covers equal by commutativity and distributivity, different polynomials
+    @Test
+    public void testEquivalent() {
+        Random random = new Random(6005);
+
+        assertTrue(Equivalence.equivalent(Expression.parse("x*(y + 1)"), Expression.parse("y*x + x"), random));
+        assertTrue(Equivalence.equivalent(Expression.parse("(x + 1)*(x + 1)"), Expression.parse("x*x + 2*x + 1"), random));
+        assertFalse(Equivalence.equivalent(Expression.parse("(x + 1)*(x + 1)"), Expression.parse("x*x + 1"), random));
+        assertFalse(Equivalence.equivalent(Expression.parse("x"), Expression.parse("y"), random));
+    }
+
+    // Covers constants within the tolerance
+    @Test
+    public void testEquivalentWithinTolerance() {
+        Random random = new Random(6005);
+
+        assertTrue(Equivalence.equivalent(Expression.parse("1.00001*x + 3"), Expression.parse("x + 3"), random));
+        assertTrue(Equivalence.equivalent(Expression.parse("0.00001*x*x + 3"), Expression.parse("3"), random));
+        assertFalse(Equivalence.equivalent(Expression.parse("1.001*x"), Expression.parse("x"), random));
+    }
+
+    // Covers constants with more than 4 decimals scaled far from 0
+    @Test
+    public void testEquivalentSmallConstants() {
+        Random random = new Random(6005);
+
+        assertFalse(Equivalence.equivalent(Expression.parse("10000*0.00004*x"), Expression.parse("0"), random));
+        assertTrue(Equivalence.equivalent(Expression.parse("10000*0.00004*x"), Expression.parse("0.4*x"), random));
+        assertTrue(Equivalence.equivalent(Expression.parse("0.00004*x"), Expression.parse("0"), random));
+    }
+
+    // Covers fingerprint, distinct
+    @Test
+    public void testDistinct() {
+        List<Expression> expressions = Arrays.asList(Expression.parse("x*y"), Expression.parse("y + x"),
+                Expression.parse("y*x"), Expression.parse("x + y*1"), Expression.parse("x*x"));
+
+        assertEquals(Equivalence.fingerprint(expressions.get(0)), Equivalence.fingerprint(expressions.get(2)));
+        assertEquals(Arrays.asList(expressions.get(0), expressions.get(1), expressions.get(4)),
+                Equivalence.distinct(expressions));
+    }
+
+    // Covers constants with more than 4 decimals
+    @Test
+    public void testFingerprintSmallConstants() {
+        assertNotEquals(Equivalence.fingerprint(Expression.parse("10000*0.00004*x")),
+                Equivalence.fingerprint(Expression.parse("0")));
+        assertEquals(Equivalence.fingerprint(Expression.parse("10000*0.00004*x")),
+                Equivalence.fingerprint(Expression.parse("0.4*x")));
+    }
+}
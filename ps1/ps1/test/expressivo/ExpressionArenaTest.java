@@ -0,0 +1,91 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionArena.
+ */
+public class ExpressionArenaTest {
+
+    // Testing strategy
+    //
+    // add(), toExpression()
+    // constant, variable, sum, product; deep expression
+    //
+    // differentiate(), simplify(), evaluate()
+    // same result as the object tree on random expressions; unchanged nodes shared;
+    //  variable not in the arena; unbound variable in evaluate
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers constant, variable, sum, product
+    @Test
+    public void testRoundTrip() {
+        ExpressionArena arena = new ExpressionArena();
+        Expression expression = Expression.parse("(x + 2.5)*y*(x + 0)");
+        int root = arena.add(expression);
+
+        assertEquals(expression, arena.toExpression(root));
+        assertEquals(Metrics.nodeCount(expression), arena.size());
+        int built = arena.times(arena.variable("x"), arena.plus(arena.constant(1), arena.variable("z")));
+        assertEquals(Expression.parse("x*(1 + z)"), arena.toExpression(built));
+    }
+
+    // Covers same result as the object tree on random expressions
+    @Test
+    public void testSameAsObjects() {
+        ExpressionGenerator generator = new ExpressionGenerator(35).withSize(60).withVariables(3);
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("a", 2.0);
+        environment.put("c", 0.5);
+        Map<String, Double> all = new HashMap<>(environment);
+        all.put("b", 3.0);
+        for (int i = 0; i < 100; i++) {
+            Expression expression = generator.expression(i);
+            ExpressionArena arena = new ExpressionArena();
+            int root = arena.add(expression);
+
+            assertEquals(expression.differentiate(new Variable("a")).toString(),
+                    arena.toExpression(arena.differentiate(root, "a")).toString());
+            assertEquals(expression.simplify(environment).toString(),
+                    arena.toExpression(arena.simplify(root, environment)).toString());
+            assertEquals(expression.simplify(all), new Constant(arena.evaluate(root, all)));
+        }
+    }
+
+    // Covers unchanged nodes shared, variable not in the arena, deep expression
+    @Test
+    public void testSharingAndDepth() {
+        ExpressionArena arena = new ExpressionArena();
+        int root = arena.add(Expression.parse("x*y + z"));
+        int size = arena.size();
+
+        assertEquals(root, arena.simplify(root, Collections.singletonMap("w", 1.0)));
+        assertEquals(size, arena.size());
+        assertEquals(new Constant(0), arena.toExpression(arena.differentiate(root, "w")));
+
+        Expression deep = new Variable("x");
+        for (int i = 0; i < 100_000; i++) {
+            deep = new Plus(deep, new Variable("x"));
+        }
+        int deepRoot = arena.add(deep);
+        assertEquals(100_001, arena.evaluate(deepRoot, Collections.singletonMap("x", 1.0)), 0.0001);
+        assertEquals(100_001, arena.evaluate(arena.differentiate(deepRoot, "x"), Collections.emptyMap()), 0.0001);
+    }
+
+    // Covers unbound variable in evaluate
+    @Test(expected=IllegalArgumentException.class)
+    public void testEvaluateUnbound() {
+        ExpressionArena arena = new ExpressionArena();
+        arena.evaluate(arena.add(Expression.parse("x + y")), Collections.singletonMap("x", 1.0));
+    }
+}
@@ -0,0 +1,173 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionBudget.
+ */
+public class ExpressionBudgetTest {
+
+    // Testing strategy
+    //
+    // parse()
+    // within budget; input too long, parentheses too deep, too many nodes,
+    //  operator chain too deep without parentheses, parentheses nested just above the server limit,
+    //  parser overflows the stack
+    //
+    // differentiate(), simplify()
+    // within budget; expression too deep, too many nodes visited, output too large, timeout;
+    //  unlimited budget; other threads not affected
+    //
+    // ExpressionSession with a budget
+    // command over budget leaves the session unchanged
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers parse() within budget, input too long, parentheses too deep, too many nodes
+    @Test
+    public void testParse() {
+        ExpressionBudget budget = ExpressionBudget.UNLIMITED.withMaxInputLength(20).withMaxDepth(3).withMaxNodes(9);
+
+        assertEquals(Expression.parse("((x + 1))*y"), budget.parse("((x + 1))*y"));
+        assertExceeds("input length", () -> budget.parse("x + x + x + x + x + x + x"));
+        assertExceeds("depth", () -> budget.parse("((((x))))"));
+        assertExceeds("nodes", () -> budget.parse("(x+x)*(x+x)*(x+x)"));
+    }
+
+    // Covers parse() operator chain too deep without parentheses
+    @Test
+    public void testParseLongChain() {
+        StringBuilder chain = new StringBuilder("x");
+        for (int i = 0; i < 100_000; i++) {
+            chain.append("+y");
+        }
+        assertExceeds("depth", () -> ExpressionBudget.server().withMaxInputLength(1_000_000).parse(chain.toString()));
+        assertExceeds("depth", () -> ExpressionBudget.UNLIMITED.withMaxDepth(3).parse("x+y+x+y+x"));
+        assertEquals(Expression.parse("x+y+x"), ExpressionBudget.UNLIMITED.withMaxDepth(3).parse("x+y+x"));
+    }
+
+    // Covers parse() parentheses nested just above the server limit, parser overflows the stack
+    @Test
+    public void testParseNestedParentheses() {
+        assertEquals(Expression.parse("x"), ExpressionBudget.server().parse(nested(100)));
+        assertExceeds("depth", () -> ExpressionBudget.server().parse(nested(101)));
+        assertExceeds("depth", () -> ExpressionBudget.server().parse(nested(400)));
+        assertExceeds("depth", () -> ExpressionBudget.server().parse(nested(900)));
+        assertExceeds("depth", () -> ExpressionBudget.server().withMaxDepth(100_000).parse(nested(5000)));
+    }
+
+    // Covers parse() operator chain too deep without parentheses, rejected before parsing
+    @Test(timeout = 5000)
+    public void testParseLongFlatSum() {
+        StringBuilder sum = new StringBuilder("x");
+        while (sum.length() < 800_000) {
+            sum.append("+x");
+        }
+        assertExceeds("input length", () -> ExpressionBudget.server().parse(sum.toString()));
+        assertExceeds("depth", () -> ExpressionBudget.server().withMaxInputLength(1_000_000).parse(sum.toString()));
+        // a long sum of parenthesized sums is no deeper than its longest chain
+        StringBuilder groups = new StringBuilder("(x+y+x)");
+        for (int i = 0; i < 50; i++) {
+            groups.append("*(x+y+x)");
+        }
+        assertEquals(Expression.parse(groups.toString()),
+                ExpressionBudget.UNLIMITED.withMaxDepth(52).parse(groups.toString()));
+        assertExceeds("depth", () -> ExpressionBudget.UNLIMITED.withMaxDepth(51).parse(groups.toString()));
+    }
+
+    // Covers differentiate() within budget, expression too deep, output too large
+    @Test
+    public void testDifferentiate() {
+        Expression chain = chain(8);
+        Variable x = new Variable("x");
+
+        assertEquals(chain.differentiate(x), ExpressionBudget.server().differentiate(chain, x));
+        assertExceeds("depth", () -> ExpressionBudget.UNLIMITED.withMaxDepth(5).differentiate(chain, x));
+        assertExceeds("output size", () -> ExpressionBudget.UNLIMITED.withMaxOutputSize(20).differentiate(chain, x));
+    }
+
+    // Covers simplify() too many nodes visited, timeout, unlimited budget
+    @Test
+    public void testSimplify() {
+        // every derivative doubles the shared structure that simplify visits as a tree
+        Expression expression = chain(16);
+        for (int i = 0; i < 6; i++) {
+            expression = expression.differentiate(new Variable("x"));
+        }
+        final Expression derivative = expression;
+
+        assertExceeds("nodes", () -> ExpressionBudget.UNLIMITED.withMaxNodes(1000)
+                .simplify(derivative, Collections.singletonMap("y", 1.0)));
+        assertExceeds("time", () -> ExpressionBudget.UNLIMITED.withTimeoutMillis(1)
+                .run(() -> { spin(derivative); return null; }));
+        assertEquals(new Constant(0), ExpressionBudget.UNLIMITED.simplify(Expression.parse("0*x"), Collections.emptyMap()));
+    }
+
+    // Covers other threads not affected, session unchanged
+    @Test
+    public void testSessionOverBudget() {
+        ExpressionSession session = new ExpressionSession(Expression::parse, ExpressionBudget.UNLIMITED.withMaxOutputSize(20));
+        Expression entered = session.enter("x*x*y*x*x");
+        assertExceeds("output size", () -> session.differentiate("x"));
+        assertEquals(entered, session.current().get());
+
+        AtomicReference<Expression> otherResult = new AtomicReference<>();
+        Thread other = new Thread(() -> otherResult.set(chain(8).differentiate(new Variable("x"))));
+        ExpressionBudget.UNLIMITED.withMaxNodes(1).run(() -> {
+            other.start();
+            try {
+                other.join();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException(ie);
+            }
+            return null;
+        });
+        assertNotNull(otherResult.get());
+    }
+
+    // A chain of n multiplied x's, which the parser would turn into a single power.
+    private static Expression chain(int n) {
+        Expression chain = Expression.variable("x");
+        for (int i = 1; i < n; i++) {
+            chain = Expression.multiplication(chain, Expression.variable("x"));
+        }
+        return chain;
+    }
+
+    // Simplifies expression until the timeout of the running budget stops it.
+    private static void spin(Expression expression) {
+        while (true) {
+            expression.simplify(Collections.singletonMap("y", 1.0));
+        }
+    }
+
+    private static void assertExceeds(String resource, Runnable operation) {
+        try {
+            operation.run();
+            fail("expected BudgetExceededException for " + resource);
+        } catch (BudgetExceededException bee) {
+            assertEquals(resource, bee.resource);
+        }
+    }
+
+    // Returns x in depth pairs of parentheses.
+    private static String nested(int depth) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            text.append('(');
+        }
+        text.append('x');
+        for (int i = 0; i < depth; i++) {
+            text.append(')');
+        }
+        return text.toString();
+    }
+}
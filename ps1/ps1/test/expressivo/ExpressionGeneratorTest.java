@@ -0,0 +1,145 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionGenerator and ExpressionCodec.
+ */
+public class ExpressionGeneratorTest {
+
+    // Testing strategy
+    //
+    // expression(), corpus()
+    // same seed and index, different index; size, depth limits size; only constants, only variables,
+    //  only sums, only products
+    //
+    // writeText(), writeBinary(), ExpressionCodec
+    // text parses back to an equivalent expression; binary corpus reads back; single expression round trip; deep expression;
+    //  malformed input; invalid variable name, variable index out of range; power without base,
+    //  power of a product, power in a version 1 corpus
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers same seed and index, different index, size
+    @Test
+    public void testReproducible() {
+        ExpressionGenerator generator = new ExpressionGenerator(42).withSize(50);
+
+        assertEquals(new ExpressionGenerator(42).withSize(50).expression(7).toString(), generator.expression(7).toString());
+        assertNotEquals(generator.expression(7).toString(), generator.expression(8).toString());
+        assertEquals(2 * 50 - 1, Metrics.nodeCount(generator.expression(3)));
+    }
+
+    // Covers depth limits size, only constants, only variables, only sums, only products
+    @Test
+    public void testKnobs() {
+        ExpressionGenerator generator = new ExpressionGenerator(1).withSize(100).withMaxDepth(3);
+        assertEquals(2 * 8 - 1, Metrics.nodeCount(generator.expression(0)));
+
+        Expression constants = generator.withConstantRatio(1).withProductRatio(0).expression(0);
+        assertTrue(constants.simplify(Collections.emptyMap()) instanceof Constant);
+        Expression variables = generator.withConstantRatio(0).withVariables(1).withProductRatio(1).expression(0);
+        assertEquals("a*a*a*a*a*a*a*a", variables.toString());
+        assertEquals("z", ExpressionGenerator.name(25));
+        assertEquals("aa", ExpressionGenerator.name(26));
+    }
+
+    // Covers text parses back
+    @Test
+    public void testWriteText() throws IOException {
+        ExpressionGenerator generator = new ExpressionGenerator(5).withVariables(30);
+        StringWriter text = new StringWriter();
+        generator.writeText(text, 20);
+        String[] lines = text.toString().split("\n");
+
+        assertEquals(20, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertTrue(Equivalence.equivalent(generator.expression(i), Expression.parse(lines[i].trim())));
+        }
+    }
+
+    // Covers binary corpus reads back, single expression round trip, deep expression
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        ExpressionGenerator generator = new ExpressionGenerator(9).withSize(200);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        generator.writeBinary(bytes, 10);
+        List<Expression> corpus = ExpressionCodec.readCorpus(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(generator.corpus(10), corpus);
+
+        Expression deep = new Variable("x");
+        for (int i = 0; i < 100_000; i++) {
+            deep = new Plus(deep, new Constant(i % 7));
+        }
+        Expression decoded = ExpressionCodec.decode(ExpressionCodec.encode(deep));
+        assertEquals(Metrics.nodeCount(deep), Metrics.nodeCount(decoded));
+    }
+
+    // Covers malformed input
+    @Test(expected=IllegalArgumentException.class)
+    public void testDecodeMalformed() {
+        byte[] bytes = ExpressionCodec.encode(Expression.parse("x*y + 2"));
+        ExpressionCodec.decode(Arrays.copyOf(bytes, bytes.length - 3));
+    }
+
+    // Covers invalid variable name, variable index out of range
+    @Test
+    public void testReadInvalidVariables() throws IOException {
+        // NEW_VARIABLE tags with names that are not variables
+        assertMalformed(corpus(2, 2, 0, 2, 'x', '1', 5, 6));
+        assertMalformed(corpus(2, 2, 0, 0, 5, 6));
+        // VARIABLE tags with index 1 of 1 variable, and index -1 as a 5 byte varint
+        assertMalformed(corpus(2, 2, 0, 1, 'x', 5, 1, 1, 5, 6));
+        assertMalformed(corpus(2, 2, 0, 1, 'x', 5, 1, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F, 5, 6));
+        assertEquals(Arrays.asList(new Variable("x"), new Variable("x")),
+                ExpressionCodec.readCorpus(new ByteArrayInputStream(corpus(2, 2, 0, 1, 'x', 5, 1, 0, 5, 6))));
+    }
+
+    // Covers power without base, power of a product, power in a version 1 corpus
+    @Test
+    public void testReadInvalidPowers() throws IOException {
+        // POWER tags with exponent 3
+        assertMalformed(corpus(2, 7, 3, 5, 6));
+        assertMalformed(corpus(2, 2, 0, 1, 'x', 1, 0, 4, 7, 3, 5, 6));
+        assertMalformed(corpus(1, 2, 0, 1, 'x', 7, 3, 5, 6));
+        assertEquals(Arrays.asList(new Power(new Variable("x"), 3)),
+                ExpressionCodec.readCorpus(new ByteArrayInputStream(corpus(2, 2, 0, 1, 'x', 7, 3, 5, 6))));
+    }
+
+    // Returns a corpus of the given version whose body is the given bytes.
+    private static byte[] corpus(int version, int... body) {
+        byte[] bytes = new byte[5 + body.length];
+        bytes[0] = 'E';
+        bytes[1] = 'X';
+        bytes[2] = 'P';
+        bytes[3] = 'R';
+        bytes[4] = (byte)version;
+        for (int i = 0; i < body.length; i++) {
+            bytes[5 + i] = (byte)body[i];
+        }
+        return bytes;
+    }
+
+    private static void assertMalformed(byte[] bytes) {
+        try {
+            ExpressionCodec.readCorpus(new ByteArrayInputStream(bytes));
+            fail("expected IOException");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionServer, ExpressionConnection and the shared parse cache.
+ */
+public class ExpressionServerTest {
+
+    // Testing strategy
+    //
+    // requests
+    // expression, !d/d, !simplify, !metrics; command before any expression;
+    // invalid expression, invalid command, metrics toggle, input nested too deeply,
+    //  followed by a valid request
+    //
+    // connections
+    // one client, two clients with separate current expressions;
+    // client ends with an empty line (bye), client closes its socket
+    //
+    // parse cache
+    // short input cached once, input longer than MAX_CACHED_LENGTH,
+    // inputs beyond CACHE_CHARACTERS in total
+
+    private static final String LOCALHOST = "127.0.0.1";
+
+    private ExpressionServer server;
+    private Thread serverThread;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ExpressionServer(0, Executors.newCachedThreadPool());
+        serverThread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                throw new RuntimeException(ioe);
+            }
+        });
+        serverThread.start();
+    }
+
+    @After
+    public void stopServer() throws IOException, InterruptedException {
+        server.close();
+        serverThread.join(3000);
+        assertFalse("server thread still running", serverThread.isAlive());
+    }
+
+    /**
+     * A client connected to the server.
+     */
+    private class Client implements AutoCloseable {
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+
+        Client() throws IOException {
+            socket = new Socket(LOCALHOST, server.getPort());
+            socket.setSoTimeout(3000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = new PrintWriter(socket.getOutputStream(), true);
+        }
+
+        /**
+         * @param request one line request
+         * @return the server's reply
+         */
+        String request(String request) throws IOException {
+            out.println(request);
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers expression, !d/d, !simplify, !metrics, command before any expression, one client,
+    // client ends with an empty line (bye)
+    @Test(timeout = 10000)
+    public void testRequestReply() throws IOException {
+        try (Client client = new Client()) {
+            assertEquals("must enter an expression before using this command", client.request("!d/dx"));
+            assertEquals("(x*x + y)", client.request("x*x + y"));
+            assertEquals("(x + x)", client.request("!d/dx"));
+            assertEquals("4", client.request("!simplify x=2 y=1"));
+            assertTrue(client.request("!metrics").startsWith("metrics "));
+
+            // bye
+            client.out.println();
+            assertNull("expected the server to close the connection", client.in.readLine());
+        }
+    }
+
+    // Covers invalid expression, invalid command, metrics toggle, input nested too deeply,
+    // followed by a valid request
+    @Test(timeout = 10000)
+    public void testInvalidInput() throws IOException {
+        try (Client client = new Client()) {
+            assertEquals("java.lang.IllegalArgumentException: Parse error: invalid expression",
+                    client.request("3 +"));
+            assertEquals("expressivo.Main$CommandSyntaxException: usage: !d/d must be followed by a variable name",
+                    client.request("!d/d"));
+            boolean enabled = Metrics.enabled();
+            assertEquals("expressivo.Main$CommandSyntaxException: usage: !metrics",
+                    client.request("!metrics " + (enabled ? "off" : "on")));
+            assertEquals(enabled, Metrics.enabled());
+            assertEquals("expressivo.Main$CommandSyntaxException: usage: !metrics", client.request("!metrics reset"));
+            StringBuilder nested = new StringBuilder("x");
+            for (int i = 0; i < 400; i++) {
+                nested.insert(0, '(').append(')');
+            }
+            assertTrue(client.request(nested.toString()).startsWith("expressivo.BudgetExceededException: "));
+            assertEquals("x", client.request("x"));
+            assertEquals("1", client.request("!d/dx"));
+        }
+    }
+
+    // Covers two clients with separate current expressions, client closes its socket
+    @Test(timeout = 10000)
+    public void testTwoClients() throws IOException {
+        try (Client second = new Client()) {
+            try (Client first = new Client()) {
+                assertEquals("x*y", first.request("x*y"));
+                assertEquals("must enter an expression before using this command", second.request("!d/dx"));
+            }
+            assertEquals("y*y", second.request("y*y"));
+            assertEquals("(y + y)", second.request("!d/dy"));
+        }
+        try (Client third = new Client()) {
+            assertEquals("z", third.request("z"));
+        }
+    }
+
+    // Covers short input cached once, input longer than MAX_CACHED_LENGTH
+    @Test
+    public void testParseCacheLongInput() {
+        String shortInput = "x*y + parsecache";
+        ExpressionParser.parseCached(shortInput);
+        long cached = ExpressionParser.cachedCharacters();
+        assertSame(ExpressionParser.parseCached(shortInput), ExpressionParser.parseCached(shortInput));
+        assertEquals(cached, ExpressionParser.cachedCharacters());
+
+        String longInput = repeat("x*", ExpressionParser.MAX_CACHED_LENGTH / 2) + "y";
+        assertEquals(Expression.parse(longInput), ExpressionParser.parseCached(longInput));
+        assertEquals(cached, ExpressionParser.cachedCharacters());
+        assertNotSame(ExpressionParser.parseCached(longInput), ExpressionParser.parseCached(longInput));
+    }
+
+    // Covers inputs beyond CACHE_CHARACTERS in total
+    @Test
+    public void testParseCacheBound() {
+        String prefix = repeat("x+", (ExpressionParser.MAX_CACHED_LENGTH - 100) / 2);
+        int inputs = ExpressionParser.CACHE_CHARACTERS / prefix.length() + 2;
+        for (int i = 0; i < inputs; i++) {
+            ExpressionParser.parseCached(prefix + i);
+            assertTrue(ExpressionParser.cachedCharacters() <= ExpressionParser.CACHE_CHARACTERS);
+        }
+        // the most recent input is still cached
+        String last = prefix + (inputs - 1);
+        assertSame(ExpressionParser.parseCached(last), ExpressionParser.parseCached(last));
+    }
+
+    private static String repeat(String string, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(string);
+        }
+        return builder.toString();
+    }
+}
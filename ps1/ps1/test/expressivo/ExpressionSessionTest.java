@@ -0,0 +1,87 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionSession.
+ */
+public class ExpressionSessionTest {
+
+    // Testing strategy
+    //
+    // enter(), differentiate(), simplify()
+    // no current expression; chain of derivatives; simplify keeps the current expression;
+    //  entering a new expression starts a new history; invalid expression keeps the session
+    //
+    // evaluate(), compiled()
+    // compiled once per current expression, recompiled after differentiate
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers no current expression
+    @Test(expected=NoSuchElementException.class)
+    public void testNoCurrentExpression() {
+        new ExpressionSession().differentiate("x");
+    }
+
+    // Covers chain of derivatives, simplify keeps the current expression, new history
+    @Test
+    public void testHistory() {
+        ExpressionSession session = new ExpressionSession();
+        Expression entered = session.enter("x*x*y");
+        Expression first = session.differentiate("x");
+
+        assertEquals(entered.differentiate(new Variable("x")), first);
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.0);
+        environment.put("y", 3.0);
+        assertEquals(new Constant(6), session.simplify(environment));
+        Expression second = session.differentiate("x");
+        assertEquals(first.differentiate(new Variable("x")), second);
+        assertEquals(Arrays.asList(entered, first, second), session.history());
+        assertEquals(Arrays.asList("x", "x"), session.variables());
+
+        Expression next = session.enter("z + 1");
+        assertEquals(Arrays.asList(next), session.history());
+        assertEquals(Collections.emptyList(), session.variables());
+    }
+
+    // Covers invalid expression keeps the session
+    @Test
+    public void testInvalidExpression() {
+        ExpressionSession session = new ExpressionSession();
+        Expression entered = session.enter("x + 1");
+        try {
+            session.enter("x +");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        assertEquals(entered, session.current().get());
+    }
+
+    // Covers compiled once, recompiled after differentiate
+    @Test
+    public void testEvaluate() {
+        ExpressionSession session = new ExpressionSession();
+        session.enter("x*x + 3*x");
+
+        assertEquals(10, session.evaluate(Collections.singletonMap("x", 2.0)), 0.0001);
+        assertSame(session.compiled(), session.compiled());
+        CompiledExpression before = session.compiled();
+        session.differentiate("x");
+        assertNotSame(before, session.compiled());
+        assertEquals(7, session.evaluate(Collections.singletonMap("x", 2.0)), 0.0001);
+    }
+}
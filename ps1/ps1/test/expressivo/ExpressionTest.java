@@ -74,7 +74,12 @@ public class ExpressionTest {
     //
     // simplify()
     // environment: contains variables in the expression, contains variables not in the expression,
-    //  expression after substituting variables consists of only constants
+    //  expression after substituting variables consists of only constants;
+    //  subexpressions that do not change are shared with this
+    //
+    // substitute()
+    // bindings: contain variables in the expression, contain variables not in the expression;
+    //  variable bound to a constant, variable, compound expression
     //
     // equals()
     // thatObject: expressions differ in constants, variables, operations;
@@ -344,4 +349,36 @@ public class ExpressionTest {
         assertFalse("grouped differently, matters", multiplication9.equals(plus5));
         assertFalse("grouped differently, matters", plus7.equals(plus8));
     }
-}
\ No newline at end of file
+    
+    // Covers simplify() sharing unchanged subexpressions
+    @Test
+    public void testSimplifySharesUnchanged() {
+        Expression unchanged = Expression.parse("(y + z)*y");
+        Expression expression = Expression.plus(unchanged, Expression.parse("x*y"));
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("w", 3.0);
+        
+        Plus simplified = (Plus)expression.simplify(environment);
+        assertSame(unchanged, simplified.leftTerm);
+        assertEquals(Expression.parse("2*y"), simplified.rightTerm);
+        assertSame(unchanged, unchanged.simplify(environment));
+    }
+    
+    // Covers all parts in substitute()
+    @Test
+    public void testSubstitute() {
+        Expression unchanged = Expression.parse("y*y + 1");
+        Expression expression = Expression.multiplication(Expression.parse("x + z"), unchanged);
+        Map<String, Expression> bindings = new HashMap<>();
+        bindings.put("x", Expression.parse("a + b"));
+        bindings.put("z", Expression.number(0));
+        bindings.put("w", Expression.variable("v"));
+        
+        Multiplication substituted = (Multiplication)expression.substitute(bindings);
+        assertEquals(Expression.plus(Expression.parse("a + b"), Expression.number(0)), substituted.leftTerm);
+        assertSame(unchanged, substituted.rightTerm);
+        assertSame(unchanged, unchanged.substitute(bindings));
+        assertEquals(Expression.variable("v"), Expression.variable("w").substitute(bindings));
+    }
+}
@@ -0,0 +1,64 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Tests for HornerOptimizer.
+ */
+public class HornerOptimizerTest {
+
+    // Testing strategy
+    //
+    // optimize(), horner()
+    // univariate, multivariate, constant, expression as written already cheapest
+    //
+    // multiplications(), additions(), Result.toString()
+    // counts before and after
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers univariate, counts before and after
+    @Test
+    public void testOptimizeUnivariate() {
+        Expression expression = Expression.parse("3*x*x*x + 2*x*x + x");
+        HornerOptimizer.Result result = HornerOptimizer.optimize(expression);
+
+        assertEquals(5, result.multiplicationsBefore);
+        assertEquals(2, result.additionsBefore);
+        assertEquals(3, result.multiplicationsAfter);
+        assertEquals(2, result.additionsAfter);
+        assertEquals("multiplications 5 -> 3, additions 2 -> 2", result.toString());
+        assertTrue(Equivalence.equivalent(expression, result.optimized));
+    }
+
+    // Covers multivariate
+    @Test
+    public void testOptimizeMultivariate() {
+        Expression expression = Expression.parse("x*y*z + x*y + x*z + x + 4");
+        HornerOptimizer.Result result = HornerOptimizer.optimize(expression);
+
+        assertTrue(result.multiplicationsAfter < result.multiplicationsBefore);
+        assertTrue(Equivalence.equivalent(expression, result.optimized));
+        assertEquals(expression.simplify(Collections.singletonMap("x", 2.0))
+                .simplify(Collections.singletonMap("y", 3.0))
+                .simplify(Collections.singletonMap("z", 5.0)),
+                new Constant(HornerOptimizer.compile(expression).evaluate(2, 3, 5)));
+    }
+
+    // Covers constant, expression as written already cheapest
+    @Test
+    public void testOptimizeKeepsCheaper() {
+        Expression product = Expression.parse("(x + 1)*(x + 1)*(x + 1)");
+
+        assertSame(product, HornerOptimizer.optimize(product).optimized);
+        assertEquals(new Constant(7), HornerOptimizer.horner(Expression.parse("3 + 4")));
+        assertEquals(new Constant(0), HornerOptimizer.horner(Expression.parse("0*x")));
+    }
+}
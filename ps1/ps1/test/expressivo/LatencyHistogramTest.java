@@ -0,0 +1,158 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    // Testing strategy
+    //
+    // record()
+    // value negative, 0, below 2^SUB_BUCKET_BITS (exact buckets), larger (log-linear buckets),
+    // Long.MAX_VALUE; values in the same bucket, in different buckets
+    //
+    // count(), mean(), max()
+    // no values, one value, several values
+    //
+    // percentile()
+    // no values; percentile 0, 50, 100; bound capped by max
+    //
+    // add()
+    // empty histogram, non-empty histogram; that is not modified
+    //
+    // reset()
+    // empty histogram, non-empty histogram
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers no values, reset() empty histogram
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.mean(), 0);
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(0, histogram.percentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.count());
+    }
+
+    // Covers value 0, values below 2^SUB_BUCKET_BITS, values in different buckets,
+    // percentile 0, 50, 100, several values
+    @Test
+    public void testSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 32; value++) {
+            histogram.record(value);
+        }
+        assertEquals(32, histogram.count());
+        assertEquals(15.5, histogram.mean(), 1e-9);
+        assertEquals(31, histogram.max());
+        assertEquals(0, histogram.percentile(0));
+        assertEquals(15, histogram.percentile(50));
+        assertEquals(31, histogram.percentile(100));
+    }
+
+    // Covers negative value, one value
+    @Test
+    public void testNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(100));
+    }
+
+    // Covers larger values, values in the same bucket, bound capped by max
+    @Test
+    public void testLargeValuesBucketed() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(1001);
+        histogram.record(5000);
+        // 1000 and 1001 share the bucket [992, 1007]
+        long median = histogram.percentile(50);
+        assertEquals(1007, median);
+        assertTrue("relative error of bucket bound", median - 1000 <= 1000 * 0.035);
+        // the bucket of 5000 reaches beyond 5000, but no value above max was recorded
+        assertEquals(5000, histogram.percentile(100));
+        assertEquals(5000, histogram.max());
+        assertEquals(7001 / 3.0, histogram.mean(), 1e-9);
+    }
+
+    // Covers Long.MAX_VALUE
+    @Test
+    public void testLargestValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(1);
+        assertEquals(Long.MAX_VALUE, histogram.max());
+        assertEquals(1, histogram.percentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.percentile(100));
+    }
+
+    // Covers relative error of every bucket over a range of values
+    @Test
+    public void testRelativeError() {
+        for (long value = 32; value < 1 << 20; value = value * 3 / 2 + 1) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+            long bound = histogram.percentile(50);
+            assertTrue("bound " + bound + " below " + value, bound >= value);
+            assertTrue("bound " + bound + " too far above " + value, bound - value < value / 32.0 + 1);
+        }
+    }
+
+    // Covers add() empty histogram, non-empty histogram, that is not modified
+    @Test
+    public void testAdd() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram empty = new LatencyHistogram();
+        histogram.add(empty);
+        assertEquals(0, histogram.count());
+
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            fast.record(10);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.record(20_000);
+        }
+        histogram.add(fast);
+        histogram.add(slow);
+        assertEquals(100, histogram.count());
+        assertEquals(20_000, histogram.max());
+        assertEquals((90 * 10 + 10 * 20_000) / 100.0, histogram.mean(), 1e-9);
+        assertEquals(10, histogram.percentile(90));
+        assertEquals(20_000, histogram.percentile(91));
+
+        assertEquals(90, fast.count());
+        assertEquals(10, fast.max());
+        assertEquals(10, slow.count());
+    }
+
+    // Covers reset() non-empty histogram
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(123);
+        histogram.record(456_789);
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.mean(), 0);
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(100));
+        histogram.record(7);
+        assertEquals(7, histogram.percentile(100));
+    }
+}
@@ -0,0 +1,136 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for Metrics.
+ */
+public class MetricsTest {
+
+    // Testing strategy
+    //
+    // count(), counter()
+    // metrics enabled, disabled; counter never incremented, incremented once, several times
+    //
+    // Timer start(), stop(), fail()
+    // metrics enabled, disabled; node counting on, off; operation succeeded, failed;
+    // started while enabled and stopped after disabling
+    //
+    // clear()
+    // timers and counters recorded
+    //
+    // snapshotText()
+    // enabled, disabled; with counters
+    //
+    // nodeCount()
+    // leaf, sums, products, powers, shared subexpressions
+
+    private boolean enabled;
+    private boolean countingNodes;
+
+    @Before
+    public void saveSettings() {
+        enabled = Metrics.enabled();
+        countingNodes = Metrics.countingNodes();
+        Metrics.clear();
+    }
+
+    @After
+    public void restoreSettings() {
+        Metrics.enable(enabled);
+        Metrics.countNodes(countingNodes);
+        Metrics.clear();
+    }
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers counters with metrics enabled and disabled, never incremented, incremented several times
+    @Test
+    public void testCounters() {
+        assertEquals(0, Metrics.counter("test.counter"));
+        Metrics.enable(false);
+        Metrics.count("test.counter");
+        assertEquals(0, Metrics.counter("test.counter"));
+        Metrics.enable(true);
+        Metrics.count("test.counter");
+        Metrics.count("test.counter");
+        assertEquals(2, Metrics.counter("test.counter"));
+        assertEquals(0, Metrics.counter("test.other"));
+    }
+
+    // Covers timer with metrics disabled
+    @Test
+    public void testTimerDisabled() {
+        Metrics.enable(false);
+        long start = Metrics.SIMPLIFY.start();
+        Metrics.SIMPLIFY.stop(start, new Variable("x"));
+        Metrics.SIMPLIFY.fail(Metrics.SIMPLIFY.start());
+        assertEquals(0, Metrics.SIMPLIFY.calls());
+        assertEquals(0, Metrics.SIMPLIFY.latency().count());
+        assertTrue(Metrics.SIMPLIFY.toString().contains("failures=0"));
+    }
+
+    // Covers timer with metrics enabled, node counting off, operation succeeded and failed
+    @Test
+    public void testTimerWithoutNodes() {
+        Metrics.enable(true);
+        Metrics.countNodes(false);
+        Metrics.SIMPLIFY.stop(Metrics.SIMPLIFY.start(), Expression.parse("x*y + 3"));
+        Metrics.SIMPLIFY.fail(Metrics.SIMPLIFY.start());
+        assertEquals(1, Metrics.SIMPLIFY.calls());
+        assertEquals(1, Metrics.SIMPLIFY.latency().count());
+        String text = Metrics.SIMPLIFY.toString();
+        assertTrue(text, text.contains("calls=1 failures=1 nodes=0"));
+    }
+
+    // Covers timer with metrics enabled, node counting on, started while enabled and stopped after disabling
+    @Test
+    public void testTimerWithNodes() {
+        Metrics.enable(true);
+        Metrics.countNodes(true);
+        Expression expression = Expression.parse("x*y + 3");
+        Metrics.SIMPLIFY.stop(Metrics.SIMPLIFY.start(), expression);
+        long start = Metrics.SIMPLIFY.start();
+        Metrics.enable(false);
+        Metrics.SIMPLIFY.stop(start, expression);
+        assertEquals(2, Metrics.SIMPLIFY.calls());
+        String text = Metrics.SIMPLIFY.toString();
+        assertTrue(text, text.contains("calls=2 failures=0 nodes=10"));
+    }
+
+    // Covers clear() with timers and counters recorded, snapshotText() enabled, disabled, with counters
+    @Test
+    public void testClearAndSnapshot() {
+        Metrics.enable(true);
+        Metrics.count("test.counter");
+        Metrics.PARSE.stop(Metrics.PARSE.start(), new Constant(1));
+        String snapshot = Metrics.snapshotText();
+        assertTrue(snapshot, snapshot.startsWith("metrics enabled\nparse "));
+        assertTrue(snapshot, snapshot.contains("\ntest.counter = 1"));
+
+        Metrics.clear();
+        assertEquals(0, Metrics.PARSE.calls());
+        assertEquals(0, Metrics.PARSE.latency().count());
+        assertEquals(0, Metrics.counter("test.counter"));
+        Metrics.enable(false);
+        snapshot = Metrics.snapshotText();
+        assertTrue(snapshot, snapshot.startsWith("metrics disabled\n"));
+        assertFalse(snapshot, snapshot.contains("test.counter"));
+    }
+
+    // Covers nodeCount() leaf, sums, products, powers, shared subexpressions
+    @Test
+    public void testNodeCount() {
+        assertEquals(1, Metrics.nodeCount(new Variable("x")));
+        assertEquals(5, Metrics.nodeCount(Expression.parse("x*y + 3")));
+        Expression sum = Expression.parse("x + y");
+        assertEquals(7, Metrics.nodeCount(new Multiplication(sum, sum)));
+    }
+}
@@ -0,0 +1,158 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for NumericSolver.
+ */
+public class NumericSolverTest {
+
+    // Testing strategy
+    //
+    // findRoot(start, ...)
+    // converges, zero derivative, function of several variables, expression deeper than the stack
+    //
+    // findRoot(low, high, ...)
+    // root inside, root at an end, no sign change, bracket in either order
+    //
+    // minimize()
+    // one variable, several variables, wrong number of coordinates
+    //
+    // findRoots(), minimizeAll()
+    // results in order of starts
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers findRoot(start) converges
+    @Test
+    public void testNewtonSquareRoot() {
+        NumericSolver solver = new NumericSolver(Expression.parse("x*x"));
+        NumericSolver.Result result = solver.findRoot(1, 2, 1e-12, 50);
+
+        assertTrue(result.converged);
+        assertEquals(Math.sqrt(2), result.point()[0], 1e-9);
+        assertEquals(2, result.value, 1e-12);
+    }
+
+    // Covers findRoot(start) expression deeper than the stack
+    @Test
+    public void testNewtonDeepChain() {
+        // x + x + ... + x, 100001 times
+        Expression chain = new Variable("x");
+        for (int i = 0; i < 100_000; i++) {
+            chain = new Plus(chain, new Variable("x"));
+        }
+        NumericSolver.Result result = new NumericSolver(chain).findRoot(1, 100_001 * 3.0, 1e-6, 10);
+
+        assertTrue(result.converged);
+        assertEquals(3, result.point()[0], 1e-9);
+    }
+
+    // Covers findRoot(start) zero derivative
+    @Test
+    public void testNewtonZeroDerivative() {
+        NumericSolver solver = new NumericSolver(Expression.parse("x*x + 1"));
+        NumericSolver.Result result = solver.findRoot(0, 5, 1e-12, 50);
+
+        assertFalse(result.converged);
+        assertEquals(0, result.iterations);
+    }
+
+    // Covers findRoot(start) function of several variables
+    @Test(expected=IllegalArgumentException.class)
+    public void testNewtonSeveralVariables() {
+        new NumericSolver(Expression.parse("x*y")).findRoot(1, 2, 1e-12, 50);
+    }
+
+    // Covers findRoot(low, high) root inside, bracket in either order
+    @Test
+    public void testBracketedCubeRoot() {
+        NumericSolver solver = new NumericSolver(Expression.parse("x*x*x + x"));
+        NumericSolver.Result ascending = solver.findRoot(0, 3, 10, 1e-12, 100);
+        NumericSolver.Result descending = solver.findRoot(3, 0, 10, 1e-12, 100);
+
+        assertTrue(ascending.converged);
+        assertEquals(2, ascending.point()[0], 1e-9);
+        assertTrue(descending.converged);
+        assertEquals(2, descending.point()[0], 1e-9);
+    }
+
+    // Covers findRoot(low, high) root at an end
+    @Test
+    public void testBracketRootAtEnd() {
+        NumericSolver solver = new NumericSolver(Expression.parse("x*x"));
+        NumericSolver.Result result = solver.findRoot(3, 5, 9, 1e-12, 100);
+
+        assertTrue(result.converged);
+        assertEquals(3, result.point()[0], 0);
+    }
+
+    // Covers findRoot(low, high) no sign change
+    @Test(expected=IllegalArgumentException.class)
+    public void testBracketNoSignChange() {
+        new NumericSolver(Expression.parse("x*x")).findRoot(3, 5, 1, 1e-12, 100);
+    }
+
+    // Covers minimize() one variable
+    @Test
+    public void testMinimizeOneVariable() {
+        NumericSolver solver = new NumericSolver(Expression.parse("x*x*x*x + 4*x*x + x"));
+        NumericSolver.Result result = solver.minimize(new double[] { 1 }, 0.1, 1e-9, 1000);
+
+        assertTrue(result.converged);
+        // derivative 4x^3 + 8x + 1 is zero near x = -0.1240
+        assertEquals(0, 4 * Math.pow(result.point()[0], 3) + 8 * result.point()[0] + 1, 1e-8);
+        assertEquals(Arrays.asList("x"), solver.variables());
+    }
+
+    // Covers minimize() several variables
+    @Test
+    public void testMinimizeSeveralVariables() {
+        // minimum of x^2 + 2y^2 + x + y is at x = -1/2, y = -1/4
+        NumericSolver solver = new NumericSolver(Expression.parse("x*x + 2*y*y + x + y"));
+        NumericSolver.Result result = solver.minimize(new double[] { 3, -2 }, 1, 1e-10, 1000);
+
+        assertTrue(result.converged);
+        assertEquals(-0.5, result.point()[0], 1e-9);
+        assertEquals(-0.25, result.point()[1], 1e-9);
+        assertEquals(-0.375, result.value, 1e-12);
+    }
+
+    // Covers minimize() wrong number of coordinates
+    @Test(expected=IllegalArgumentException.class)
+    public void testMinimizeWrongCoordinates() {
+        new NumericSolver(Expression.parse("x*y")).minimize(new double[] { 1 }, 1, 1e-9, 10);
+    }
+
+    // Covers findRoots(), minimizeAll() results in order of starts
+    @Test
+    public void testManyStarts() {
+        NumericSolver solver = new NumericSolver(Expression.parse("x*x"));
+        double[] starts = new double[200];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = i % 2 == 0 ? 1 + i : -1 - i;
+        }
+        List<NumericSolver.Result> roots = solver.findRoots(starts, 4, 1e-10, 100);
+        assertEquals(starts.length, roots.size());
+        for (int i = 0; i < starts.length; i++) {
+            assertTrue(roots.get(i).converged);
+            assertEquals(i % 2 == 0 ? 2 : -2, roots.get(i).point()[0], 1e-9);
+        }
+
+        List<NumericSolver.Result> minima = solver.minimizeAll(
+                Arrays.asList(new double[] { 5 }, new double[] { -7 }), 0.25, 1e-10, 1000);
+        assertEquals(2, minima.size());
+        for (NumericSolver.Result result : minima) {
+            assertTrue(result.converged);
+            assertEquals(0, result.point()[0], 1e-9);
+        }
+    }
+}
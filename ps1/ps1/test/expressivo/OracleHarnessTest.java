@@ -0,0 +1,90 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import expressivo.OracleHarness.Operation;
+
+/**
+ * Tests for OracleHarness.
+ * The tests that compare with the oracle are skipped if the grader's staff classes are missing.
+ */
+public class OracleHarnessTest {
+
+    // Testing strategy
+    //
+    // load()
+    // staff classes present, missing
+    //
+    // check(), run()
+    // single input, generated inputs; constants with many decimals multiplied by large constants;
+    // latencies recorded on both sides; operation throws on one or both sides
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    private static OracleHarness harness() throws ReflectiveOperationException {
+        File classes = new File(OracleHarness.DEFAULT_CLASSES);
+        assumeTrue(new File(classes, "expressivo/staff/Polynomial.class").exists());
+        return OracleHarness.load(classes);
+    }
+
+    // Covers staff classes missing
+    @Test(expected=ClassNotFoundException.class)
+    public void testLoadMissing() throws ReflectiveOperationException {
+        OracleHarness.load(new File("no-such-directory"));
+    }
+
+    // Covers staff classes present, single input, constants with many decimals multiplied by large
+    // constants, latencies recorded on both sides
+    @Test
+    public void testCheck() throws ReflectiveOperationException {
+        OracleHarness harness = harness();
+
+        assertTrue(harness.check("x*x*y + 2*x", "x", Collections.singletonMap("y", 3.0)));
+        // simplify prints 1.4142*x with 4 decimals
+        assertTrue(harness.check("1.41421356*x*99999*99999", "x", Collections.singletonMap("x", 1.0)));
+        for (Operation operation : Operation.values()) {
+            assertEquals(2, harness.checks(operation));
+            assertEquals(0, harness.mismatches(operation));
+            assertEquals(2, harness.latency(operation, false).count());
+            assertEquals(2, harness.latency(operation, true).count());
+        }
+        assertTrue(harness.examples().isEmpty());
+    }
+
+    // Covers generated inputs
+    @Test
+    public void testRun() throws ReflectiveOperationException {
+        OracleHarness harness = harness();
+        ExpressionGenerator generator = new ExpressionGenerator(11).withSize(8).withVariables(3);
+
+        assertEquals(0, harness.run(generator, 3, 0, 200));
+        assertEquals(200, harness.checks(Operation.SIMPLIFY));
+        assertTrue(harness.examples().isEmpty());
+        assertTrue(harness.toString().contains("differentiate: 200 checks, 0 mismatches"));
+    }
+
+    // Covers operation throws on both sides, followed by an input that agrees
+    @Test
+    public void testCheckThrows() throws ReflectiveOperationException {
+        OracleHarness harness = harness();
+
+        assertFalse(harness.check("3 +", "x", Collections.emptyMap()));
+        assertTrue(harness.check("x + 1", "x", Collections.emptyMap()));
+        for (Operation operation : Operation.values()) {
+            assertEquals(2, harness.checks(operation));
+            assertEquals(1, harness.mismatches(operation));
+            assertEquals(1, harness.latency(operation, false).count());
+        }
+        assertEquals(3, harness.examples().size());
+        assertTrue(harness.examples().get(0), harness.examples().get(0).startsWith("parse 3 +: threw "));
+    }
+}
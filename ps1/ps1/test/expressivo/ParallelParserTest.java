@@ -0,0 +1,94 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Tests for ParallelParser.
+ */
+public class ParallelParserTest {
+
+    // Testing strategy
+    //
+    // parse()
+    // one chunk, many chunks; constants and zeros across chunks; '+' inside parentheses;
+    // invalid term, unbalanced parentheses
+    //
+    // parseBalanced()
+    // same value as parse(), shallow, all terms 0
+    //
+    // splitPoints()
+    // no '+', nested parentheses, unbalanced parentheses
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers one chunk, many chunks, '+' inside parentheses
+    @Test
+    public void testSameAsParse() {
+        ExpressionGenerator generator = new ExpressionGenerator(42).withSize(12).withVariables(4);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            input.append(i == 0 ? "" : " + ").append(generator.expression(i));
+        }
+        String text = input.toString();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        assertEquals(Expression.parse(text), ParallelParser.parse(text));
+        assertEquals(Expression.parse(text).toString(), ParallelParser.parse(text, pool, 100, false).toString());
+        assertEquals(Expression.parse(text).toString(), ParallelParser.parse(text, pool, 1, false).toString());
+        pool.shutdown();
+    }
+
+    // Covers constants and zeros across chunks
+    @Test
+    public void testFolding() {
+        String text = "1 + 2 + 0 + x + 3 + 0*y + (x + 1)*(x + 1)*(x + 1) + 4";
+        Expression parsed = ParallelParser.parse(text, ForkJoinPool.commonPool(), 1, false);
+
+        assertEquals(Expression.parse(text).toString(), parsed.toString());
+        assertEquals("((((3 + x) + 3) + (x + 1)*(x + 1)*(x + 1)) + 4)", parsed.toString());
+    }
+
+    // Covers invalid term, unbalanced parentheses
+    @Test
+    public void testInvalid() {
+        for (String text : new String[] { "x + + y", "x + y +", "(x + y", "x + y)", "x + 3y" }) {
+            try {
+                ParallelParser.parse(text, ForkJoinPool.commonPool(), 1, false);
+                fail("expected IllegalArgumentException for " + text);
+            } catch (IllegalArgumentException iae) {
+                // expected
+            }
+        }
+    }
+
+    // Covers same value as parse(), shallow, all terms 0
+    @Test
+    public void testBalanced() {
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 1; i < 1024; i++) {
+            input.append(" + x*").append(i % 7);
+        }
+        String text = input.toString();
+        Expression balanced = ParallelParser.parse(text, ForkJoinPool.commonPool(), 64, true);
+
+        assertTrue(Equivalence.equivalent(Expression.parse(text), balanced));
+        assertTrue(balanced.toString().indexOf("((((((((((((") < 0);
+        assertEquals(new Constant(0), ParallelParser.parse("0 + 0*x + 0", ForkJoinPool.commonPool(), 1, true));
+    }
+
+    // Covers no '+', nested parentheses, unbalanced parentheses
+    @Test
+    public void testSplitPoints() {
+        assertArrayEquals(new int[0], ParallelParser.splitPoints("x*y"));
+        assertArrayEquals(new int[] { 1, 13 }, ParallelParser.splitPoints("x+(y+(z+1)*2)+w"));
+        assertNull(ParallelParser.splitPoints("(x+y"));
+        assertNull(ParallelParser.splitPoints("x)+(y"));
+    }
+}
@@ -0,0 +1,180 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for Power.
+ */
+public class PowerTest {
+
+    // Testing strategy
+    //
+    // parse(), toString()
+    // run of 3 or more variables, run of sums, run of 2, run of parenthesized products,
+    // run broken by a factor 1, round trip
+    //
+    // equals(), hashCode()
+    // power and chain of multiplications both ways, chain containing a power, different exponents
+    //
+    // differentiate(), simplify(), substitute()
+    // variable base, sum base, base without the variable, constant base after simplifying,
+    // lazy derivative, repeated factors after simplifying; runs that meet in the middle after
+    // simplifying or substituting, round trip of the results
+    //
+    // evaluators
+    // power(), multiplications(), compiled, codec, sparse polynomial, arena
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers run of 3 or more variables, run of sums, run of 2, round trip
+    @Test
+    public void testParse() {
+        Expression power = Expression.parse("2*x*x*x*x*y");
+        Expression sums = Expression.parse("(x + 1)*(x + 1)*(x + 1)");
+
+        assertEquals(new Multiplication(new Multiplication(new Constant(2), new Power(new Variable("x"), 4)), new Variable("y")),
+                power);
+        assertTrue(((Multiplication)((Multiplication)power).leftTerm).rightTerm instanceof Power);
+        assertTrue(sums instanceof Power);
+        assertTrue(Expression.parse("x*x") instanceof Multiplication);
+        assertEquals("2*x*x*x*x*y", power.toString());
+        assertEquals("(x + 1)*(x + 1)*(x + 1)", sums.toString());
+        assertEquals(power, Expression.parse(power.toString()));
+        assertEquals(sums, Expression.parse(sums.toString()));
+    }
+
+    // Covers run of parenthesized products, run broken by a factor 1
+    @Test
+    public void testParseNoRun() {
+        assertTrue(Expression.parse("(x*y)*(x*y)*(x*y)") instanceof Multiplication);
+        Expression broken = Expression.parse("x*1*x*x");
+        assertTrue(broken instanceof Power);
+        assertEquals(broken, Expression.parse(broken.toString()));
+    }
+
+    // Covers power and chain of multiplications both ways, chain containing a power, different exponents
+    @Test
+    public void testEquals() {
+        Variable x = new Variable("x");
+        Expression chain = new Multiplication(new Multiplication(new Multiplication(x, x), x), x);
+        Power power = new Power(x, 4);
+
+        assertEquals(chain, power);
+        assertEquals(power, chain);
+        assertEquals(chain.hashCode(), power.hashCode());
+        assertEquals(power, new Multiplication(new Power(x, 3), x));
+        assertEquals(new Multiplication(new Power(x, 3), x), power);
+        assertNotEquals(power, new Power(x, 3));
+        assertNotEquals(power, new Multiplication(new Power(x, 3), new Variable("y")));
+        assertNotEquals(power, new Multiplication(x, new Power(x, 3)));
+    }
+
+    // Covers variable base, sum base, base without the variable, lazy derivative
+    @Test
+    public void testDifferentiate() {
+        Variable x = new Variable("x");
+        Expression power = Expression.parse("x*x*x*x*x*x*x*x*x*x");
+        Expression sums = Expression.parse("(x + y)*(x + y)*(x + y)*(x + y)");
+        Expression sums2 = Expression.parse("(2*x + y)*(2*x + y)*(2*x + y)");
+
+        assertEquals("10*x*x*x*x*x*x*x*x*x", power.differentiate(x).toString());
+        assertEquals(4, Metrics.nodeCount(power.differentiate(x)));
+        assertEquals("4*(x + y)*(x + y)*(x + y)", sums.differentiate(x).toString());
+        assertEquals("3*(2*x + y)*(2*x + y)*2", sums2.differentiate(x).toString());
+        assertEquals(new Constant(0), power.differentiate(new Variable("y")));
+        assertTrue(Equivalence.equivalent(sums2.differentiate(x), Expression.parse("6*(2*x + y)*(2*x + y)")));
+        for (Expression expression : Arrays.asList(power, sums, sums2)) {
+            assertEquals(expression.differentiate(x).toString(), Expression.derivative(expression, x).toString());
+        }
+    }
+
+    // Covers constant base after simplifying, repeated factors after simplifying
+    @Test
+    public void testSimplifyAndSubstitute() {
+        Expression power = Expression.parse("(x + y)*(x + y)*(x + y)");
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 1.0);
+
+        assertEquals(new Power(Expression.parse("1 + y"), 3), power.simplify(environment));
+        environment.put("y", 1.0);
+        assertEquals(new Constant(8), power.simplify(environment));
+        assertSame(power, power.simplify(Collections.singletonMap("z", 1.0)));
+        assertSame(power, power.substitute(Collections.singletonMap("z", new Variable("w"))));
+        assertEquals(Expression.parse("z*z*z"), Expression.parse("x*x*x").substitute(Collections.singletonMap("x", new Variable("z"))));
+
+        // x*x*y*x with y = 1 becomes a power of x
+        Expression simplified = Expression.parse("x*x*y*x").simplify(Collections.singletonMap("y", 1.0));
+        assertTrue(simplified instanceof Power);
+        assertEquals(3, ((Power)simplified).exponent);
+    }
+
+    // Covers runs that meet in the middle after simplifying or substituting
+    @Test
+    public void testRunsMeet() {
+        Expression product = Expression.parse("x*x*x*y*x*x*x");
+
+        assertEquals(new Power(new Variable("x"), 6), product.simplify(Collections.singletonMap("y", 1.0)));
+        assertEquals(new Power(new Variable("x"), 7), product.substitute(Collections.singletonMap("y", new Variable("x"))));
+        assertEquals(Expression.parse("x*x*x*x*x*x"), product.simplify(Collections.singletonMap("y", 1.0)));
+        assertEquals(product.simplify(Collections.singletonMap("y", 1.0)), Expression.parse("x*x*x*x*x*x"));
+    }
+
+    // Covers round trip of the results of simplify and substitute
+    @Test
+    public void testRoundTripAfterSimplifyAndSubstitute() {
+        Random random = new Random(6005);
+        String[] factors = { "x", "y", "z", "(x + y)", "(z + y)" };
+        Map<String, Double> environment = Collections.singletonMap("y", 1.0);
+        Map<String, Expression> bindings = new HashMap<>();
+        bindings.put("y", new Variable("x"));
+        bindings.put("z", Expression.parse("x + y"));
+        for (int i = 0; i < 500; i++) {
+            StringBuilder text = new StringBuilder(factors[random.nextInt(factors.length)]);
+            for (int length = random.nextInt(12); length > 0; length--) {
+                text.append('*').append(factors[random.nextInt(factors.length)]);
+            }
+            Expression expression = Expression.parse(text.toString());
+            for (Expression result : Arrays.asList(expression.simplify(environment), expression.substitute(bindings))) {
+                Expression reparsed = Expression.parse(result.toString());
+                assertEquals(text + " gave " + result, reparsed, result);
+                assertEquals(text + " gave " + result, result, reparsed);
+            }
+        }
+    }
+
+    // Covers power(), multiplications(), compiled, codec, sparse polynomial, arena
+    @Test
+    public void testEvaluators() {
+        assertEquals(Math.pow(1.5, 13), Power.power(1.5, 13), 1e-12);
+        assertEquals(1, Power.power(7, 0), 0);
+        assertEquals(2, Power.multiplications(3));
+        assertEquals(3, Power.multiplications(8));
+        assertEquals(5, Power.multiplications(13));
+
+        Expression expression = Expression.parse("3*x*x*x*x*x*x*x*x*x*x*x*x*x + (x + y)*(x + y)*(x + y)");
+        CompiledExpression compiled = CompiledExpression.compile(expression);
+        // x^13 takes 5 multiplications instead of 12
+        assertTrue(compiled.size() < 20);
+        assertEquals(3 * Math.pow(2, 13) + 125, compiled.evaluate(2, 3), 1e-9);
+        assertEquals(expression, ExpressionCodec.decode(ExpressionCodec.encode(expression)));
+        assertTrue(((Plus)ExpressionCodec.decode(ExpressionCodec.encode(expression))).rightTerm instanceof Power);
+        assertEquals(SparsePolynomial.of(((Plus)expression).rightTerm),
+                SparsePolynomial.of(Expression.parse("x*x*x + 3*x*x*y + 3*x*y*y + y*y*y")));
+        ExpressionArena arena = new ExpressionArena();
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 3.0);
+        assertEquals(compiled.evaluate(2, 3), arena.evaluate(arena.add(expression), environment), 1e-9);
+    }
+}
@@ -0,0 +1,240 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for ResultCache.
+ */
+public class ResultCacheTest {
+
+    // Testing strategy
+    //
+    // differentiate(), simplify()
+    // miss, hit; same expression with different variables or environments;
+    // environments in different orders
+    //
+    // persistence
+    // reopened cache, missing index, damaged index, incomplete last record, index doubled,
+    //  index slot of a record lost in a crash;
+    // reopened by code with another results version
+    //
+    // compact()
+    // log beyond the limit, explicit compaction
+    //
+    // Commands
+    // cache installed, no cache installed; directory locked
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers miss, hit, same expression with different variables or environments,
+    // environments in different orders
+    @Test
+    public void testHitAndMiss() throws IOException {
+        Expression expression = Expression.parse("x*x*y + 3*x");
+        Variable x = new Variable("x");
+        Variable y = new Variable("y");
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 1.0);
+        try (ResultCache cache = new ResultCache(folder.getRoot().toPath())) {
+            assertEquals(expression.differentiate(x).toString(), cache.differentiate(expression, x).toString());
+            assertEquals(1, cache.size());
+            assertEquals(expression.differentiate(x).toString(), cache.differentiate(expression, x).toString());
+            assertEquals(1, cache.size());
+            assertEquals(expression.differentiate(y), cache.differentiate(expression, y));
+            assertEquals(expression.simplify(environment), cache.simplify(expression, environment));
+            assertEquals(expression.simplify(Collections.singletonMap("x", 2.0)),
+                    cache.simplify(expression, Collections.singletonMap("x", 2.0)));
+            assertEquals(4, cache.size());
+
+            Map<String, Double> reordered = new HashMap<>();
+            reordered.put("y", 1.0);
+            reordered.put("x", 2.0);
+            assertEquals(expression.simplify(environment), cache.simplify(expression, reordered));
+            assertEquals(4, cache.size());
+        }
+    }
+
+    // Covers reopened cache, missing index, damaged index, index doubled
+    @Test
+    public void testReopen() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        ExpressionGenerator generator = new ExpressionGenerator(3).withSize(8).withVariables(2);
+        Variable x = new Variable("x");
+        try (ResultCache cache = new ResultCache(directory)) {
+            for (int i = 0; i < 1500; i++) {
+                cache.differentiate(generator.expression(i), x);
+            }
+        }
+        int size;
+        try (ResultCache cache = new ResultCache(directory)) {
+            size = cache.size();
+            assertTrue(size > 1000);
+            assertEquals(generator.expression(7).differentiate(x), cache.differentiate(generator.expression(7), x));
+            assertEquals(size, cache.size());
+        }
+        Files.delete(directory.resolve("results.idx"));
+        try (ResultCache cache = new ResultCache(directory)) {
+            assertEquals(size, cache.size());
+        }
+        try (RandomAccessFile index = new RandomAccessFile(directory.resolve("results.idx").toFile(), "rw")) {
+            index.writeInt(0);
+        }
+        try (ResultCache cache = new ResultCache(directory)) {
+            assertEquals(size, cache.size());
+            assertEquals(generator.expression(1400).differentiate(x), cache.differentiate(generator.expression(1400), x));
+            assertEquals(size, cache.size());
+        }
+    }
+
+    // Covers reopened by code with another results version
+    @Test
+    public void testResultsVersion() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        Variable x = new Variable("x");
+        try (ResultCache cache = new ResultCache(directory, ResultCache.DEFAULT_MAX_BYTES, 1)) {
+            cache.differentiate(Expression.parse("x*x"), x);
+            cache.differentiate(Expression.parse("x*y"), x);
+            assertEquals(2, cache.size());
+        }
+        try (ResultCache cache = new ResultCache(directory, ResultCache.DEFAULT_MAX_BYTES, 1)) {
+            assertEquals(2, cache.size());
+        }
+        long length;
+        try (ResultCache cache = new ResultCache(directory)) {
+            assertEquals(0, cache.size());
+            length = cache.logBytes();
+            assertEquals(Expression.parse("x*x").differentiate(x), cache.differentiate(Expression.parse("x*x"), x));
+            assertEquals(1, cache.size());
+            assertTrue(cache.logBytes() > length);
+        }
+        try (ResultCache cache = new ResultCache(directory)) {
+            assertEquals(1, cache.size());
+        }
+    }
+
+    // Covers incomplete last record
+    @Test
+    public void testIncompleteRecord() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        Variable x = new Variable("x");
+        long length;
+        try (ResultCache cache = new ResultCache(directory)) {
+            cache.differentiate(Expression.parse("x*x"), x);
+            length = cache.logBytes();
+            cache.differentiate(Expression.parse("x*x*x + y"), x);
+        }
+        try (RandomAccessFile log = new RandomAccessFile(directory.resolve("results.log").toFile(), "rw")) {
+            log.setLength(log.length() - 3);
+        }
+        Files.delete(directory.resolve("results.idx"));
+        try (ResultCache cache = new ResultCache(directory)) {
+            assertEquals(1, cache.size());
+            assertEquals(length, cache.logBytes());
+            assertEquals(Expression.parse("x*x*x + y").differentiate(x), cache.differentiate(Expression.parse("x*x*x + y"), x));
+            assertEquals(2, cache.size());
+        }
+    }
+
+    // Covers index slot of a record lost in a crash
+    @Test
+    public void testLostRecord() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        Variable x = new Variable("x");
+        Expression lost = Expression.parse("x*x*x + y");
+        long length;
+        try (ResultCache cache = new ResultCache(directory)) {
+            cache.differentiate(Expression.parse("x*x"), x);
+            length = cache.logBytes();
+            cache.differentiate(lost, x);
+        }
+        // the index slot was written, but the record never reached the log before the crash
+        try (RandomAccessFile log = new RandomAccessFile(directory.resolve("results.log").toFile(), "rw")) {
+            log.setLength(length);
+        }
+        try (RandomAccessFile index = new RandomAccessFile(directory.resolve("results.idx").toFile(), "rw")) {
+            index.seek(16);
+            index.writeLong(length);
+        }
+        try (ResultCache cache = new ResultCache(directory)) {
+            assertEquals(length, cache.logBytes());
+            assertEquals(lost.differentiate(x), cache.differentiate(lost, x));
+            assertTrue(cache.logBytes() > length);
+        }
+        try (ResultCache cache = new ResultCache(directory)) {
+            long stored = cache.logBytes();
+            assertEquals(lost.differentiate(x), cache.differentiate(lost, x));
+            assertEquals(stored, cache.logBytes());
+        }
+    }
+
+    // Covers log beyond the limit, explicit compaction
+    @Test
+    public void testCompact() throws IOException {
+        Variable x = new Variable("x");
+        ExpressionGenerator generator = new ExpressionGenerator(5).withSize(10).withVariables(2);
+        try (ResultCache cache = new ResultCache(folder.getRoot().toPath(), 16 * 1024)) {
+            for (int i = 0; i < 2000; i++) {
+                cache.differentiate(generator.expression(i), x);
+                assertTrue(cache.logBytes() <= 16 * 1024);
+            }
+            assertTrue(cache.size() < 2000);
+            // the newest result is kept
+            int size = cache.size();
+            cache.differentiate(generator.expression(1999), x);
+            assertEquals(size, cache.size());
+
+            cache.compact();
+            assertTrue(cache.logBytes() <= 8 * 1024);
+            assertTrue(cache.size() > 0);
+        }
+    }
+
+    // Covers cache installed, no cache installed, directory locked
+    @Test
+    public void testCommands() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        boolean enabled = Metrics.enabled();
+        try (ResultCache cache = new ResultCache(directory)) {
+            try {
+                new ResultCache(directory);
+                fail("expected IOException");
+            } catch (IOException ioe) {
+                // expected
+            }
+            ResultCache.install(cache);
+            Metrics.enable(true);
+            long hits = Metrics.counter("result.cache.hit");
+            String derivative = Commands.differentiate("x*x*y", "x");
+            assertEquals(derivative, Commands.differentiate("x*x*y", "x"));
+            assertEquals(Commands.simplify("x*x*y", Collections.singletonMap("y", 2.0)),
+                    Commands.simplify("x*x*y", Collections.singletonMap("y", 2.0)));
+            assertEquals(Arrays.asList(derivative), Commands.gradient("x*x*y", Arrays.asList("x")));
+            assertEquals(hits + 3, Metrics.counter("result.cache.hit"));
+            assertEquals(2, cache.size());
+        } finally {
+            Metrics.enable(enabled);
+        }
+        assertNull(ResultCache.installed());
+        assertEquals(Expression.parse("x*x*y").differentiate(new Variable("x")).toString(), Commands.differentiate("x*x*y", "x"));
+    }
+}
@@ -0,0 +1,133 @@
+package expressivo;
+
+import static expressivo.RewritePattern.any;
+import static expressivo.RewritePattern.plus;
+import static expressivo.RewritePattern.times;
+import static expressivo.RewritePattern.variable;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for RewriteEngine, RewriteRule and RewritePattern.
+ */
+public class RewriteEngineTest {
+
+    // Testing strategy
+    //
+    // rewrite()
+    // expression: constants only, 0/1 laws, equal terms, constant factors, no rule applies,
+    //  rules apply only after children are rewritten; chain deeper than the stack
+    //
+    // candidates()
+    // node: plus, multiplication, constant, variable; rules indexed under exact constants and wildcards
+    //
+    // with()
+    // new rule with a nonlinear pattern, rule that rejects a match
+    //
+    // simplify()
+    // environment binds some variables
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers constants only, 0/1 laws
+    @Test
+    public void testRewriteStandardRules() {
+        RewriteEngine engine = RewriteEngine.standard();
+
+        assertEquals(Expression.number(7), engine.rewrite(Expression.plus(Expression.number(3), Expression.number(4))));
+        assertEquals(Expression.variable("x"), engine.rewrite(
+                Expression.plus(Expression.number(0), Expression.multiplication(Expression.variable("x"), Expression.number(1)))));
+        assertEquals(Expression.number(0), engine.rewrite(
+                Expression.multiplication(Expression.plus(Expression.variable("x"), Expression.variable("y")), Expression.number(0))));
+    }
+
+    // Covers equal terms, constant factors, rules apply only after children are rewritten
+    @Test
+    public void testRewriteCollectsTerms() {
+        RewriteEngine engine = RewriteEngine.standard();
+        Expression x = Expression.variable("x");
+
+        assertEquals(Expression.multiplication(Expression.number(2), x), engine.rewrite(Expression.plus(x, x)));
+        assertEquals(Expression.multiplication(Expression.number(6), x), engine.rewrite(
+                Expression.plus(Expression.multiplication(Expression.number(2), x), Expression.plus(x, Expression.multiplication(x, Expression.number(3))))));
+        assertEquals(Expression.multiplication(Expression.number(12), x), engine.rewrite(
+                Expression.multiplication(Expression.number(3), Expression.multiplication(Expression.plus(Expression.number(1), Expression.number(3)), x))));
+    }
+
+    // Covers no rule applies
+    @Test
+    public void testRewriteReturnsUnchangedExpression() {
+        Expression expression = Expression.parse("x*y + z*(x + 2)");
+
+        assertSame(expression, RewriteEngine.standard().rewrite(expression));
+    }
+
+    // Covers chain deeper than the stack
+    @Test
+    public void testRewriteDeepChain() {
+        Expression y = Expression.variable("y");
+        Expression chain = Expression.variable("x");
+        for (int i = 0; i < 100_000; i++) {
+            chain = Expression.plus(chain, Expression.multiplication(y, Expression.number(1)));
+        }
+        Expression rewritten = RewriteEngine.standard().rewrite(chain);
+
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(y, ((Plus)rewritten).rightTerm);
+            rewritten = ((Plus)rewritten).leftTerm;
+        }
+        assertEquals(Expression.variable("x"), rewritten);
+    }
+
+    // Covers candidates for all node shapes
+    @Test
+    public void testCandidates() {
+        RewriteEngine engine = RewriteEngine.standard();
+        List<RewriteRule> rules = engine.rules();
+
+        for (Expression node : Arrays.asList(Expression.parse("x*1"), Expression.parse("x + y"), Expression.parse("2*(3*x)"))) {
+            for (int i = 0; i < rules.size(); i++) {
+                boolean matches = rules.get(i).lhs.match(node, new HashMap<>());
+                assertTrue("index must not miss " + rules.get(i), !matches || engine.candidates(node).contains(i));
+            }
+        }
+        assertEquals(Collections.emptyList(), engine.candidates(Expression.variable("x")));
+        assertEquals(Collections.emptyList(), engine.candidates(Expression.number(1)));
+        for (int i : engine.candidates(Expression.parse("x + y"))) {
+            assertTrue(rules.get(i).lhs.kind == RewritePattern.Kind.PLUS);
+        }
+    }
+
+    // Covers with(), nonlinear pattern, rejected match
+    @Test
+    public void testWithCustomRule() {
+        RewriteEngine engine = RewriteEngine.standard()
+                .with(new RewriteRule("v*v*v", times(times(variable("v"), variable("v")), variable("v")),
+                        b -> Expression.multiplication(b.get("v"), Expression.multiplication(b.get("v"), b.get("v")))))
+                .with(new RewriteRule("never", plus(any("x"), any("y")), b -> null));
+
+        assertEquals("x*x*x", engine.rewrite(Expression.parse("x*x*x")).toString());
+        assertEquals("x*y*x", engine.rewrite(Expression.parse("x*y*x")).toString());
+        assertEquals("(x + y)", engine.rewrite(Expression.parse("x + y")).toString());
+    }
+
+    // Covers simplify()
+    @Test
+    public void testSimplify() {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("y", 2.0);
+
+        assertEquals(Expression.multiplication(Expression.number(4), Expression.variable("x")),
+                RewriteEngine.standard().simplify(Expression.parse("x*y + y*x"), environment));
+    }
+}
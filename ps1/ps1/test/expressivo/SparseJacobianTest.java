@@ -0,0 +1,154 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for SparseJacobian.
+ */
+public class SparseJacobianTest {
+
+    // Testing strategy
+    //
+    // SparseJacobian()
+    // variables in alphabetical order, given variables, variable in no expression,
+    // variable not in the given variables; no expressions; expression deeper than the stack
+    //
+    // pattern and colors
+    // banded system, dense row, expression without variables, structurally equal
+    // subexpressions of different expressions
+    //
+    // evaluate()
+    // compared to differentiate() at random points; entry in the pattern that is 0 at the
+    // point; workspace reused; wrong number of values
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers variables in alphabetical order, expression without variables, entry in the pattern
+    // that is 0 at the point
+    @Test
+    public void testSmall() {
+        SparseJacobian jacobian = new SparseJacobian(Arrays.asList(
+                Expression.parse("x*y + 3"), Expression.parse("5"), Expression.parse("z*z*z + x")));
+
+        assertEquals(Arrays.asList("x", "y", "z"), jacobian.variables());
+        assertEquals(3, jacobian.rows());
+        assertEquals(4, jacobian.nonzeros());
+        SparseJacobian.Matrix matrix = jacobian.evaluate(2, 0, 3);
+        assertArrayEquals(new int[] { 0, 2, 2, 4 }, matrix.rowPointers);
+        assertArrayEquals(new int[] { 0, 1, 0, 2 }, matrix.columnIndices);
+        assertArrayEquals(new double[] { 0, 2, 1, 27 }, matrix.values, 1e-12);
+        assertEquals(27, matrix.get(2, 2), 0);
+        assertEquals(0, matrix.get(1, 0), 0);
+    }
+
+    // Covers expression deeper than the stack
+    @Test
+    public void testDeepChain() {
+        // x + y*y + x + y*y + ..., 100001 terms
+        Expression chain = new Variable("x");
+        for (int i = 0; i < 100_000; i++) {
+            chain = new Plus(chain, i % 2 == 0 ? new Multiplication(new Variable("y"), new Variable("y")) : new Variable("x"));
+        }
+        SparseJacobian.Matrix matrix = new SparseJacobian(Arrays.asList(chain)).evaluate(1, 3);
+
+        assertEquals(50_001, matrix.get(0, 0), 1e-9);
+        assertEquals(50_000 * 6.0, matrix.get(0, 1), 1e-6);
+    }
+
+    // Covers banded system, structurally equal subexpressions of different expressions,
+    // compared to differentiate() at random points, workspace reused
+    @Test
+    public void testBanded() {
+        int n = 200;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            names.add(ExpressionGenerator.name(i));
+        }
+        List<Expression> system = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String previous = names.get(Math.max(0, i - 1));
+            String next = names.get(Math.min(n - 1, i + 1));
+            system.add(Expression.parse(previous + "*" + names.get(i) + "*" + names.get(i) + " + 2*" + next + " + (a + b)*(a + b)"));
+        }
+        SparseJacobian jacobian = new SparseJacobian(system, names);
+
+        // columns i - 1, i, i + 1 of a row and a, b: a and b meet every other column
+        assertTrue(jacobian.colors() <= 6);
+        assertTrue(jacobian.colors() < n / 10);
+        // (a + b)*(a + b) is compiled once for all rows
+        assertTrue(jacobian.size() < n * 8);
+
+        double[] workspace = new double[jacobian.size() * (jacobian.colors() + 1)];
+        double[] entries = new double[jacobian.nonzeros()];
+        Random random = new Random(1);
+        for (int trial = 0; trial < 3; trial++) {
+            double[] point = new double[n];
+            Map<String, Double> environment = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                point[i] = random.nextInt(100) / 10.0;
+                environment.put(names.get(i), point[i]);
+            }
+            SparseJacobian.Matrix matrix = jacobian.evaluate(point);
+            jacobian.evaluate(point, workspace, entries);
+            assertArrayEquals(matrix.values, entries, 0);
+            for (int row = 0; row < n; row += 7) {
+                for (int column = 0; column < n; column++) {
+                    Expression derivative = system.get(row).differentiate(new Variable(names.get(column)));
+                    double expected = CompiledExpression.compile(derivative, names).evaluate(point);
+                    assertEquals(expected, matrix.get(row, column), 1e-9 * Math.max(1, Math.abs(expected)));
+                }
+            }
+        }
+    }
+
+    // Covers given variables, variable in no expression, dense row, compared to differentiate()
+    @Test
+    public void testDenseRow() {
+        List<Expression> system = Arrays.asList(Expression.parse("a*b*c*d"), Expression.parse("a + 1"),
+                Expression.parse("d*d"), new ExpressionGenerator(9).withSize(12).withVariables(4).expression(3));
+        List<String> names = Arrays.asList("d", "c", "b", "a", "e");
+        SparseJacobian jacobian = new SparseJacobian(system, names);
+        double[] point = { 1.5, 2, 0.5, 3, 7 };
+
+        assertEquals(4, jacobian.colors());
+        SparseJacobian.Matrix matrix = jacobian.evaluate(point);
+        for (int row = 0; row < system.size(); row++) {
+            for (int column = 0; column < names.size(); column++) {
+                double expected = CompiledExpression.compile(system.get(row).differentiate(new Variable(names.get(column))), names)
+                        .evaluate(point);
+                assertEquals(expected, matrix.get(row, column), 1e-9 * Math.max(1, Math.abs(expected)));
+            }
+        }
+    }
+
+    // Covers variable not in the given variables, no expressions, wrong number of values
+    @Test
+    public void testInvalid() {
+        try {
+            new SparseJacobian(Arrays.asList(Expression.parse("x*y")), Arrays.asList("x"));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        SparseJacobian empty = new SparseJacobian(new ArrayList<>());
+        assertEquals(0, empty.evaluate().values.length);
+        try {
+            new SparseJacobian(Arrays.asList(Expression.parse("x*y"))).evaluate(1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+}
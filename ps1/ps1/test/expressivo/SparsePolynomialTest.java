@@ -0,0 +1,172 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for SparsePolynomial.
+ */
+public class SparsePolynomialTest {
+
+    // Testing strategy
+    //
+    // of()
+    // constant, zero, single variable, sum, product with equal monomials collected,
+    //  several expressions expanded together; sums far deeper than the call stack, shared subtrees
+    //
+    // times(), timesHeap(), timesDense()
+    // univariate dense product, multivariate sparse product, heap and dense agree;
+    //  coefficients of very different magnitudes
+    //
+    // toExpression(), equalsWithin(), coefficient()
+    // expression of the expansion expands to the same polynomial; coefficients within tolerance
+    //
+    // equals(), hashCode()
+    // same and different variables; coefficients differing below the printed precision;
+    //  degree overflowing an int
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers constant, zero, single variable
+    @Test
+    public void testOfLeaves() {
+        assertEquals("2.5000", SparsePolynomial.of(Expression.parse("2.5")).toString());
+        assertEquals(0, SparsePolynomial.of(Expression.parse("0")).terms());
+        assertEquals("1*x", SparsePolynomial.of(Expression.parse("x")).toString());
+    }
+
+    // Covers sum, product with equal monomials collected
+    @Test
+    public void testOfProduct() {
+        SparsePolynomial square = SparsePolynomial.of(Expression.parse("(x + y)*(x + y)"));
+
+        assertEquals(3, square.terms());
+        assertEquals(2, square.coefficient(exponents("x", 1, "y", 1)), 0.0001);
+        assertEquals(1, square.coefficient(exponents("x", 2)), 0.0001);
+        assertEquals(0, square.coefficient(exponents("x", 3)), 0.0001);
+        assertEquals(SparsePolynomial.of(Expression.parse("x*x + 2*x*y + y*y")), square);
+    }
+
+    // Covers univariate dense product, heap and dense agree
+    @Test
+    public void testDenseAndHeapAgree() {
+        Expression sum = Expression.parse("1 + x");
+        for (int i = 0; i < 6; i++) {
+            sum = new Plus(new Multiplication(new Variable("x"), sum), new Constant(i));
+        }
+        Expression square = new Multiplication(sum, sum);
+        List<SparsePolynomial> polynomials = SparsePolynomial.of(Arrays.asList(sum, square));
+        SparsePolynomial p = polynomials.get(0);
+
+        assertTrue(p.timesHeap(p).equalsWithin(p.timesDense(p), 0.0001));
+        assertTrue(p.times(p).equalsWithin(polynomials.get(1), 0.0001));
+        assertEquals(15, polynomials.get(1).terms());
+    }
+
+    // Covers multivariate sparse product with many terms
+    @Test
+    public void testLargeProduct() {
+        Expression left = Expression.parse("a + b + c + d + e + f + g + h");
+        Expression right = Expression.parse("i + j + k + l + m + n + o + p");
+        SparsePolynomial product = SparsePolynomial.of(new Multiplication(left, right));
+        SparsePolynomial cube = SparsePolynomial.of(new Multiplication(left, new Multiplication(left, left)));
+
+        assertEquals(64, product.terms());
+        assertEquals(120, cube.terms());
+        assertEquals(6, cube.coefficient(exponents("a", 1, "b", 1, "c", 1)), 0.0001);
+    }
+
+    // Covers toExpression, equalsWithin
+    @Test
+    public void testToExpression() {
+        Expression expression = Expression.parse("(2*x + 3)*(x*y + 1.5)");
+        List<SparsePolynomial> polynomials = SparsePolynomial.of(Arrays.asList(expression,
+                SparsePolynomial.of(expression).toExpression(), Expression.parse("2*x*x*y + 3*x*y + 3*x + 4.50001")));
+
+        assertTrue(polynomials.get(0).equalsWithin(polynomials.get(1), 0));
+        assertTrue(polynomials.get(0).equalsWithin(polynomials.get(2), 0.0001));
+        assertFalse(polynomials.get(0).equalsWithin(polynomials.get(2), 0.000001));
+        assertEquals(new Constant(0), SparsePolynomial.of(Expression.parse("0*x")).toExpression());
+    }
+
+    // Covers same and different variables, coefficients differing below the printed precision,
+    // degree overflowing an int
+    @Test
+    public void testEquals() {
+        SparsePolynomial xy = SparsePolynomial.of(Expression.parse("x*y + 2*y"));
+        SparsePolynomial xyz = SparsePolynomial.of(Arrays.asList(Expression.parse("x*y + 2*y"), Expression.parse("z"))).get(0);
+        SparsePolynomial near = SparsePolynomial.of(Expression.parse("x*y + 2.00001*y"));
+
+        assertEquals(xy, xyz);
+        assertEquals(xy.hashCode(), xyz.hashCode());
+        assertEquals(xy.toString(), near.toString());
+        assertNotEquals(xy, near);
+        assertNotEquals(xyz, near);
+        assertNotEquals(xy, SparsePolynomial.of(Expression.parse("x*z + 2*z")));
+        try {
+            Expression power = new Power(new Variable("x"), 1 << 30);
+            SparsePolynomial.of(new Multiplication(power, power));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    // Covers sums far deeper than the call stack, shared subtrees
+    @Test
+    public void testDeepSums() {
+        Expression sum = new Variable("x");
+        for (int i = 1; i < 10000; i++) {
+            sum = new Plus(sum, new Variable(i % 2 == 0 ? "x" : "y"));
+        }
+        SparsePolynomial product = SparsePolynomial.of(new Multiplication(sum, sum));
+
+        assertEquals(3, product.terms());
+        assertEquals(50000000, product.coefficient(exponents("x", 1, "y", 1)), 0.0001);
+        assertEquals(25000000, product.coefficient(exponents("y", 2)), 0.0001);
+    }
+
+    // Covers coefficients of very different magnitudes
+    @Test
+    public void testMixedMagnitudes() {
+        Expression left = null;
+        Expression right = null;
+        for (int i = 0; i < 200; i++) {
+            Expression power = i == 0 ? new Constant(1)
+                    : i == 1 ? Expression.parse("x*x")
+                    : new Power(new Variable("x"), 2 * i);
+            Expression leftTerm = new Multiplication(new Constant(i % 2 == 0 ? 1e12 : 1e-3), power);
+            Expression rightTerm = new Multiplication(new Constant(i % 2 == 0 ? 1e10 : 0.5), power);
+            left = left == null ? leftTerm : new Plus(left, leftTerm);
+            right = right == null ? rightTerm : new Plus(right, rightTerm);
+        }
+        List<SparsePolynomial> polynomials = SparsePolynomial.of(Arrays.asList(left, right));
+        SparsePolynomial product = polynomials.get(0).times(polynomials.get(1));
+        SparsePolynomial heap = polynomials.get(0).timesHeap(polynomials.get(1));
+
+        assertEquals(399, heap.terms());
+        assertEquals(399, product.terms());
+        for (int i = 0; i < product.terms(); i++) {
+            assertTrue(product.coefficient(i) > 0);
+            assertEquals(heap.coefficient(i), product.coefficient(i), heap.coefficient(i) * 1e-9);
+        }
+        assertTrue(SparsePolynomial.of(product.toExpression()).terms() > 0);
+    }
+
+    private static Map<String, Integer> exponents(Object... pairs) {
+        Map<String, Integer> exponents = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            exponents.put((String)pairs[i], (Integer)pairs[i + 1]);
+        }
+        return exponents;
+    }
+}
@@ -0,0 +1,158 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for SubtreeIndex.
+ */
+public class SubtreeIndexTest {
+
+    // Testing strategy
+    //
+    // add(), size(), fingerprints()
+    // empty index, one expression, expressions sharing subtrees, shared subexpression objects
+    //
+    // containing()
+    // subtree of no, one, every expression; whole expression; operands swapped;
+    // prefix of a power, power found as a chain and chain as a power, derivative;
+    // compared to a brute force search over a generated corpus; variable names with equal String hash codes
+    //
+    // containingAll()
+    // subtrees in the same and in different expressions, no subexpressions
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Covers empty index, one expression, expressions sharing subtrees,
+    // subtree of no, one, every expression, whole expression, operands swapped
+    @Test
+    public void testContaining() {
+        SubtreeIndex index = new SubtreeIndex();
+        assertEquals(0, index.size());
+        assertArrayEquals(new int[0], index.containing(new Variable("x")));
+
+        assertEquals(0, index.add(Expression.parse("x*y + 2")));
+        assertEquals(1, index.add(Expression.parse("(x*y + 2)*z")));
+        assertEquals(2, index.add(Expression.parse("y*x")));
+
+        assertEquals(3, index.size());
+        assertArrayEquals(new int[] { 0, 1 }, index.containing(Expression.parse("x*y")));
+        assertArrayEquals(new int[] { 2 }, index.containing(Expression.parse("y*x")));
+        assertArrayEquals(new int[] { 0, 1, 2 }, index.containing(new Variable("x")));
+        assertArrayEquals(new int[] { 1 }, index.containing(Expression.parse("(x*y + 2)*z")));
+        assertArrayEquals(new int[] { 0, 1 }, index.containing(new Constant(2.00001)));
+        assertArrayEquals(new int[0], index.containing(new Variable("w")));
+        // x, y, 2, z, x*y, x*y + 2, (x*y + 2)*z, y*x
+        assertEquals(8, index.fingerprints());
+    }
+
+    // Covers shared subexpression objects, prefix of a power, power found as a chain and chain
+    // as a power, derivative
+    @Test
+    public void testPowersAndSharing() {
+        Variable x = new Variable("x");
+        Expression shared = Expression.parse("x + 1");
+        SubtreeIndex index = new SubtreeIndex();
+        index.add(new Multiplication(shared, new Multiplication(shared, shared)));
+        index.add(new Power(x, 5));
+        index.add(Expression.parse("x*x*y"));
+        index.add(Expression.derivative(Expression.parse("x*x*x*y"), x));
+
+        assertArrayEquals(new int[] { 0 }, index.containing(Expression.parse("(x + 1)*(x + 1)")));
+        assertArrayEquals(new int[] { 1, 2, 3 }, index.containing(new Multiplication(x, x)));
+        assertArrayEquals(new int[] { 1 }, index.containing(new Multiplication(new Multiplication(x, x), x)));
+        assertArrayEquals(new int[] { 1 }, index.containing(new Power(x, 4)));
+        assertEquals(SubtreeIndex.fingerprint(new Power(x, 4)),
+                SubtreeIndex.fingerprint(new Multiplication(new Power(x, 3), x)));
+        assertArrayEquals(new int[] { 3 }, index.containing(Expression.parse("x*x*x*y").differentiate(x)));
+        assertArrayEquals(new int[] { 3 }, index.containing(Expression.derivative(Expression.parse("x*x*x*y"), x)));
+    }
+
+    // Covers subtrees in the same and in different expressions, no subexpressions
+    @Test
+    public void testContainingAll() {
+        SubtreeIndex index = new SubtreeIndex();
+        index.add(Expression.parse("x*y + z"));
+        index.add(Expression.parse("x + z"));
+        index.add(Expression.parse("x*y"));
+
+        assertArrayEquals(new int[] { 0, 1 }, index.containingAll(Arrays.asList(new Variable("x"), new Variable("z"))));
+        assertArrayEquals(new int[] { 0 }, index.containingAll(Arrays.asList(Expression.parse("x*y"), new Variable("z"))));
+        assertArrayEquals(new int[0], index.containingAll(Arrays.asList(Expression.parse("x + z"), Expression.parse("x*y"))));
+        try {
+            index.containingAll(Collections.emptyList());
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    // Covers variable names with equal String hash codes
+    @Test
+    public void testEqualHashCodes() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        SubtreeIndex index = new SubtreeIndex();
+        index.add(Expression.parse("BB*x + 1"));
+
+        assertNotEquals(SubtreeIndex.fingerprint(Expression.parse("Aa")), SubtreeIndex.fingerprint(Expression.parse("BB")));
+        assertTrue(index.containing(Expression.parse("Aa*x")).length == 0);
+        assertTrue(index.containing(Expression.parse("Aa")).length == 0);
+        assertEquals(1, index.containing(Expression.parse("BB")).length);
+    }
+
+    // Covers compared to a brute force search over a generated corpus
+    @Test
+    public void testSameAsBruteForce() {
+        List<Expression> corpus = new ExpressionGenerator(7).withSize(10).withVariables(3).corpus(300);
+        SubtreeIndex index = new SubtreeIndex();
+        List<List<Expression>> subtrees = new ArrayList<>();
+        for (Expression expression : corpus) {
+            index.add(expression);
+            List<Expression> nodes = new ArrayList<>();
+            subtrees(expression, nodes);
+            subtrees.add(nodes);
+        }
+        assertTrue(index.postingBytes() < 4 * index.fingerprints() + 2 * corpus.size() * 10);
+
+        for (int query = 0; query < corpus.size(); query += 5) {
+            for (Expression subexpression : subtrees.get(query)) {
+                List<Integer> expected = new ArrayList<>();
+                for (int id = 0; id < corpus.size(); id++) {
+                    if (subtrees.get(id).contains(subexpression)) {
+                        expected.add(id);
+                    }
+                }
+                int[] actual = index.containing(subexpression);
+                assertEquals(subexpression.toString(), expected.size(), actual.length);
+                for (int i = 0; i < actual.length; i++) {
+                    assertEquals((int)expected.get(i), actual[i]);
+                }
+            }
+        }
+    }
+
+    // Adds every subtree of expression to nodes, with powers as chains of multiplications.
+    private static void subtrees(Expression expression, List<Expression> nodes) {
+        nodes.add(expression);
+        if (expression instanceof Power) {
+            subtrees(((Power)expression).toProduct(), nodes);
+        }
+        else if (expression instanceof Plus) {
+            subtrees(((Plus)expression).leftTerm, nodes);
+            subtrees(((Plus)expression).rightTerm, nodes);
+        }
+        else if (expression instanceof Multiplication) {
+            subtrees(((Multiplication)expression).leftTerm, nodes);
+            subtrees(((Multiplication)expression).rightTerm, nodes);
+        }
+    }
+}
@@ -6,7 +6,9 @@ package minesweeper;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
 
 import lib6005.parser.*;
@@ -14,69 +16,79 @@ import lib6005.parser.*;
 /**
  * A mutable data type, not thread safe.
  * Represents a board in a game of minesweeper.
+ * The tiles are kept in bit planes, one bit per tile and 64 tiles of a row per long, 
+ * with the amounts of neighbor bombs in one byte per tile, so large boards fit in memory.
+ * The text of the board is kept rendered and every operation re-renders only the tiles 
+ * it changes, so toString() doesn't build the text tile by tile.
  */
 public class Board {   
     // rep
-    private final Tile[][] tiles;
     public int rows;
     public int columns;
+    /** Longs per row in a bit plane. */
+    private int stride;
+    /** Bit plane of the tiles with a bomb. */
+    private long[] bombs;
+    /** Bit plane of the dug tiles. */
+    private long[] dug;
+    /** Bit plane of the flagged tiles. */
+    private long[] flagged;
+    /** Bit plane of the tiles whose character changed at least once. */
+    private long[] touched;
+    /** Amount of neighbor tiles with a bomb for tile (x, y) at neighbors[y*columns + x]. */
+    private byte[] neighbors;
+    /** Text of the board, rows separated by newlines. */
+    private byte[] text;
+    /** The text as a string, null if a tile changed since it was made. */
+    private String cached;
+    /** Number of tile changes since the board was made. */
+    private long version;
+    /** Version of the last change of a tile in each long of the bit planes, 0 if never changed. */
+    private long[] wordVersions;
+    /** Tile y*columns + x that changed at version v at log[v % LOG], for the last LOG versions. */
+    private final int[] log = new int[LOG];
+    /** Oldest version from which the log has every change. */
+    private long horizon;
+    
+    /** Changes kept in the log, a power of 2. */
+    private static final int LOG = 1 << 16;
     
     private enum BoardGrammar { FILE, BOARD, LINE, VAL, X, Y, SPACE, NEWLINE, INT }
     
     // Rep invariant:
-    //  Elements in tiles can't be null.
+    //  bombs, dug, flagged and touched have rows*stride longs, stride = ceil(columns / 64), 
+    //  and no bits for columns >= columns.
+    //  No tile is both dug and flagged.
+    //  text[y*(2*columns) + 2*x] is the character of tile (x, y), the other bytes of a row are 
+    //  spaces; rows are separated by newlines.
+    //  cached is null or new String(text).
+    //  0 <= wordVersions[i] <= version, horizon <= version
     // Abstraction function:
-    //  Represents a Minesweeper board with tiles as its tiles, 
-    //  where the inner arrays represent rows on the board and
-    //  with size tiles.length by tiles[0].length.
+    //  Represents a Minesweeper board of columns by rows tiles, where tile (x, y)
+    //  is bit x % 64 of long y*stride + x/64 in the bit planes: the tile contains a bomb
+    //  if its bit is set in bombs, it is dug or flagged if its bit is set in dug or flagged
+    //  and untouched otherwise; it has neighbors[y*columns + x] neighbor tiles with a bomb.
     // Safety from rep exposure:
-    //  All fields are private and final.
+    //  All fields except rows and columns are private and never returned.
     
     public Board(int width, int height) {
-        this.tiles = new Tile[height][width];
         this.rows = height;
         this.columns = width;
-        for (int i = 0; i < tiles.length; i++) {
-            for (int j = 0; j < tiles[0].length; j++) {
-                tiles[i][j] = new Tile(Math.random() > 0.25);
-            }
-        }
-        // add amount of neighbor bombs to tiles
-        for (int i = 0; i < tiles.length; i++) {
-            for (int j = 0; j < tiles[0].length; j++) {
-                if (tiles[i][j].hasBomb()) {
-                    if (i > 0) {
-                        if (j > 0) {
-                            tiles[i-1][j-1].addNeighbor();
-                        }
-                        if (j < tiles[0].length-1) {
-                            tiles[i-1][j+1].addNeighbor();
-                        }
-                        tiles[i-1][j].addNeighbor();
-                    }
-                    if (i < tiles.length-1) {
-                        if (j > 0) {
-                            tiles[i+1][j-1].addNeighbor();
-                        }
-                        if (j < tiles[0].length-1) {
-                            tiles[i+1][j+1].addNeighbor();
-                        }
-                        tiles[i+1][j].addNeighbor();
-                    }
-                    if (j > 0) {
-                        tiles[i][j-1].addNeighbor();
-                    }
-                    if (j < tiles[0].length-1) {
-                        tiles[i][j+1].addNeighbor();
-                    }
+        this.stride = (width + 63) >>> 6;
+        this.bombs = new long[height * stride];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                if (Math.random() > 0.25) {
+                    bombs[i*stride + (j >>> 6)] |= 1L << j;
                 }
             }
         }
+        init();
         checkRep();
     }
     
     public Board(File file) {
-        Tile[][] tilesCopy = null;
+        long[] bombsCopy = null;
         try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
             // construct board
             Parser<BoardGrammar> parser = GrammarCompiler.compile(new File("Board.g"), BoardGrammar.FILE);
@@ -84,42 +96,14 @@ public class Board {
             List<ParseTree<BoardGrammar>> size = tree.children().get(0).children();
             columns = Integer.parseInt(size.get(0).children().get(0).getContents());
             rows = Integer.parseInt(size.get(2).children().get(0).getContents());
-            tilesCopy = new Tile[rows][columns];
+            stride = (columns + 63) >>> 6;
+            bombsCopy = new long[rows * stride];
             List<ParseTree<BoardGrammar>> lines = tree.children();
-            for (int i = 0; i < tilesCopy.length; i++) {
+            for (int i = 0; i < rows; i++) {
                 List<ParseTree<BoardGrammar>> line = lines.get(i+1).childrenByName(BoardGrammar.VAL);
-                for (int j = 0; j < tilesCopy[0].length; j++) {
-                    tilesCopy[i][j] = new Tile(Integer.parseInt(line.get(j).getContents()) == 1);
-                }
-            }
-            // add amount of neighbor bombs to tilesCopy
-            for (int i = 0; i < tilesCopy.length; i++) {
-                for (int j = 0; j < tilesCopy[0].length; j++) {
-                    if (tilesCopy[i][j].hasBomb()) {
-                        if (i > 0) {
-                            if (j > 0) {
-                                tilesCopy[i-1][j-1].addNeighbor();
-                            }
-                            if (j < tilesCopy[0].length-1) {
-                                tilesCopy[i-1][j+1].addNeighbor();
-                            }
-                            tilesCopy[i-1][j].addNeighbor();
-                        }
-                        if (i < tilesCopy.length-1) {
-                            if (j > 0) {
-                                tilesCopy[i+1][j-1].addNeighbor();
-                            }
-                            if (j < tilesCopy[0].length-1) {
-                                tilesCopy[i+1][j+1].addNeighbor();
-                            }
-                            tilesCopy[i+1][j].addNeighbor();
-                        }
-                        if (j > 0) {
-                            tilesCopy[i][j-1].addNeighbor();
-                        }
-                        if (j < tilesCopy[0].length-1) {
-                            tilesCopy[i][j+1].addNeighbor();
-                        }
+                for (int j = 0; j < columns; j++) {
+                    if (Integer.parseInt(line.get(j).getContents()) == 1) {
+                        bombsCopy[i*stride + (j >>> 6)] |= 1L << j;
                     }
                 }
             }
@@ -131,19 +115,173 @@ public class Board {
             ie.printStackTrace();
         }
         finally {
-            tiles = tilesCopy;
+            bombs = bombsCopy;
+        }
+        if (bombs != null) {
+            init();
+            checkRep();
         }
     }
     
     // Checks rep invariant of Board
     private void checkRep() {
-        for (Tile[] row : tiles) {
-            for (Tile tile : row) {
-                assert tile != null;
+        assert stride == (columns + 63) >>> 6;
+        assert bombs.length == rows * stride && dug.length == rows * stride;
+        assert neighbors.length == rows * columns;
+        for (int i = 0; i < dug.length; i++) {
+            assert (dug[i] & flagged[i]) == 0;
+            assert (touched[i] & ~validBits(i % stride)) == 0;
+        }
+        assert horizon <= version;
+    }
+    
+    /*
+     * Makes the untouched board with the bombs in bombs: counts the neighbor bombs and renders the text.
+     */
+    private void init() {
+        dug = new long[rows * stride];
+        flagged = new long[rows * stride];
+        touched = new long[rows * stride];
+        wordVersions = new long[rows * stride];
+        neighbors = new byte[rows * columns];
+        countNeighbors();
+        renderAll();
+    }
+    
+    /*
+     * @param w - index of a long in a row of a bit plane, 0 <= w < stride
+     * @return the bits of long w that are tiles of the row
+     */
+    private long validBits(int w) {
+        int tiles = columns - (w << 6);
+        return tiles >= 64 ? -1L : (1L << tiles) - 1;
+    }
+    
+    /*
+     * Adds the amount of neighbor tiles with a bomb to neighbors, for every tile.
+     * Counts 64 tiles at once: the eight neighbor planes of a long are summed in 
+     * bit-sliced counters, one long per bit of the sum.
+     */
+    private void countNeighbors() {
+        long[] sum = new long[4];
+        for (int y = 0; y < rows; y++) {
+            for (int w = 0; w < stride; w++) {
+                Arrays.fill(sum, 0);
+                for (int row = Math.max(0, y-1); row <= Math.min(rows-1, y+1); row++) {
+                    int i = row*stride + w;
+                    long west = (bombs[i] << 1) | (w > 0 ? bombs[i-1] >>> 63 : 0);
+                    long east = (bombs[i] >>> 1) | (w < stride-1 ? bombs[i+1] << 63 : 0);
+                    add(sum, west);
+                    add(sum, east);
+                    if (row != y) {
+                        add(sum, bombs[i]);
+                    }
+                }
+                long counted = (sum[0] | sum[1] | sum[2] | sum[3]) & validBits(w);
+                while (counted != 0) {
+                    int b = Long.numberOfTrailingZeros(counted);
+                    counted &= counted - 1;
+                    int count = (int)((sum[0] >>> b) & 1) | (int)((sum[1] >>> b) & 1) << 1
+                            | (int)((sum[2] >>> b) & 1) << 2 | (int)((sum[3] >>> b) & 1) << 3;
+                    neighbors[y*columns + (w << 6) + b] += count;
+                }
             }
         }
     }
     
+    /*
+     * Adds one bit per tile to bit-sliced counters.
+     * @param sum - counters, sum[k] holds bit k of the counts; the counts must stay below 16
+     * @param bits - bits to add
+     */
+    private static void add(long[] sum, long bits) {
+        long carry = bits;
+        for (int k = 0; k < sum.length && carry != 0; k++) {
+            long next = sum[k] & carry;
+            sum[k] ^= carry;
+            carry = next;
+        }
+    }
+    
+    /*
+     * Renders every tile into a new text. If the board had a text, every tile counts as changed.
+     */
+    private void renderAll() {
+        int width = Math.max(0, 2 * columns - 1);
+        if (text != null) {
+            version++;
+            horizon = version;
+            Arrays.fill(wordVersions, version);
+            for (int i = 0; i < touched.length; i++) {
+                touched[i] = validBits(i % stride);
+            }
+        }
+        text = new byte[Math.max(0, rows * (width + 1) - 1)];
+        cached = null;
+        Arrays.fill(text, (byte)' ');
+        for (int y = 0; y < rows; y++) {
+            for (int w = 0; w < stride; w++) {
+                int i = y*stride + w;
+                boolean untouched = (dug[i] | flagged[i]) == 0;
+                for (int x = w << 6; x < Math.min(columns, (w + 1) << 6); x++) {
+                    text[y * (width + 1) + 2*x] = untouched ? (byte)'-' : character(x, y);
+                }
+            }
+            if (y < rows-1) {
+                text[y * (width + 1) + width] = '\n';
+            }
+        }
+    }
+    
+    /*
+     * Re-renders tile (x, y) after it may have changed.
+     * @param x, y - coordinates of a tile (row, column)
+     * x and y must be valid coordinates on the board.
+     */
+    private void render(int x, int y) {
+        byte character = character(x, y);
+        int position = 2 * (y*columns + x);
+        if (text[position] != character) {
+            text[position] = character;
+            cached = null;
+            version++;
+            int i = y*stride + (x >>> 6);
+            touched[i] |= 1L << x;
+            wordVersions[i] = version;
+            log[(int)(version & (LOG - 1))] = y*columns + x;
+        }
+    }
+    
+    /*
+     * @param x, y - coordinates of a tile (row, column)
+     * x and y must be valid coordinates on the board.
+     * @return the character of the tile in the text of the board: '-' if untouched, 'F' if flagged,
+     * ' ' if dug without neighbor bombs, else the number of neighbor bombs.
+     */
+    private byte character(int x, int y) {
+        int i = y*stride + (x >>> 6);
+        if ((flagged[i] & 1L << x) != 0) {
+            return 'F';
+        }
+        else if ((dug[i] & 1L << x) == 0) {
+            return '-';
+        }
+        int count = neighbors[y*columns + x];
+        return count == 0 ? (byte)' ' : (byte)('0' + count);
+    }
+    
+    /*
+     * @param x, y - coordinates of a tile (row, column)
+     * @return true if (x, y) is a tile on the board that is untouched
+     */
+    private boolean isUntouched(int x, int y) {
+        if (x < 0 || y < 0 || x >= columns || y >= rows) {
+            return false;
+        }
+        int i = y*stride + (x >>> 6);
+        return ((dug[i] | flagged[i]) & 1L << x) == 0;
+    }
+    
     /*    
      * Digs untouched tile with x, y coordinates. Changes the state of the tile to 'dug'.
      * If the tile contains a bomb, remove the bomb from the tile and
@@ -156,18 +294,18 @@ public class Board {
      * if the there is no untouched tile at coordinates x, y.
      */      
     public boolean dig(int x, int y) {
-        if (x < 0 || y < 0 || x >= tiles[0].length || y >= tiles.length || !(tiles[y][x].getState().equals(Tile.State.UNTOUCHED))) {
+        if (!isUntouched(x, y)) {
             return false;
         }
-        boolean hasBomb = false;
-        Tile tile = tiles[y][x];
-        tile.setState(Tile.State.DUG);
-        if (tile.hasBomb()) {
-            hasBomb = true;
-            tile.removeBomb();
+        int i = y*stride + (x >>> 6);
+        boolean hasBomb = (bombs[i] & 1L << x) != 0;
+        dug[i] |= 1L << x;
+        if (hasBomb) {
+            bombs[i] &= ~(1L << x);
             updateNeighbors(x, y);
         } 
-        if (tile.getNeighbors() == 0) {
+        render(x, y);
+        if (neighbors[y*columns + x] == 0) {
             digNeighbors(x, y);
         }
         return hasBomb;
@@ -176,73 +314,50 @@ public class Board {
     /*    
      * Update neighbors after bomb is removed from the tile (x, y), helper function for dig().
      * @param x, y - coordinates of a tile (row, column)
-     * x and y must be valid coordinates in tiles.
+     * x and y must be valid coordinates on the board.
      */      
     private void updateNeighbors(int x, int y) {
-        if (y > 0) {
-            if (x > 0) {
-                tiles[y-1][x-1].removeNeighbor();
-            }
-            if (x < tiles[0].length-1) {
-                tiles[y-1][x+1].removeNeighbor();
+        for (int i = Math.max(0, y-1); i <= Math.min(rows-1, y+1); i++) {
+            for (int j = Math.max(0, x-1); j <= Math.min(columns-1, x+1); j++) {
+                if (i != y || j != x) {
+                    neighbors[i*columns + j] -= 1;
+                }
             }
-            tiles[y-1][x].removeNeighbor();
         }
-        if (y < tiles.length-1) {
-            if (x > 0) {
-                tiles[y+1][x-1].removeNeighbor();
-            }
-            if (x < tiles[0].length-1) {
-                tiles[y+1][x+1].removeNeighbor();
+        // dug neighbors show the new count
+        for (int i = Math.max(0, y-1); i <= Math.min(rows-1, y+1); i++) {
+            for (int j = Math.max(0, x-1); j <= Math.min(columns-1, x+1); j++) {
+                render(j, i);
             }
-            tiles[y+1][x].removeNeighbor();
-        }
-        if (x > 0) {
-            tiles[y][x-1].removeNeighbor();
-        }
-        if (x < tiles[0].length-1) {
-            tiles[y][x+1].removeNeighbor();
         }
     }
     
     /*    
      * Dig neighbor tiles for tile (x, y), helper function for dig().
+     * Keeps the tiles still to visit on a stack rather than recursing, 
+     * so digging a large empty area can't overflow the call stack.
      * @param x, y - coordinates of a tile (row, column)
-     * x and y must be valid coordinates in tiles.
+     * x and y must be valid coordinates on the board.
      */      
     private void digNeighbors(int x, int y) {
-        Tile[] neighbors = new Tile[9];
-        if (y > 0) {
-            if (x > 0) {
-                neighbors[0] = tiles[y-1][x-1];
-            }
-            if (x < tiles[0].length-1) {
-                neighbors[2] = tiles[y-1][x+1];
-            }
-            neighbors[1] = tiles[y-1][x];
-        }
-        if (y < tiles.length-1) {
-            if (x > 0) {
-                neighbors[6] = tiles[y+1][x-1];
-            }
-            if (x < tiles[0].length-1) {
-                neighbors[8] = tiles[y+1][x+1];
-            }
-            neighbors[7] = tiles[y+1][x];
-        }
-        if (x > 0) {
-            neighbors[3] =  tiles[y][x-1];
-        }
-        if (x < tiles[0].length-1) {
-            neighbors[5] = tiles[y][x+1];
-        }
-        for (int i = 0; i < neighbors.length; i++) {
-            Tile tile = neighbors[i];
-            if (tile != null) {
-                if (tile.getState() == Tile.State.UNTOUCHED) {
-                    tile.setState(Tile.State.DUG);
-                    if (tile.getNeighbors() == 0) {
-                        digNeighbors(x-1+(i%3), y-1+(i/3));
+        int[] stack = new int[16];
+        int size = 0;
+        stack[size++] = y*columns + x;
+        while (size > 0) {
+            int tile = stack[--size];
+            int tileX = tile % columns;
+            int tileY = tile / columns;
+            for (int i = Math.max(0, tileY-1); i <= Math.min(rows-1, tileY+1); i++) {
+                for (int j = Math.max(0, tileX-1); j <= Math.min(columns-1, tileX+1); j++) {
+                    if (isUntouched(j, i)) {
+                        dug[i*stride + (j >>> 6)] |= 1L << j;
+                        render(j, i);
+                        if (neighbors[i*columns + j] == 0) {
+                            if (size == stack.length) {
+                                stack = Arrays.copyOf(stack, 2 * size);
+                            }
+                            stack[size++] = i*columns + j;
+                        }
                     }
                 }
             }
@@ -255,8 +370,9 @@ public class Board {
      * Does nothing if there is no untouched tile at coordinates x, y.
      */      
     public void flag(int x, int y) {
-        if (!(x < 0 || y < 0 || y >= tiles.length || x >= tiles[0].length) && tiles[y][x].getState().equals(Tile.State.UNTOUCHED)) {
-            tiles[y][x].setState(Tile.State.FLAGGED);
+        if (isUntouched(x, y)) {
+            flagged[y*stride + (x >>> 6)] |= 1L << x;
+            render(x, y);
         }   
     }
     
@@ -266,42 +382,78 @@ public class Board {
      * Does nothing if there is no flagged tile at coordinates x, y.
      */      
     public void deflag(int x, int y) {
-        if (!(x < 0 || y < 0 || y >= tiles.length || x >= tiles[0].length) && tiles[y][x].getState().equals(Tile.State.FLAGGED)) {
-            tiles[y][x].setState(Tile.State.UNTOUCHED);
+        if (!(x < 0 || y < 0 || y >= rows || x >= columns) && (flagged[y*stride + (x >>> 6)] & 1L << x) != 0) {
+            flagged[y*stride + (x >>> 6)] &= ~(1L << x);
+            render(x, y);
         }
     }
 
     @Override
     public String toString() {
-        String stringView = "";
-        
-        for (int i = 0; i < tiles.length; i++) {
-            for (int j = 0; j < tiles[0].length; j++) {
-                if (tiles[i][j].getState() == Tile.State.UNTOUCHED) {
-                    stringView += "-";
+        if (cached == null) {
+            cached = new String(text, StandardCharsets.US_ASCII);
+        }
+        checkRep();
+        return cached;
+    }
+    
+    /*
+     * @return the version of the board, the number of tile changes since it was made;
+     * a board that was just made, with all tiles untouched, has version 0
+     */
+    public long version() {
+        return version;
+    }
+    
+    /*
+     * Lists the tiles that changed after the board had the given version.
+     * @param since - a version of this board, 0 <= since <= version()
+     * @return one line "x y c" for every tile that changed after version since, in row order,
+     * where c is the character of the tile as it appears in toString(); the lines are separated
+     * by newlines and the string is empty if no tile changed. If since is more than 65536 changes
+     * ago, the list may also have tiles that changed before since and are near a changed tile.
+     * @throws IllegalArgumentException if since is not a version of this board
+     */
+    public String changesSince(long since) {
+        if (since < 0 || since > version) {
+            throw new IllegalArgumentException("no version " + since + " of this board");
+        }
+        StringBuilder changes = new StringBuilder();
+        if (since >= horizon && version - since <= LOG) {
+            int[] changed = new int[(int)(version - since)];
+            for (int k = 0; k < changed.length; k++) {
+                changed[k] = log[(int)((since + 1 + k) & (LOG - 1))];
+            }
+            Arrays.sort(changed);
+            for (int k = 0; k < changed.length; k++) {
+                if (k == 0 || changed[k] != changed[k-1]) {
+                    appendChange(changes, changed[k] % columns, changed[k] / columns);
                 }
-                else if (tiles[i][j].getState() == Tile.State.DUG) {
-                    int number_of_bombs = tiles[i][j].getNeighbors();
-                    if (number_of_bombs == 0) {
-                        stringView += " ";
-                    }
-                    else {
-                        stringView += String.valueOf(number_of_bombs);
+            }
+        }
+        else {
+            // the log doesn't go back far enough: list the touched tiles of the longs changed since
+            for (int i = 0; i < wordVersions.length; i++) {
+                if (wordVersions[i] > since) {
+                    for (long bits = touched[i]; bits != 0; bits &= bits - 1) {
+                        appendChange(changes, ((i % stride) << 6) + Long.numberOfTrailingZeros(bits), i / stride);
                     }
                 }
-                else {
-                    stringView += "F";
-                }
-                if (j < tiles[0].length-1) {
-                    stringView += " ";
-                }
             }
-            if (i < tiles.length-1) {
-                stringView += "\n";
-            } 
         }
-        checkRep();
-        return stringView;
+        return changes.toString();
+    }
+    
+    /*
+     * Appends the line "x y c" of changesSince() for tile (x, y).
+     * @param changes - lines so far
+     * @param x, y - coordinates of a tile (row, column)
+     */
+    private void appendChange(StringBuilder changes, int x, int y) {
+        if (changes.length() > 0) {
+            changes.append('\n');
+        }
+        changes.append(x).append(' ').append(y).append(' ').append((char)text[2 * (y*columns + x)]);
     }
     
     /*  
@@ -312,7 +464,7 @@ public class Board {
      * the tile must be untouched.
      */     
     protected void add_bomb(int x, int y) {
-        tiles[y][x].add_bomb();
+        bombs[y*stride + (x >>> 6)] |= 1L << x;
     }
     
     /*  
@@ -320,35 +472,7 @@ public class Board {
      * Add amount of neighbor bombs to tiles, called after adding all bombs.
      */     
     protected void updateNeighbors() {
-        for (int i = 0; i < tiles.length; i++) {
-            for (int j = 0; j < tiles[0].length; j++) {
-                if (tiles[i][j].hasBomb()) {
-                    if (i > 0) {
-                        if (j > 0) {
-                            tiles[i-1][j-1].addNeighbor();
-                        }
-                        if (j < tiles[0].length-1) {
-                            tiles[i-1][j+1].addNeighbor();
-                        }
-                        tiles[i-1][j].addNeighbor();
-                    }
-                    if (i < tiles.length-1) {
-                        if (j > 0) {
-                            tiles[i+1][j-1].addNeighbor();
-                        }
-                        if (j < tiles[0].length-1) {
-                            tiles[i+1][j+1].addNeighbor();
-                        }
-                        tiles[i+1][j].addNeighbor();
-                    }
-                    if (j > 0) {
-                        tiles[i][j-1].addNeighbor();
-                    }
-                    if (j < tiles[0].length-1) {
-                        tiles[i][j+1].addNeighbor();
-                    }
-                }
-            }
-        }
+        countNeighbors();
+        renderAll();
     }
 }
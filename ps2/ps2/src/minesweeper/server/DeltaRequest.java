@@ -0,0 +1,31 @@
+package minesweeper.server;
+
+/**
+ * An immutable data type.
+ * Represents a request for the tiles that changed since version 'version' of the board,
+ * requested by the client with id 'id'.
+ */
+public class DeltaRequest implements RequestMessage {
+    private final Message action = RequestMessage.Message.DELTA;
+    private final long version;
+    private final int id;
+    
+    public DeltaRequest(long version, int id) {
+        this.version = version;
+        this.id = id;
+    }
+    
+    @Override
+    public Message getMessage() {
+        return action;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    @Override
+    public int getId() {
+        return id;
+    }
+}
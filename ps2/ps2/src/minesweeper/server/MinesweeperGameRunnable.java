@@ -72,6 +72,9 @@ public class MinesweeperGameRunnable implements Runnable {
             if (request.getMessage().equals(RequestMessage.Message.LOOK)) {
                 reply = new BoardReply(board.toString());
             }
+            else if (request.getMessage().equals(RequestMessage.Message.DELTA)) {
+                reply = new BoardReply(delta(((DeltaRequest)request).getVersion()));
+            }
             else if (request.getMessage().equals(RequestMessage.Message.DIG)) {  
                 BoardRequest boardRequest = (BoardRequest)request;
                 if (board.dig(boardRequest.getX(), boardRequest.getY())) {
@@ -99,4 +102,28 @@ public class MinesweeperGameRunnable implements Runnable {
             }
         }
     }
+    
+    /**
+     * Describes the tiles that changed since a version of the board the client has seen.
+     * 
+     * @param since version of the board the client has seen, from an earlier delta reply,
+     *              or 0 if it only knows the untouched board
+     * @return "unchanged" if the board is still at version since, else a line "version V" with 
+     *         the current version V followed by a line "x y c" for every changed tile, 
+     *         where c is the character of the tile as in a look reply; a version the board
+     *         never had is answered as if it were 0
+     */
+    private String delta(long since) {
+        if (since == board.version()) {
+            return "unchanged";
+        }
+        if (since < 0 || since > board.version()) {
+            since = 0;
+        }
+        String changes = board.changesSince(since);
+        if (changes.isEmpty()) {
+            return "version " + board.version();
+        }
+        return "version " + board.version() + "\n" + changes;
+    }
 }
@@ -71,7 +71,7 @@ public class MinesweeperRunnable implements Runnable {
      * @return message to client, or "no message" if none
      */
     private String handleRequest(String input) throws InterruptedException {
-        String regex = "(look)|(help)|(bye)|"
+        String regex = "(look)|(delta \\d+)|(help)|(bye)|"
                      + "(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|(deflag -?\\d+ -?\\d+)";
         if ( ! input.matches(regex)) {
             return "no message";
@@ -81,8 +81,20 @@ public class MinesweeperRunnable implements Runnable {
             requests.put(new LookRequest(id));
             return getReply();
         } 
+        else if (tokens[0].equals("delta")) {
+            long version;
+            try {
+                version = Long.parseLong(tokens[1]);
+            }
+            catch (NumberFormatException nfe) {
+                version = 0; // more digits than any version
+            }
+            requests.put(new DeltaRequest(version, id));
+            return getReply();
+        }
         else if (tokens[0].equals("help")) {
             return "You can send look, dig, flag, deflag commands to interact with the board; "
+                    + "a delta N command to get only the tiles changed since version N of the board; "
                     + "a help command to get a help message or a bye command to terminate the connection.";
         } 
         else if (tokens[0].equals("bye")) {
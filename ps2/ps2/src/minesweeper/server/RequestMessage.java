@@ -5,7 +5,7 @@ package minesweeper.server;
  * Represents a request to perform some operation.
  */
 public interface RequestMessage {
-    public static enum Message { DIG, FLAG, DEFLAG, LOOK, BYE, NEWPLAYER };
+    public static enum Message { DIG, FLAG, DEFLAG, LOOK, DELTA, BYE, NEWPLAYER };
     
     /**
      * @return type of message
@@ -4,10 +4,16 @@
 package minesweeper;
 
 import org.junit.*;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.assertFalse;
 
@@ -26,10 +32,21 @@ public class BoardTest {
     // x, y - valid arguments
     //
     // toString()
-    // this - board in various states, called after dig() with bomb (changes neighbors)
+    // this - board in various states, called after dig() with bomb (changes neighbors),
+    //        called again after each change
+    //
+    // version(), changesSince()
+    // this - untouched board, after flag() and deflag(), after dig() with bomb (changes neighbors)
+    // since - 0, current version, earlier version, invalid version, more changes ago than are logged
+    //
+    // all operations
+    // this - board wider than 64 columns, compared with a tile by tile model of the board
     
     Board board;
     
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
     @Before 
     public void initialise() {
         this.board = new Board(new File("board_file2.txt"));
@@ -99,4 +116,224 @@ public class BoardTest {
                      "- - - - -\n" + 
                      "- - - - -", this.board.toString());
     }
+    
+    // Covers toString - called again after each change
+    @Test
+    public void test_toString_repeated() {
+        String untouched = this.board.toString();
+        assertEquals(untouched, this.board.toString());
+        this.board.flag(4, 4);
+        assertEquals("- - - - -\n" + 
+                     "- - - - -\n" +
+                     "- - - - -\n" +
+                     "- - - - -\n" + 
+                     "- - - - F", this.board.toString());
+        this.board.dig(0, 4);
+        assertEquals("- 1      \n" + 
+                     "1 1      \n" +
+                     "         \n" +
+                     "      1 1\n" + 
+                     "      1 F", this.board.toString());
+        // the dug neighbors of the bomb show one less
+        this.board.dig(0, 0);
+        assertEquals("         \n" + 
+                     "         \n" +
+                     "         \n" +
+                     "      1 1\n" + 
+                     "      1 F", this.board.toString());
+    }
+    
+    // Covers changesSince - untouched board, after flag() and deflag(), since 0, current version, 
+    // earlier version
+    @Test
+    public void test_changesSince_flag() {
+        assertEquals(0, this.board.version());
+        assertEquals("", this.board.changesSince(0));
+        this.board.flag(1, 2);
+        long flagged = this.board.version();
+        assertTrue(flagged > 0);
+        assertEquals("1 2 F", this.board.changesSince(0));
+        assertEquals("", this.board.changesSince(flagged));
+        this.board.flag(1, 2);
+        assertEquals(flagged, this.board.version());
+        this.board.deflag(1, 2);
+        assertEquals("1 2 -", this.board.changesSince(flagged));
+        assertEquals("1 2 -", this.board.changesSince(0));
+    }
+    
+    // Covers changesSince - after dig() with bomb, earlier version
+    @Test
+    public void test_changesSince_dig() {
+        this.board.dig(0, 4);
+        long dug = this.board.version();
+        this.board.dig(0, 0);
+        // the bomb's tile and its dug neighbors
+        assertEquals("0 0  \n" + 
+                     "1 0  \n" +
+                     "0 1  \n" +
+                     "1 1  ", this.board.changesSince(dug));
+        String[] all = this.board.changesSince(0).split("\n");
+        assertEquals(24, all.length);
+        assertEquals("4 3 1", all[19]);
+    }
+    
+    // Covers changesSince - invalid version
+    @Test(expected=IllegalArgumentException.class)
+    public void test_changesSince_invalid() {
+        this.board.changesSince(this.board.version() + 1);
+    }
+    
+    // Covers changesSince - more changes ago than are logged
+    @Test
+    public void test_changesSince_old() {
+        this.board.dig(0, 4);
+        long dug = this.board.version();
+        for (int i = 0; i < 40000; i++) {
+            this.board.flag(0, 0);
+            this.board.deflag(0, 0);
+        }
+        this.board.flag(4, 4);
+        // the changed tiles, and maybe other tiles with their current character
+        String[] text = this.board.toString().split("\n");
+        String changes = this.board.changesSince(dug);
+        assertTrue(changes.startsWith("0 0 -\n"));
+        assertTrue(changes.endsWith("\n4 4 F"));
+        for (String change : changes.split("\n")) {
+            String[] fields = change.split(" ", 3);
+            int x = Integer.parseInt(fields[0]);
+            int y = Integer.parseInt(fields[1]);
+            assertEquals(text[y].charAt(2*x), fields[2].charAt(0));
+        }
+        assertEquals("4 4 F", this.board.changesSince(this.board.version() - 1));
+    }
+    
+    // Covers board wider than 64 columns, compared with a tile by tile model of the board
+    @Test
+    public void test_model() throws IOException {
+        Random random = new Random(6005);
+        int columns = 130;
+        int rows = 21;
+        boolean[][] bombs = new boolean[rows][columns];
+        StringBuilder file = new StringBuilder(columns + " " + rows + "\n");
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < columns; x++) {
+                bombs[y][x] = random.nextInt(6) == 0;
+                file.append(bombs[y][x] ? "1" : "0").append(x < columns-1 ? " " : "\n");
+            }
+        }
+        File boardFile = folder.newFile("board.txt");
+        Files.write(boardFile.toPath(), file.toString().getBytes(StandardCharsets.US_ASCII));
+        Board board = new Board(boardFile);
+        
+        char[][] model = new char[rows][columns];
+        for (char[] row : model) {
+            Arrays.fill(row, '-');
+        }
+        long before = 0;
+        for (int step = 0; step < 400; step++) {
+            int x = random.nextInt(columns + 2) - 1;
+            int y = random.nextInt(rows + 2) - 1;
+            int action = random.nextInt(4);
+            char[][] old = copy(model);
+            if (action == 0) {
+                assertEquals(modelDig(model, bombs, x, y), board.dig(x, y));
+            }
+            else if (action == 1 || action == 2) {
+                board.flag(x, y);
+                if (inside(model, x, y) && model[y][x] == '-') {
+                    model[y][x] = 'F';
+                }
+            }
+            else {
+                board.deflag(x, y);
+                if (inside(model, x, y) && model[y][x] == 'F') {
+                    model[y][x] = '-';
+                }
+            }
+            assertEquals(render(model), board.toString());
+            StringBuilder changes = new StringBuilder();
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    if (old[i][j] != model[i][j]) {
+                        changes.append(changes.length() > 0 ? "\n" : "").append(j + " " + i + " " + model[i][j]);
+                    }
+                }
+            }
+            assertEquals(changes.toString(), board.changesSince(before));
+            before = board.version();
+        }
+    }
+    
+    private static boolean inside(char[][] model, int x, int y) {
+        return x >= 0 && y >= 0 && y < model.length && x < model[0].length;
+    }
+    
+    private static int count(boolean[][] bombs, int x, int y) {
+        int count = 0;
+        for (int i = y-1; i <= y+1; i++) {
+            for (int j = x-1; j <= x+1; j++) {
+                if ((i != y || j != x) && i >= 0 && j >= 0 && i < bombs.length && j < bombs[0].length && bombs[i][j]) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    private static char shown(boolean[][] bombs, int x, int y) {
+        int count = count(bombs, x, y);
+        return count == 0 ? ' ' : (char)('0' + count);
+    }
+    
+    private static boolean modelDig(char[][] model, boolean[][] bombs, int x, int y) {
+        if (!inside(model, x, y) || model[y][x] != '-') {
+            return false;
+        }
+        boolean bomb = bombs[y][x];
+        bombs[y][x] = false;
+        model[y][x] = shown(bombs, x, y);
+        for (int i = 0; i < model.length; i++) {
+            for (int j = 0; j < model[0].length; j++) {
+                if (model[i][j] != '-' && model[i][j] != 'F') {
+                    model[i][j] = shown(bombs, j, i);
+                }
+            }
+        }
+        if (model[y][x] == ' ') {
+            modelDigNeighbors(model, bombs, x, y);
+        }
+        return bomb;
+    }
+    
+    private static void modelDigNeighbors(char[][] model, boolean[][] bombs, int x, int y) {
+        for (int i = y-1; i <= y+1; i++) {
+            for (int j = x-1; j <= x+1; j++) {
+                if (inside(model, j, i) && model[i][j] == '-') {
+                    model[i][j] = shown(bombs, j, i);
+                    if (model[i][j] == ' ') {
+                        modelDigNeighbors(model, bombs, j, i);
+                    }
+                }
+            }
+        }
+    }
+    
+    private static char[][] copy(char[][] model) {
+        char[][] copy = new char[model.length][];
+        for (int i = 0; i < model.length; i++) {
+            copy[i] = model[i].clone();
+        }
+        return copy;
+    }
+    
+    private static String render(char[][] model) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < model.length; i++) {
+            for (int j = 0; j < model[0].length; j++) {
+                text.append(model[i][j]).append(j < model[0].length-1 ? " " : "");
+            }
+            text.append(i < model.length-1 ? "\n" : "");
+        }
+        return text.toString();
+    }
 }